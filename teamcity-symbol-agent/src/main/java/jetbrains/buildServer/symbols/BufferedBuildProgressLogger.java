@@ -0,0 +1,97 @@
+
+
+package jetbrains.buildServer.symbols;
+
+import jetbrains.buildServer.agent.BuildProgressLogger;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects build log messages written from a worker thread and replays them to the build log later,
+ * so messages of files processed concurrently do not interleave.
+ *
+ * Only methods without result are buffered, other calls are passed to the target logger immediately.
+ */
+class BufferedBuildProgressLogger implements InvocationHandler {
+
+  private final BuildProgressLogger myTarget;
+  private final BuildProgressLogger myLogger;
+  private final List<Call> myCalls = new ArrayList<>();
+
+  BufferedBuildProgressLogger(@NotNull final BuildProgressLogger target) {
+    myTarget = target;
+    myLogger = (BuildProgressLogger) Proxy.newProxyInstance(
+      BuildProgressLogger.class.getClassLoader(),
+      new Class<?>[]{BuildProgressLogger.class},
+      this);
+  }
+
+  /**
+   * @return the logger which buffers messages until {@link #flush()} is called.
+   */
+  @NotNull
+  BuildProgressLogger getLogger() {
+    return myLogger;
+  }
+
+  /**
+   * Writes buffered messages to the target logger in the order they were logged.
+   */
+  void flush() {
+    final List<Call> calls;
+    synchronized (myCalls) {
+      calls = new ArrayList<>(myCalls);
+      myCalls.clear();
+    }
+    for (Call call : calls) {
+      try {
+        call.myMethod.invoke(myTarget, call.myArgs);
+      } catch (InvocationTargetException e) {
+        throw new RuntimeException(e.getCause());
+      } catch (IllegalAccessException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  @Override
+  public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+    if (method.getDeclaringClass() == Object.class) {
+      switch (method.getName()) {
+        case "equals":
+          return proxy == args[0];
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        default:
+          return "Buffered " + myTarget;
+      }
+    }
+    if (method.getReturnType() != void.class) {
+      try {
+        return method.invoke(myTarget, args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    }
+    synchronized (myCalls) {
+      myCalls.add(new Call(method, args));
+    }
+    return null;
+  }
+
+  private static class Call {
+    private final Method myMethod;
+    private final Object[] myArgs;
+
+    private Call(@NotNull final Method method, final Object[] args) {
+      myMethod = method;
+      myArgs = args;
+    }
+  }
+}
@@ -5,11 +5,13 @@ package jetbrains.buildServer.symbols;
 import jetbrains.buildServer.ExecResult;
 import jetbrains.buildServer.agent.BuildProgressLogger;
 import jetbrains.buildServer.symbols.tools.JetSymbolsExe;
+import jetbrains.buildServer.symbols.tools.PdbMetadataReader;
 import jetbrains.buildServer.symbols.tools.PdbType;
-import jetbrains.buildServer.util.FileUtil;
 import org.apache.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.util.Collection;
@@ -23,15 +25,25 @@ public class PdbFilePatcher {
   private final JetSymbolsExe myJetSymbolsExe;
   private final BuildProgressLogger myProgressLogger;
   private final PdbFilePatcherAdapterFactory myPatcheAdapterFactory;
+  private final PdbIndexingCache myCache;
 
   public PdbFilePatcher(@NotNull final File workingDir,
                         @NotNull final JetSymbolsExe jetSymbolsExe,
                         @NotNull final PdbFilePatcherAdapterFactory patcheAdapterFactory,
                         @NotNull final BuildProgressLogger progressLogger) {
+    this(workingDir, jetSymbolsExe, patcheAdapterFactory, progressLogger, null);
+  }
+
+  public PdbFilePatcher(@NotNull final File workingDir,
+                        @NotNull final JetSymbolsExe jetSymbolsExe,
+                        @NotNull final PdbFilePatcherAdapterFactory patcheAdapterFactory,
+                        @NotNull final BuildProgressLogger progressLogger,
+                        @Nullable final PdbIndexingCache cache) {
     myWorkingDir = workingDir;
     myPatcheAdapterFactory = patcheAdapterFactory;
     myJetSymbolsExe = jetSymbolsExe;
     myProgressLogger = progressLogger;
+    myCache = cache;
   }
 
   /**
@@ -43,10 +55,32 @@ public class PdbFilePatcher {
    * @throws Exception is error has happen during patching process.
    */
   public boolean patch(File symbolsFile) throws Exception {
-    final PdbType pdbType = myJetSymbolsExe.getPdbType(symbolsFile, myProgressLogger);
+    return patch(symbolsFile, null);
+  }
+
+  /**
+   * Executes patching process using indexing cache.
+   *
+   * @param symbolsFile is a source PDB file.
+   * @param contentHash is a content hash of the source PDB file, cache is not used if it is null.
+   * @return true if file was patched, otherwise false.
+   * @throws Exception is error has happen during patching process.
+   */
+  public boolean patch(File symbolsFile, @Nullable String contentHash) throws Exception {
+    final PdbIndexingCache cache = contentHash != null ? myCache : null;
+    final PdbIndexingCache.Entry cacheEntry = cache != null ? cache.getEntry(contentHash) : null;
+    final PdbType pdbType = cacheEntry != null ? cacheEntry.getType() : getPdbType(symbolsFile);
     final PdbFilePatcherAdapter patherAdapter = myPatcheAdapterFactory.create(pdbType);
 
-    final Collection<File> sourceFiles = patherAdapter.getReferencedSourceFiles(symbolsFile);
+    final Collection<File> sourceFiles;
+    if (cacheEntry != null) {
+      sourceFiles = cacheEntry.getSourceFiles();
+    } else {
+      sourceFiles = patherAdapter.getReferencedSourceFiles(symbolsFile);
+      if (cache != null) {
+        cache.putEntry(contentHash, new PdbIndexingCache.Entry(pdbType, sourceFiles, null));
+      }
+    }
     final String symbolsFileCanonicalPath = symbolsFile.getCanonicalPath();
     if (sourceFiles.isEmpty()) {
       final String message = "No source information found in pdb file " + symbolsFileCanonicalPath;
@@ -55,23 +89,30 @@ public class PdbFilePatcher {
       return false;
     }
 
-    final File tmpFile = FileUtil.createTempFile(myWorkingDir, "pdb-", ".patch", false);
-    try {
-      int processedFilesCount = patherAdapter.serializeSourceLinks(tmpFile, sourceFiles);
-      if (processedFilesCount == 0) {
-        myProgressLogger.message(String.format("No local source files were found for pdb file %s. Looks like it was not produced during the current build.", symbolsFileCanonicalPath));
-        return false;
-      } else {
-        myProgressLogger.message(String.format("Information about %d source files will be updated.", processedFilesCount));
-      }
+    final ByteArrayOutputStream sourceLinks = new ByteArrayOutputStream();
+    int processedFilesCount = patherAdapter.serializeSourceLinks(sourceLinks, sourceFiles);
+    if (processedFilesCount == 0) {
+      myProgressLogger.message(String.format("No local source files were found for pdb file %s. Looks like it was not produced during the current build.", symbolsFileCanonicalPath));
+      return false;
+    } else {
+      myProgressLogger.message(String.format("Information about %d source files will be updated.", processedFilesCount));
+    }
 
-      final ExecResult result = patherAdapter.updatePdbSourceLinks(symbolsFile, tmpFile);
-      if (result.getExitCode() != 0) {
-        throw new IOException(String.format("Failed to update symbols file %s: %s", symbolsFile, result.getStderr()));
-      }
-    } finally {
-      FileUtil.delete(tmpFile);
+    final ExecResult result = patherAdapter.updatePdbSourceLinks(symbolsFile, sourceLinks.toByteArray());
+    if (result.getExitCode() != 0) {
+      throw new IOException(String.format("Failed to update symbols file %s: %s", symbolsFile, result.getStderr()));
     }
     return true;
   }
+
+  @NotNull
+  private PdbType getPdbType(@NotNull final File symbolsFile) {
+    try {
+      final PdbType pdbType = PdbMetadataReader.getPdbType(symbolsFile);
+      if (pdbType != PdbType.Undefined) return pdbType;
+    } catch (IOException e) {
+      LOG.debug("Failed to read type of symbols file " + symbolsFile + ": " + e.getMessage());
+    }
+    return myJetSymbolsExe.getPdbType(symbolsFile, myProgressLogger);
+  }
 }
@@ -8,6 +8,7 @@ import jetbrains.buildServer.symbols.tools.PdbStrExe;
 import jetbrains.buildServer.symbols.tools.PdbType;
 import jetbrains.buildServer.symbols.tools.SrcToolExe;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 public class PdbFilePatcherAdapterFactoryImpl implements PdbFilePatcherAdapterFactory {
   private final FileUrlProvider myUrlProvider;
@@ -19,9 +20,9 @@ public class PdbFilePatcherAdapterFactoryImpl implements PdbFilePatcherAdapterFa
   public PdbFilePatcherAdapterFactoryImpl(
     @NotNull final FileUrlProvider urlProvider,
     @NotNull final BuildProgressLogger progressLogger,
-    @NotNull final PdbStrExe pdbStrExe,
+    @Nullable final PdbStrExe pdbStrExe,
     @NotNull  final JetSymbolsExe jetSymbolsExe,
-    @NotNull final SrcToolExe srcToolExe) {
+    @Nullable final SrcToolExe srcToolExe) {
     myUrlProvider = urlProvider;
     myProgressLogger = progressLogger;
     myPdbStrExe = pdbStrExe;
@@ -4,15 +4,22 @@ package jetbrains.buildServer.symbols;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.*;
 import jetbrains.buildServer.ExecResult;
 import jetbrains.buildServer.agent.BuildProgressLogger;
+import jetbrains.buildServer.symbols.tools.PdbNamedStreamWriter;
 import jetbrains.buildServer.symbols.tools.PdbStrExe;
 import jetbrains.buildServer.symbols.tools.PdbStrExeCommands;
 import jetbrains.buildServer.symbols.tools.SrcToolExe;
+import jetbrains.buildServer.util.FileUtil;
+import org.apache.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 public class PdbFilePatcherAdapterImpl implements PdbFilePatcherAdapter {
+  private static final Logger LOG = Logger.getLogger(PdbFilePatcherAdapterImpl.class);
+
   private final SrcSrvStreamBuilder mySrcSrvStreamBuilder;
   private final PdbStrExe myPdbStrExe;
   private final SrcToolExe mySrcToolExe;
@@ -20,8 +27,8 @@ public class PdbFilePatcherAdapterImpl implements PdbFilePatcherAdapter {
 
   public PdbFilePatcherAdapterImpl(
     @NotNull final SrcSrvStreamBuilder srcSrvStreamBuilder,
-    @NotNull final PdbStrExe pdbStrExe,
-    @NotNull final SrcToolExe srcToolExe,
+    @Nullable final PdbStrExe pdbStrExe,
+    @Nullable final SrcToolExe srcToolExe,
     @NotNull final BuildProgressLogger buildLogger) {
     mySrcSrvStreamBuilder = srcSrvStreamBuilder;
     myPdbStrExe = pdbStrExe;
@@ -30,17 +37,55 @@ public class PdbFilePatcherAdapterImpl implements PdbFilePatcherAdapter {
   }
 
   @Override
-  public int serializeSourceLinks(final File sourceLinksFile, final Collection<File> sourceFiles) throws IOException {
-    return mySrcSrvStreamBuilder.dumpStreamToFile(sourceLinksFile, sourceFiles);
+  public int serializeSourceLinks(final OutputStream sourceLinks, final Collection<File> sourceFiles) throws IOException {
+    return mySrcSrvStreamBuilder.dumpStream(sourceLinks, sourceFiles);
   }
 
   @Override
-  public ExecResult updatePdbSourceLinks(final File symbolsFile, final File sourceLinksFile) {
-    return myPdbStrExe.doCommand(PdbStrExeCommands.WRITE, symbolsFile, sourceLinksFile, PdbStrExe.SRCSRV_STREAM_NAME);
+  public ExecResult updatePdbSourceLinks(final File symbolsFile, final byte[] sourceLinks) {
+    final ExecResult result = new ExecResult();
+    try {
+      PdbNamedStreamWriter.write(symbolsFile, PdbStrExe.SRCSRV_STREAM_NAME, sourceLinks);
+      result.setExitCode(0);
+      return result;
+    } catch (IOException e) {
+      if (myPdbStrExe != null) {
+        LOG.debug("Failed to write srcsrv stream to " + symbolsFile + ", pdbstr will be used: " + e.getMessage());
+        return writeWithPdbStr(symbolsFile, sourceLinks);
+      }
+      result.setExitCode(-1);
+      result.setStderr(e.getMessage());
+      result.setException(e);
+      return result;
+    }
+  }
+
+  @NotNull
+  private ExecResult writeWithPdbStr(@NotNull final File symbolsFile, @NotNull final byte[] sourceLinks) {
+    File sourceLinksFile = null;
+    try {
+      sourceLinksFile = File.createTempFile("pdb-", ".patch");
+      FileUtil.writeToFile(sourceLinksFile, sourceLinks);
+      return myPdbStrExe.doCommand(PdbStrExeCommands.WRITE, symbolsFile, sourceLinksFile, PdbStrExe.SRCSRV_STREAM_NAME);
+    } catch (IOException e) {
+      final ExecResult result = new ExecResult();
+      result.setExitCode(-1);
+      result.setStderr(e.getMessage());
+      result.setException(e);
+      return result;
+    } finally {
+      if (sourceLinksFile != null) FileUtil.delete(sourceLinksFile);
+    }
   }
 
   @Override
   public Collection<File> getReferencedSourceFiles(final File symbolsFile) throws IOException {
+    final Collection<File> sourceFiles = PdbSourceFilesReader.read(symbolsFile);
+    if (sourceFiles != null) return sourceFiles;
+    if (mySrcToolExe == null) {
+      throw new IOException("Failed to read sources from symbols file " + symbolsFile);
+    }
+
     final ExecResult result = mySrcToolExe.dumpSources(symbolsFile, myBuildLogger);
     if (result.getExitCode() < 0) {
       throw new IOException(String.format("Failed to dump sources from symbols file %s: %s", symbolsFile, result));
@@ -0,0 +1,259 @@
+
+
+package jetbrains.buildServer.symbols;
+
+import jetbrains.buildServer.symbols.tools.PdbType;
+import jetbrains.buildServer.util.FileUtil;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Persistent agent cache of symbol files indexing results keyed by symbol file content hash.
+ *
+ * For every symbol file content it keeps the PDB type, referenced source files and signature, so unchanged files
+ * republished by incremental builds are not passed to external tools again. Patched symbol files are not kept,
+ * since source link streams contain the build id and patched files could not be reused by later builds.
+ *
+ * The cache size is bounded, least recently used files are evicted first.
+ */
+public class PdbIndexingCache {
+
+  private static final Logger LOG = Logger.getLogger(PdbIndexingCache.class);
+  private static final String INFO_FILE_EXTENSION = ".info";
+  private static final String TYPE_KEY = "type=";
+  private static final String SIGNATURE_KEY = "signature=";
+  private static final String SOURCE_FILE_KEY = "file=";
+
+  private final File myDirectory;
+  private final Map<String, File> myFiles = new LinkedHashMap<>(16, 0.75f, true);
+  private long myTotalSize;
+  private volatile long myMaxSize;
+
+  public PdbIndexingCache(@NotNull final File directory, final long maxSize) {
+    myDirectory = directory;
+    myMaxSize = maxSize;
+    loadExistingFiles();
+  }
+
+  @NotNull
+  public File getDirectory() {
+    return myDirectory;
+  }
+
+  public void setMaxSize(final long maxSize) {
+    myMaxSize = maxSize;
+    synchronized (myFiles) {
+      evictFiles();
+    }
+  }
+
+  /**
+   * @return SHA-256 hash of the file content.
+   */
+  @NotNull
+  public static String getContentHash(@NotNull final File file) throws IOException {
+    final MessageDigest digest = createDigest();
+    try (InputStream input = new FileInputStream(file)) {
+      final byte[] buffer = new byte[64 * 1024];
+      int read;
+      while ((read = input.read(buffer)) >= 0) {
+        digest.update(buffer, 0, read);
+      }
+    }
+    return toHex(digest.digest());
+  }
+
+  @Nullable
+  public Entry getEntry(@NotNull final String contentHash) {
+    final File file = getFile(contentHash + INFO_FILE_EXTENSION);
+    if (file == null) return null;
+    try {
+      return readEntry(file);
+    } catch (IOException | IllegalArgumentException e) {
+      LOG.debug("Failed to read symbols indexing cache entry " + file + ": " + e.getMessage());
+      removeFile(file.getName());
+      return null;
+    }
+  }
+
+  public void putEntry(@NotNull final String contentHash, @NotNull final Entry entry) {
+    final ByteArrayOutputStream content = new ByteArrayOutputStream();
+    final PrintWriter writer = new PrintWriter(new OutputStreamWriter(content, StandardCharsets.UTF_8));
+    writer.print(TYPE_KEY + entry.getType().name() + "\n");
+    if (entry.getSignature() != null) {
+      writer.print(SIGNATURE_KEY + entry.getSignature() + "\n");
+    }
+    for (File sourceFile : entry.getSourceFiles()) {
+      writer.print(SOURCE_FILE_KEY + sourceFile.getPath() + "\n");
+    }
+    writer.flush();
+    try {
+      putFile(contentHash + INFO_FILE_EXTENSION, new ByteArrayInputStream(content.toByteArray()));
+    } catch (IOException e) {
+      LOG.warn("Failed to store symbols indexing cache entry: " + e.getMessage());
+    }
+  }
+
+  @Nullable
+  private File getFile(@NotNull final String name) {
+    synchronized (myFiles) {
+      final File file = myFiles.get(name);
+      if (file == null) return null;
+      if (!file.isFile()) {
+        removeFile(name);
+        return null;
+      }
+      // modification time keeps the usage order between agent restarts
+      file.setLastModified(System.currentTimeMillis());
+      return file;
+    }
+  }
+
+  private void putFile(@NotNull final String name, @NotNull final InputStream content) throws IOException {
+    if (!myDirectory.isDirectory() && !myDirectory.mkdirs()) {
+      throw new IOException("Failed to create directory " + myDirectory);
+    }
+
+    final File file = new File(myDirectory, name);
+    final File tempFile = FileUtil.createTempFile(myDirectory, name, ".tmp", false);
+    try {
+      try (OutputStream output = new FileOutputStream(tempFile)) {
+        FileUtil.copyStreams(content, output);
+      }
+      synchronized (myFiles) {
+        removeFile(name);
+        if (!tempFile.renameTo(file)) {
+          throw new IOException("Failed to rename " + tempFile + " to " + file);
+        }
+        addFile(name, file);
+        evictFiles();
+      }
+    } finally {
+      FileUtil.delete(tempFile);
+    }
+  }
+
+  private void loadExistingFiles() {
+    final File[] files = myDirectory.listFiles();
+    if (files == null) return;
+
+    Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+    synchronized (myFiles) {
+      for (File file : files) {
+        final String name = file.getName();
+        if (!name.endsWith(INFO_FILE_EXTENSION)) {
+          FileUtil.delete(file);
+          continue;
+        }
+        addFile(name, file);
+      }
+      evictFiles();
+    }
+  }
+
+  private void addFile(@NotNull final String name, @NotNull final File file) {
+    myFiles.put(name, file);
+    myTotalSize += file.length();
+  }
+
+  private void removeFile(@NotNull final String name) {
+    synchronized (myFiles) {
+      final File file = myFiles.remove(name);
+      if (file != null) {
+        myTotalSize -= file.length();
+        FileUtil.delete(file);
+      }
+    }
+  }
+
+  private void evictFiles() {
+    final Iterator<Map.Entry<String, File>> iterator = myFiles.entrySet().iterator();
+    while (myTotalSize > myMaxSize && iterator.hasNext()) {
+      final File file = iterator.next().getValue();
+      final long length = file.length();
+      if (FileUtil.delete(file)) {
+        myTotalSize -= length;
+        iterator.remove();
+        LOG.debug("Evicted symbols indexing cache file " + file);
+      }
+    }
+  }
+
+  @NotNull
+  private static Entry readEntry(@NotNull final File file) throws IOException {
+    PdbType type = null;
+    String signature = null;
+    final List<File> sourceFiles = new ArrayList<>();
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.startsWith(TYPE_KEY)) {
+          type = PdbType.valueOf(line.substring(TYPE_KEY.length()));
+        } else if (line.startsWith(SIGNATURE_KEY)) {
+          signature = line.substring(SIGNATURE_KEY.length());
+        } else if (line.startsWith(SOURCE_FILE_KEY)) {
+          sourceFiles.add(new File(line.substring(SOURCE_FILE_KEY.length())));
+        }
+      }
+    }
+    if (type == null) {
+      throw new IOException("Symbols file type is missing");
+    }
+    return new Entry(type, sourceFiles, signature);
+  }
+
+  @NotNull
+  private static MessageDigest createDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @NotNull
+  private static String toHex(@NotNull final byte[] bytes) {
+    final StringBuilder result = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      result.append(String.format("%02x", b & 0xff));
+    }
+    return result.toString();
+  }
+
+  public static class Entry {
+    private final PdbType myType;
+    private final Collection<File> mySourceFiles;
+    private final String mySignature;
+
+    public Entry(@NotNull final PdbType type, @NotNull final Collection<File> sourceFiles, @Nullable final String signature) {
+      myType = type;
+      mySourceFiles = sourceFiles;
+      mySignature = signature;
+    }
+
+    @NotNull
+    public PdbType getType() {
+      return myType;
+    }
+
+    @NotNull
+    public Collection<File> getSourceFiles() {
+      return mySourceFiles;
+    }
+
+    /**
+     * @return symbols file GUID as it is stored in the signatures index.
+     */
+    @Nullable
+    public String getSignature() {
+      return mySignature;
+    }
+  }
+}
@@ -0,0 +1,38 @@
+
+
+package jetbrains.buildServer.symbols;
+
+import jetbrains.buildServer.symbols.tools.PdbMetadataReader;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * Lists source files referenced by symbols file in process.
+ */
+class PdbSourceFilesReader {
+
+  private static final Logger LOG = Logger.getLogger(PdbSourceFilesReader.class);
+
+  /**
+   * @return referenced source files or null if the symbols file could not be read, so external tools should be used.
+   */
+  @Nullable
+  static Collection<File> read(@NotNull final File symbolsFile) {
+    try {
+      final Collection<File> result = new ArrayList<>();
+      for (String sourceFile : PdbMetadataReader.read(symbolsFile).getSourceFiles()) {
+        result.add(new File(sourceFile));
+      }
+      return result;
+    } catch (IOException e) {
+      LOG.debug("Failed to read source files of symbols file " + symbolsFile + ": " + e.getMessage());
+      return null;
+    }
+  }
+}
@@ -4,13 +4,19 @@ package jetbrains.buildServer.symbols;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Collection;
 import jetbrains.buildServer.ExecResult;
 import jetbrains.buildServer.agent.BuildProgressLogger;
 import jetbrains.buildServer.symbols.tools.JetSymbolsExe;
+import jetbrains.buildServer.symbols.tools.PortablePdbSourceLinkWriter;
+import jetbrains.buildServer.util.FileUtil;
+import org.apache.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
 
 public class PortablePdbFilePatcherAdapterImpl implements PdbFilePatcherAdapter {
+  private static final Logger LOG = Logger.getLogger(PortablePdbFilePatcherAdapterImpl.class);
+
   private final SourceLinkStreamBuilder mySourceLinkStreamBuilder;
   private final JetSymbolsExe myJetSymbolsExe;
   private final BuildProgressLogger myBuildLogger;
@@ -25,17 +31,41 @@ public class PortablePdbFilePatcherAdapterImpl implements PdbFilePatcherAdapter
   }
 
   @Override
-  public int serializeSourceLinks(final File sourceLinksFile, final Collection<File> sourceFiles) throws IOException {
-    return mySourceLinkStreamBuilder.dumpStreamToFile(sourceLinksFile, sourceFiles);
+  public int serializeSourceLinks(final OutputStream sourceLinks, final Collection<File> sourceFiles) throws IOException {
+    return mySourceLinkStreamBuilder.dumpStream(sourceLinks, sourceFiles);
   }
 
   @Override
-  public ExecResult updatePdbSourceLinks(final File symbolsFile, final File sourceLinksFile) {
-    return myJetSymbolsExe.updatePortablePdbSourceUrls(symbolsFile, sourceLinksFile, myBuildLogger);
+  public ExecResult updatePdbSourceLinks(final File symbolsFile, final byte[] sourceLinks) {
+    try {
+      PortablePdbSourceLinkWriter.write(symbolsFile, sourceLinks);
+      final ExecResult result = new ExecResult();
+      result.setExitCode(0);
+      return result;
+    } catch (IOException e) {
+      LOG.debug("Failed to embed source link into " + symbolsFile + ", JetSymbols will be used: " + e.getMessage());
+    }
+
+    File sourceLinksFile = null;
+    try {
+      sourceLinksFile = File.createTempFile("pdb-", ".patch");
+      FileUtil.writeToFile(sourceLinksFile, sourceLinks);
+      return myJetSymbolsExe.updatePortablePdbSourceUrls(symbolsFile, sourceLinksFile, myBuildLogger);
+    } catch (IOException e) {
+      final ExecResult result = new ExecResult();
+      result.setExitCode(-1);
+      result.setStderr(e.getMessage());
+      result.setException(e);
+      return result;
+    } finally {
+      if (sourceLinksFile != null) FileUtil.delete(sourceLinksFile);
+    }
   }
 
   @Override
   public Collection<File> getReferencedSourceFiles(final File symbolsFile) {
+    final Collection<File> sourceFiles = PdbSourceFilesReader.read(symbolsFile);
+    if (sourceFiles != null) return sourceFiles;
     return myJetSymbolsExe.getReferencedSourceFiles(symbolsFile, myBuildLogger);
   }
 }
@@ -5,8 +5,11 @@ package jetbrains.buildServer.symbols;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
@@ -23,9 +26,9 @@ public class SourceLinkStreamBuilder {
     myProgressLogger = progressLogger;
   }
 
-  public int dumpStreamToFile(File targetFile, Collection<File> sourceFiles) throws IOException {
+  public int dumpStream(OutputStream output, Collection<File> sourceFiles) throws IOException {
     int processedFilesCount = 0;
-    final FileWriter fileWriter = new FileWriter(targetFile.getPath(), true);
+    final Writer fileWriter = new OutputStreamWriter(output, StandardCharsets.UTF_8);
 
     final String baseUrl = myUrlProvider.getBasePath() + "/" + myUrlProvider.getBuildPath() + "/";
     try {
@@ -46,7 +49,7 @@ public class SourceLinkStreamBuilder {
       fileWriter.write(gson.toJson(new SourcesDescriptor(sourceMap)));
     }
     finally {
-      fileWriter.close();
+      fileWriter.flush();
     }
     return processedFilesCount;
   }
@@ -5,8 +5,11 @@ package jetbrains.buildServer.symbols;
 import jetbrains.buildServer.agent.BuildProgressLogger;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
 import java.util.Collection;
 
 /**
@@ -22,9 +25,9 @@ public class SrcSrvStreamBuilder {
     myProgressLogger = progressLogger;
   }
 
-  public int dumpStreamToFile(File targetFile, Collection<File> sourceFiles) throws IOException {
+  public int dumpStream(OutputStream output, Collection<File> sourceFiles) throws IOException {
     int processedFilesCount = 0;
-    final FileWriter fileWriter = new FileWriter(targetFile.getPath(), true);
+    final Writer fileWriter = new OutputStreamWriter(output, Charset.defaultCharset());
 
     try {
       fileWriter.write("SRCSRV: ini ------------------------------------------------\r\n");
@@ -54,7 +57,7 @@ public class SrcSrvStreamBuilder {
       fileWriter.write("SRCSRV: end ------------------------------------------------");
     }
     finally {
-      fileWriter.close();
+      fileWriter.flush();
     }
     return processedFilesCount;
   }
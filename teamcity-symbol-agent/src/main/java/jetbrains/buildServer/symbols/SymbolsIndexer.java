@@ -12,9 +12,12 @@ import jetbrains.buildServer.agent.impl.artifacts.ArtifactsCollection;
 import jetbrains.buildServer.agent.plugins.beans.PluginDescriptor;
 import jetbrains.buildServer.dotNet.DotNetConstants;
 import jetbrains.buildServer.messages.DefaultMessagesInfo;
-import jetbrains.buildServer.symbols.tools.BinaryGuidDumper;
 import jetbrains.buildServer.symbols.tools.JetSymbolsExe;
+import jetbrains.buildServer.symbols.tools.PdbMetadata;
+import jetbrains.buildServer.symbols.tools.PdbMetadataReader;
 import jetbrains.buildServer.symbols.tools.PdbStrExe;
+import jetbrains.buildServer.symbols.tools.PeFileMetadata;
+import jetbrains.buildServer.symbols.tools.PeFileReader;
 import jetbrains.buildServer.symbols.tools.SrcToolExe;
 import jetbrains.buildServer.util.EventDispatcher;
 import jetbrains.buildServer.util.FileUtil;
@@ -26,8 +29,11 @@ import org.jetbrains.annotations.Nullable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 /**
@@ -42,6 +48,9 @@ public class SymbolsIndexer extends ArtifactsBuilderAdapter {
   private static final String EXE_FILE_EXTENSION = "exe";
   private static final String X64_SRCSRV = "\\x64\\srcsrv";
   private static final String X86_SRCSRV = "\\x86\\srcsrv";
+  private static final int PDB_SIGNATURES_BATCH_SIZE = 500;
+  private static final String INDEXING_CACHE_KEY = "symbols-indexing";
+  private static final long DEFAULT_INDEXING_CACHE_SIZE_MB = 1024;
   private static final String NET_45_NOT_FOUND_PROBLEM_IDENTITY = "net45symbolindexing";
   private static final Pattern NET_4X_PATTERN = Pattern.compile(
           String.format("%s\\.\\d+.*", DotNetConstants.DOTNET_FRAMEWORK_4),
@@ -65,6 +74,10 @@ public class SymbolsIndexer extends ArtifactsBuilderAdapter {
   @Nullable private FileUrlProvider myFileUrlProvider;
   private boolean myBuildHasIndexerFeature;
   private boolean myIndexingEnabledByProperty;
+  private int myIndexingParallelism;
+  private boolean myBinaryIndexEnabled;
+  @Nullable private PdbIndexingCache myIndexingCache;
+  @Nullable private PdbIndexingCache myBuildIndexingCache;
 
   public SymbolsIndexer(@NotNull final PluginDescriptor pluginDescriptor,
                         @NotNull final EventDispatcher<AgentLifeCycleListener> agentDispatcher,
@@ -94,18 +107,22 @@ public class SymbolsIndexer extends ArtifactsBuilderAdapter {
         }
 
         myProgressLogger = runningBuild.getBuildLogger();
+        myIndexingParallelism = getIndexingParallelism(runningBuild.getSharedConfigParameters().get(SymbolsConstants.INDEXING_PARALLELISM_PARAM_NAME));
+        final String binaryIndexEnabled = runningBuild.getSharedConfigParameters().get(SymbolsConstants.INDEXING_BINARY_INDEX_ENABLED_PARAM_NAME);
+        myBinaryIndexEnabled = StringUtil.isEmpty(binaryIndexEnabled) || StringUtil.isTrue(binaryIndexEnabled);
         myBuildTempDirectory = runningBuild.getBuildTempDirectory();
+        myBuildIndexingCache = getIndexingCache(runningBuild);
 
         checkAndReportRuntimeRequirements(runningBuild.getAgentConfiguration(), myProgressLogger);
 
         mySrcSrvHomeDir = getSrcSrvHomeDir(runningBuild.getAgentConfiguration());
         if (mySrcSrvHomeDir == null) {
-          LOG.error("Failed to find Source Server tools home directory. No symbol and source indexing will be performed for build with id " + buildId);
-          myProgressLogger.error("Failed to find Source Server tools home directory. No symbol and source indexing will be performed.");
-          return;
+          LOG.info("Failed to find Source Server tools home directory. Symbol files will be indexed without them for build with id " + buildId);
+          myProgressLogger.message("Source Server tools home directory was not found. Symbol files will be indexed without them.");
+        } else {
+          LOG.debug("Source Server tools home directory located. " + mySrcSrvHomeDir.getAbsolutePath());
+          myProgressLogger.message("Source Server tools home directory located. " + mySrcSrvHomeDir.getAbsolutePath());
         }
-        LOG.debug("Source Server tools home directory located. " + mySrcSrvHomeDir.getAbsolutePath());
-        myProgressLogger.message("Source Server tools home directory located. " + mySrcSrvHomeDir.getAbsolutePath());
 
         myFileUrlProvider = FileUrlProviderFactory.getProvider(runningBuild, myProgressLogger);
       }
@@ -130,11 +147,12 @@ public class SymbolsIndexer extends ArtifactsBuilderAdapter {
           } else {
             try {
               final File localIndexDataFile = FileUtil.createTempFile(myBuildTempDirectory, "symbol-signatures-local-", ".xml", false);
-              PdbSignatureIndexUtil.write(new FileOutputStream(localIndexDataFile), myPdbFileSignatures);
+              try (FileOutputStream output = new FileOutputStream(localIndexDataFile)) {
+                PdbSignatureIndexUtil.write(output, myPdbFileSignatures);
+              }
 
               final Set<PdbSignatureIndexEntry> transformedIndexData = getSignatureIndexEntries(myPdbFileSignatures, myPdbFileToArtifactMap);
-              final File transformedIndexDataFile = FileUtil.createTempFile(myBuildTempDirectory, SymbolsConstants.SYMBOL_SIGNATURES_FILE_NAME_PREFIX, ".xml", false);
-              PdbSignatureIndexUtil.write(new FileOutputStream(transformedIndexDataFile), transformedIndexData);
+              final File transformedIndexDataFile = writeArtifactsIndex(SymbolsConstants.SYMBOL_SIGNATURES_FILE_NAME_PREFIX, transformedIndexData);
 
               filesToPublish.add(localIndexDataFile);
               filesToPublish.add(transformedIndexDataFile);
@@ -156,11 +174,12 @@ public class SymbolsIndexer extends ArtifactsBuilderAdapter {
           } else {
             try {
               final File localIndexDataFile = FileUtil.createTempFile(myBuildTempDirectory, "binary-signatures-local-", ".xml", false);
-              PdbSignatureIndexUtil.write(new FileOutputStream(localIndexDataFile), myBinaryFileSignatures);
+              try (FileOutputStream output = new FileOutputStream(localIndexDataFile)) {
+                PdbSignatureIndexUtil.write(output, myBinaryFileSignatures);
+              }
 
               final Set<PdbSignatureIndexEntry> transformedIndexData = getSignatureIndexEntries(myBinaryFileSignatures, myBinaryFileToArtifactMap);
-              final File transformedIndexDataFile = FileUtil.createTempFile(myBuildTempDirectory, SymbolsConstants.BINARY_SIGNATURES_FILE_NAME_PREFIX, ".xml", false);
-              PdbSignatureIndexUtil.write(new FileOutputStream(transformedIndexDataFile), transformedIndexData);
+              final File transformedIndexDataFile = writeArtifactsIndex(SymbolsConstants.BINARY_SIGNATURES_FILE_NAME_PREFIX, transformedIndexData);
 
               filesToPublish.add(localIndexDataFile);
               filesToPublish.add(transformedIndexDataFile);
@@ -186,6 +205,22 @@ public class SymbolsIndexer extends ArtifactsBuilderAdapter {
         }
       }
 
+      @NotNull
+      private File writeArtifactsIndex(@NotNull String prefix, @NotNull Set<PdbSignatureIndexEntry> indexData) throws IOException {
+        if (myBinaryIndexEnabled) {
+          final File indexFile = FileUtil.createTempFile(myBuildTempDirectory, prefix, PdbSignatureIndexUtil.BINARY_FILE_EXTENSION, false);
+          try (OutputStream output = new FileOutputStream(indexFile)) {
+            PdbSignatureIndexUtil.writeBinary(output, indexData);
+          }
+          return indexFile;
+        }
+        final File indexFile = FileUtil.createTempFile(myBuildTempDirectory, prefix, PdbSignatureIndexUtil.XML_FILE_EXTENSION, false);
+        try (OutputStream output = new FileOutputStream(indexFile)) {
+          PdbSignatureIndexUtil.write(output, indexData);
+        }
+        return indexFile;
+      }
+
       @NotNull
       private Set<PdbSignatureIndexEntry> getSignatureIndexEntries(Set<PdbSignatureIndexEntry> signatureLocalFilesData, Map<File, String> artifactMap) {
         final Set<PdbSignatureIndexEntry> indexData = new HashSet<>();
@@ -228,88 +263,260 @@ public class SymbolsIndexer extends ArtifactsBuilderAdapter {
   }
 
   private void processPdbArtifacts(Map<File, String> pdbFiles) {
-    final PdbFilePatcherAdapterFactory patcherAdapter = new PdbFilePatcherAdapterFactoryImpl(
-      myFileUrlProvider,
-      myProgressLogger,
-      new PdbStrExe(mySrcSrvHomeDir),
-      myJetSymbolsExe,
-      new SrcToolExe(mySrcSrvHomeDir));
-
-    final PdbFilePatcher pdbFilePatcher = new PdbFilePatcher(
-      myBuildTempDirectory,
-      myJetSymbolsExe,
-      patcherAdapter,
-      myProgressLogger
-    );
-
-    for(File pdbFile : pdbFiles.keySet()){
-      if(myPdbFileToArtifactMap.containsKey(pdbFile)){
+    final List<File> filesToProcess = new ArrayList<>();
+    for (File pdbFile : pdbFiles.keySet()) {
+      if (myPdbFileToArtifactMap.containsKey(pdbFile)) {
         LOG.debug(String.format("File %s already processed. Skipped.", pdbFile.getAbsolutePath()));
         continue;
       }
-      final String blockName = "Pdb file";
-      myProgressLogger.message("Indexing sources in file " + pdbFile.getAbsolutePath());
-      try {
-        myProgressLogger.logMessage(DefaultMessagesInfo.createBlockStart(blockName, "symbol-server"));
-        if (pdbFilePatcher.patch(pdbFile)) {
-          final String artifactPath = myArtifactPathHelper.concatenateArtifactPath(pdbFiles.get(pdbFile), pdbFile.getName());
-          final PdbSignatureIndexEntry signatureIndexEntry = getPdbSignature(pdbFile);
-          myPdbFileToArtifactMap.put(pdbFile, artifactPath);
-          myPdbFileSignatures.add(signatureIndexEntry);
+      filesToProcess.add(pdbFile);
+    }
+    if (filesToProcess.isEmpty()) return;
+    Collections.sort(filesToProcess);
+
+    final PdbStrExe pdbStrExe = mySrcSrvHomeDir != null ? new PdbStrExe(mySrcSrvHomeDir) : null;
+    final SrcToolExe srcToolExe = mySrcSrvHomeDir != null ? new SrcToolExe(mySrcSrvHomeDir) : null;
+    final int threadsCount = Math.min(myIndexingParallelism, filesToProcess.size());
+    LOG.debug(String.format("Indexing %d symbol files using %d threads.", filesToProcess.size(), threadsCount));
+
+    final ExecutorService executor = createIndexingExecutor(threadsCount);
+    final Map<File, PdbFileResult> patchedFiles = new LinkedHashMap<>();
+    try {
+      final List<Future<PdbFileResult>> results = new ArrayList<>(filesToProcess.size());
+      for (File pdbFile : filesToProcess) {
+        final String artifactDirectory = pdbFiles.get(pdbFile);
+        results.add(executor.submit(() -> indexPdbFile(pdbFile, artifactDirectory, pdbStrExe, srcToolExe)));
+      }
+
+      // results are reported in the order of files, so the build log does not depend on threads scheduling
+      for (int i = 0; i < filesToProcess.size(); i++) {
+        final File pdbFile = filesToProcess.get(i);
+        final String blockName = "Pdb file";
+        myProgressLogger.message("Indexing sources in file " + pdbFile.getAbsolutePath());
+        try {
+          myProgressLogger.logMessage(DefaultMessagesInfo.createBlockStart(blockName, "symbol-server"));
+          final PdbFileResult result = results.get(i).get();
+          result.myLogger.flush();
+          if (result.myError != null) {
+            reportPdbFileError(pdbFile, result.myError);
+          } else if (result.myArtifactPath != null) {
+            patchedFiles.put(pdbFile, result);
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          LOG.warn("Symbols indexing was interrupted");
+          myProgressLogger.warning("Symbols indexing was interrupted");
+          return;
+        } catch (Throwable e) {
+          reportPdbFileError(pdbFile, e instanceof ExecutionException ? e.getCause() : e);
+        } finally {
+          myProgressLogger.logMessage(DefaultMessagesInfo.createBlockEnd(blockName, "symbol-server"));
         }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    collectPdbSignatures(patchedFiles);
+  }
+
+  /**
+   * Collects signatures of patched symbol files read by indexing workers. Files which could not be read are passed
+   * to the tool by batches, so it is started once per batch instead of once per file.
+   */
+  private void collectPdbSignatures(@NotNull final Map<File, PdbFileResult> patchedFiles) {
+    if (patchedFiles.isEmpty()) return;
+    final List<File> files = new ArrayList<>();
+    for (Map.Entry<File, PdbFileResult> entry : patchedFiles.entrySet()) {
+      final PdbSignatureIndexEntry signatureIndexEntry = entry.getValue().mySignature;
+      if (signatureIndexEntry == null) {
+        files.add(entry.getKey());
+      } else {
+        myPdbFileToArtifactMap.put(entry.getKey(), entry.getValue().myArtifactPath);
+        myPdbFileSignatures.add(signatureIndexEntry);
+      }
+    }
+    for (int start = 0; start < files.size(); start += PDB_SIGNATURES_BATCH_SIZE) {
+      final List<File> batch = files.subList(start, Math.min(start + PDB_SIGNATURES_BATCH_SIZE, files.size()));
+      final Map<File, PdbSignatureIndexEntry> signatures;
+      try {
+        signatures = getPdbSignatures(batch);
       } catch (Throwable e) {
-        LOG.error("Error occurred while processing symbols file " + pdbFile, e);
-        myProgressLogger.error("Error occurred while processing symbols file " + pdbFile);
+        LOG.error("Error occurred while extracting signatures of symbol files", e);
+        myProgressLogger.error("Error occurred while extracting signatures of symbol files");
         myProgressLogger.exception(e);
-      } finally {
-        myProgressLogger.logMessage(DefaultMessagesInfo.createBlockEnd(blockName, "symbol-server"));
+        continue;
+      }
+      for (File pdbFile : batch) {
+        final PdbSignatureIndexEntry signatureIndexEntry = signatures.get(pdbFile.getAbsoluteFile());
+        if (signatureIndexEntry == null) {
+          LOG.error("Failed to get signature of " + pdbFile.getPath());
+          myProgressLogger.error("Failed to get signature of " + pdbFile.getPath());
+          continue;
+        }
+        final PdbFileResult result = patchedFiles.get(pdbFile);
+        myPdbFileToArtifactMap.put(pdbFile, result.myArtifactPath);
+        myPdbFileSignatures.add(signatureIndexEntry);
+        storeSignature(result, signatureIndexEntry);
       }
     }
   }
 
+  @NotNull
+  private PdbFileResult indexPdbFile(@NotNull final File pdbFile,
+                                     @NotNull final String artifactDirectory,
+                                     @Nullable final PdbStrExe pdbStrExe,
+                                     @Nullable final SrcToolExe srcToolExe) {
+    final BufferedBuildProgressLogger logger = new BufferedBuildProgressLogger(myProgressLogger);
+    try {
+      final PdbFilePatcherAdapterFactory patcherAdapter = new PdbFilePatcherAdapterFactoryImpl(
+        myFileUrlProvider,
+        logger.getLogger(),
+        pdbStrExe,
+        myJetSymbolsExe,
+        srcToolExe);
+      final PdbIndexingCache cache = myBuildIndexingCache;
+      final PdbFilePatcher pdbFilePatcher = new PdbFilePatcher(
+        myBuildTempDirectory,
+        myJetSymbolsExe,
+        patcherAdapter,
+        logger.getLogger(),
+        cache);
+
+      final String contentHash = cache != null ? PdbIndexingCache.getContentHash(pdbFile) : null;
+      if (!pdbFilePatcher.patch(pdbFile, contentHash)) {
+        return new PdbFileResult(logger, null, null);
+      }
+      final String artifactPath = myArtifactPathHelper.concatenateArtifactPath(artifactDirectory, pdbFile.getName());
+      final PdbFileResult result = new PdbFileResult(logger, artifactPath, null);
+      result.myContentHash = contentHash;
+
+      // patched file is cached as well, so it is not processed again when it is republished unchanged
+      PdbIndexingCache.Entry patchedEntry = null;
+      if (cache != null) {
+        result.myPatchedContentHash = PdbIndexingCache.getContentHash(pdbFile);
+        patchedEntry = cache.getEntry(result.myPatchedContentHash);
+      }
+      if (patchedEntry != null && patchedEntry.getSignature() != null) {
+        result.mySignature = new PdbSignatureIndexEntry(patchedEntry.getSignature(), pdbFile.getName(), pdbFile.getPath());
+      } else {
+        result.mySignature = readPdbSignature(pdbFile);
+        if (result.mySignature != null) {
+          storeSignature(result, result.mySignature);
+        }
+      }
+      return result;
+    } catch (Throwable e) {
+      return new PdbFileResult(logger, null, e);
+    }
+  }
+
+  private void storeSignature(@NotNull final PdbFileResult result, @NotNull final PdbSignatureIndexEntry signatureIndexEntry) {
+    final PdbIndexingCache cache = myBuildIndexingCache;
+    if (cache == null || result.myContentHash == null || result.myPatchedContentHash == null) return;
+    final PdbIndexingCache.Entry entry = cache.getEntry(result.myContentHash);
+    if (entry == null) return;
+    cache.putEntry(result.myPatchedContentHash, new PdbIndexingCache.Entry(entry.getType(), entry.getSourceFiles(), signatureIndexEntry.getGuid()));
+  }
+
+  private void reportPdbFileError(@NotNull final File pdbFile, @NotNull final Throwable e) {
+    LOG.error("Error occurred while processing symbols file " + pdbFile, e);
+    myProgressLogger.error("Error occurred while processing symbols file " + pdbFile);
+    myProgressLogger.exception(e);
+  }
+
   private void processBinaryArtifacts(@NotNull List<ArtifactsCollection> artifacts, String fileExtension) {
     final Map<File, String> binaryFiles = getArtifactPathsByFileExtension(artifacts, fileExtension);
+    final List<File> filesToProcess = new ArrayList<>();
     for (File binaryFile : binaryFiles.keySet()){
       if(myBinaryFileToArtifactMap.containsKey(binaryFile)){
         LOG.debug(String.format("File %s already processed. Skipped.", binaryFile.getAbsolutePath()));
         continue;
       }
-      final String blockName = "Binary file";
-      myProgressLogger.message("Indexing binary file " + binaryFile.getAbsolutePath());
-      try {
-        myProgressLogger.logMessage(DefaultMessagesInfo.createBlockStart(blockName, "symbol-server"));
-        final String artifactPath = myArtifactPathHelper.concatenateArtifactPath(binaryFiles.get(binaryFile), binaryFile.getName());
-        final PdbSignatureIndexEntry signatureIndexEntry = getBinarySignature(binaryFile);
-        myBinaryFileToArtifactMap.put(binaryFile, artifactPath);
-        myBinaryFileSignatures.add(signatureIndexEntry);
-      } catch (Throwable e) {
-        LOG.error("Error occurred while processing binary file " + binaryFile, e);
-        myProgressLogger.error("Error occurred while processing binary file " + binaryFile);
-        myProgressLogger.exception(e);
-      } finally {
-        myProgressLogger.logMessage(DefaultMessagesInfo.createBlockEnd(blockName, "symbol-server"));
+      filesToProcess.add(binaryFile);
+    }
+    if (filesToProcess.isEmpty()) return;
+    Collections.sort(filesToProcess);
+
+    // headers are read in process, threads only hide the file system latency
+    final ExecutorService executor = createIndexingExecutor(Math.min(myIndexingParallelism, filesToProcess.size()));
+    try {
+      final List<Future<PdbSignatureIndexEntry>> signatures = new ArrayList<>(filesToProcess.size());
+      for (File binaryFile : filesToProcess) {
+        signatures.add(executor.submit(() -> getBinarySignature(binaryFile)));
+      }
+
+      for (int i = 0; i < filesToProcess.size(); i++) {
+        final File binaryFile = filesToProcess.get(i);
+        final String blockName = "Binary file";
+        myProgressLogger.message("Indexing binary file " + binaryFile.getAbsolutePath());
+        try {
+          myProgressLogger.logMessage(DefaultMessagesInfo.createBlockStart(blockName, "symbol-server"));
+          final String artifactPath = myArtifactPathHelper.concatenateArtifactPath(binaryFiles.get(binaryFile), binaryFile.getName());
+          final PdbSignatureIndexEntry signatureIndexEntry = signatures.get(i).get();
+          myBinaryFileToArtifactMap.put(binaryFile, artifactPath);
+          myBinaryFileSignatures.add(signatureIndexEntry);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          LOG.warn("Binaries indexing was interrupted");
+          myProgressLogger.warning("Binaries indexing was interrupted");
+          return;
+        } catch (Throwable e) {
+          final Throwable error = e instanceof ExecutionException ? e.getCause() : e;
+          LOG.error("Error occurred while processing binary file " + binaryFile, error);
+          myProgressLogger.error("Error occurred while processing binary file " + binaryFile);
+          myProgressLogger.exception(error);
+        } finally {
+          myProgressLogger.logMessage(DefaultMessagesInfo.createBlockEnd(blockName, "symbol-server"));
+        }
       }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Nullable
+  private static PdbSignatureIndexEntry readPdbSignature(@NotNull final File pdbFile) {
+    try {
+      final PdbMetadata metadata = PdbMetadataReader.read(pdbFile);
+      return new PdbSignatureIndexEntry(PdbSignatureIndexUtil.extractGuid(metadata.getSignature(), true), pdbFile.getName(), pdbFile.getPath());
+    } catch (IOException e) {
+      LOG.debug(String.format("Failed to read signature of %s, it will be extracted by JetSymbols: %s", pdbFile, e.getMessage()));
+      return null;
     }
   }
 
   @NotNull
-  private PdbSignatureIndexEntry getPdbSignature(File pdbFile) throws Exception {
+  private Map<File, PdbSignatureIndexEntry> getPdbSignatures(Collection<File> pdbFiles) throws Exception {
     final File guidDumpFile = FileUtil.createTempFile(myBuildTempDirectory, "symbol-signature-local-", ".xml", false);
-    myJetSymbolsExe.dumpPdbGuidsToFile(Collections.singleton(pdbFile), guidDumpFile, myProgressLogger);
-    if(guidDumpFile.isFile())
-      return PdbSignatureIndexUtil.read(new FileInputStream(guidDumpFile), true).iterator().next();
-    else
-      throw new Exception("Failed to get signature of " + pdbFile.getPath());
+    try {
+      myJetSymbolsExe.dumpPdbGuidsToFile(pdbFiles, guidDumpFile, myProgressLogger);
+      if (!guidDumpFile.isFile() || guidDumpFile.length() == 0)
+        throw new Exception("Failed to get signatures of " + pdbFiles.size() + " symbol files");
+
+      final Map<File, PdbSignatureIndexEntry> result = new HashMap<>();
+      try (FileInputStream inputStream = new FileInputStream(guidDumpFile)) {
+        PdbSignatureIndexUtil.read(inputStream, true, entry -> {
+          final String artifactPath = entry.getArtifactPath();
+          if (artifactPath != null) {
+            result.put(new File(artifactPath).getAbsoluteFile(), entry);
+          }
+        });
+      }
+      return result;
+    } finally {
+      FileUtil.delete(guidDumpFile);
+    }
   }
 
   @NotNull
-  private PdbSignatureIndexEntry getBinarySignature(File binaryFile) throws Exception {
-    final File guidDumpFile = FileUtil.createTempFile(myBuildTempDirectory, "binary-signature-local-", ".xml", false);
-    BinaryGuidDumper.dumpBinaryGuidsToFile(Collections.singleton(binaryFile), guidDumpFile, myProgressLogger);
-    if(guidDumpFile.isFile())
-      return PdbSignatureIndexUtil.read(new FileInputStream(guidDumpFile), true).iterator().next();
-    else
-      throw new Exception("Failed to get signature of " + binaryFile.getPath());
+  private static PdbSignatureIndexEntry getBinarySignature(@NotNull final File binaryFile) throws IOException {
+    final PeFileMetadata metadata = PeFileReader.read(binaryFile);
+    if (LOG.isDebugEnabled() && metadata.getPdbMetadata() != null) {
+      LOG.debug(String.format("Binary file %s references symbols file %s with signature %s",
+        binaryFile, metadata.getPdbPath(), metadata.getPdbMetadata().getSignature()));
+    }
+    return new PdbSignatureIndexEntry(PdbSignatureIndexUtil.extractGuid(metadata.getSignature(), true), binaryFile.getName(), binaryFile.getPath());
   }
 
   @Nullable
@@ -341,8 +548,55 @@ public class SymbolsIndexer extends ArtifactsBuilderAdapter {
     return result;
   }
 
+  @Nullable
+  private PdbIndexingCache getIndexingCache(@NotNull final AgentRunningBuild runningBuild) {
+    final String value = runningBuild.getSharedConfigParameters().get(SymbolsConstants.INDEXING_CACHE_SIZE_PARAM_NAME);
+    long maxSizeMb = DEFAULT_INDEXING_CACHE_SIZE_MB;
+    if (!StringUtil.isEmptyOrSpaces(value)) {
+      try {
+        maxSizeMb = Long.parseLong(value.trim());
+      } catch (NumberFormatException e) {
+        LOG.warn(String.format("Invalid value of %s parameter: %s, %d MB will be used", SymbolsConstants.INDEXING_CACHE_SIZE_PARAM_NAME, value, maxSizeMb));
+      }
+    }
+    if (maxSizeMb <= 0) {
+      LOG.debug("Symbols indexing cache is disabled for build with id " + runningBuild.getBuildId());
+      return null;
+    }
+
+    final File directory = runningBuild.getAgentConfiguration().getCacheDirectory(INDEXING_CACHE_KEY);
+    final long maxSize = maxSizeMb * 1024 * 1024;
+    if (myIndexingCache == null || !myIndexingCache.getDirectory().equals(directory)) {
+      myIndexingCache = new PdbIndexingCache(directory, maxSize);
+    } else {
+      myIndexingCache.setMaxSize(maxSize);
+    }
+    return myIndexingCache;
+  }
+
+  @NotNull
+  private static ExecutorService createIndexingExecutor(final int threadsCount) {
+    final AtomicInteger threadNumber = new AtomicInteger();
+    return Executors.newFixedThreadPool(threadsCount, r -> {
+      final Thread thread = new Thread(r, "Symbols indexer " + threadNumber.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  private static int getIndexingParallelism(@Nullable final String value) {
+    final int processorsCount = Runtime.getRuntime().availableProcessors();
+    if (StringUtil.isEmptyOrSpaces(value)) return processorsCount;
+    try {
+      return Math.max(1, Integer.parseInt(value.trim()));
+    } catch (NumberFormatException e) {
+      LOG.warn(String.format("Invalid value of %s parameter: %s, %d threads will be used", SymbolsConstants.INDEXING_PARALLELISM_PARAM_NAME, value, processorsCount));
+      return processorsCount;
+    }
+  }
+
   private boolean isIndexingDisabled() {
-    return !myBuildHasIndexerFeature || myFileUrlProvider == null || mySrcSrvHomeDir == null || !myIndexingEnabledByProperty;
+    return !myBuildHasIndexerFeature || myFileUrlProvider == null || !myIndexingEnabledByProperty;
   }
 
   private static void checkAndReportRuntimeRequirements(@NotNull BuildAgentConfiguration agentConfiguration, @NotNull BuildProgressLogger logger){
@@ -351,4 +605,21 @@ public class SymbolsIndexer extends ArtifactsBuilderAdapter {
     }
     logger.logBuildProblem(BuildProblemData.createBuildProblem(NET_45_NOT_FOUND_PROBLEM_IDENTITY, BuildProblemTypes.TC_ERROR_MESSAGE_TYPE, ".NET 4.5 runtime required for symbols indexing was not found on build agent."));
   }
+
+  private static class PdbFileResult {
+    private final BufferedBuildProgressLogger myLogger;
+    private final String myArtifactPath;
+    private final Throwable myError;
+    private String myContentHash;
+    private String myPatchedContentHash;
+    private PdbSignatureIndexEntry mySignature;
+
+    private PdbFileResult(@NotNull final BufferedBuildProgressLogger logger,
+                          @Nullable final String artifactPath,
+                          @Nullable final Throwable error) {
+      myLogger = logger;
+      myArtifactPath = artifactPath;
+      myError = error;
+    }
+  }
 }
@@ -0,0 +1,380 @@
+
+
+package jetbrains.buildServer.symbols.tools;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Reader and writer of the Multi-Stream Format (MSF 7.00) container used by Windows PDB files.
+ *
+ * The container consists of fixed size blocks, every stream is a list of blocks enumerated in the stream directory.
+ * Only the blocks of requested streams are read from the file channel.
+ *
+ * Changed streams are written to free blocks and become visible on {@link #commit()}, which writes the new
+ * stream directory, the free block map into its inactive copy and then switches the super block to them,
+ * so the file stays consistent if writing is interrupted.
+ */
+public class MsfFile {
+
+  static final byte[] MAGIC = "Microsoft C/C++ MSF 7.00\r\n\u001aDS\0\0\0".getBytes(StandardCharsets.US_ASCII);
+
+  private static final int SUPER_BLOCK_SIZE = 56;
+  private static final int NIL_STREAM_SIZE = -1;
+
+  private final FileChannel myChannel;
+  private final int myBlockSize;
+  private int myFreeBlockMapBlock;
+  private int myBlocksCount;
+  private int myBlockMapAddress;
+  private final int myUnknown;
+  private int[] myDirectoryBlocks;
+  private final List<Integer> myStreamSizes = new ArrayList<>();
+  private final List<int[]> myStreamBlocks = new ArrayList<>();
+
+  // blocks state for writing, bit is set for free blocks as in the free block map
+  private BitSet myFreeBlocks;
+  private BitSet myUsedBlocks;
+  private final List<Integer> myReleasedBlocks = new ArrayList<>();
+  private boolean myChanged;
+
+  public MsfFile(@NotNull final FileChannel channel) throws IOException {
+    myChannel = channel;
+
+    final ByteBuffer superBlock = read(0, SUPER_BLOCK_SIZE);
+    if (!hasMagic(superBlock)) {
+      throw new IOException("Not a MSF 7.00 file");
+    }
+    myBlockSize = superBlock.getInt(32);
+    myFreeBlockMapBlock = superBlock.getInt(36);
+    myBlocksCount = superBlock.getInt(40);
+    final int directorySize = superBlock.getInt(44);
+    myUnknown = superBlock.getInt(48);
+    myBlockMapAddress = superBlock.getInt(52);
+    if (myBlockSize != 512 && myBlockSize != 1024 && myBlockSize != 2048 && myBlockSize != 4096) {
+      throw new IOException("Invalid MSF block size " + myBlockSize);
+    }
+    if (directorySize < 4) {
+      throw new IOException("Invalid MSF stream directory size " + directorySize);
+    }
+
+    myDirectoryBlocks = new int[getBlocksCount(directorySize)];
+    if (myDirectoryBlocks.length * 4 > myBlockSize) {
+      throw new IOException("MSF stream directory is too large: " + directorySize);
+    }
+    final ByteBuffer blockMap = read(getBlockOffset(myBlockMapAddress), myDirectoryBlocks.length * 4);
+    for (int i = 0; i < myDirectoryBlocks.length; i++) {
+      myDirectoryBlocks[i] = blockMap.getInt();
+    }
+
+    final ByteBuffer directory = readBlocks(myDirectoryBlocks, directorySize);
+    final int streamsCount = directory.getInt();
+    if (streamsCount < 0 || streamsCount > (directorySize - 4) / 4) {
+      throw new IOException("Invalid MSF streams count " + streamsCount);
+    }
+    for (int i = 0; i < streamsCount; i++) {
+      final int size = directory.getInt();
+      if (size < 0 && size != NIL_STREAM_SIZE) {
+        throw new IOException("Invalid size of MSF stream " + i);
+      }
+      myStreamSizes.add(size);
+    }
+    for (int i = 0; i < streamsCount; i++) {
+      final int[] blocks = new int[getBlocksCount(getStreamSize(i))];
+      if (directory.remaining() < blocks.length * 4) {
+        throw new IOException("Truncated MSF stream directory");
+      }
+      for (int j = 0; j < blocks.length; j++) {
+        blocks[j] = directory.getInt();
+      }
+      myStreamBlocks.add(blocks);
+    }
+  }
+
+  /**
+   * @return true if the buffer starts with the MSF 7.00 signature.
+   */
+  static boolean hasMagic(@NotNull final ByteBuffer header) {
+    if (header.limit() < MAGIC.length) return false;
+    for (int i = 0; i < MAGIC.length; i++) {
+      if (header.get(i) != MAGIC[i]) return false;
+    }
+    return true;
+  }
+
+  public int getBlockSize() {
+    return myBlockSize;
+  }
+
+  public int getStreamsCount() {
+    return myStreamSizes.size();
+  }
+
+  public int getStreamSize(final int index) {
+    return index >= 0 && index < myStreamSizes.size() ? Math.max(0, myStreamSizes.get(index)) : 0;
+  }
+
+  /**
+   * Reads the stream content.
+   *
+   * @param index is a stream index.
+   * @return little endian buffer with the stream content, empty buffer for missing streams.
+   */
+  @NotNull
+  public ByteBuffer readStream(final int index) throws IOException {
+    if (index < 0 || index >= myStreamSizes.size()) {
+      return ByteBuffer.allocate(0).order(ByteOrder.LITTLE_ENDIAN);
+    }
+    return readBlocks(myStreamBlocks.get(index), getStreamSize(index));
+  }
+
+  /**
+   * Writes the stream content to free blocks, the change becomes visible after {@link #commit()}.
+   *
+   * @param index is a stream index, the index equal to {@link #getStreamsCount()} adds a new stream.
+   * @param content is a stream content.
+   */
+  public void writeStream(final int index, @NotNull final byte[] content) throws IOException {
+    if (index < 0 || index > myStreamSizes.size()) {
+      throw new IllegalArgumentException("Invalid MSF stream index " + index);
+    }
+    loadBlocksState();
+
+    final int[] blocks = new int[getBlocksCount(content.length)];
+    for (int i = 0; i < blocks.length; i++) {
+      blocks[i] = allocateBlock();
+    }
+    writeBlocks(blocks, content);
+
+    if (index == myStreamSizes.size()) {
+      myStreamSizes.add(content.length);
+      myStreamBlocks.add(blocks);
+    } else {
+      releaseBlocks(myStreamBlocks.get(index));
+      myStreamSizes.set(index, content.length);
+      myStreamBlocks.set(index, blocks);
+    }
+    myChanged = true;
+  }
+
+  /**
+   * Writes the stream directory and the free block map, then switches the super block to them.
+   */
+  public void commit() throws IOException {
+    if (!myChanged) return;
+
+    final ByteBuffer directory = ByteBuffer.allocate(getDirectorySize()).order(ByteOrder.LITTLE_ENDIAN);
+    directory.putInt(myStreamSizes.size());
+    for (int size : myStreamSizes) {
+      directory.putInt(size);
+    }
+    for (int[] blocks : myStreamBlocks) {
+      for (int block : blocks) {
+        directory.putInt(block);
+      }
+    }
+    final int[] directoryBlocks = new int[getBlocksCount(directory.capacity())];
+    if (directoryBlocks.length * 4 > myBlockSize) {
+      throw new IOException("MSF stream directory is too large: " + directory.capacity());
+    }
+    for (int i = 0; i < directoryBlocks.length; i++) {
+      directoryBlocks[i] = allocateBlock();
+    }
+    writeBlocks(directoryBlocks, directory.array());
+
+    final int blockMapAddress = allocateBlock();
+    final ByteBuffer blockMap = ByteBuffer.allocate(directoryBlocks.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+    for (int block : directoryBlocks) {
+      blockMap.putInt(block);
+    }
+    writeBlocks(new int[]{blockMapAddress}, blockMap.array());
+
+    releaseBlocks(myDirectoryBlocks);
+    releaseBlocks(new int[]{myBlockMapAddress});
+    for (int block : myReleasedBlocks) {
+      myFreeBlocks.set(block);
+    }
+    myReleasedBlocks.clear();
+
+    final int freeBlockMapBlock = myFreeBlockMapBlock == 1 ? 2 : 1;
+    writeFreeBlockMap(freeBlockMapBlock);
+    myChannel.force(false);
+
+    final ByteBuffer superBlock = ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN);
+    superBlock.putInt(freeBlockMapBlock);
+    superBlock.putInt(myBlocksCount);
+    superBlock.putInt(directory.capacity());
+    superBlock.putInt(myUnknown);
+    superBlock.putInt(blockMapAddress);
+    superBlock.flip();
+    writeFully(36, superBlock);
+    myChannel.force(false);
+
+    myFreeBlockMapBlock = freeBlockMapBlock;
+    myBlockMapAddress = blockMapAddress;
+    myDirectoryBlocks = directoryBlocks;
+    myChanged = false;
+  }
+
+  private int getDirectorySize() {
+    int size = 4 + 4 * myStreamSizes.size();
+    for (int[] blocks : myStreamBlocks) {
+      size += 4 * blocks.length;
+    }
+    return size;
+  }
+
+  /**
+   * Reads the active free block map and collects blocks referenced by the directory. A block is allocated only
+   * if it is free in the map and is not referenced, so a stale free block map could not cause data loss.
+   */
+  private void loadBlocksState() throws IOException {
+    if (myFreeBlocks != null) return;
+
+    final int freeBlockMapSize = getFreeBlockMapBlocksCount();
+    final ByteBuffer freeBlockMap = ByteBuffer.allocate(freeBlockMapSize * myBlockSize).order(ByteOrder.LITTLE_ENDIAN);
+    for (int i = 0; i < freeBlockMapSize; i++) {
+      freeBlockMap.limit((i + 1) * myBlockSize);
+      readFully(getBlockOffset(i * myBlockSize + myFreeBlockMapBlock), freeBlockMap);
+    }
+    freeBlockMap.flip();
+    myFreeBlocks = BitSet.valueOf(freeBlockMap);
+    if (myFreeBlocks.length() > myBlocksCount) {
+      myFreeBlocks.clear(myBlocksCount, myFreeBlocks.length());
+    }
+
+    myUsedBlocks = new BitSet(myBlocksCount);
+    myUsedBlocks.set(0);
+    for (int i = 0; i < getBlocksCount(myBlocksCount); i++) {
+      myUsedBlocks.set(i * myBlockSize + 1, i * myBlockSize + 3);
+    }
+    myUsedBlocks.set(myBlockMapAddress);
+    for (int block : myDirectoryBlocks) {
+      myUsedBlocks.set(block);
+    }
+    for (int[] blocks : myStreamBlocks) {
+      for (int block : blocks) {
+        myUsedBlocks.set(block);
+      }
+    }
+  }
+
+  private int allocateBlock() throws IOException {
+    for (int block = myFreeBlocks.nextSetBit(0); block >= 0 && block < myBlocksCount; block = myFreeBlocks.nextSetBit(block + 1)) {
+      if (!myUsedBlocks.get(block)) {
+        myFreeBlocks.clear(block);
+        myUsedBlocks.set(block);
+        return block;
+      }
+    }
+
+    // grow the file, every interval starts with a block followed by two free block map blocks
+    while (myBlocksCount % myBlockSize == 1 || myBlocksCount % myBlockSize == 2) {
+      final byte[] freeBlockMap = new byte[myBlockSize];
+      Arrays.fill(freeBlockMap, (byte) 0xff);
+      writeBlocks(new int[]{myBlocksCount}, freeBlockMap);
+      myUsedBlocks.set(myBlocksCount);
+      myBlocksCount++;
+    }
+    final int block = myBlocksCount++;
+    myUsedBlocks.set(block);
+    return block;
+  }
+
+  private void releaseBlocks(@NotNull final int[] blocks) {
+    for (int block : blocks) {
+      myUsedBlocks.clear(block);
+      myReleasedBlocks.add(block);
+    }
+  }
+
+  /**
+   * Free block map is a bit vector stored in the free block map blocks of subsequent intervals,
+   * only the blocks required to hold a bit for every block are used.
+   */
+  private void writeFreeBlockMap(final int freeBlockMapBlock) throws IOException {
+    final int freeBlockMapSize = getFreeBlockMapBlocksCount();
+    final BitSet freeBlocks = (BitSet) myFreeBlocks.clone();
+    freeBlocks.set(myBlocksCount, freeBlockMapSize * myBlockSize * 8);
+    final byte[] content = Arrays.copyOf(freeBlocks.toByteArray(), freeBlockMapSize * myBlockSize);
+    final int[] blocks = new int[freeBlockMapSize];
+    for (int i = 0; i < freeBlockMapSize; i++) {
+      blocks[i] = i * myBlockSize + freeBlockMapBlock;
+    }
+    writeBlocks(blocks, content);
+  }
+
+  private int getFreeBlockMapBlocksCount() {
+    return getBlocksCount((myBlocksCount + 7) / 8);
+  }
+
+  /**
+   * Writes the content to the blocks, the last block is padded with zeros.
+   */
+  private void writeBlocks(@NotNull final int[] blocks, @NotNull final byte[] content) throws IOException {
+    for (int i = 0; i < blocks.length; i++) {
+      final ByteBuffer block = ByteBuffer.allocate(myBlockSize);
+      block.put(content, i * myBlockSize, Math.min(myBlockSize, content.length - i * myBlockSize));
+      block.clear();
+      writeFully((long) blocks[i] * myBlockSize, block);
+    }
+  }
+
+  @NotNull
+  private ByteBuffer readBlocks(@NotNull final int[] blocks, final int size) throws IOException {
+    final ByteBuffer result = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    for (int block : blocks) {
+      final int length = Math.min(myBlockSize, result.remaining());
+      result.limit(result.position() + length);
+      readFully(getBlockOffset(block), result);
+      result.limit(result.capacity());
+    }
+    result.flip();
+    return result;
+  }
+
+  private long getBlockOffset(final int block) throws IOException {
+    if (block < 0 || block >= myBlocksCount) {
+      throw new IOException("Invalid MSF block index " + block);
+    }
+    return (long) block * myBlockSize;
+  }
+
+  private int getBlocksCount(final int size) {
+    return (int) (((long) size + myBlockSize - 1) / myBlockSize);
+  }
+
+  @NotNull
+  private ByteBuffer read(final long position, final int size) throws IOException {
+    final ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    readFully(position, buffer);
+    buffer.flip();
+    return buffer;
+  }
+
+  private void readFully(long position, @NotNull final ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      final int count = myChannel.read(buffer, position);
+      if (count < 0) {
+        throw new EOFException("Unexpected end of MSF file at " + position);
+      }
+      position += count;
+    }
+  }
+
+  private void writeFully(long position, @NotNull final ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      position += myChannel.write(buffer, position);
+    }
+  }
+}
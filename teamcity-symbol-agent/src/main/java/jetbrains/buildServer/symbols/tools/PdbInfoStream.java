@@ -0,0 +1,210 @@
+
+
+package jetbrains.buildServer.symbols.tools;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * PDB info stream of Windows PDB file: header with signature, age and GUID, named streams map and feature codes.
+ *
+ * The named streams map is a string buffer followed by a hash table of (string offset, stream index) pairs
+ * with present and deleted bit vectors. Buckets are chosen by the 16-bit PDB string hash with linear probing.
+ */
+class PdbInfoStream {
+
+  static final int INDEX = 1;
+  private static final int HEADER_SIZE = 28;
+
+  private final byte[] myHeader;
+  private final byte[] myStrings;
+  private final Map<String, Integer> myNamedStreams;
+  private final Map<String, Integer> myNameOffsets;
+  private final int myCapacity;
+  private final byte[] myTail;
+  private final Map<String, Integer> myAddedStreams = new LinkedHashMap<>();
+
+  private PdbInfoStream(@NotNull final byte[] header,
+                        @NotNull final byte[] strings,
+                        @NotNull final Map<String, Integer> namedStreams,
+                        @NotNull final Map<String, Integer> nameOffsets,
+                        final int capacity,
+                        @NotNull final byte[] tail) {
+    myHeader = header;
+    myStrings = strings;
+    myNamedStreams = namedStreams;
+    myNameOffsets = nameOffsets;
+    myCapacity = capacity;
+    myTail = tail;
+  }
+
+  @NotNull
+  static PdbInfoStream read(@NotNull final ByteBuffer info) {
+    final byte[] header = new byte[HEADER_SIZE];
+    info.get(header);
+
+    final byte[] strings = new byte[info.getInt()];
+    info.get(strings);
+    info.getInt(); // size
+    final int capacity = info.getInt();
+    final int[] present = readBitVector(info);
+    readBitVector(info); // deleted
+
+    final Map<String, Integer> namedStreams = new LinkedHashMap<>();
+    final Map<String, Integer> nameOffsets = new LinkedHashMap<>();
+    for (int i = 0; i < capacity; i++) {
+      if (isSet(present, i)) {
+        final int nameOffset = info.getInt();
+        final int streamIndex = info.getInt();
+        final String name = readString(strings, nameOffset);
+        namedStreams.put(name, streamIndex);
+        nameOffsets.put(name, nameOffset);
+      }
+    }
+
+    final byte[] tail = new byte[info.remaining()];
+    info.get(tail);
+    return new PdbInfoStream(header, strings, namedStreams, nameOffsets, capacity, tail);
+  }
+
+  /**
+   * @return GUID in the Microsoft byte order.
+   */
+  @NotNull
+  byte[] getGuid() {
+    return Arrays.copyOfRange(myHeader, 12, 28);
+  }
+
+  @Nullable
+  Integer getNamedStream(@NotNull final String name) {
+    final Integer index = myNamedStreams.get(name);
+    return index != null ? index : myAddedStreams.get(name);
+  }
+
+  void addNamedStream(@NotNull final String name, final int streamIndex) {
+    if (myNamedStreams.containsKey(name)) {
+      throw new IllegalArgumentException("Named stream " + name + " already exists");
+    }
+    myAddedStreams.put(name, streamIndex);
+  }
+
+  /**
+   * Serializes the stream, names added by {@link #addNamedStream(String, int)} are appended to the string buffer
+   * and the hash table is rebuilt.
+   */
+  @NotNull
+  byte[] toByteArray() {
+    final ByteArrayOutputStream strings = new ByteArrayOutputStream();
+    strings.write(myStrings, 0, myStrings.length);
+    final Map<String, Integer> streams = new LinkedHashMap<>(myNamedStreams);
+    final Map<String, Integer> offsets = new LinkedHashMap<>(myNameOffsets);
+    for (Map.Entry<String, Integer> entry : myAddedStreams.entrySet()) {
+      offsets.put(entry.getKey(), strings.size());
+      final byte[] name = entry.getKey().getBytes(StandardCharsets.UTF_8);
+      strings.write(name, 0, name.length);
+      strings.write(0);
+      streams.put(entry.getKey(), entry.getValue());
+    }
+
+    int capacity = Math.max(1, myCapacity);
+    while (streams.size() >= getMaxLoad(capacity)) {
+      capacity = getMaxLoad(capacity) * 2;
+    }
+    final String[] buckets = new String[capacity];
+    for (String name : streams.keySet()) {
+      int bucket = (hash(name) & 0xffff) % capacity;
+      while (buckets[bucket] != null) {
+        bucket = (bucket + 1) % capacity;
+      }
+      buckets[bucket] = name;
+    }
+
+    final int presentWords = (capacity + 31) / 32;
+    final ByteBuffer result = ByteBuffer
+      .allocate(HEADER_SIZE + 4 + strings.size() + 8 + 4 + presentWords * 4 + 4 + streams.size() * 8 + myTail.length)
+      .order(ByteOrder.LITTLE_ENDIAN);
+    result.put(myHeader);
+    result.putInt(strings.size());
+    result.put(strings.toByteArray());
+    result.putInt(streams.size());
+    result.putInt(capacity);
+    result.putInt(presentWords);
+    final int[] present = new int[presentWords];
+    for (int i = 0; i < capacity; i++) {
+      if (buckets[i] != null) present[i / 32] |= 1 << (i % 32);
+    }
+    for (int word : present) {
+      result.putInt(word);
+    }
+    result.putInt(0); // deleted
+    for (String name : buckets) {
+      if (name == null) continue;
+      result.putInt(offsets.get(name));
+      result.putInt(streams.get(name));
+    }
+    result.put(myTail);
+    return result.array();
+  }
+
+  /**
+   * PDB string hash (hashStringV1), case insensitive for ASCII names.
+   */
+  static int hash(@NotNull final String name) {
+    final byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+    final ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    int result = 0;
+    while (buffer.remaining() >= 4) {
+      result ^= buffer.getInt();
+    }
+    if (buffer.remaining() >= 2) {
+      result ^= buffer.getShort() & 0xffff;
+    }
+    if (buffer.remaining() == 1) {
+      result ^= buffer.get() & 0xff;
+    }
+    result |= 0x20202020;
+    result ^= result >>> 11;
+    return result ^ (result >>> 16);
+  }
+
+  private static int getMaxLoad(final int capacity) {
+    return capacity * 2 / 3 + 1;
+  }
+
+  @NotNull
+  private static int[] readBitVector(@NotNull final ByteBuffer buffer) {
+    final int count = buffer.getInt();
+    if (count < 0 || count > buffer.remaining() / 4) {
+      throw new IllegalArgumentException("Invalid bit vector size " + count);
+    }
+    final int[] words = new int[count];
+    for (int i = 0; i < words.length; i++) {
+      words[i] = buffer.getInt();
+    }
+    return words;
+  }
+
+  private static boolean isSet(@NotNull final int[] words, final int index) {
+    return index / 32 < words.length && (words[index / 32] & (1 << (index % 32))) != 0;
+  }
+
+  @NotNull
+  private static String readString(@NotNull final byte[] strings, final int offset) {
+    if (offset < 0 || offset >= strings.length) {
+      throw new IllegalArgumentException("Invalid string offset " + offset);
+    }
+    int end = offset;
+    while (end < strings.length && strings[end] != 0) {
+      end++;
+    }
+    return new String(strings, offset, end - offset, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,82 @@
+
+
+package jetbrains.buildServer.symbols.tools;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Metadata of a symbols file read by {@link PdbMetadataReader}.
+ */
+public class PdbMetadata {
+
+  private static final String PORTABLE_PDB_AGE = "ffffffff";
+
+  private final PdbType myType;
+  private final byte[] myGuid;
+  private final int myAge;
+  private final List<String> mySourceFiles;
+
+  PdbMetadata(@NotNull final PdbType type, @NotNull final byte[] guid, final int age, @NotNull final List<String> sourceFiles) {
+    myType = type;
+    myGuid = guid;
+    myAge = age;
+    mySourceFiles = Collections.unmodifiableList(sourceFiles);
+  }
+
+  @NotNull
+  public PdbType getType() {
+    return myType;
+  }
+
+  /**
+   * @return GUID in the 32 upper case hex digits format.
+   */
+  @NotNull
+  public String getGuid() {
+    return formatGuid(myGuid);
+  }
+
+  public int getAge() {
+    return myAge;
+  }
+
+  /**
+   * @return signature in the same format as JetSymbols dumpSymbolSign command: GUID followed by
+   * the age for Windows PDB files and by ffffffff for Portable PDB files.
+   */
+  @NotNull
+  public String getSignature() {
+    if (myType == PdbType.Windows) {
+      return getGuid() + Integer.toHexString(myAge).toUpperCase();
+    }
+    return getGuid() + PORTABLE_PDB_AGE;
+  }
+
+  /**
+   * @return source file paths referenced by the symbols file, without duplicates.
+   */
+  @NotNull
+  public List<String> getSourceFiles() {
+    return mySourceFiles;
+  }
+
+  /**
+   * Formats GUID stored in the Microsoft byte order, where the first three fields are little endian.
+   */
+  @NotNull
+  static String formatGuid(@NotNull final byte[] guid) {
+    final StringBuilder result = new StringBuilder(32);
+    appendHex(result, guid, new int[]{3, 2, 1, 0, 5, 4, 7, 6, 8, 9, 10, 11, 12, 13, 14, 15});
+    return result.toString();
+  }
+
+  private static void appendHex(@NotNull final StringBuilder builder, @NotNull final byte[] bytes, @NotNull final int[] order) {
+    for (int index : order) {
+      builder.append(Character.toUpperCase(Character.forDigit((bytes[index] >> 4) & 0xf, 16)));
+      builder.append(Character.toUpperCase(Character.forDigit(bytes[index] & 0xf, 16)));
+    }
+  }
+}
@@ -0,0 +1,367 @@
+
+
+package jetbrains.buildServer.symbols.tools;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Reads type, signature and referenced source files of Windows and Portable PDB files
+ * without starting external tools.
+ */
+public class PdbMetadataReader {
+
+  private static final int PORTABLE_PDB_MAGIC = 0x424A5342; // BSJB
+  private static final int MAX_PORTABLE_PDB_SIZE = 256 * 1024 * 1024;
+
+  private static final int DBI_STREAM = 3;
+  private static final int DBI_HEADER_SIZE = 64;
+  private static final int NAMES_STREAM_SIGNATURE = 0xEFFEEFFE;
+  private static final String NAMES_STREAM = "/names";
+
+  private static final int DOCUMENT_TABLE = 0x30;
+  private static final int HEAP_SIZE_GUID = 0x02;
+  private static final int HEAP_SIZE_BLOB = 0x04;
+
+  /**
+   * Detects the symbols file type by its signature.
+   *
+   * @return {@link PdbType#Windows}, {@link PdbType#Portable} or {@link PdbType#Undefined} for unknown files.
+   */
+  @NotNull
+  public static PdbType getPdbType(@NotNull final File file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      return getPdbType(channel);
+    }
+  }
+
+  /**
+   * Reads metadata of the symbols file.
+   *
+   * @throws IOException if the file could not be read or has unsupported format.
+   */
+  @NotNull
+  public static PdbMetadata read(@NotNull final File file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      final PdbType type = getPdbType(channel);
+      try {
+        switch (type) {
+          case Windows:
+            return readWindowsPdb(new MsfFile(channel));
+          case Portable:
+            return readPortablePdb(channel);
+          default:
+            throw new IOException("Unsupported symbols file format: " + file);
+        }
+      } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+        throw new IOException("Malformed symbols file " + file, e);
+      }
+    }
+  }
+
+  @NotNull
+  private static PdbType getPdbType(@NotNull final FileChannel channel) throws IOException {
+    final ByteBuffer header = ByteBuffer.allocate(MsfFile.MAGIC.length).order(ByteOrder.LITTLE_ENDIAN);
+    while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+      // read the file header
+    }
+    header.flip();
+    if (MsfFile.hasMagic(header)) return PdbType.Windows;
+    if (header.limit() >= 4 && header.getInt(0) == PORTABLE_PDB_MAGIC) return PdbType.Portable;
+    return PdbType.Undefined;
+  }
+
+  @NotNull
+  private static PdbMetadata readWindowsPdb(@NotNull final MsfFile msf) throws IOException {
+    final PdbInfoStream info = PdbInfoStream.read(msf.readStream(PdbInfoStream.INDEX));
+
+    final Set<String> sourceFiles = new SourceFilesSet();
+    int age = 1;
+    final ByteBuffer dbi = msf.readStream(DBI_STREAM);
+    if (dbi.limit() >= DBI_HEADER_SIZE) {
+      age = dbi.getInt(8);
+      final int modInfoSize = dbi.getInt(24);
+      final int sectionContributionSize = dbi.getInt(28);
+      final int sectionMapSize = dbi.getInt(32);
+      final int sourceInfoSize = dbi.getInt(36);
+      final int sourceInfoOffset = DBI_HEADER_SIZE + modInfoSize + sectionContributionSize + sectionMapSize;
+      if (sourceInfoSize > 0 && sourceInfoOffset >= DBI_HEADER_SIZE && sourceInfoOffset + sourceInfoSize <= dbi.limit()) {
+        dbi.position(sourceInfoOffset);
+        final ByteBuffer sourceInfo = dbi.slice().order(ByteOrder.LITTLE_ENDIAN);
+        sourceInfo.limit(sourceInfoSize);
+        readModuleSourceFiles(sourceInfo, sourceFiles);
+      }
+    }
+
+    final Integer namesStream = info.getNamedStream(NAMES_STREAM);
+    if (namesStream != null) {
+      readNamesStream(msf.readStream(namesStream), sourceFiles);
+    }
+
+    // the age from DBI stream is used as in the debuggers
+    return new PdbMetadata(PdbType.Windows, info.getGuid(), age, new ArrayList<>(sourceFiles));
+  }
+
+  /**
+   * Reads the file info substream of the DBI stream with source files of every module.
+   */
+  private static void readModuleSourceFiles(@NotNull final ByteBuffer sourceInfo, @NotNull final Set<String> sourceFiles) {
+    final int modulesCount = sourceInfo.getShort() & 0xffff;
+    sourceInfo.getShort(); // source files count, overflows for large PDBs
+    sourceInfo.position(sourceInfo.position() + modulesCount * 2); // module indices
+    int filesCount = 0;
+    for (int i = 0; i < modulesCount; i++) {
+      filesCount += sourceInfo.getShort() & 0xffff;
+    }
+    final int[] nameOffsets = new int[checkCount(sourceInfo, filesCount, 4)];
+    for (int i = 0; i < filesCount; i++) {
+      nameOffsets[i] = sourceInfo.getInt();
+    }
+    final int namesOffset = sourceInfo.position();
+    for (int nameOffset : nameOffsets) {
+      sourceFiles.add(readString(sourceInfo, namesOffset + nameOffset, sourceInfo.limit()));
+    }
+  }
+
+  /**
+   * Reads the /names string table which contains source file names referenced by line information.
+   */
+  private static void readNamesStream(@NotNull final ByteBuffer names, @NotNull final Set<String> sourceFiles) {
+    if (names.limit() < 12 || names.getInt() != NAMES_STREAM_SIGNATURE) return;
+    names.getInt(); // version
+    final int bufferSize = names.getInt();
+    final int bufferOffset = names.position();
+    names.position(bufferOffset + bufferSize);
+    final int idsCount = names.getInt();
+    for (int i = 0; i < idsCount; i++) {
+      final int offset = names.getInt();
+      if (offset > 0 && offset < bufferSize) {
+        sourceFiles.add(readString(names, bufferOffset + offset, bufferOffset + bufferSize));
+      }
+    }
+  }
+
+  @NotNull
+  private static PdbMetadata readPortablePdb(@NotNull final FileChannel channel) throws IOException {
+    final long size = channel.size();
+    if (size > MAX_PORTABLE_PDB_SIZE) {
+      throw new IOException("Portable PDB file is too large: " + size);
+    }
+    final ByteBuffer metadata = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+    while (metadata.hasRemaining()) {
+      if (channel.read(metadata, metadata.position()) < 0) throw new EOFException();
+    }
+    metadata.flip();
+    return readPortablePdb(metadata);
+  }
+
+  /**
+   * Reads Portable PDB metadata: PDB id from the #Pdb stream and document names from the Document table.
+   */
+  @NotNull
+  static PdbMetadata readPortablePdb(@NotNull final ByteBuffer metadata) throws IOException {
+    final PortablePdbStreams streams = PortablePdbStreams.read(metadata);
+    final ByteBuffer pdb = streams.get("#Pdb");
+    final ByteBuffer tables = streams.get("#~");
+    final ByteBuffer blobs = streams.get("#Blob");
+    if (pdb == null || tables == null) {
+      throw new IOException("Portable PDB metadata streams are missing");
+    }
+    final byte[] guid = new byte[16];
+    pdb.get(guid);
+
+    final Set<String> sourceFiles = new SourceFilesSet();
+    tables.position(6);
+    final int heapSizes = tables.get() & 0xff;
+    tables.get(); // reserved
+    final long validTables = tables.getLong();
+    tables.getLong(); // sorted tables
+    if ((validTables & ((1L << DOCUMENT_TABLE) - 1)) != 0) {
+      throw new IOException("Type system tables in Portable PDB are not supported");
+    }
+    final int[] rows = new int[64];
+    for (int table = 0; table < 64; table++) {
+      if ((validTables & (1L << table)) != 0) {
+        rows[table] = tables.getInt();
+      }
+    }
+
+    // Document table is the first one: Name (blob), HashAlgorithm (guid), Hash (blob), Language (guid)
+    final int blobIndexSize = (heapSizes & HEAP_SIZE_BLOB) != 0 ? 4 : 2;
+    final int guidIndexSize = (heapSizes & HEAP_SIZE_GUID) != 0 ? 4 : 2;
+    for (int i = 0; i < rows[DOCUMENT_TABLE]; i++) {
+      final int name = readIndex(tables, blobIndexSize);
+      readIndex(tables, guidIndexSize);
+      readIndex(tables, blobIndexSize);
+      readIndex(tables, guidIndexSize);
+      if (blobs != null) {
+        sourceFiles.add(readDocumentName(blobs, name));
+      }
+    }
+
+    return new PdbMetadata(PdbType.Portable, guid, -1, new ArrayList<>(sourceFiles));
+  }
+
+  /**
+   * Document name blob contains a separator followed by blob indices of UTF-8 name parts.
+   */
+  @NotNull
+  private static String readDocumentName(@NotNull final ByteBuffer blobs, final int index) {
+    if (index == 0) return "";
+    blobs.position(index);
+    final int length = readCompressedInt(blobs);
+    final int end = blobs.position() + length;
+    if (length == 0) return "";
+    final char separator = (char) (blobs.get() & 0xff);
+    final StringBuilder name = new StringBuilder();
+    boolean first = true;
+    while (blobs.position() < end) {
+      final int part = readCompressedInt(blobs);
+      if (!first && separator != 0) name.append(separator);
+      first = false;
+      if (part == 0) continue;
+      final int position = blobs.position();
+      blobs.position(part);
+      final int partLength = readCompressedInt(blobs);
+      name.append(new String(blobs.array(), blobs.arrayOffset() + blobs.position(), partLength, StandardCharsets.UTF_8));
+      blobs.position(position);
+    }
+    return name.toString();
+  }
+
+  /**
+   * Checks that the buffer contains the specified number of items, so malformed files do not cause huge allocations.
+   */
+  private static int checkCount(@NotNull final ByteBuffer buffer, final int count, final int itemSize) {
+    if (count < 0 || (long) count * itemSize > buffer.remaining()) {
+      throw new BufferUnderflowException();
+    }
+    return count;
+  }
+
+  static int readCompressedInt(@NotNull final ByteBuffer buffer) {
+    final int first = buffer.get() & 0xff;
+    if ((first & 0x80) == 0) return first;
+    if ((first & 0xc0) == 0x80) return ((first & 0x3f) << 8) | (buffer.get() & 0xff);
+    return ((first & 0x1f) << 24) | ((buffer.get() & 0xff) << 16) | ((buffer.get() & 0xff) << 8) | (buffer.get() & 0xff);
+  }
+
+  private static int readIndex(@NotNull final ByteBuffer buffer, final int size) {
+    return size == 4 ? buffer.getInt() : buffer.getShort() & 0xffff;
+  }
+
+  @NotNull
+  private static String readString(@NotNull final ByteBuffer buffer, final int offset, final int limit) {
+    int end = offset;
+    while (end < limit && buffer.get(end) != 0) {
+      end++;
+    }
+    final byte[] bytes = new byte[end - offset];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = buffer.get(offset + i);
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Keeps the first occurrence of every non-empty path, paths are compared ignoring case.
+   */
+  private static class SourceFilesSet extends AbstractSet<String> {
+    private final Map<String, String> myFiles = new LinkedHashMap<>();
+
+    @Override
+    public boolean add(@Nullable final String file) {
+      if (file == null || file.isEmpty()) return false;
+      final String key = file.toLowerCase(Locale.ENGLISH);
+      if (myFiles.containsKey(key)) return false;
+      myFiles.put(key, file);
+      return true;
+    }
+
+    @NotNull
+    @Override
+    public Iterator<String> iterator() {
+      return myFiles.values().iterator();
+    }
+
+    @Override
+    public int size() {
+      return myFiles.size();
+    }
+  }
+
+  /**
+   * Stream headers of ECMA-335 metadata root.
+   */
+  static class PortablePdbStreams {
+    private final Map<String, ByteBuffer> myStreams = new LinkedHashMap<>();
+    private byte[] myHeader;
+
+    @NotNull
+    static PortablePdbStreams read(@NotNull final ByteBuffer metadata) throws IOException {
+      if (metadata.getInt(0) != PORTABLE_PDB_MAGIC) {
+        throw new IOException("Not a Portable PDB file");
+      }
+      final PortablePdbStreams result = new PortablePdbStreams();
+      metadata.position(12);
+      final int versionLength = metadata.getInt();
+      metadata.position(metadata.position() + versionLength);
+      metadata.getShort(); // flags
+      result.myHeader = new byte[metadata.position()];
+      final ByteBuffer header = metadata.duplicate();
+      header.position(0);
+      header.get(result.myHeader);
+      final int streamsCount = metadata.getShort() & 0xffff;
+      for (int i = 0; i < streamsCount; i++) {
+        final int offset = metadata.getInt();
+        final int size = metadata.getInt();
+        final int nameOffset = metadata.position();
+        final String name = readString(metadata, nameOffset, metadata.limit());
+        metadata.position(nameOffset + ((name.length() + 4) & ~3));
+        if (offset < 0 || size < 0 || (long) offset + size > metadata.limit()) {
+          throw new IOException("Invalid Portable PDB stream " + name);
+        }
+        final int position = metadata.position();
+        metadata.position(offset);
+        final ByteBuffer stream = metadata.slice().order(ByteOrder.LITTLE_ENDIAN);
+        stream.limit(size);
+        metadata.position(position);
+        result.myStreams.put(name, stream);
+      }
+      return result;
+    }
+
+    /**
+     * @return metadata root header up to the streams count.
+     */
+    @NotNull
+    byte[] getHeader() {
+      return myHeader;
+    }
+
+    /**
+     * @return stream names in the order of stream headers.
+     */
+    @NotNull
+    Collection<String> getNames() {
+      return myStreams.keySet();
+    }
+
+    @Nullable
+    ByteBuffer get(@NotNull final String name) {
+      final ByteBuffer stream = myStreams.get(name);
+      return stream == null ? null : stream.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+  }
+}
@@ -0,0 +1,49 @@
+
+
+package jetbrains.buildServer.symbols.tools;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Adds or replaces named streams of Windows PDB files in place, like pdbstr.exe -w does.
+ *
+ * Only the blocks of the written stream, the PDB info stream when a new name is added,
+ * the stream directory and the free block map are written.
+ */
+public class PdbNamedStreamWriter {
+
+  /**
+   * @param pdbFile is a Windows PDB file.
+   * @param streamName is a stream name, e.g. {@link PdbStrExe#SRCSRV_STREAM_NAME}.
+   * @param content is a new stream content.
+   * @throws IOException if the file could not be updated.
+   */
+  public static void write(@NotNull final File pdbFile, @NotNull final String streamName, @NotNull final byte[] content) throws IOException {
+    try (FileChannel channel = FileChannel.open(pdbFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      final MsfFile msf = new MsfFile(channel);
+      final PdbInfoStream info;
+      try {
+        info = PdbInfoStream.read(msf.readStream(PdbInfoStream.INDEX));
+      } catch (BufferUnderflowException | IllegalArgumentException e) {
+        throw new IOException("Malformed PDB info stream in " + pdbFile, e);
+      }
+
+      final Integer streamIndex = info.getNamedStream(streamName);
+      if (streamIndex != null) {
+        msf.writeStream(streamIndex, content);
+      } else {
+        final int newStreamIndex = msf.getStreamsCount();
+        msf.writeStream(newStreamIndex, content);
+        info.addNamedStream(streamName, newStreamIndex);
+        msf.writeStream(PdbInfoStream.INDEX, info.toByteArray());
+      }
+      msf.commit();
+    }
+  }
+}
@@ -0,0 +1,60 @@
+
+
+package jetbrains.buildServer.symbols.tools;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Metadata of a PE binary file read by {@link PeFileReader}.
+ */
+public class PeFileMetadata {
+
+  private final int myTimestamp;
+  private final int mySizeOfImage;
+  private final PdbMetadata myPdbMetadata;
+  private final String myPdbPath;
+
+  PeFileMetadata(final int timestamp,
+                 final int sizeOfImage,
+                 @Nullable final PdbMetadata pdbMetadata,
+                 @Nullable final String pdbPath) {
+    myTimestamp = timestamp;
+    mySizeOfImage = sizeOfImage;
+    myPdbMetadata = pdbMetadata;
+    myPdbPath = pdbPath;
+  }
+
+  public int getTimestamp() {
+    return myTimestamp;
+  }
+
+  public int getSizeOfImage() {
+    return mySizeOfImage;
+  }
+
+  /**
+   * @return binary file signature used by symbol servers: time stamp followed by the image size.
+   */
+  @NotNull
+  public String getSignature() {
+    return Integer.toHexString(myTimestamp) + Integer.toHexString(mySizeOfImage);
+  }
+
+  /**
+   * @return type, GUID and age of the symbols file referenced by CodeView debug directory entry
+   * or null if the binary has no such entry. Source files are not available.
+   */
+  @Nullable
+  public PdbMetadata getPdbMetadata() {
+    return myPdbMetadata;
+  }
+
+  /**
+   * @return path to the symbols file stored in CodeView debug directory entry.
+   */
+  @Nullable
+  public String getPdbPath() {
+    return myPdbPath;
+  }
+}
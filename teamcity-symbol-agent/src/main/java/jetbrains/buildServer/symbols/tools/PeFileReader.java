@@ -0,0 +1,162 @@
+
+
+package jetbrains.buildServer.symbols.tools;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+
+/**
+ * Reads signatures of PE binary files (DLL, EXE) and the CodeView record of the referenced symbols file.
+ *
+ * Only headers, the debug directory and the CodeView record are read by positional reads,
+ * so files are neither mapped nor read completely.
+ */
+public class PeFileReader {
+
+  private static final int DOS_SIGNATURE = 0x5A4D; // MZ
+  private static final int PE_SIGNATURE = 0x00004550; // PE\0\0
+  private static final int CODE_VIEW_SIGNATURE = 0x53445352; // RSDS
+  private static final int PE32_MAGIC = 0x10b;
+  private static final int PE32_PLUS_MAGIC = 0x20b;
+  private static final int DEBUG_DIRECTORY_INDEX = 6;
+  private static final int DEBUG_DIRECTORY_ENTRY_SIZE = 28;
+  private static final int DEBUG_TYPE_CODE_VIEW = 2;
+  private static final int PORTABLE_CODE_VIEW_MINOR_VERSION = 0x504d; // PM
+  private static final int SECTION_HEADER_SIZE = 40;
+  private static final int MAX_DEBUG_DIRECTORY_ENTRIES = 64;
+  private static final int MAX_CODE_VIEW_SIZE = 4096;
+
+  /**
+   * @throws IOException if the file could not be read or is not a PE file.
+   */
+  @NotNull
+  public static PeFileMetadata read(@NotNull final File file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      return read(channel);
+    } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+      throw new IOException("Malformed PE file " + file, e);
+    }
+  }
+
+  @NotNull
+  private static PeFileMetadata read(@NotNull final FileChannel channel) throws IOException {
+    final ByteBuffer dosHeader = read(channel, 0, 64);
+    if ((dosHeader.getShort(0) & 0xffff) != DOS_SIGNATURE) {
+      throw new IOException("Not a PE file");
+    }
+    final long peOffset = dosHeader.getInt(60) & 0xffffffffL;
+
+    // signature, COFF header and optional header up to the data directories count
+    final ByteBuffer header = read(channel, peOffset, 24 + 112);
+    if (header.getInt(0) != PE_SIGNATURE) {
+      throw new IOException("Invalid PE header signature");
+    }
+    final int sectionsCount = header.getShort(6) & 0xffff;
+    final int timestamp = header.getInt(8);
+    final int optionalHeaderSize = header.getShort(20) & 0xffff;
+    final int magic = header.getShort(24) & 0xffff;
+    final int sizeOfImage = header.getInt(24 + 56);
+
+    final int dataDirectoriesOffset;
+    if (magic == PE32_MAGIC) {
+      dataDirectoriesOffset = 96;
+    } else if (magic == PE32_PLUS_MAGIC) {
+      dataDirectoriesOffset = 112;
+    } else {
+      return new PeFileMetadata(timestamp, sizeOfImage, null, null);
+    }
+    final int dataDirectoriesCount = header.getInt(24 + dataDirectoriesOffset - 4);
+    if (dataDirectoriesCount <= DEBUG_DIRECTORY_INDEX || optionalHeaderSize < dataDirectoriesOffset + (DEBUG_DIRECTORY_INDEX + 1) * 8) {
+      return new PeFileMetadata(timestamp, sizeOfImage, null, null);
+    }
+
+    final long optionalHeaderOffset = peOffset + 24;
+    final ByteBuffer debugDataDirectory = read(channel, optionalHeaderOffset + dataDirectoriesOffset + DEBUG_DIRECTORY_INDEX * 8, 8);
+    final int debugDirectoryRva = debugDataDirectory.getInt(0);
+    final int debugDirectorySize = debugDataDirectory.getInt(4);
+    if (debugDirectoryRva == 0 || debugDirectorySize < DEBUG_DIRECTORY_ENTRY_SIZE) {
+      return new PeFileMetadata(timestamp, sizeOfImage, null, null);
+    }
+
+    final ByteBuffer sections = read(channel, optionalHeaderOffset + optionalHeaderSize, sectionsCount * SECTION_HEADER_SIZE);
+    final long debugDirectoryOffset = getFileOffset(sections, sectionsCount, debugDirectoryRva);
+    if (debugDirectoryOffset < 0) {
+      return new PeFileMetadata(timestamp, sizeOfImage, null, null);
+    }
+
+    final int entriesCount = Math.min(debugDirectorySize / DEBUG_DIRECTORY_ENTRY_SIZE, MAX_DEBUG_DIRECTORY_ENTRIES);
+    final ByteBuffer debugDirectory = read(channel, debugDirectoryOffset, entriesCount * DEBUG_DIRECTORY_ENTRY_SIZE);
+    for (int i = 0; i < entriesCount; i++) {
+      final int entry = i * DEBUG_DIRECTORY_ENTRY_SIZE;
+      if (debugDirectory.getInt(entry + 12) != DEBUG_TYPE_CODE_VIEW) continue;
+      final int minorVersion = debugDirectory.getShort(entry + 10) & 0xffff;
+      final int dataSize = debugDirectory.getInt(entry + 16);
+      final long dataOffset = debugDirectory.getInt(entry + 24) & 0xffffffffL;
+      if (dataSize < 24 || dataSize > MAX_CODE_VIEW_SIZE) continue;
+
+      final ByteBuffer codeView = read(channel, dataOffset, dataSize);
+      if (codeView.getInt(0) != CODE_VIEW_SIGNATURE) continue;
+      final byte[] guid = new byte[16];
+      codeView.position(4);
+      codeView.get(guid);
+      final int age = codeView.getInt();
+      final PdbType type = minorVersion == PORTABLE_CODE_VIEW_MINOR_VERSION ? PdbType.Portable : PdbType.Windows;
+      final PdbMetadata pdbMetadata = new PdbMetadata(type, guid, age, Collections.<String>emptyList());
+      return new PeFileMetadata(timestamp, sizeOfImage, pdbMetadata, readString(codeView));
+    }
+    return new PeFileMetadata(timestamp, sizeOfImage, null, null);
+  }
+
+  /**
+   * @return file offset of the relative virtual address or -1 if it does not belong to any section.
+   */
+  private static long getFileOffset(@NotNull final ByteBuffer sections, final int sectionsCount, final int rva) {
+    final long address = rva & 0xffffffffL;
+    for (int i = 0; i < sectionsCount; i++) {
+      final int section = i * SECTION_HEADER_SIZE;
+      final long virtualSize = sections.getInt(section + 8) & 0xffffffffL;
+      final long virtualAddress = sections.getInt(section + 12) & 0xffffffffL;
+      final long rawDataSize = sections.getInt(section + 16) & 0xffffffffL;
+      final long rawDataOffset = sections.getInt(section + 20) & 0xffffffffL;
+      if (address >= virtualAddress && address < virtualAddress + Math.max(virtualSize, rawDataSize)) {
+        return address - virtualAddress + rawDataOffset;
+      }
+    }
+    return -1;
+  }
+
+  @Nullable
+  private static String readString(@NotNull final ByteBuffer buffer) {
+    final int start = buffer.position();
+    int end = start;
+    while (end < buffer.limit() && buffer.get(end) != 0) {
+      end++;
+    }
+    if (end == start) return null;
+    return new String(buffer.array(), start, end - start, StandardCharsets.UTF_8);
+  }
+
+  @NotNull
+  private static ByteBuffer read(@NotNull final FileChannel channel, final long position, final int size) throws IOException {
+    if (size < 0 || position < 0 || position + size > channel.size()) {
+      throw new EOFException("Unexpected end of PE file");
+    }
+    final ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) throw new EOFException();
+    }
+    buffer.flip();
+    return buffer;
+  }
+}
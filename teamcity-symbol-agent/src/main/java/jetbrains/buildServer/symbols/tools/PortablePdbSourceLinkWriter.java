@@ -0,0 +1,260 @@
+
+
+package jetbrains.buildServer.symbols.tools;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Embeds SourceLink JSON into Portable PDB file as a custom debug information record of the module.
+ *
+ * The GUID and blob heaps are only appended to, so existing heap indices and the PDB id stay unchanged.
+ * Debug tables are re-encoded since the index sizes may grow, then the metadata root is rewritten in place.
+ */
+public class PortablePdbSourceLinkWriter {
+
+  private static final int MAX_PORTABLE_PDB_SIZE = 256 * 1024 * 1024;
+  private static final byte[] SOURCE_LINK_KIND = guidBytes("CC110556-A091-4D38-9FEC-25AB9A351A6A");
+  private static final int MODULE_PARENT = (1 << 5) | PortablePdbTables.MODULE_TAG;
+
+  private static final int CDI_PARENT = 0;
+  private static final int CDI_KIND = 1;
+  private static final int CDI_VALUE = 2;
+
+  public static void write(@NotNull final File pdbFile, @NotNull final byte[] sourceLink) throws IOException {
+    try (FileChannel channel = FileChannel.open(pdbFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      final ByteBuffer metadata = readMetadata(channel);
+      final ByteBuffer[] content;
+      try {
+        content = embedSourceLink(metadata, sourceLink);
+      } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+        throw new IOException("Failed to parse Portable PDB file " + pdbFile + ": " + e, e);
+      }
+      long size = 0;
+      for (ByteBuffer buffer : content) {
+        size += buffer.remaining();
+      }
+      channel.position(0);
+      while (channel.position() < size) {
+        channel.write(content);
+      }
+      channel.truncate(size);
+      channel.force(false);
+    }
+  }
+
+  /**
+   * @return SourceLink JSON embedded into the file or null if there is none.
+   */
+  @Nullable
+  static byte[] read(@NotNull final File pdbFile) throws IOException {
+    try (FileChannel channel = FileChannel.open(pdbFile.toPath(), StandardOpenOption.READ)) {
+      final PdbMetadataReader.PortablePdbStreams streams = PdbMetadataReader.PortablePdbStreams.read(readMetadata(channel));
+      final PortablePdbTables tables = readTables(streams);
+      final int row = findSourceLink(tables, getStream(streams, "#GUID"));
+      if (row < 0) return null;
+      final ByteBuffer blobs = getStream(streams, "#Blob");
+      blobs.position(tables.get(PortablePdbTables.CUSTOM_DEBUG_INFORMATION_TABLE, row, CDI_VALUE));
+      final byte[] result = new byte[PdbMetadataReader.readCompressedInt(blobs)];
+      blobs.get(result);
+      return result;
+    } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+      throw new IOException("Failed to parse Portable PDB file " + pdbFile + ": " + e, e);
+    }
+  }
+
+  /**
+   * @return new file content: metadata root followed by the streams.
+   */
+  @NotNull
+  private static ByteBuffer[] embedSourceLink(@NotNull final ByteBuffer metadata, @NotNull final byte[] sourceLink) throws IOException {
+    final PdbMetadataReader.PortablePdbStreams streams = PdbMetadataReader.PortablePdbStreams.read(metadata);
+    if (streams.get("#-") != null) {
+      throw new IOException("Uncompressed Portable PDB tables are not supported");
+    }
+    final PortablePdbTables tables = readTables(streams);
+    final ByteBuffer guids = getStream(streams, "#GUID");
+    final ByteBuffer blobs = getStream(streams, "#Blob");
+
+    int kind = findGuid(guids, SOURCE_LINK_KIND);
+    ByteBuffer appendedGuid = ByteBuffer.allocate(0);
+    if (kind == 0) {
+      appendedGuid = ByteBuffer.wrap(SOURCE_LINK_KIND);
+      kind = guids.remaining() / 16 + 1;
+    }
+
+    final ByteArrayOutputStream blob = new ByteArrayOutputStream();
+    writeCompressedInt(blob, sourceLink.length);
+    blob.write(sourceLink, 0, sourceLink.length);
+    while ((blobs.remaining() + blob.size()) % 4 != 0) {
+      blob.write(0);
+    }
+    final int value = blobs.remaining();
+    final ByteBuffer appendedBlob = ByteBuffer.wrap(blob.toByteArray());
+
+    final int table = PortablePdbTables.CUSTOM_DEBUG_INFORMATION_TABLE;
+    final int row = findSourceLink(tables, guids);
+    if (row >= 0) {
+      tables.set(table, row, CDI_VALUE, value);
+    } else {
+      int position = 0;
+      while (position < tables.getRowsCount(table) && tables.get(table, position, CDI_PARENT) <= MODULE_PARENT) {
+        position++;
+      }
+      tables.insertRow(table, position, MODULE_PARENT, kind, value);
+    }
+    if (guids.remaining() + appendedGuid.remaining() >= 16 << 16) {
+      tables.addHeapSize(PortablePdbTables.HEAP_SIZE_GUID);
+    }
+    if (blobs.remaining() + appendedBlob.remaining() >= 1 << 16) {
+      tables.addHeapSize(PortablePdbTables.HEAP_SIZE_BLOB);
+    }
+
+    final List<String> names = new ArrayList<>(streams.getNames());
+    final List<ByteBuffer[]> contents = new ArrayList<>();
+    for (String name : names) {
+      if (name.equals("#~")) {
+        contents.add(new ByteBuffer[]{tables.toByteBuffer()});
+      } else if (name.equals("#GUID")) {
+        contents.add(new ByteBuffer[]{guids, appendedGuid});
+      } else if (name.equals("#Blob")) {
+        contents.add(new ByteBuffer[]{blobs, appendedBlob});
+      } else {
+        contents.add(new ByteBuffer[]{streams.get(name)});
+      }
+    }
+
+    final byte[] header = streams.getHeader();
+    int headerSize = header.length + 2;
+    for (String name : names) {
+      headerSize += 8 + getNameSize(name);
+    }
+    final ByteBuffer root = ByteBuffer.allocate(headerSize).order(ByteOrder.LITTLE_ENDIAN);
+    root.put(header);
+    root.putShort((short) names.size());
+
+    final List<ByteBuffer> result = new ArrayList<>();
+    result.add(root);
+    int offset = headerSize;
+    for (int i = 0; i < names.size(); i++) {
+      int size = 0;
+      for (ByteBuffer buffer : contents.get(i)) {
+        size += buffer.remaining();
+        result.add(buffer);
+      }
+      final int padding = (4 - size % 4) % 4;
+      result.add(ByteBuffer.allocate(padding));
+      root.putInt(offset);
+      root.putInt(size + padding);
+      final byte[] name = names.get(i).getBytes(StandardCharsets.US_ASCII);
+      root.put(Arrays.copyOf(name, getNameSize(names.get(i))));
+      offset += size + padding;
+    }
+    root.flip();
+    return result.toArray(new ByteBuffer[result.size()]);
+  }
+
+  @NotNull
+  private static ByteBuffer readMetadata(@NotNull final FileChannel channel) throws IOException {
+    final long size = channel.size();
+    if (size > MAX_PORTABLE_PDB_SIZE) {
+      throw new IOException("Portable PDB file is too large: " + size);
+    }
+    final ByteBuffer metadata = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+    while (metadata.hasRemaining()) {
+      if (channel.read(metadata, metadata.position()) < 0) throw new EOFException();
+    }
+    metadata.flip();
+    return metadata;
+  }
+
+  @NotNull
+  private static PortablePdbTables readTables(@NotNull final PdbMetadataReader.PortablePdbStreams streams) throws IOException {
+    return PortablePdbTables.read(getStream(streams, "#~"), getStream(streams, "#Pdb"));
+  }
+
+  @NotNull
+  private static ByteBuffer getStream(@NotNull final PdbMetadataReader.PortablePdbStreams streams, @NotNull final String name) throws IOException {
+    final ByteBuffer stream = streams.get(name);
+    if (stream == null) {
+      throw new IOException("Portable PDB stream " + name + " is missing");
+    }
+    return stream;
+  }
+
+  /**
+   * @return row of the module SourceLink record in the CustomDebugInformation table or -1.
+   */
+  private static int findSourceLink(@NotNull final PortablePdbTables tables, @NotNull final ByteBuffer guids) {
+    final int kind = findGuid(guids, SOURCE_LINK_KIND);
+    if (kind == 0) return -1;
+    final int table = PortablePdbTables.CUSTOM_DEBUG_INFORMATION_TABLE;
+    for (int row = 0; row < tables.getRowsCount(table); row++) {
+      if (tables.get(table, row, CDI_PARENT) == MODULE_PARENT && tables.get(table, row, CDI_KIND) == kind) {
+        return row;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return 1-based GUID heap index or 0 if the heap does not contain the GUID.
+   */
+  private static int findGuid(@NotNull final ByteBuffer guids, @NotNull final byte[] guid) {
+    final byte[] current = new byte[16];
+    final ByteBuffer heap = guids.duplicate();
+    for (int index = 1; heap.remaining() >= 16; index++) {
+      heap.get(current);
+      if (Arrays.equals(current, guid)) return index;
+    }
+    return 0;
+  }
+
+  private static int getNameSize(@NotNull final String name) {
+    return (name.length() + 4) & ~3;
+  }
+
+  private static void writeCompressedInt(@NotNull final ByteArrayOutputStream output, final int value) {
+    if (value < 0x80) {
+      output.write(value);
+    } else if (value < 0x4000) {
+      output.write(0x80 | (value >> 8));
+      output.write(value);
+    } else {
+      output.write(0xc0 | (value >> 24));
+      output.write(value >> 16);
+      output.write(value >> 8);
+      output.write(value);
+    }
+  }
+
+  /**
+   * @return GUID bytes in the Microsoft byte order.
+   */
+  @NotNull
+  private static byte[] guidBytes(@NotNull final String guid) {
+    final String hex = guid.replace("-", "");
+    final ByteBuffer result = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+    result.putInt((int) Long.parseLong(hex.substring(0, 8), 16));
+    result.putShort((short) Integer.parseInt(hex.substring(8, 12), 16));
+    result.putShort((short) Integer.parseInt(hex.substring(12, 16), 16));
+    for (int i = 16; i < 32; i += 2) {
+      result.put((byte) Integer.parseInt(hex.substring(i, i + 2), 16));
+    }
+    return result.array();
+  }
+}
@@ -0,0 +1,232 @@
+
+
+package jetbrains.buildServer.symbols.tools;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Debug tables of Portable PDB (#~ stream) decoded into per-column arrays.
+ *
+ * Only debug tables 0x30-0x37 may be present, rows counts of the type system tables they reference
+ * are taken from the #Pdb stream.
+ */
+class PortablePdbTables {
+
+  static final int HEAP_SIZE_STRING = 0x01;
+  static final int HEAP_SIZE_GUID = 0x02;
+  static final int HEAP_SIZE_BLOB = 0x04;
+  private static final int HEAP_SIZE_EXTRA_DATA = 0x40;
+
+  static final int DOCUMENT_TABLE = 0x30;
+  static final int CUSTOM_DEBUG_INFORMATION_TABLE = 0x37;
+  private static final int METHOD_DEF_TABLE = 0x06;
+  private static final int LOCAL_VARIABLE_TABLE = 0x33;
+  private static final int LOCAL_CONSTANT_TABLE = 0x34;
+  private static final int IMPORT_SCOPE_TABLE = 0x35;
+
+  private static final int STRING = -1;
+  private static final int GUID = -2;
+  private static final int BLOB = -3;
+  private static final int HAS_CUSTOM_DEBUG_INFORMATION = -4;
+  private static final int U16 = -5;
+  private static final int U32 = -6;
+
+  private static final int[][] SCHEMAS = {
+    {BLOB, GUID, BLOB, GUID}, // Document
+    {DOCUMENT_TABLE, BLOB}, // MethodDebugInformation
+    {METHOD_DEF_TABLE, IMPORT_SCOPE_TABLE, LOCAL_VARIABLE_TABLE, LOCAL_CONSTANT_TABLE, U32, U32}, // LocalScope
+    {U16, U16, STRING}, // LocalVariable
+    {STRING, BLOB}, // LocalConstant
+    {IMPORT_SCOPE_TABLE, BLOB}, // ImportScope
+    {METHOD_DEF_TABLE, METHOD_DEF_TABLE}, // StateMachineMethod
+    {HAS_CUSTOM_DEBUG_INFORMATION, GUID, BLOB} // CustomDebugInformation
+  };
+
+  private static final int HAS_CUSTOM_DEBUG_INFORMATION_TAG_BITS = 5;
+  private static final int[] HAS_CUSTOM_DEBUG_INFORMATION_TABLES = {
+    0x06, 0x04, 0x01, 0x02, 0x08, 0x09, 0x0A, 0x00, 0x0E, 0x17, 0x14, 0x11, 0x1A, 0x1B, 0x20, 0x23,
+    0x26, 0x27, 0x28, 0x2A, 0x2C, 0x2B, 0x30, 0x32, 0x33, 0x34, 0x35
+  };
+  static final int MODULE_TAG = 7;
+
+  private final byte[] myHeader = new byte[8];
+  private int myHeapSizes;
+  private long myValidTables;
+  private long mySortedTables;
+  private final int[] myRows = new int[64];
+  private final int[][][] myColumns = new int[64][][];
+
+  private PortablePdbTables() {
+  }
+
+  /**
+   * @param tables #~ stream.
+   * @param pdb #Pdb stream.
+   */
+  @NotNull
+  static PortablePdbTables read(@NotNull final ByteBuffer tables, @NotNull final ByteBuffer pdb) throws IOException {
+    final PortablePdbTables result = new PortablePdbTables();
+    tables.get(result.myHeader);
+    result.myHeapSizes = result.myHeader[6] & 0xff;
+    result.myValidTables = tables.getLong();
+    result.mySortedTables = tables.getLong();
+    if ((result.myHeapSizes & HEAP_SIZE_EXTRA_DATA) != 0) {
+      throw new IOException("Extra data in Portable PDB tables stream is not supported");
+    }
+    if ((result.myValidTables & ~getDebugTablesMask()) != 0) {
+      throw new IOException("Type system tables in Portable PDB are not supported");
+    }
+    for (int table = 0; table < 64; table++) {
+      if ((result.myValidTables & (1L << table)) != 0) {
+        result.myRows[table] = checkRowsCount(tables.getInt());
+      }
+    }
+
+    pdb.position(24); // PDB id and entry point
+    final long referencedTables = pdb.getLong();
+    for (int table = 0; table < DOCUMENT_TABLE; table++) {
+      if ((referencedTables & (1L << table)) != 0) {
+        result.myRows[table] = checkRowsCount(pdb.getInt());
+      }
+    }
+
+    for (int table = DOCUMENT_TABLE; table <= CUSTOM_DEBUG_INFORMATION_TABLE; table++) {
+      final int[] schema = SCHEMAS[table - DOCUMENT_TABLE];
+      final int rows = result.myRows[table];
+      if ((long) rows * result.getRowSize(table) > tables.remaining()) {
+        throw new IOException("Portable PDB table " + table + " is truncated");
+      }
+      final int[][] columns = new int[schema.length][rows];
+      for (int row = 0; row < rows; row++) {
+        for (int column = 0; column < schema.length; column++) {
+          columns[column][row] = readValue(tables, result.getColumnSize(schema[column]));
+        }
+      }
+      result.myColumns[table] = columns;
+    }
+    return result;
+  }
+
+  int getRowsCount(final int table) {
+    return myRows[table];
+  }
+
+  int get(final int table, final int row, final int column) {
+    return myColumns[table][column][row];
+  }
+
+  void set(final int table, final int row, final int column, final int value) {
+    myColumns[table][column][row] = value;
+  }
+
+  /**
+   * Inserts row at the specified position, the caller is responsible for keeping sorted tables sorted.
+   */
+  void insertRow(final int table, final int row, @NotNull final int... values) {
+    final int[][] columns = myColumns[table];
+    final int rows = myRows[table];
+    for (int column = 0; column < columns.length; column++) {
+      final int[] updated = new int[rows + 1];
+      System.arraycopy(columns[column], 0, updated, 0, row);
+      updated[row] = values[column];
+      System.arraycopy(columns[column], row, updated, row + 1, rows - row);
+      columns[column] = updated;
+    }
+    myRows[table] = rows + 1;
+    myValidTables |= 1L << table;
+  }
+
+  /**
+   * Enables wide indices for the heap, heap size flags are never cleared.
+   */
+  void addHeapSize(final int heapSize) {
+    myHeapSizes |= heapSize;
+  }
+
+  @NotNull
+  ByteBuffer toByteBuffer() {
+    int size = 24 + Long.bitCount(myValidTables) * 4;
+    for (int table = DOCUMENT_TABLE; table <= CUSTOM_DEBUG_INFORMATION_TABLE; table++) {
+      size += myRows[table] * getRowSize(table);
+    }
+    final ByteBuffer result = ByteBuffer.allocate((size + 3) & ~3).order(ByteOrder.LITTLE_ENDIAN);
+    myHeader[6] = (byte) myHeapSizes;
+    result.put(myHeader);
+    result.putLong(myValidTables);
+    result.putLong(mySortedTables);
+    for (int table = 0; table < 64; table++) {
+      if ((myValidTables & (1L << table)) != 0) {
+        result.putInt(myRows[table]);
+      }
+    }
+    for (int table = DOCUMENT_TABLE; table <= CUSTOM_DEBUG_INFORMATION_TABLE; table++) {
+      final int[] schema = SCHEMAS[table - DOCUMENT_TABLE];
+      final int[][] columns = myColumns[table];
+      for (int row = 0; row < myRows[table]; row++) {
+        for (int column = 0; column < schema.length; column++) {
+          writeValue(result, getColumnSize(schema[column]), columns[column][row]);
+        }
+      }
+    }
+    result.rewind();
+    return result;
+  }
+
+  private int getRowSize(final int table) {
+    int size = 0;
+    for (int column : SCHEMAS[table - DOCUMENT_TABLE]) {
+      size += getColumnSize(column);
+    }
+    return size;
+  }
+
+  private int getColumnSize(final int column) {
+    switch (column) {
+      case STRING:
+        return (myHeapSizes & HEAP_SIZE_STRING) != 0 ? 4 : 2;
+      case GUID:
+        return (myHeapSizes & HEAP_SIZE_GUID) != 0 ? 4 : 2;
+      case BLOB:
+        return (myHeapSizes & HEAP_SIZE_BLOB) != 0 ? 4 : 2;
+      case U16:
+        return 2;
+      case U32:
+        return 4;
+      case HAS_CUSTOM_DEBUG_INFORMATION:
+        int maxRows = 0;
+        for (int table : HAS_CUSTOM_DEBUG_INFORMATION_TABLES) {
+          maxRows = Math.max(maxRows, myRows[table]);
+        }
+        return maxRows < (1 << (16 - HAS_CUSTOM_DEBUG_INFORMATION_TAG_BITS)) ? 2 : 4;
+      default:
+        return myRows[column] < (1 << 16) ? 2 : 4;
+    }
+  }
+
+  private static long getDebugTablesMask() {
+    return ((1L << (CUSTOM_DEBUG_INFORMATION_TABLE + 1)) - 1) & ~((1L << DOCUMENT_TABLE) - 1);
+  }
+
+  private static int checkRowsCount(final int rows) throws IOException {
+    if (rows < 0 || rows >= (1 << 24)) {
+      throw new IOException("Invalid Portable PDB table rows count " + rows);
+    }
+    return rows;
+  }
+
+  private static int readValue(@NotNull final ByteBuffer buffer, final int size) {
+    return size == 4 ? buffer.getInt() : buffer.getShort() & 0xffff;
+  }
+
+  private static void writeValue(@NotNull final ByteBuffer buffer, final int size, final int value) {
+    if (size == 4) {
+      buffer.putInt(value);
+    } else {
+      buffer.putShort((short) value);
+    }
+  }
+}
@@ -0,0 +1,98 @@
+package jetbrains.buildServer.symbols;
+
+import jetbrains.buildServer.agent.NullBuildProgressLogger;
+import jetbrains.buildServer.symbols.tools.BinaryGuidDumper;
+import jetbrains.buildServer.symbols.tools.PeFileReader;
+import jetbrains.buildServer.util.FileUtil;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compares reading signatures of binary files one by one through the temporary XML file, as the indexer did before,
+ * and reading them in process by a thread pool.
+ */
+@Test(groups = "benchmark")
+public class BinarySignatureBenchmark {
+
+  private static final int FILES_COUNT = 2000;
+  private static final int ITERATIONS = 5;
+
+  public void compareSignatureReading() throws Exception {
+    final File directory = Files.createTempDirectory("binaries").toFile();
+    try {
+      final List<File> files = createFiles(directory);
+
+      long xmlTime = Long.MAX_VALUE;
+      long readerTime = Long.MAX_VALUE;
+      for (int i = 0; i < ITERATIONS; i++) {
+        long startTime = System.nanoTime();
+        final Set<String> xmlSignatures = readWithXml(files, directory);
+        xmlTime = Math.min(xmlTime, System.nanoTime() - startTime);
+
+        startTime = System.nanoTime();
+        final Set<String> readerSignatures = readInProcess(files);
+        readerTime = Math.min(readerTime, System.nanoTime() - startTime);
+
+        Assert.assertEquals(readerSignatures, xmlSignatures);
+      }
+
+      System.out.println(String.format("XML round trip: %d ms for %d files", xmlTime / 1000000, FILES_COUNT));
+      System.out.println(String.format("In process reader: %d ms for %d files", readerTime / 1000000, FILES_COUNT));
+      Assert.assertTrue(readerTime < xmlTime, "In process reader should be faster than XML round trip");
+    } finally {
+      FileUtil.delete(directory);
+    }
+  }
+
+  private static List<File> createFiles(final File directory) throws Exception {
+    final byte[] content = FileUtil.loadFileBytes(new File("src/test/resources/testData/TeamCityAPI.IDE.dll"));
+    final List<File> files = new ArrayList<>();
+    for (int i = 0; i < FILES_COUNT; i++) {
+      // every binary has its own time stamp
+      content[0x88] = (byte) i;
+      content[0x89] = (byte) (i >> 8);
+      final File file = new File(directory, "Assembly" + i + ".dll");
+      FileUtil.writeToFile(file, content);
+      files.add(file);
+    }
+    return files;
+  }
+
+  private static Set<String> readWithXml(final List<File> files, final File directory) throws Exception {
+    final Set<String> result = new HashSet<>();
+    for (File file : files) {
+      final File output = FileUtil.createTempFile(directory, "binary-signature-local-", ".xml", false);
+      BinaryGuidDumper.dumpBinaryGuidsToFile(Collections.singleton(file), output, new NullBuildProgressLogger());
+      try (FileInputStream input = new FileInputStream(output)) {
+        result.add(PdbSignatureIndexUtil.read(input, true).iterator().next().getGuid());
+      }
+      FileUtil.delete(output);
+    }
+    return result;
+  }
+
+  private static Set<String> readInProcess(final List<File> files) throws Exception {
+    final ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    try {
+      final List<Future<String>> signatures = new ArrayList<>();
+      for (File file : files) {
+        signatures.add(executor.submit(() -> PdbSignatureIndexUtil.extractGuid(PeFileReader.read(file).getSignature(), true)));
+      }
+      final Set<String> result = new HashSet<>();
+      for (Future<String> signature : signatures) {
+        result.add(signature.get());
+      }
+      return result;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
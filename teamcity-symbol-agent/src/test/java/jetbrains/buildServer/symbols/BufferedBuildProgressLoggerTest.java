@@ -0,0 +1,36 @@
+package jetbrains.buildServer.symbols;
+
+import jetbrains.buildServer.agent.BuildProgressLogger;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.Sequence;
+import org.testng.annotations.Test;
+
+public class BufferedBuildProgressLoggerTest {
+
+  @Test
+  public void shouldWriteMessagesOnFlush() {
+    Mockery m = new Mockery();
+    BuildProgressLogger target = m.mock(BuildProgressLogger.class);
+    BufferedBuildProgressLogger bufferedLogger = new BufferedBuildProgressLogger(target);
+
+    // Given
+    bufferedLogger.getLogger().message("first");
+    bufferedLogger.getLogger().warning("second");
+    bufferedLogger.getLogger().error("third");
+    m.assertIsSatisfied();
+
+    // When
+    Sequence sequence = m.sequence("messages");
+    m.checking(new Expectations(){{
+      oneOf(target).message("first"); inSequence(sequence);
+      oneOf(target).warning("second"); inSequence(sequence);
+      oneOf(target).error("third"); inSequence(sequence);
+    }});
+    bufferedLogger.flush();
+    bufferedLogger.flush();
+
+    // Then
+    m.assertIsSatisfied();
+  }
+}
@@ -0,0 +1,92 @@
+package jetbrains.buildServer.symbols;
+
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.symbols.tools.PdbType;
+import jetbrains.buildServer.util.FileUtil;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class PdbIndexingCacheTest extends BaseTestCase {
+
+  @Test
+  public void testEntry() throws Exception {
+    final File directory = createTempDir();
+    final PdbIndexingCache cache = new PdbIndexingCache(directory, 1024 * 1024);
+    Assert.assertNull(cache.getEntry("hash"));
+
+    cache.putEntry("hash", new PdbIndexingCache.Entry(PdbType.Portable,
+      Arrays.asList(new File("C:\\Sources\\Program.cs"), new File("C:\\Sources\\\u041a\u043b\u0430\u0441\u0441.cs")), "35b9c5035ce54dcf977e0b12b0a96daa"));
+
+    // entries survive agent restart
+    final PdbIndexingCache.Entry entry = new PdbIndexingCache(directory, 1024 * 1024).getEntry("hash");
+    Assert.assertNotNull(entry);
+    Assert.assertEquals(entry.getType(), PdbType.Portable);
+    Assert.assertEquals(entry.getSignature(), "35b9c5035ce54dcf977e0b12b0a96daa");
+    Assert.assertEquals(entry.getSourceFiles(), Arrays.asList(new File("C:\\Sources\\Program.cs"), new File("C:\\Sources\\\u041a\u043b\u0430\u0441\u0441.cs")));
+  }
+
+  @Test
+  public void testLeastRecentlyUsedFilesAreEvicted() throws Exception {
+    final File directory = createTempDir();
+    final PdbIndexingCache cache = new PdbIndexingCache(directory, 2 * 1024);
+    final char[] path = new char[900];
+    Arrays.fill(path, 'a');
+    final PdbIndexingCache.Entry entry = new PdbIndexingCache.Entry(PdbType.Portable, Collections.singletonList(new File(new String(path))), null);
+
+    cache.putEntry("hash1", entry);
+    cache.putEntry("hash2", entry);
+    Assert.assertNotNull(cache.getEntry("hash1"));
+    cache.putEntry("hash3", entry);
+
+    Assert.assertNotNull(cache.getEntry("hash1"));
+    Assert.assertNull(cache.getEntry("hash2"));
+    Assert.assertNotNull(cache.getEntry("hash3"));
+    Assert.assertEquals(directory.listFiles().length, 2);
+  }
+
+  @Test
+  public void testPatchedFilesOfPreviousVersionAreRemoved() throws Exception {
+    final File directory = createTempDir();
+    final File patchedFile = new File(directory, "hash-links.pdb");
+    FileUtil.writeFile(patchedFile, "patched content", "UTF-8");
+
+    new PdbIndexingCache(directory, 1024 * 1024);
+
+    Assert.assertFalse(patchedFile.exists());
+  }
+
+  @Test
+  public void testContentHash() throws Exception {
+    final File file1 = createFile("content");
+    final File file2 = createFile("content");
+    final File file3 = createFile("other content");
+
+    Assert.assertEquals(PdbIndexingCache.getContentHash(file1), PdbIndexingCache.getContentHash(file2));
+    Assert.assertFalse(PdbIndexingCache.getContentHash(file1).equals(PdbIndexingCache.getContentHash(file3)));
+    Assert.assertEquals(PdbIndexingCache.getContentHash(createTempFile()),
+      "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855");
+  }
+
+  @Test
+  public void testEmptyEntry() throws Exception {
+    final PdbIndexingCache cache = new PdbIndexingCache(createTempDir(), 1024 * 1024);
+
+    cache.putEntry("hash", new PdbIndexingCache.Entry(PdbType.Windows, Collections.<File>emptyList(), null));
+
+    final PdbIndexingCache.Entry entry = cache.getEntry("hash");
+    Assert.assertNotNull(entry);
+    Assert.assertEquals(entry.getType(), PdbType.Windows);
+    Assert.assertNull(entry.getSignature());
+    Assert.assertTrue(entry.getSourceFiles().isEmpty());
+  }
+
+  private File createFile(String content) throws Exception {
+    final File file = createTempFile();
+    FileUtil.writeFile(file, content, "UTF-8");
+    return file;
+  }
+}
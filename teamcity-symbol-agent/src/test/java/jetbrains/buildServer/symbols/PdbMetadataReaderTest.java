@@ -0,0 +1,77 @@
+package jetbrains.buildServer.symbols;
+
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.symbols.tools.PdbMetadata;
+import jetbrains.buildServer.symbols.tools.PdbMetadataReader;
+import jetbrains.buildServer.symbols.tools.PdbType;
+import jetbrains.buildServer.util.FileUtil;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+public class PdbMetadataReaderTest extends BaseTestCase {
+
+  private static final String TEST_DATA = "src/test/resources/testData/";
+
+  @DataProvider
+  public Object[][] symbolFiles() {
+    return new Object[][]{
+      {"JetBrains.CommandLine.Symbols.pdb", PdbType.Windows, "B6F8E6822C014FD08C7581AEF2EEF97C1", 5,
+        "C:\\Sources\\teamcity-symbol-server\\jet-symbols\\src\\JetBrains.CommandLine.Symbols\\Program.cs"},
+      {"WindowsAzure.StorageExtensions.pdb", PdbType.Portable, "35B9C5035CE54DCF977E0B12B0A96DAAffffffff", 45,
+        "C:\\Sources\\WindowsAzure\\WindowsAzure\\Table\\TableSet.cs"}
+    };
+  }
+
+  @Test(dataProvider = "symbolFiles")
+  public void testReadMetadata(String fileName, PdbType type, String signature, int sourceFilesCount, String sourceFile) throws Exception {
+    final File file = new File(TEST_DATA + fileName);
+
+    final PdbMetadata metadata = PdbMetadataReader.read(file);
+
+    Assert.assertEquals(PdbMetadataReader.getPdbType(file), type);
+    Assert.assertEquals(metadata.getType(), type);
+    Assert.assertEquals(metadata.getSignature(), signature);
+    Assert.assertEquals(metadata.getSourceFiles().size(), sourceFilesCount);
+    Assert.assertTrue(metadata.getSourceFiles().contains(sourceFile), metadata.getSourceFiles().toString());
+  }
+
+  @Test(dataProvider = "symbolFiles")
+  public void testTruncatedFile(String fileName, PdbType type, String signature, int sourceFilesCount, String sourceFile) throws Exception {
+    final byte[] content = FileUtil.loadFileBytes(new File(TEST_DATA + fileName));
+    final File file = createTempFile();
+    FileUtil.writeToFile(file, Arrays.copyOf(content, content.length / 3));
+
+    Assert.assertEquals(PdbMetadataReader.getPdbType(file), type);
+    try {
+      PdbMetadataReader.read(file);
+      Assert.fail("Truncated file should not be read");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testUnknownFile() throws Exception {
+    final File file = new File(TEST_DATA + "TeamCityAPI.IDE.dll");
+
+    Assert.assertEquals(PdbMetadataReader.getPdbType(file), PdbType.Undefined);
+    try {
+      PdbMetadataReader.read(file);
+      Assert.fail("Binary file should not be read");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testEmptyFile() throws Exception {
+    final File file = createTempFile();
+
+    Assert.assertEquals(PdbMetadataReader.getPdbType(file), PdbType.Undefined);
+  }
+}
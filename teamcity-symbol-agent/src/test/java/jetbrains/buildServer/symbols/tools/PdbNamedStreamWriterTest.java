@@ -0,0 +1,75 @@
+package jetbrains.buildServer.symbols.tools;
+
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.util.FileUtil;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class PdbNamedStreamWriterTest extends BaseTestCase {
+
+  private static final String PDB_FILE = "src/test/resources/testData/JetBrains.CommandLine.Symbols.pdb";
+
+  @Test
+  public void testAddStream() throws Exception {
+    final File pdbFile = copyPdbFile();
+    final byte[] content = "SRCSRV: ini ---\r\nVERSION=3\r\nSRCSRV: end ---".getBytes(StandardCharsets.US_ASCII);
+
+    PdbNamedStreamWriter.write(pdbFile, PdbStrExe.SRCSRV_STREAM_NAME, content);
+
+    Assert.assertEquals(readNamedStream(pdbFile, PdbStrExe.SRCSRV_STREAM_NAME), content);
+    Assert.assertNotNull(readNamedStream(pdbFile, "/names"));
+    final PdbMetadata metadata = PdbMetadataReader.read(pdbFile);
+    Assert.assertEquals(metadata.getSignature(), "B6F8E6822C014FD08C7581AEF2EEF97C1");
+    Assert.assertEquals(metadata.getSourceFiles().size(), 5);
+  }
+
+  @Test
+  public void testReplaceStream() throws Exception {
+    final File pdbFile = copyPdbFile();
+    final byte[] largeContent = new byte[100000];
+    Arrays.fill(largeContent, (byte) 'a');
+    PdbNamedStreamWriter.write(pdbFile, PdbStrExe.SRCSRV_STREAM_NAME, largeContent);
+    final long length = pdbFile.length();
+
+    for (int i = 0; i < 10; i++) {
+      final byte[] content = ("content " + i).getBytes(StandardCharsets.US_ASCII);
+      PdbNamedStreamWriter.write(pdbFile, PdbStrExe.SRCSRV_STREAM_NAME, content);
+      Assert.assertEquals(readNamedStream(pdbFile, PdbStrExe.SRCSRV_STREAM_NAME), content);
+    }
+
+    // released blocks are reused, so the file does not grow
+    Assert.assertEquals(pdbFile.length(), length);
+  }
+
+  @Test
+  public void testHashOfExistingNames() throws Exception {
+    // names of the sample file are placed to their buckets using the same hash
+    Assert.assertEquals((PdbInfoStream.hash("/names") & 0xffff) % 14, 5);
+    Assert.assertEquals((PdbInfoStream.hash("/LinkInfo") & 0xffff) % 14, 7);
+    Assert.assertEquals((PdbInfoStream.hash("/src/headerblock") & 0xffff) % 14, 9);
+  }
+
+  private File copyPdbFile() throws Exception {
+    final File pdbFile = new File(createTempDir(), "test.pdb");
+    FileUtil.copy(new File(PDB_FILE), pdbFile);
+    return pdbFile;
+  }
+
+  private static byte[] readNamedStream(File pdbFile, String name) throws Exception {
+    try (FileChannel channel = FileChannel.open(pdbFile.toPath())) {
+      final MsfFile msf = new MsfFile(channel);
+      final Integer index = PdbInfoStream.read(msf.readStream(PdbInfoStream.INDEX)).getNamedStream(name);
+      if (index == null) return null;
+      final ByteBuffer stream = msf.readStream(index);
+      final byte[] result = new byte[stream.remaining()];
+      stream.get(result);
+      return result;
+    }
+  }
+}
@@ -0,0 +1,59 @@
+package jetbrains.buildServer.symbols.tools;
+
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.util.FileUtil;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+public class PeFileReaderTest extends BaseTestCase {
+
+  private static final String DLL_FILE = "src/test/resources/testData/TeamCityAPI.IDE.dll";
+
+  @Test
+  public void testReadSignature() throws Exception {
+    final PeFileMetadata metadata = PeFileReader.read(new File(DLL_FILE));
+
+    Assert.assertEquals(metadata.getTimestamp(), 0x5473258d);
+    Assert.assertEquals(metadata.getSizeOfImage(), 0x8000);
+    Assert.assertEquals(metadata.getSignature(), "5473258d8000");
+  }
+
+  @Test
+  public void testReadCodeViewRecord() throws Exception {
+    final PeFileMetadata metadata = PeFileReader.read(new File(DLL_FILE));
+
+    final PdbMetadata pdbMetadata = metadata.getPdbMetadata();
+    Assert.assertNotNull(pdbMetadata);
+    Assert.assertEquals(pdbMetadata.getType(), PdbType.Windows);
+    Assert.assertEquals(pdbMetadata.getSignature(), "BB664ECDCAE0459794601C4AE94BC0821");
+    Assert.assertEquals(metadata.getPdbPath(), "c:\\Data\\Work\\TeamCity\\misc\\TeamCityAPI.IDE\\TeamCityAPI.IDE\\obj\\Debug\\TeamCityAPI.IDE.pdb");
+  }
+
+  @Test
+  public void testTruncatedFile() throws Exception {
+    final byte[] content = FileUtil.loadFileBytes(new File(DLL_FILE));
+    final File file = createTempFile();
+    FileUtil.writeToFile(file, Arrays.copyOf(content, content.length / 3));
+
+    try {
+      PeFileReader.read(file);
+      Assert.fail("Truncated file should not be read");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testNotBinaryFile() throws Exception {
+    try {
+      PeFileReader.read(new File("src/test/resources/testData/JetBrains.CommandLine.Symbols.pdb"));
+      Assert.fail("Symbols file should not be read");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+}
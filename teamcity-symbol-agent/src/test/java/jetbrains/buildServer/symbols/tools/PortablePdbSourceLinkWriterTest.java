@@ -0,0 +1,76 @@
+package jetbrains.buildServer.symbols.tools;
+
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.util.FileUtil;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class PortablePdbSourceLinkWriterTest extends BaseTestCase {
+
+  private static final String PDB_FILE = "src/test/resources/testData/WindowsAzure.StorageExtensions.pdb";
+  private static final String SIGNATURE = "35B9C5035CE54DCF977E0B12B0A96DAAffffffff";
+
+  @Test
+  public void testAddSourceLink() throws Exception {
+    final File pdbFile = copyPdbFile();
+    final byte[] sourceLink = "{\"documents\":{\"C:\\\\Sources\\\\*\":\"http://teamcity/app/sources/builds/id-1/sources/*\"}}"
+      .getBytes(StandardCharsets.UTF_8);
+    Assert.assertNull(PortablePdbSourceLinkWriter.read(pdbFile));
+
+    PortablePdbSourceLinkWriter.write(pdbFile, sourceLink);
+
+    Assert.assertEquals(PortablePdbSourceLinkWriter.read(pdbFile), sourceLink);
+    assertMetadata(pdbFile);
+  }
+
+  @Test
+  public void testReplaceSourceLink() throws Exception {
+    final File pdbFile = copyPdbFile();
+    PortablePdbSourceLinkWriter.write(pdbFile, "{\"documents\":{}}".getBytes(StandardCharsets.UTF_8));
+
+    // large blob makes blob heap indices 4 bytes wide, so all tables are re-encoded
+    final byte[] largeSourceLink = new byte[100000];
+    Arrays.fill(largeSourceLink, (byte) 'a');
+    PortablePdbSourceLinkWriter.write(pdbFile, largeSourceLink);
+    Assert.assertEquals(PortablePdbSourceLinkWriter.read(pdbFile), largeSourceLink);
+    assertMetadata(pdbFile);
+
+    final byte[] sourceLink = "{}".getBytes(StandardCharsets.UTF_8);
+    PortablePdbSourceLinkWriter.write(pdbFile, sourceLink);
+    Assert.assertEquals(PortablePdbSourceLinkWriter.read(pdbFile), sourceLink);
+    assertMetadata(pdbFile);
+  }
+
+  @Test
+  public void testWindowsPdbIsNotChanged() throws Exception {
+    final File pdbFile = new File(createTempDir(), "test.pdb");
+    FileUtil.copy(new File("src/test/resources/testData/JetBrains.CommandLine.Symbols.pdb"), pdbFile);
+    final byte[] content = FileUtil.loadFileBytes(pdbFile);
+
+    try {
+      PortablePdbSourceLinkWriter.write(pdbFile, "{}".getBytes(StandardCharsets.UTF_8));
+      Assert.fail("Windows PDB file should not be patched");
+    } catch (IOException e) {
+      // expected
+    }
+    Assert.assertEquals(FileUtil.loadFileBytes(pdbFile), content);
+  }
+
+  private static void assertMetadata(File pdbFile) throws Exception {
+    final PdbMetadata metadata = PdbMetadataReader.read(pdbFile);
+    Assert.assertEquals(metadata.getType(), PdbType.Portable);
+    Assert.assertEquals(metadata.getSignature(), SIGNATURE);
+    Assert.assertEquals(metadata.getSourceFiles().size(), 45);
+  }
+
+  private File copyPdbFile() throws Exception {
+    final File pdbFile = new File(createTempDir(), "test.pdb");
+    FileUtil.copy(new File(PDB_FILE), pdbFile);
+    return pdbFile;
+  }
+}
@@ -0,0 +1,369 @@
+
+
+package jetbrains.buildServer.symbols;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compact binary representation of signature index files.
+ *
+ * Layout, integers are unsigned LEB128 varints unless stated otherwise:
+ * <pre>
+ *   magic "TCSI", version byte, flags byte
+ *   strings count, strings: UTF-8 bytes length, bytes
+ *   entries count, entries: flags byte, signature, file name string index, [artifact path string index]
+ *   [CRC32 of all previous bytes, 4 bytes big endian]
+ * </pre>
+ * When the deflate flag is set, strings and entries are stored compressed.
+ * Signatures of 32 lowercase hex digits are stored as 16 raw bytes, other ones as string indices.
+ * Artifact paths which end with "/" and the file name are stored as the directory string index.
+ */
+class PdbSignatureIndexBinaryFormat {
+  private static final byte[] MAGIC = {'T', 'C', 'S', 'I'};
+  private static final int VERSION = 1;
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final int MAX_STRING_LENGTH = 1024 * 1024;
+
+  private static final int FLAG_CHECKSUM = 1;
+  private static final int FLAG_DEFLATE = 2;
+
+  private static final int ENTRY_RAW_GUID = 1;
+  private static final int ENTRY_ARTIFACT_PATH = 2;
+  private static final int ENTRY_ARTIFACT_DIRECTORY = 4;
+
+  /**
+   * @return true if the stream starts with binary index header, the stream position is not changed.
+   */
+  static boolean isBinaryIndex(@NotNull final InputStream inputStream) throws IOException {
+    inputStream.mark(MAGIC.length);
+    try {
+      for (byte b : MAGIC) {
+        if (inputStream.read() != b) return false;
+      }
+      return true;
+    } finally {
+      inputStream.reset();
+    }
+  }
+
+  /**
+   * Reads index entries one by one and passes them to the visitor, neither the file nor the inflated content is buffered.
+   * The checksum is verified after the last entry, so entries passed to the visitor should be discarded on failure.
+   */
+  static int read(@NotNull final InputStream inputStream, final boolean cutDbgAge, @NotNull final PdbSignatureIndexUtil.EntryVisitor visitor) throws IOException {
+    try {
+      return readIndex(inputStream, cutDbgAge, visitor);
+    } catch (EOFException e) {
+      throw new IOException("Unexpected end of signature index", e);
+    }
+  }
+
+  private static int readIndex(@NotNull final InputStream inputStream, final boolean cutDbgAge, @NotNull final PdbSignatureIndexUtil.EntryVisitor visitor) throws IOException {
+    final byte[] header = new byte[MAGIC.length + 2];
+    new DataInputStream(inputStream).readFully(header);
+    final int version = header[MAGIC.length] & 0xff;
+    if (version != VERSION) {
+      throw new IOException("Unsupported signature index version " + version);
+    }
+    final int flags = header[MAGIC.length + 1] & 0xff;
+
+    final CRC32 checksum = new CRC32();
+    checksum.update(header, 0, header.length);
+    TrailerInputStream trailerInput = null;
+    InputStream checkedInput = inputStream;
+    if ((flags & FLAG_CHECKSUM) != 0) {
+      trailerInput = new TrailerInputStream(inputStream);
+      checkedInput = new CheckedInputStream(trailerInput, checksum);
+    }
+
+    Inflater inflater = null;
+    try {
+      InputStream content = checkedInput;
+      if ((flags & FLAG_DEFLATE) != 0) {
+        inflater = new Inflater();
+        content = new BufferedInputStream(new InflaterInputStream(checkedInput, inflater, BUFFER_SIZE), BUFFER_SIZE);
+      }
+      final int entriesCount = readEntries(new DataInputStream(content), cutDbgAge, visitor);
+
+      if (trailerInput != null) {
+        // bytes left after the last entry and after the compressed data are covered by the checksum too
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        while (content.read(buffer) >= 0) {
+          // skip
+        }
+        while (checkedInput.read(buffer) >= 0) {
+          // skip
+        }
+        if (trailerInput.getTrailer() != (int) checksum.getValue()) {
+          throw new IOException("Signature index checksum mismatch");
+        }
+      }
+      return entriesCount;
+    } finally {
+      if (inflater != null) {
+        inflater.end();
+      }
+    }
+  }
+
+  private static int readEntries(@NotNull final DataInputStream input, final boolean cutDbgAge, @NotNull final PdbSignatureIndexUtil.EntryVisitor visitor) throws IOException {
+    final int stringsCount = readCount(input);
+    final List<String> strings = new ArrayList<String>(Math.min(stringsCount, BUFFER_SIZE));
+    byte[] stringBytes = new byte[256];
+    for (int i = 0; i < stringsCount; i++) {
+      final int length = readCount(input);
+      if (length > MAX_STRING_LENGTH) {
+        throw new IOException("Invalid signature index string length " + length);
+      }
+      if (length > stringBytes.length) {
+        stringBytes = new byte[Math.max(length, 2 * stringBytes.length)];
+      }
+      input.readFully(stringBytes, 0, length);
+      strings.add(new String(stringBytes, 0, length, UTF_8));
+    }
+
+    final int entriesCount = readCount(input);
+    final byte[] guid = new byte[16];
+    for (int i = 0; i < entriesCount; i++) {
+      final int entryFlags = input.readUnsignedByte();
+      final String sign;
+      if ((entryFlags & ENTRY_RAW_GUID) != 0) {
+        input.readFully(guid);
+        sign = toHex(guid);
+      } else {
+        sign = getString(strings, input);
+      }
+      final String fileName = getString(strings, input);
+      String artifactPath = null;
+      if ((entryFlags & ENTRY_ARTIFACT_PATH) != 0) {
+        artifactPath = getString(strings, input);
+        if ((entryFlags & ENTRY_ARTIFACT_DIRECTORY) != 0) {
+          artifactPath = artifactPath + "/" + fileName;
+        }
+      }
+      visitor.visit(new PdbSignatureIndexEntry(PdbSignatureIndexUtil.extractGuid(sign, cutDbgAge), fileName, artifactPath));
+    }
+    return entriesCount;
+  }
+
+  /**
+   * Writes index entries, the output stream is flushed but not closed.
+   */
+  static void write(@NotNull final OutputStream outputStream, @NotNull final Iterable<PdbSignatureIndexEntry> indexData) throws IOException {
+    final Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+    int entriesCount = 0;
+    for (PdbSignatureIndexEntry entry : indexData) {
+      if (parseGuid(entry.getGuid()) == null) {
+        addString(strings, entry.getGuid());
+      }
+      addString(strings, entry.getFileName());
+      final String artifactPath = entry.getArtifactPath();
+      if (artifactPath != null) {
+        final String directory = getArtifactDirectory(artifactPath, entry.getFileName());
+        addString(strings, directory != null ? directory : artifactPath);
+      }
+      entriesCount++;
+    }
+
+    final CRC32 checksum = new CRC32();
+    final CheckedOutputStream checkedOutput = new CheckedOutputStream(new BufferedOutputStream(outputStream), checksum);
+    checkedOutput.write(MAGIC);
+    checkedOutput.write(VERSION);
+    checkedOutput.write(FLAG_CHECKSUM | FLAG_DEFLATE);
+
+    final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    final DeflaterOutputStream deflaterOutput = new DeflaterOutputStream(checkedOutput, deflater, BUFFER_SIZE);
+    final DataOutputStream output = new DataOutputStream(deflaterOutput);
+    writeVarInt(output, strings.size());
+    for (String string : strings.keySet()) {
+      final byte[] bytes = string.getBytes(UTF_8);
+      writeVarInt(output, bytes.length);
+      output.write(bytes);
+    }
+
+    writeVarInt(output, entriesCount);
+    for (PdbSignatureIndexEntry entry : indexData) {
+      final byte[] guid = parseGuid(entry.getGuid());
+      final String artifactPath = entry.getArtifactPath();
+      final String directory = artifactPath == null ? null : getArtifactDirectory(artifactPath, entry.getFileName());
+      int entryFlags = 0;
+      if (guid != null) entryFlags |= ENTRY_RAW_GUID;
+      if (artifactPath != null) entryFlags |= ENTRY_ARTIFACT_PATH;
+      if (directory != null) entryFlags |= ENTRY_ARTIFACT_DIRECTORY;
+
+      output.writeByte(entryFlags);
+      if (guid != null) {
+        output.write(guid);
+      } else {
+        writeVarInt(output, strings.get(entry.getGuid()));
+      }
+      writeVarInt(output, strings.get(entry.getFileName()));
+      if (artifactPath != null) {
+        writeVarInt(output, strings.get(directory != null ? directory : artifactPath));
+      }
+    }
+
+    output.flush();
+    deflaterOutput.finish();
+    deflater.end();
+
+    final int value = (int) checksum.getValue();
+    checkedOutput.write(new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value});
+    checkedOutput.flush();
+  }
+
+  private static void addString(@NotNull final Map<String, Integer> strings, @NotNull final String string) {
+    if (!strings.containsKey(string)) {
+      strings.put(string, strings.size());
+    }
+  }
+
+  @NotNull
+  private static String getString(@NotNull final List<String> strings, @NotNull final DataInput input) throws IOException {
+    final int index = readVarInt(input);
+    if (index < 0 || index >= strings.size()) {
+      throw new IOException("Invalid signature index string reference " + index);
+    }
+    return strings.get(index);
+  }
+
+  @Nullable
+  private static String getArtifactDirectory(@NotNull final String artifactPath, @NotNull final String fileName) {
+    final int length = artifactPath.length() - fileName.length() - 1;
+    if (length <= 0 || artifactPath.charAt(length) != '/' || !artifactPath.endsWith(fileName)) return null;
+    return artifactPath.substring(0, length);
+  }
+
+  /**
+   * @return GUID bytes if the signature consists of 32 lowercase hex digits, so it can be restored as is.
+   */
+  @Nullable
+  private static byte[] parseGuid(@NotNull final String sign) {
+    if (sign.length() != 32) return null;
+    final byte[] result = new byte[16];
+    for (int i = 0; i < 32; i += 2) {
+      final int high = Character.digit(sign.charAt(i), 16);
+      final int low = Character.digit(sign.charAt(i + 1), 16);
+      if (high < 0 || low < 0 || Character.isUpperCase(sign.charAt(i)) || Character.isUpperCase(sign.charAt(i + 1))) return null;
+      result[i / 2] = (byte) ((high << 4) | low);
+    }
+    return result;
+  }
+
+  @NotNull
+  private static String toHex(@NotNull final byte[] bytes) {
+    final char[] result = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      result[2 * i] = Character.forDigit((bytes[i] >> 4) & 0xf, 16);
+      result[2 * i + 1] = Character.forDigit(bytes[i] & 0xf, 16);
+    }
+    return new String(result);
+  }
+
+  private static int readCount(@NotNull final DataInput input) throws IOException {
+    final int count = readVarInt(input);
+    if (count < 0) {
+      throw new IOException("Invalid signature index count " + count);
+    }
+    return count;
+  }
+
+  private static int readVarInt(@NotNull final DataInput input) throws IOException {
+    int result = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      final int b = input.readUnsignedByte();
+      result |= (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) return result;
+    }
+    throw new IOException("Invalid signature index varint");
+  }
+
+  private static void writeVarInt(@NotNull final DataOutput output, int value) throws IOException {
+    while ((value & ~0x7f) != 0) {
+      output.writeByte((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    output.writeByte(value);
+  }
+
+  /**
+   * Holds back the last 4 bytes of the stream, so the checksum trailer is not passed to the reader.
+   */
+  private static class TrailerInputStream extends FilterInputStream {
+    private final byte[] myTrailer = new byte[4];
+    private int myTrailerLength;
+
+    private TrailerInputStream(@NotNull final InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      final byte[] b = new byte[1];
+      return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(@NotNull final byte[] b, final int off, final int len) throws IOException {
+      if (len == 0) return 0;
+      while (myTrailerLength < myTrailer.length) {
+        final int read = in.read(myTrailer, myTrailerLength, myTrailer.length - myTrailerLength);
+        if (read < 0) return -1;
+        myTrailerLength += read;
+      }
+      final int read = in.read(b, off, len);
+      if (read <= 0) return read;
+
+      // the stream continues with the held back bytes followed by the read ones, the last 4 of them are held back again
+      final byte[] tail = new byte[myTrailer.length + read];
+      System.arraycopy(myTrailer, 0, tail, 0, myTrailer.length);
+      System.arraycopy(b, off, tail, myTrailer.length, read);
+      System.arraycopy(tail, 0, b, off, read);
+      System.arraycopy(tail, read, myTrailer, 0, myTrailer.length);
+      return read;
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+      final byte[] buffer = new byte[(int) Math.min(n, BUFFER_SIZE)];
+      final int read = read(buffer, 0, buffer.length);
+      return read < 0 ? 0 : read;
+    }
+
+    @Override
+    public int available() {
+      return 0;
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+
+    /**
+     * @return checksum stored in the last 4 bytes big endian, the stream should be read to the end.
+     */
+    private int getTrailer() throws IOException {
+      if (myTrailerLength < myTrailer.length) {
+        throw new EOFException();
+      }
+      return ((myTrailer[0] & 0xff) << 24) | ((myTrailer[1] & 0xff) << 16) | ((myTrailer[2] & 0xff) << 8) | (myTrailer[3] & 0xff);
+    }
+  }
+}
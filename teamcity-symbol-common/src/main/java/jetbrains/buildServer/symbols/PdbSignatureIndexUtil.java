@@ -1,21 +1,22 @@
-
-
 package jetbrains.buildServer.symbols;
 
 import jetbrains.buildServer.util.StringUtil;
-import jetbrains.buildServer.util.XmlUtil;
-import org.jdom.Document;
-import org.jdom.Element;
-import org.jdom.JDOMException;
-import org.jdom.input.SAXBuilder;
 import org.jetbrains.annotations.NotNull;
 
+import javax.xml.stream.*;
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.*;
 
 /**
+ * Reads and writes signature index files.
+ *
+ * XML files are processed by StAX streams, so index entries are neither kept in a document tree
+ * nor collected by the reader unless requested. Index files in the compact binary format
+ * are detected by the header and read by {@link PdbSignatureIndexBinaryFormat}.
+ *
  * Created by Evgeniy.Koshkin.
  */
 class PdbSignatureIndexUtil {
@@ -25,33 +26,102 @@ class PdbSignatureIndexUtil {
   private static final String FILE_SIGNS = "file-signs";
   private static final String FILE_SIGN_ENTRY = "file-sign-entry";
   private static final int GUID_SIGN_LENGTH = 32;
+  private static final String ENCODING = "UTF-8";
+
+  static final String XML_FILE_EXTENSION = ".xml";
+  static final String BINARY_FILE_EXTENSION = ".bin";
+
+  private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+  private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+  interface EntryVisitor {
+    void visit(@NotNull PdbSignatureIndexEntry entry);
+  }
 
   @NotNull
-  static Set<PdbSignatureIndexEntry> read(@NotNull final InputStream inputStream, final boolean cutDbgAge) throws JDOMException, IOException {
-    final SAXBuilder builder = new SAXBuilder();
-    final Document document = builder.build(inputStream);
+  static Set<PdbSignatureIndexEntry> read(@NotNull final InputStream inputStream, final boolean cutDbgAge) throws IOException {
     final Set<PdbSignatureIndexEntry> result = new HashSet<PdbSignatureIndexEntry>();
-    for (Object signElementObject : document.getRootElement().getChildren()){
-      final Element signElement = (Element) signElementObject;
-      result.add(new PdbSignatureIndexEntry(extractGuid(signElement.getAttributeValue(SIGN), cutDbgAge),
-                                            signElement.getAttributeValue(FILE_NAME), signElement.getAttributeValue(FILE_PATH)));
-    }
+    read(inputStream, cutDbgAge, new EntryVisitor() {
+      public void visit(@NotNull final PdbSignatureIndexEntry entry) {
+        result.add(entry);
+      }
+    });
     return result;
   }
 
-  static void write(@NotNull final OutputStream outputStream, @NotNull final Set<PdbSignatureIndexEntry> indexData) throws IOException {
-    final Element root = new Element(FILE_SIGNS);
-    for (final PdbSignatureIndexEntry indexEntry : indexData){
-      final Element entry = new Element(FILE_SIGN_ENTRY);
-      entry.setAttribute(SIGN, indexEntry.getGuid());
-      entry.setAttribute(FILE_NAME, indexEntry.getFileName());
-      String artifactPath = indexEntry.getArtifactPath();
-      if(artifactPath != null){
-        entry.setAttribute(FILE_PATH, artifactPath);
+  /**
+   * Reads index entries one by one and passes them to the visitor.
+   *
+   * @return number of read entries.
+   */
+  static int read(@NotNull final InputStream inputStream, final boolean cutDbgAge, @NotNull final EntryVisitor visitor) throws IOException {
+    final InputStream input = inputStream.markSupported() ? inputStream : new BufferedInputStream(inputStream);
+    if (PdbSignatureIndexBinaryFormat.isBinaryIndex(input)) {
+      return PdbSignatureIndexBinaryFormat.read(input, cutDbgAge, visitor);
+    }
+
+    int count = 0;
+    try {
+      final XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(input);
+      try {
+        while (reader.hasNext()) {
+          if (reader.next() != XMLStreamConstants.START_ELEMENT || !FILE_SIGN_ENTRY.equals(reader.getLocalName())) continue;
+          final String sign = reader.getAttributeValue(null, SIGN);
+          final String fileName = reader.getAttributeValue(null, FILE_NAME);
+          if (sign == null || fileName == null) {
+            throw new IOException("Invalid signature index entry at " + reader.getLocation());
+          }
+          visitor.visit(new PdbSignatureIndexEntry(extractGuid(sign, cutDbgAge), fileName, reader.getAttributeValue(null, FILE_PATH)));
+          count++;
+        }
+      } finally {
+        reader.close();
       }
-      root.addContent(entry);
+    } catch (XMLStreamException e) {
+      throw new IOException("Failed to read signature index: " + e.getMessage(), e);
     }
-    XmlUtil.saveDocument(new Document(root), outputStream);
+    return count;
+  }
+
+  /**
+   * Writes index entries, the output stream is flushed but not closed.
+   */
+  static void write(@NotNull final OutputStream outputStream, @NotNull final Iterable<PdbSignatureIndexEntry> indexData) throws IOException {
+    try {
+      final XMLStreamWriter writer = OUTPUT_FACTORY.createXMLStreamWriter(outputStream, ENCODING);
+      try {
+        writer.writeStartDocument(ENCODING, "1.0");
+        writer.writeCharacters("\n");
+        writer.writeStartElement(FILE_SIGNS);
+        for (final PdbSignatureIndexEntry indexEntry : indexData) {
+          writer.writeCharacters("\n  ");
+          writer.writeEmptyElement(FILE_SIGN_ENTRY);
+          writer.writeAttribute(SIGN, indexEntry.getGuid());
+          writer.writeAttribute(FILE_NAME, indexEntry.getFileName());
+          final String artifactPath = indexEntry.getArtifactPath();
+          if (artifactPath != null) {
+            writer.writeAttribute(FILE_PATH, artifactPath);
+          }
+        }
+        writer.writeCharacters("\n");
+        writer.writeEndElement();
+        writer.writeCharacters("\n");
+        writer.writeEndDocument();
+        writer.flush();
+      } finally {
+        writer.close();
+      }
+    } catch (XMLStreamException e) {
+      throw new IOException("Failed to write signature index: " + e.getMessage(), e);
+    }
+    outputStream.flush();
+  }
+
+  /**
+   * Writes index entries in the compact binary format, the output stream is flushed but not closed.
+   */
+  static void writeBinary(@NotNull final OutputStream outputStream, @NotNull final Iterable<PdbSignatureIndexEntry> indexData) throws IOException {
+    PdbSignatureIndexBinaryFormat.write(outputStream, indexData);
   }
 
   public static String extractGuid(String sign, boolean cutDbgAge) {
@@ -64,4 +134,13 @@ class PdbSignatureIndexUtil {
       return sign.toLowerCase();
     }
   }
+
+  @NotNull
+  private static XMLInputFactory createInputFactory() {
+    final XMLInputFactory factory = XMLInputFactory.newInstance();
+    // index files are build artifacts, so external entities are never resolved
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    return factory;
+  }
 }
@@ -11,19 +11,42 @@ public class SymbolsConstants {
   public static final String SOURCES_SERVER_URL_PARAM_NAME = "symbols.sources-server-url";
   public static final String SERVER_OWN_URL_PARAM_NAME = "symbols.server-own-url";
   public static final String INDEXING_ENABLED_PARAM_NAME = "symbols.indexing.enabled";
+  public static final String INDEXING_PARALLELISM_PARAM_NAME = "symbols.indexing.parallelism";
+  public static final String INDEXING_CACHE_SIZE_PARAM_NAME = "symbols.indexing.cache.size.mb";
+  public static final String INDEXING_BINARY_INDEX_ENABLED_PARAM_NAME = "symbols.indexing.binaryIndex.enabled";
 
   public static final String APP_SYMBOLS = "/app/symbols";
   public static final String APP_SOURCES = "/app/sources";
+  public static final String APP_SYMBOLS_LOOKUP = "/app/symbols-lookup";
 
   public static final String SYMBOL_SIGNATURES_FILE_NAME_PREFIX = "symbol-signatures-artifacts-";
   public static final String BINARY_SIGNATURES_FILE_NAME_PREFIX = "binary-signatures-artifacts-";
 
   public static final String SYMBOLS_SERVER_CACHE_ENTRIES_SIZE = "teamcity.symbolServer.cache.entriesSize";
+  public static final String SYMBOLS_SERVER_CACHE_SIZE_MB = "teamcity.symbolServer.cache.size.mb";
+  public static final String SYMBOLS_SERVER_CACHE_WARMUP_BUILDS = "teamcity.symbolServer.cache.warmup.builds";
   public static final String SYMBOLS_SERVER_CACHE_EXPIRATION_TIME_SEC = "teamcity.symbolServer.cache.expirationTime.sec";
   public static final String SYMBOLS_SERVER_MISS_CACHE_ENTRIES_SIZE = "teamcity.symbolServer.miss.cache.size";
   public static final String SYMBOLS_SERVER_MISS_CACHE_EXPIRATION_TIME_SEC = "teamcity.symbolServer.miss.cache.expirationTime.sec";
   public static final String SYMBOLS_SERVER_CACHE_MAXREADREQUESTS = "teamcity.symbolServer.cache.maxReadRequests";
   public static final String SYMBOLS_SERVER_CACHE_ACQUIRE_LOCK_TIMEOUT ="teamcity.symbolServer.cache.acqure.lock.timeout";
+  public static final String SYMBOLS_SERVER_REQUESTS_QUEUE_SIZE = "teamcity.symbolServer.requests.queueSize";
+  public static final String SYMBOLS_SERVER_REQUESTS_RETRY_AFTER_SEC = "teamcity.symbolServer.requests.retryAfter.sec";
+  public static final String SYMBOLS_SERVER_KEY_INDEX_ENABLED = "teamcity.symbolServer.keyIndex.enabled";
+  public static final String SYMBOLS_SERVER_KEY_FILTER_ENABLED = "teamcity.symbolServer.keyFilter.enabled";
+  public static final String SYMBOLS_SERVER_KEY_FILTER_FPP = "teamcity.symbolServer.keyFilter.fpp";
+  public static final String SYMBOLS_SERVER_KEY_FILTER_REBUILD_PERIOD_MIN = "teamcity.symbolServer.keyFilter.rebuildPeriod.min";
+  public static final String SYMBOLS_SERVER_KEY_FILTER_CHECK_PERIOD_SEC = "teamcity.symbolServer.keyFilter.checkPeriod.sec";
+  public static final String SYMBOLS_SERVER_COMPRESSED_FILES_ENABLED = "teamcity.symbolServer.compressedFiles.enabled";
+  public static final String SYMBOLS_SERVER_COMPRESSED_CACHE_SIZE_MB = "teamcity.symbolServer.compressedFiles.cacheSize.mb";
+  public static final String SYMBOLS_SERVER_EXTRACTED_CACHE_SIZE_MB = "teamcity.symbolServer.extractedFiles.cacheSize.mb";
+  public static final String SYMBOLS_SERVER_LOCATION_CACHE_SIZE = "teamcity.symbolServer.locationCache.size";
+  public static final String SYMBOLS_SERVER_LOCATION_CACHE_EXPIRATION_TIME_SEC = "teamcity.symbolServer.locationCache.expirationTime.sec";
+  public static final String SYMBOLS_SERVER_AUTH_CACHE_SIZE = "teamcity.symbolServer.authCache.size";
+  public static final String SYMBOLS_SERVER_AUTH_CACHE_EXPIRATION_TIME_SEC = "teamcity.symbolServer.authCache.expirationTime.sec";
+  public static final String SYMBOLS_SERVER_LOOKUP_MAX_ENTRIES = "teamcity.symbolServer.lookup.maxEntries";
+  public static final String SYMBOLS_SERVER_DIRECT_URL_MODE = "teamcity.symbolServer.directUrl.mode";
+  public static final String SYMBOLS_SERVER_DIRECT_URL_TEMPLATE = "teamcity.symbolServer.directUrl.template";
 
   public static final String BRANCH_FILTER = "teamcity.symbols.branchFilter";
 }
@@ -0,0 +1,307 @@
+
+
+package jetbrains.buildServer.symbols;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import jetbrains.buildServer.util.FileUtil;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Writes symbol file content into the HTTP response.
+ *
+ * Supports conditional requests (ETag and Last-Modified validators) and single byte ranges,
+ * so symsrv clients and proxies could cache responses and resume interrupted downloads.
+ * When the file is available locally it is transferred via {@link FileChannel#transferTo}.
+ */
+public class ArtifactResponseWriter {
+
+  private static final Logger LOG = Logger.getLogger(ArtifactResponseWriter.class);
+  private static final String BYTES_UNIT = "bytes";
+  private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Describes content to be sent.
+   */
+  public interface Content {
+    long getSize();
+
+    long getTimestamp();
+
+    /**
+     * @return the local file with the content or null if it is not available locally.
+     */
+    @Nullable
+    File getFile();
+
+    @NotNull
+    InputStream getInputStream() throws IOException;
+  }
+
+  /**
+   * Content of a local file.
+   */
+  public static class FileContent implements Content {
+    private final File myFile;
+    private final long myTimestamp;
+
+    public FileContent(@NotNull final File file, final long timestamp) {
+      myFile = file;
+      myTimestamp = timestamp;
+    }
+
+    @Override
+    public long getSize() {
+      return myFile.length();
+    }
+
+    @Override
+    public long getTimestamp() {
+      return myTimestamp;
+    }
+
+    @NotNull
+    @Override
+    public File getFile() {
+      return myFile;
+    }
+
+    @NotNull
+    @Override
+    public InputStream getInputStream() throws IOException {
+      return new FileInputStream(myFile);
+    }
+  }
+
+  public static void write(@NotNull final HttpServletRequest request,
+                           @NotNull final HttpServletResponse response,
+                           @NotNull final Content content,
+                           @NotNull final String entityTag) throws IOException {
+    final long size = content.getSize();
+    final long timestamp = content.getTimestamp();
+
+    response.setHeader("Accept-Ranges", BYTES_UNIT);
+    response.setHeader("ETag", entityTag);
+    if (timestamp > 0) {
+      response.setDateHeader("Last-Modified", timestamp);
+    }
+
+    if (isNotModified(request, entityTag, timestamp)) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+
+    Range range = null;
+    if (isRangeApplicable(request, entityTag, timestamp)) {
+      range = Range.parse(request.getHeader("Range"), size);
+    }
+
+    if (range == Range.UNSATISFIABLE) {
+      response.setHeader("Content-Range", BYTES_UNIT + " */" + size);
+      response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+      return;
+    }
+
+    final long start;
+    final long length;
+    if (range != null) {
+      start = range.getStart();
+      length = range.getLength();
+      response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+      response.setHeader("Content-Range", String.format("%s %d-%d/%d", BYTES_UNIT, range.getStart(), range.getEnd(), size));
+    } else {
+      start = 0;
+      length = size;
+    }
+
+    response.setContentType("application/octet-stream");
+    response.setHeader("Content-Length", String.valueOf(length));
+    if ("HEAD".equalsIgnoreCase(request.getMethod())) {
+      return;
+    }
+
+    final OutputStream output = response.getOutputStream();
+    final File file = content.getFile();
+    if (file != null) {
+      transferFile(file, start, length, output);
+    } else {
+      copyStream(content.getInputStream(), start, length, output);
+    }
+    output.flush();
+  }
+
+  @NotNull
+  public static String getEntityTag(final long buildId, final long size, final long timestamp) {
+    return String.format("\"%d-%x-%x\"", buildId, size, timestamp);
+  }
+
+  private static boolean isNotModified(@NotNull final HttpServletRequest request,
+                                       @NotNull final String entityTag,
+                                       final long timestamp) {
+    final String ifNoneMatch = request.getHeader("If-None-Match");
+    if (ifNoneMatch != null) {
+      return matchesEntityTag(ifNoneMatch, entityTag);
+    }
+    final long ifModifiedSince = getDateHeader(request, "If-Modified-Since");
+    return ifModifiedSince > 0 && timestamp > 0 && timestamp / 1000 <= ifModifiedSince / 1000;
+  }
+
+  private static boolean isRangeApplicable(@NotNull final HttpServletRequest request,
+                                           @NotNull final String entityTag,
+                                           final long timestamp) {
+    final String ifRange = request.getHeader("If-Range");
+    if (ifRange == null) return true;
+    if (ifRange.trim().startsWith("\"") || ifRange.trim().startsWith("W/")) {
+      return ifRange.trim().equals(entityTag);
+    }
+    final long ifRangeDate = getDateHeader(request, "If-Range");
+    return ifRangeDate > 0 && timestamp > 0 && timestamp / 1000 == ifRangeDate / 1000;
+  }
+
+  private static boolean matchesEntityTag(@NotNull final String header, @NotNull final String entityTag) {
+    for (String tag : header.split(",")) {
+      final String trimmedTag = tag.trim();
+      if (trimmedTag.equals("*") || trimmedTag.equals(entityTag) || trimmedTag.equals("W/" + entityTag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static long getDateHeader(@NotNull final HttpServletRequest request, @NotNull final String name) {
+    try {
+      return request.getDateHeader(name);
+    } catch (IllegalArgumentException e) {
+      LOG.debug(String.format("Invalid %s header value: %s", name, request.getHeader(name)));
+      return -1;
+    }
+  }
+
+  private static void transferFile(@NotNull final File file,
+                                   final long start,
+                                   final long length,
+                                   @NotNull final OutputStream output) throws IOException {
+    final WritableByteChannel target = Channels.newChannel(output);
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      long position = start;
+      long remaining = length;
+      while (remaining > 0) {
+        final long transferred = channel.transferTo(position, remaining, target);
+        if (transferred <= 0) {
+          throw new IOException(String.format("Failed to transfer file %s: %d bytes remaining", file, remaining));
+        }
+        position += transferred;
+        remaining -= transferred;
+      }
+    }
+  }
+
+  private static void copyStream(@NotNull final InputStream input,
+                                 final long start,
+                                 final long length,
+                                 @NotNull final OutputStream output) throws IOException {
+    try {
+      long skipped = 0;
+      while (skipped < start) {
+        long count = input.skip(start - skipped);
+        if (count <= 0) {
+          if (input.read() < 0) throw new IOException("Unexpected end of artifact stream");
+          count = 1;
+        }
+        skipped += count;
+      }
+
+      final byte[] buffer = new byte[COPY_BUFFER_SIZE];
+      long remaining = length;
+      while (remaining > 0) {
+        final int count = input.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+        if (count < 0) throw new IOException("Unexpected end of artifact stream");
+        output.write(buffer, 0, count);
+        remaining -= count;
+      }
+    } finally {
+      FileUtil.close(input);
+    }
+  }
+
+  /**
+   * Single byte range of the content, bounds are inclusive.
+   */
+  static class Range {
+    static final Range UNSATISFIABLE = new Range(-1, -1);
+
+    private final long myStart;
+    private final long myEnd;
+
+    Range(final long start, final long end) {
+      myStart = start;
+      myEnd = end;
+    }
+
+    long getStart() {
+      return myStart;
+    }
+
+    long getEnd() {
+      return myEnd;
+    }
+
+    long getLength() {
+      return myEnd - myStart + 1;
+    }
+
+    /**
+     * Parses Range header value.
+     *
+     * @param header is a header value.
+     * @param size is a content size.
+     * @return the range, null if the whole content should be sent or {@link #UNSATISFIABLE}.
+     */
+    @Nullable
+    static Range parse(@Nullable final String header, final long size) {
+      if (header == null) return null;
+      final String value = header.trim();
+      if (!value.startsWith(BYTES_UNIT + "=")) return null;
+
+      final String rangeSpec = value.substring(BYTES_UNIT.length() + 1).trim();
+      if (rangeSpec.contains(",")) {
+        // multiple ranges are not supported, whole content will be sent
+        return null;
+      }
+
+      final int dashIndex = rangeSpec.indexOf('-');
+      if (dashIndex < 0) return null;
+
+      try {
+        final String startValue = rangeSpec.substring(0, dashIndex).trim();
+        final String endValue = rangeSpec.substring(dashIndex + 1).trim();
+        if (startValue.isEmpty()) {
+          if (endValue.isEmpty()) return null;
+          final long suffixLength = Long.parseLong(endValue);
+          if (suffixLength <= 0 || size == 0) return UNSATISFIABLE;
+          return new Range(Math.max(0, size - suffixLength), size - 1);
+        }
+
+        final long start = Long.parseLong(startValue);
+        final long end = endValue.isEmpty() ? size - 1 : Long.parseLong(endValue);
+        if (end < start) return null;
+        if (start >= size) return UNSATISFIABLE;
+        return new Range(start, Math.min(end, size - 1));
+      } catch (NumberFormatException e) {
+        return null;
+      }
+    }
+  }
+}
@@ -2,12 +2,19 @@
 
 package jetbrains.buildServer.symbols;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
 import jetbrains.buildServer.controllers.interceptors.auth.HttpAuthenticationManager;
 import jetbrains.buildServer.controllers.interceptors.auth.HttpAuthenticationResult;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
 import jetbrains.buildServer.serverSide.auth.LoginConfiguration;
+import jetbrains.buildServer.serverSide.auth.Permission;
 import jetbrains.buildServer.serverSide.auth.ServerPrincipal;
 import jetbrains.buildServer.users.SUser;
+import jetbrains.buildServer.users.User;
 import jetbrains.buildServer.users.UserModel;
+import jetbrains.buildServer.users.UserModelListenerAdapter;
 import jetbrains.buildServer.util.Predicate;
 import org.apache.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
@@ -16,17 +23,32 @@ import org.jetbrains.annotations.Nullable;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
 
 /**
+ * Authenticates symbol server requests.
+ *
+ * Debuggers issue lots of requests with the same credentials, so users authenticated with Basic or Bearer
+ * credentials are cached by a hash of the authorization header. Other schemes like Negotiate or NTLM are
+ * connection-bound and are always processed by the authentication manager. Only the user is cached while
+ * permissions are checked on every request, so role, group and project changes apply immediately. Cached users
+ * are dropped when their accounts change and expire after {@link SymbolsConstants#SYMBOLS_SERVER_AUTH_CACHE_EXPIRATION_TIME_SEC}.
+ *
  * @author Evgeniy.Koshkin
  */
 public class AuthHelper {
 
   private static final Logger LOG = Logger.getLogger(AuthHelper.class);
+  private static final String AUTHORIZATION_HEADER = "Authorization";
+  private static final String[] CACHED_AUTHENTICATION_SCHEMES = {"Basic ", "Bearer "};
 
   @NotNull private final LoginConfiguration myLoginConfiguration;
   @NotNull private final UserModel myUserModel;
   @NotNull private final HttpAuthenticationManager myAuthManager;
+  @NotNull private final Cache<String, Long> myAuthenticatedUserIds;
 
   public AuthHelper(@NotNull LoginConfiguration loginConfiguration,
                     @NotNull UserModel userModel,
@@ -34,16 +56,71 @@ public class AuthHelper {
     myLoginConfiguration = loginConfiguration;
     myUserModel = userModel;
     myAuthManager = authManager;
+    myAuthenticatedUserIds = CacheBuilder
+      .newBuilder()
+      .maximumSize(TeamCityProperties.getInteger(SymbolsConstants.SYMBOLS_SERVER_AUTH_CACHE_SIZE, 1000))
+      .expireAfterWrite(TeamCityProperties.getInteger(SymbolsConstants.SYMBOLS_SERVER_AUTH_CACHE_EXPIRATION_TIME_SEC, 60), TimeUnit.SECONDS)
+      .build();
+
+    userModel.addListener(new UserModelListenerAdapter() {
+      @Override
+      public void userAccountChanged(User user) {
+        invalidate(user);
+      }
+
+      @Override
+      public void userAccountRemoved(User user) {
+        invalidate(user);
+      }
+    });
+  }
+
+  /**
+   * Authenticates request to the build runtime data of the project.
+   *
+   * @param projectId is an internal id of the project.
+   * @return user with {@link Permission#VIEW_BUILD_RUNTIME_DATA} permission in the project or null if the response was already sent.
+   */
+  @Nullable
+  public SUser getAuthenticatedUser(@NotNull HttpServletRequest request,
+                                    @NotNull HttpServletResponse response,
+                                    @NotNull String projectId) throws IOException {
+    return getAuthenticatedUser(request, response, Collections.singleton(projectId), null);
+  }
+
+  /**
+   * Authenticates request to the build runtime data of several projects.
+   *
+   * @param projectIds are internal ids of the projects.
+   * @return user with {@link Permission#VIEW_BUILD_RUNTIME_DATA} permission in at least one of the projects
+   * or null if the response was already sent. Guest user is returned only if it has the permission in all the projects.
+   */
+  @Nullable
+  public SUser getAuthenticatedUser(@NotNull HttpServletRequest request,
+                                    @NotNull HttpServletResponse response,
+                                    @NotNull Collection<String> projectIds) throws IOException {
+    return getAuthenticatedUser(request, response, projectIds, null);
   }
 
   @Nullable
   public SUser getAuthenticatedUser(@NotNull HttpServletRequest request,
                                     @NotNull HttpServletResponse response,
                                     @NotNull Predicate<SUser> hasPermissions) throws IOException {
+    return getAuthenticatedUser(request, response, null, hasPermissions);
+  }
+
+  /**
+   * Permissions are checked either for the projects or by the predicate.
+   */
+  @Nullable
+  private SUser getAuthenticatedUser(@NotNull HttpServletRequest request,
+                                     @NotNull HttpServletResponse response,
+                                     @Nullable Collection<String> projectIds,
+                                     @Nullable Predicate<SUser> hasPermissions) throws IOException {
     if(myLoginConfiguration.isGuestLoginAllowed()) {
       LOG.debug("Guest access enabled on the server. Trying to check permissions of Guest.");
       final SUser guestUser = myUserModel.getGuestUser();
-      if (hasPermissions.apply(guestUser)) {
+      if (isPermissionGranted(guestUser, projectIds, hasPermissions, true)) {
         LOG.debug("Guest user has enough permissions to process request.");
         return guestUser;
       }
@@ -51,6 +128,18 @@ public class AuthHelper {
     } else {
       LOG.debug("Guest access disabled on the server. Will try to authenticate incoming request.");
     }
+
+    final String credentialsKey = getCredentialsKey(request);
+    final Long cachedUserId = credentialsKey == null ? null : myAuthenticatedUserIds.getIfPresent(credentialsKey);
+    if (cachedUserId != null) {
+      final SUser user = myUserModel.findUserById(cachedUserId);
+      if (user != null) {
+        LOG.debug(String.format("Found cached authentication of user (id %d).", user.getId()));
+        return checkPermissions(response, user, projectIds, hasPermissions);
+      }
+      myAuthenticatedUserIds.invalidate(credentialsKey);
+    }
+
     LOG.debug("Trying to authenticate incoming request.");
     final HttpAuthenticationResult authResult = myAuthManager.processAuthenticationRequest(request, response, false);
     switch (authResult.getType()) {
@@ -75,13 +164,59 @@ public class AuthHelper {
       return null;
     }
     LOG.debug(String.format("Found user account (id %s) by realm (%s) and name (%s)", user.getId(), realm, name));
-    final boolean hasAccess = hasPermissions.apply(user);
-    if (hasAccess) {
-      LOG.debug(String.format("Located user (name %s) has enough permissions to process the request.", name));
+    if (credentialsKey != null) {
+      myAuthenticatedUserIds.put(credentialsKey, user.getId());
+    }
+    return checkPermissions(response, user, projectIds, hasPermissions);
+  }
+
+  @Nullable
+  private static SUser checkPermissions(@NotNull HttpServletResponse response,
+                                        @NotNull SUser user,
+                                        @Nullable Collection<String> projectIds,
+                                        @Nullable Predicate<SUser> hasPermissions) throws IOException {
+    if (isPermissionGranted(user, projectIds, hasPermissions, false)) {
+      LOG.debug(String.format("Located user (name %s) has enough permissions to process the request.", user.getUsername()));
       return user;
     }
-    LOG.warn(String.format("Located user (name %s) has NO permissions to process the request.", name));
+    LOG.warn(String.format("Located user (name %s) has NO permissions to process the request.", user.getUsername()));
     response.sendError(HttpServletResponse.SC_FORBIDDEN, "Access denied");
     return null;
   }
+
+  /**
+   * @param inAllProjects whether the permission is required in all the projects or in at least one of them.
+   */
+  private static boolean isPermissionGranted(@NotNull SUser user,
+                                             @Nullable Collection<String> projectIds,
+                                             @Nullable Predicate<SUser> hasPermissions,
+                                             boolean inAllProjects) {
+    if (projectIds == null) {
+      return hasPermissions != null && hasPermissions.apply(user);
+    }
+    for (String projectId : projectIds) {
+      if (user.isPermissionGrantedForProject(projectId, Permission.VIEW_BUILD_RUNTIME_DATA) != inAllProjects) {
+        return !inAllProjects;
+      }
+    }
+    return inAllProjects;
+  }
+
+  private void invalidate(@NotNull User user) {
+    if (myAuthenticatedUserIds.asMap().values().removeIf(userId -> userId == user.getId())) {
+      LOG.debug("Removed cached authentications of user with id " + user.getId());
+    }
+  }
+
+  @Nullable
+  private static String getCredentialsKey(@NotNull HttpServletRequest request) {
+    final String credentials = request.getHeader(AUTHORIZATION_HEADER);
+    if (credentials == null) return null;
+    for (String scheme : CACHED_AUTHENTICATION_SCHEMES) {
+      if (credentials.regionMatches(true, 0, scheme, 0, scheme.length())) {
+        return Hashing.sha256().hashString(credentials, StandardCharsets.UTF_8).toString();
+      }
+    }
+    return null;
+  }
 }
@@ -11,12 +11,11 @@ import jetbrains.buildServer.serverSide.impl.LogUtil;
 import jetbrains.buildServer.serverSide.metadata.BuildMetadataProvider;
 import jetbrains.buildServer.serverSide.metadata.MetadataStorageWriter;
 import org.jetbrains.annotations.NotNull;
-import org.jetbrains.annotations.Nullable;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.concurrent.atomic.AtomicReference;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.function.Function;
 
 /**
  * @author Evgeniy.Koshkin
@@ -30,9 +29,15 @@ public class BuildSymbolsIndexProvider implements BuildMetadataProvider {
 
   private static final Logger LOG = Logger.getInstance(BuildSymbolsIndexProvider.class.getName());
   private final SymbolsCache mySymbolsCache;
+  private final SymbolsKeyIndex myKeyIndex;
+  private final SymbolsKeyFilter myKeyFilter;
 
-  public BuildSymbolsIndexProvider(@NotNull final SymbolsCache symbolsCache) {
+  public BuildSymbolsIndexProvider(@NotNull final SymbolsCache symbolsCache,
+                                   @NotNull final SymbolsKeyIndex keyIndex,
+                                   @NotNull final SymbolsKeyFilter keyFilter) {
     mySymbolsCache = symbolsCache;
+    myKeyIndex = keyIndex;
+    myKeyFilter = keyFilter;
   }
 
   @NotNull
@@ -48,70 +53,157 @@ public class BuildSymbolsIndexProvider implements BuildMetadataProvider {
   public void generateMedatadata(@NotNull SBuild sBuild, @NotNull MetadataStorageWriter metadataStorageWriter) {
     final BuildArtifact symbols = sBuild.getArtifacts(BuildArtifactsViewMode.VIEW_HIDDEN_ONLY).getArtifact(".teamcity/symbols");
     final long buildId = sBuild.getBuildId();
-    final Set<String> processedSymbols = new HashSet<>();
-    if(symbols != null){
-      for (BuildArtifact symbolSignaturesSource : symbols.getChildren()){
-        if (!symbolSignaturesSource.getName().startsWith(SymbolsConstants.SYMBOL_SIGNATURES_FILE_NAME_PREFIX) &&
-            !symbolSignaturesSource.getName().startsWith(SymbolsConstants.BINARY_SIGNATURES_FILE_NAME_PREFIX))
-          continue;
-
-        final Set<PdbSignatureIndexEntry> indexEntries;
-        try {
-          indexEntries = PdbSignatureIndexUtil.read(symbolSignaturesSource.getInputStream(), false);
-        } catch (Exception e) {
-          LOG.warnAndDebugDetails(String.format(
-            "Failed to read symbols index file %s of build %s",
-            symbolSignaturesSource.getRelativePath(), LogUtil.describe(sBuild)), e);
-          continue;
+    final List<SignatureIndexSource> sources = new ArrayList<>();
+    if (symbols != null) {
+      for (BuildArtifact indexFile : getSignatureIndexFiles(symbols)) {
+        sources.add(new SignatureIndexSource() {
+          @NotNull
+          public String getPath() {
+            return indexFile.getRelativePath();
+          }
+
+          @NotNull
+          public InputStream getInputStream() throws IOException {
+            return indexFile.getInputStream();
+          }
+        });
+      }
+    }
+
+    final int entriesCount = generateMetadata(buildId, LogUtil.describe(sBuild), sources, fileNames -> locateArtifacts(sBuild, fileNames), metadataStorageWriter);
+    if (entriesCount == 0) {
+      LOG.debug("Build with id " + buildId + " doesn't provide symbols index data.");
+    }
+  }
+
+  /**
+   * Reads signature index files and stores their entries as build metadata.
+   * Artifacts paths missing in the index files are located by a single walk over the build artifacts.
+   *
+   * @return number of indexed symbol files.
+   */
+  int generateMetadata(final long buildId,
+                       @NotNull final String buildDescription,
+                       @NotNull final List<SignatureIndexSource> sources,
+                       @NotNull final Function<Set<String>, Map<String, String>> artifactLocator,
+                       @NotNull final MetadataStorageWriter metadataStorageWriter) {
+    // index files are read sequentially, the common fork-join pool is shared by the whole server
+    final Map<String, PdbSignatureIndexEntry> entries = new LinkedHashMap<>();
+    final Set<String> unresolvedFileNames = new HashSet<>();
+    for (SignatureIndexSource source : sources) {
+      for (PdbSignatureIndexEntry indexEntry : readSignatureIndex(source, buildDescription)) {
+        final String metadataKey = getMetadataKey(indexEntry.getGuid(), indexEntry.getFileName());
+        if (entries.putIfAbsent(metadataKey, indexEntry) == null && indexEntry.getArtifactPath() == null) {
+          unresolvedFileNames.add(indexEntry.getFileName());
         }
+      }
+    }
+    if (entries.isEmpty()) return 0;
 
-        LOG.debug(String.format("Build with id %d provides %d symbol file signatures.", buildId, indexEntries.size()));
+    Map<String, String> locatedPaths = Collections.emptyMap();
+    if (!unresolvedFileNames.isEmpty()) {
+      LOG.debug(String.format("Artifact paths are not provided for %d symbol files, locating them by name in build %s artifacts.",
+                              unresolvedFileNames.size(), buildDescription));
+      locatedPaths = artifactLocator.apply(unresolvedFileNames);
+    }
+
+    final Map<String, String> artifactPaths = new LinkedHashMap<>();
+    for (Map.Entry<String, PdbSignatureIndexEntry> entry : entries.entrySet()) {
+      final String metadataKey = entry.getKey();
+      final PdbSignatureIndexEntry indexEntry = entry.getValue();
+      String artifactPath = indexEntry.getArtifactPath();
+      if (artifactPath == null) {
+        artifactPath = locatedPaths.get(indexEntry.getFileName());
+      }
 
-        for (final PdbSignatureIndexEntry indexEntry : indexEntries) {
-          final String signature = indexEntry.getGuid();
-          final String fileName = indexEntry.getFileName();
-          final String metadataKey = getMetadataKey(signature, fileName);
+      if (LOG.isDebugEnabled()) {
+        LOG.debug(String.format("Indexing symbol file %s with signature %s of build %s", indexEntry.getFileName(), indexEntry.getGuid(), buildDescription));
+      }
+      final HashMap<String, String> data = new HashMap<>();
+      data.put(SIGNATURE_KEY, indexEntry.getGuid());
+      data.put(FILE_NAME_KEY, indexEntry.getFileName());
+      data.put(ARTIFACT_PATH_KEY, artifactPath);
+      metadataStorageWriter.addParameters(metadataKey, data);
+      artifactPaths.put(metadataKey, artifactPath);
+    }
 
-          if (processedSymbols.contains(metadataKey)) continue;
+    myKeyIndex.putAll(artifactPaths, buildId);
+    myKeyFilter.putAll(artifactPaths.keySet());
+    mySymbolsCache.invalidate(buildId);
+    LOG.info(String.format("Indexed %d symbol file signatures of build %s", artifactPaths.size(), buildDescription));
+    return artifactPaths.size();
+  }
 
-          String artifactPath = indexEntry.getArtifactPath();
-          if(artifactPath == null){
-            LOG.debug(String.format("Artifact path is not provided for artifact %s, locating it by name in build %s artifacts.", fileName, LogUtil.describe(sBuild)));
-            artifactPath = locateArtifact(sBuild, fileName);
-            if(artifactPath != null){
-              LOG.debug(String.format("Located artifact by name %s, path - %s. Build - %s", fileName, artifactPath, LogUtil.describe(sBuild)));
-            }
-          }
+  @NotNull
+  private static List<PdbSignatureIndexEntry> readSignatureIndex(@NotNull final SignatureIndexSource source, @NotNull final String buildDescription) {
+    final List<PdbSignatureIndexEntry> result = new ArrayList<>();
+    try (InputStream input = source.getInputStream()) {
+      PdbSignatureIndexUtil.read(input, false, result::add);
+    } catch (Exception e) {
+      LOG.warnAndDebugDetails(String.format("Failed to read symbols index file %s of build %s", source.getPath(), buildDescription), e);
+      return Collections.emptyList();
+    }
+    LOG.debug(String.format("Symbols index file %s of build %s provides %d symbol file signatures.", source.getPath(), buildDescription, result.size()));
+    return result;
+  }
 
-          LOG.info(String.format(
-            "Indexing symbol file %s with signature %s of build %s", fileName, signature, LogUtil.describe(sBuild)
-          ));
-          final HashMap<String, String> data = new HashMap<>();
-          data.put(SIGNATURE_KEY, signature);
-          data.put(FILE_NAME_KEY, fileName);
-          data.put(ARTIFACT_PATH_KEY, artifactPath);
-
-          metadataStorageWriter.addParameters(metadataKey, data);
-          mySymbolsCache.invalidate(buildId);
-          processedSymbols.add(metadataKey);
-        }
+  /**
+   * @return signature index files of the build, binary index files are preferred over the XML ones of the same kind.
+   */
+  @NotNull
+  private static List<BuildArtifact> getSignatureIndexFiles(@NotNull BuildArtifact symbols) {
+    final Map<String, List<BuildArtifact>> xmlFiles = new LinkedHashMap<>();
+    final Map<String, List<BuildArtifact>> binaryFiles = new LinkedHashMap<>();
+    for (BuildArtifact child : symbols.getChildren()) {
+      final String name = child.getName();
+      final String prefix;
+      if (name.startsWith(SymbolsConstants.SYMBOL_SIGNATURES_FILE_NAME_PREFIX)) {
+        prefix = SymbolsConstants.SYMBOL_SIGNATURES_FILE_NAME_PREFIX;
+      } else if (name.startsWith(SymbolsConstants.BINARY_SIGNATURES_FILE_NAME_PREFIX)) {
+        prefix = SymbolsConstants.BINARY_SIGNATURES_FILE_NAME_PREFIX;
+      } else {
+        continue;
       }
+      final Map<String, List<BuildArtifact>> files = name.endsWith(PdbSignatureIndexUtil.BINARY_FILE_EXTENSION) ? binaryFiles : xmlFiles;
+      files.computeIfAbsent(prefix, key -> new ArrayList<>()).add(child);
     }
-    if (processedSymbols.isEmpty()) {
-      LOG.debug("Build with id " + buildId + " doesn't provide symbols index data.");
+
+    final List<BuildArtifact> result = new ArrayList<>();
+    for (String prefix : Arrays.asList(SymbolsConstants.SYMBOL_SIGNATURES_FILE_NAME_PREFIX, SymbolsConstants.BINARY_SIGNATURES_FILE_NAME_PREFIX)) {
+      final List<BuildArtifact> files = binaryFiles.containsKey(prefix) ? binaryFiles.get(prefix) : xmlFiles.get(prefix);
+      if (files != null) {
+        result.addAll(files);
+      }
     }
+    return result;
   }
 
-  @Nullable
-  private String locateArtifact(@NotNull SBuild build, final @NotNull String artifactName) {
-    final AtomicReference<String> locatedArtifactPath = new AtomicReference<String>(null);
+  /**
+   * @return paths of the first found artifacts with the specified names.
+   */
+  @NotNull
+  private static Map<String, String> locateArtifacts(@NotNull SBuild build, @NotNull final Set<String> artifactNames) {
+    final Map<String, String> locatedArtifactPaths = new HashMap<>();
     build.getArtifacts(BuildArtifactsViewMode.VIEW_ALL_WITH_ARCHIVES_CONTENT).iterateArtifacts(artifact -> {
-      if(artifact.getName().equals(artifactName)){
-        locatedArtifactPath.set(artifact.getRelativePath());
-        return BuildArtifacts.BuildArtifactsProcessor.Continuation.BREAK;
+      if (artifactNames.contains(artifact.getName())) {
+        locatedArtifactPaths.putIfAbsent(artifact.getName(), artifact.getRelativePath());
+        if (locatedArtifactPaths.size() == artifactNames.size()) {
+          return BuildArtifacts.BuildArtifactsProcessor.Continuation.BREAK;
+        }
       }
-      else return BuildArtifacts.BuildArtifactsProcessor.Continuation.CONTINUE;
+      return BuildArtifacts.BuildArtifactsProcessor.Continuation.CONTINUE;
     });
-    return locatedArtifactPath.get();
+    return locatedArtifactPaths;
+  }
+
+  /**
+   * Signature index file of a build.
+   */
+  interface SignatureIndexSource {
+    @NotNull
+    String getPath();
+
+    @NotNull
+    InputStream getInputStream() throws IOException;
   }
 }
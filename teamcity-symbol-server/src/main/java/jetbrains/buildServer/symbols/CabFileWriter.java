@@ -0,0 +1,164 @@
+
+
+package jetbrains.buildServer.symbols;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Calendar;
+import java.util.zip.Deflater;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Writes single-file Microsoft cabinet archives with MSZIP compression.
+ *
+ * Such archives are served by symbol servers as compressed files, e.g. {@code file.pd_}.
+ */
+public class CabFileWriter {
+
+  private static final int HEADER_SIZE = 36;
+  private static final int FOLDER_SIZE = 8;
+  private static final int FILE_ENTRY_SIZE = 16;
+  private static final int DATA_HEADER_SIZE = 8;
+  private static final int BLOCK_SIZE = 32768;
+  private static final int MAX_BLOCKS_COUNT = 0xFFFF;
+  private static final int COMPRESSION_MSZIP = 1;
+  private static final int ATTRIBUTE_ARCHIVE = 0x20;
+  private static final int ATTRIBUTE_NAME_IS_UTF = 0x80;
+  private static final byte[] MSZIP_SIGNATURE = {'C', 'K'};
+  // archive is produced on the request thread, so the fastest level is used
+  private static final int COMPRESSION_LEVEL = Deflater.BEST_SPEED;
+
+  /**
+   * Checks whether the content fits into a single-folder cabinet, which holds up to 65535 data blocks of 32 KB.
+   *
+   * @param size is a content size.
+   * @return true if the content could be compressed.
+   */
+  public static boolean canCompress(final long size) {
+    return (size + BLOCK_SIZE - 1) / BLOCK_SIZE <= MAX_BLOCKS_COUNT;
+  }
+
+  /**
+   * Compresses the content into the cabinet file.
+   *
+   * @param input is a content stream, it is not closed by this method.
+   * @param size is a content size.
+   * @param timestamp is a content modification time.
+   * @param fileName is a name of the file inside of the cabinet.
+   * @param target is a target cabinet file.
+   * @throws IOException if content could not be read or written or it is too large, see {@link #canCompress(long)}.
+   */
+  public static void write(@NotNull final InputStream input,
+                           final long size,
+                           final long timestamp,
+                           @NotNull final String fileName,
+                           @NotNull final File target) throws IOException {
+    if (!canCompress(size)) {
+      throw new IOException(String.format("File %s is too large to be compressed: %d bytes", fileName, size));
+    }
+    final long blocksCount = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+
+    final byte[] nameBytes = fileName.getBytes(StandardCharsets.UTF_8);
+    final int dataOffset = HEADER_SIZE + FOLDER_SIZE + FILE_ENTRY_SIZE + nameBytes.length + 1;
+
+    final ByteBuffer header = ByteBuffer.allocate(dataOffset).order(ByteOrder.LITTLE_ENDIAN);
+    header.put(new byte[]{'M', 'S', 'C', 'F'});
+    header.putInt(0);
+    header.putInt(0); // cabinet size is updated when all data blocks are written
+    header.putInt(0);
+    header.putInt(HEADER_SIZE + FOLDER_SIZE);
+    header.putInt(0);
+    header.put((byte) 3);
+    header.put((byte) 1);
+    header.putShort((short) 1);
+    header.putShort((short) 1);
+    header.putShort((short) 0);
+    header.putShort((short) 0);
+    header.putShort((short) 0);
+
+    header.putInt(dataOffset);
+    header.putShort((short) blocksCount);
+    header.putShort((short) COMPRESSION_MSZIP);
+
+    header.putInt((int) size);
+    header.putInt(0);
+    header.putShort((short) 0);
+    header.putShort(getDosDate(timestamp));
+    header.putShort(getDosTime(timestamp));
+    header.putShort((short) (isAscii(fileName) ? ATTRIBUTE_ARCHIVE : ATTRIBUTE_ARCHIVE | ATTRIBUTE_NAME_IS_UTF));
+    header.put(nameBytes);
+    header.put((byte) 0);
+
+    final Deflater deflater = new Deflater(COMPRESSION_LEVEL, true);
+    try (RandomAccessFile output = new RandomAccessFile(target, "rw")) {
+      output.setLength(0);
+      output.write(header.array());
+
+      final byte[] block = new byte[BLOCK_SIZE];
+      final byte[] compressed = new byte[BLOCK_SIZE * 2];
+      final ByteBuffer dataHeader = ByteBuffer.allocate(DATA_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      long remaining = size;
+      while (remaining > 0) {
+        final int blockLength = (int) Math.min(BLOCK_SIZE, remaining);
+        readFully(input, block, blockLength);
+        remaining -= blockLength;
+
+        deflater.reset();
+        deflater.setInput(block, 0, blockLength);
+        deflater.finish();
+        int compressedLength = 0;
+        while (!deflater.finished()) {
+          compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+        }
+
+        dataHeader.clear();
+        dataHeader.putInt(0); // checksum is optional
+        dataHeader.putShort((short) (compressedLength + MSZIP_SIGNATURE.length));
+        dataHeader.putShort((short) blockLength);
+        output.write(dataHeader.array());
+        output.write(MSZIP_SIGNATURE);
+        output.write(compressed, 0, compressedLength);
+      }
+
+      final long cabinetSize = output.length();
+      output.seek(8);
+      output.write(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt((int) cabinetSize).array());
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private static boolean isAscii(@NotNull final String value) {
+    for (int i = 0; i < value.length(); i++) {
+      if (value.charAt(i) > 0x7F) return false;
+    }
+    return true;
+  }
+
+  private static void readFully(@NotNull final InputStream input, @NotNull final byte[] buffer, final int length) throws IOException {
+    int offset = 0;
+    while (offset < length) {
+      final int count = input.read(buffer, offset, length - offset);
+      if (count < 0) throw new IOException("Unexpected end of stream");
+      offset += count;
+    }
+  }
+
+  private static short getDosDate(final long timestamp) {
+    final Calendar calendar = Calendar.getInstance();
+    calendar.setTimeInMillis(timestamp);
+    final int year = Math.max(0, calendar.get(Calendar.YEAR) - 1980);
+    return (short) ((year << 9) | ((calendar.get(Calendar.MONTH) + 1) << 5) | calendar.get(Calendar.DAY_OF_MONTH));
+  }
+
+  private static short getDosTime(final long timestamp) {
+    final Calendar calendar = Calendar.getInstance();
+    calendar.setTimeInMillis(timestamp);
+    return (short) ((calendar.get(Calendar.HOUR_OF_DAY) << 11) | (calendar.get(Calendar.MINUTE) << 5) | (calendar.get(Calendar.SECOND) / 2));
+  }
+}
@@ -0,0 +1,198 @@
+
+
+package jetbrains.buildServer.symbols;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import java.util.BitSet;
+import java.util.List;
+import jetbrains.buildServer.serverSide.metadata.BuildMetadataEntry;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Compact in-memory representation of symbol metadata entries of a single build.
+ *
+ * Keys in the {@code <guid>:<file name>} form are stored as two longs and an interned file name,
+ * other keys are stored as interned strings. Artifact paths are interned too, so file names and paths
+ * repeated in many builds are kept once. Lookup is done through an open-addressing table of entry indices.
+ */
+class CompactBuildEntries {
+
+  private static final Interner<String> STRINGS = Interners.newWeakInterner();
+  private static final int GUID_LENGTH = 32;
+  private static final char KEY_SEPARATOR = ':';
+  private static final int OBJECT_HEADER_SIZE = 16;
+  private static final int STRING_OVERHEAD = 40;
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  private final long myBuildId;
+  private final int mySize;
+  private final long[] myGuids;
+  private final String[] myNames;
+  private final String[] myArtifactPaths;
+  private final BitSet myPlainKeys = new BitSet();
+  private final int[] mySlots;
+  private final long myEstimatedSize;
+
+  CompactBuildEntries(final long buildId, @NotNull final List<BuildMetadataEntry> entries) {
+    myBuildId = buildId;
+    myGuids = new long[entries.size() * 2];
+    myNames = new String[entries.size()];
+    myArtifactPaths = new String[entries.size()];
+    mySlots = new int[getCapacity(entries.size())];
+
+    int size = 0;
+    for (BuildMetadataEntry entry : entries) {
+      final String key = entry.getKey();
+      final int slot = findSlot(key);
+      if (mySlots[slot] != 0) continue;
+
+      if (isGuidKey(key)) {
+        myGuids[size * 2] = parseHex(key, 0);
+        myGuids[size * 2 + 1] = parseHex(key, GUID_LENGTH / 2);
+        myNames[size] = STRINGS.intern(key.substring(GUID_LENGTH + 1));
+      } else {
+        myPlainKeys.set(size);
+        myNames[size] = STRINGS.intern(key);
+      }
+      final String artifactPath = entry.getMetadata().get(BuildSymbolsIndexProvider.ARTIFACT_PATH_KEY);
+      myArtifactPaths[size] = artifactPath == null ? null : STRINGS.intern(artifactPath);
+      mySlots[slot] = ++size;
+    }
+    mySize = size;
+    myEstimatedSize = estimateSize();
+  }
+
+  int size() {
+    return mySize;
+  }
+
+  /**
+   * @return estimated heap size in bytes.
+   */
+  long getEstimatedSize() {
+    return myEstimatedSize;
+  }
+
+  /**
+   * @param key is a metadata key.
+   * @return the entry or null if the build does not contain such key.
+   */
+  @Nullable
+  BuildMetadataEntry find(@NotNull final String key) {
+    final int index = mySlots[findSlot(key)] - 1;
+    if (index < 0) return null;
+    return new SymbolsMetadataEntry(key, myBuildId, myArtifactPaths[index]);
+  }
+
+  /**
+   * @return fingerprints of all keys, see {@link #fingerprint(CharSequence)}.
+   */
+  @NotNull
+  long[] getFingerprints() {
+    final long[] fingerprints = new long[mySize];
+    for (int i = 0; i < mySize; i++) {
+      fingerprints[i] = fingerprint(i);
+    }
+    return fingerprints;
+  }
+
+  /**
+   * Calculates 64-bit FNV-1a hash of the metadata key.
+   */
+  static long fingerprint(@NotNull final CharSequence key) {
+    return update(0xcbf29ce484222325L, key);
+  }
+
+  private long fingerprint(final int index) {
+    if (myPlainKeys.get(index)) {
+      return fingerprint(myNames[index]);
+    }
+    long hash = 0xcbf29ce484222325L;
+    hash = updateHex(hash, myGuids[index * 2]);
+    hash = updateHex(hash, myGuids[index * 2 + 1]);
+    hash = update(hash, KEY_SEPARATOR);
+    return update(hash, myNames[index]);
+  }
+
+  private int findSlot(@NotNull final String key) {
+    final long fingerprint = fingerprint(key);
+    final int mask = mySlots.length - 1;
+    int slot = (int) (fingerprint ^ (fingerprint >>> 32)) & mask;
+    while (mySlots[slot] != 0 && !keyEquals(mySlots[slot] - 1, key)) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private boolean keyEquals(final int index, @NotNull final String key) {
+    final String name = myNames[index];
+    if (myPlainKeys.get(index)) {
+      return name.equals(key);
+    }
+    return key.length() == GUID_LENGTH + 1 + name.length() &&
+           isGuidKey(key) &&
+           key.startsWith(name, GUID_LENGTH + 1) &&
+           parseHex(key, 0) == myGuids[index * 2] &&
+           parseHex(key, GUID_LENGTH / 2) == myGuids[index * 2 + 1];
+  }
+
+  private static boolean isGuidKey(@NotNull final String key) {
+    if (key.length() <= GUID_LENGTH + 1 || key.charAt(GUID_LENGTH) != KEY_SEPARATOR) return false;
+    for (int i = 0; i < GUID_LENGTH; i++) {
+      final char c = key.charAt(i);
+      if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) return false;
+    }
+    return true;
+  }
+
+  private static long parseHex(@NotNull final String key, final int offset) {
+    long value = 0;
+    for (int i = offset; i < offset + GUID_LENGTH / 2; i++) {
+      value = (value << 4) | Character.digit(key.charAt(i), 16);
+    }
+    return value;
+  }
+
+  private static long update(long hash, @NotNull final CharSequence chars) {
+    for (int i = 0; i < chars.length(); i++) {
+      hash = update(hash, chars.charAt(i));
+    }
+    return hash;
+  }
+
+  private static long update(long hash, final char c) {
+    hash ^= c;
+    hash *= 0x100000001b3L;
+    return hash;
+  }
+
+  private static long updateHex(long hash, final long value) {
+    for (int shift = 60; shift >= 0; shift -= 4) {
+      hash = update(hash, HEX_DIGITS[(int) (value >>> shift) & 0xf]);
+    }
+    return hash;
+  }
+
+  private long estimateSize() {
+    long size = OBJECT_HEADER_SIZE * 7 + 8L * myGuids.length + 4L * myNames.length + 4L * myArtifactPaths.length + 4L * mySlots.length + mySize / 8;
+    // interned strings are shared with other builds, so their size is an upper bound
+    for (int i = 0; i < mySize; i++) {
+      size += getStringSize(myNames[i]) + getStringSize(myArtifactPaths[i]);
+    }
+    return size;
+  }
+
+  private static long getStringSize(@Nullable final String value) {
+    return value == null ? 0 : STRING_OVERHEAD + 2L * value.length();
+  }
+
+  private static int getCapacity(final int size) {
+    int capacity = 2;
+    while (capacity < size * 2) {
+      capacity <<= 1;
+    }
+    return capacity;
+  }
+}
@@ -0,0 +1,53 @@
+
+
+package jetbrains.buildServer.symbols;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import jetbrains.buildServer.serverSide.ServerPaths;
+import jetbrains.buildServer.util.FileUtil;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Disk cache of compressed symbol files served for {@code file.pd_} requests.
+ *
+ * Compressed variants are produced lazily on the first request. The cache size is bounded by
+ * {@link SymbolsConstants#SYMBOLS_SERVER_COMPRESSED_CACHE_SIZE_MB}, least recently used files are evicted first.
+ */
+public class CompressedSymbolsCache extends SymbolsFileCache {
+
+  public CompressedSymbolsCache(@NotNull final ServerPaths serverPaths) {
+    super(new File(serverPaths.getPluginDataDirectory(), "symbol-server/compressed"), ".cab",
+          SymbolsConstants.SYMBOLS_SERVER_COMPRESSED_CACHE_SIZE_MB, 1024);
+  }
+
+  /**
+   * Returns the compressed variant of the symbol file, compresses it if needed.
+   *
+   * @param buildId is an id of the build which provides the symbol file.
+   * @param artifactPath is a path to the symbol file in build artifacts.
+   * @param fileName is a symbol file name.
+   * @param size is a size of the symbol file.
+   * @param timestamp is a modification time of the symbol file.
+   * @param contentProvider provides the symbol file content.
+   * @return the compressed file, should be closed once it is sent.
+   * @throws IOException if compression failed.
+   */
+  @NotNull
+  public CachedFile getCompressedFile(final long buildId,
+                                @NotNull final String artifactPath,
+                                @NotNull final String fileName,
+                                final long size,
+                                final long timestamp,
+                                @NotNull final ContentProvider contentProvider) throws IOException, InterruptedException {
+    return getFile(buildId, artifactPath, size, timestamp, "compressed symbol file " + fileName, file -> {
+      final InputStream input = contentProvider.getInputStream();
+      try {
+        CabFileWriter.write(input, size, timestamp, fileName, file);
+      } finally {
+        FileUtil.close(input);
+      }
+    });
+  }
+}
@@ -0,0 +1,108 @@
+
+
+package jetbrains.buildServer.symbols;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import jetbrains.buildServer.serverSide.SBuild;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.util.StringUtil;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Resolves indexed symbol files to URLs in the external artifact storage,
+ * so clients could download them bypassing the TeamCity server.
+ *
+ * The URL is built from the {@link SymbolsConstants#SYMBOLS_SERVER_DIRECT_URL_TEMPLATE} template,
+ * which supports {@code {projectId}}, {@code {buildTypeId}}, {@code {buildId}} and {@code {artifactPath}} placeholders,
+ * e.g. {@code https://artifacts.example.com/{projectId}/{buildTypeId}/{buildId}/{artifactPath}}.
+ * The template has to match the layout of the external storage configured for the projects, since URLs
+ * are not resolved through the storage plugins. Artifacts stored on the server are never resolved to direct URLs.
+ *
+ * Usage of the direct URLs is controlled by the {@link SymbolsConstants#SYMBOLS_SERVER_DIRECT_URL_MODE} property:
+ * {@code pointer} answers {@code file.ptr} requests, {@code redirect} redirects symbol file requests
+ * and {@code all} enables both.
+ */
+public class DirectArtifactUrlProvider {
+
+  private static final Logger LOG = Logger.getLogger(DirectArtifactUrlProvider.class);
+  private static final String MODE_POINTER = "pointer";
+  private static final String MODE_REDIRECT = "redirect";
+  private static final String MODE_ALL = "all";
+  private static final String ARCHIVE_PATH_SEPARATOR = "!/";
+
+  public boolean isPointerEnabled() {
+    final String mode = getMode();
+    return MODE_POINTER.equals(mode) || MODE_ALL.equals(mode);
+  }
+
+  public boolean isRedirectEnabled() {
+    final String mode = getMode();
+    return MODE_REDIRECT.equals(mode) || MODE_ALL.equals(mode);
+  }
+
+  /**
+   * @param build is a build which provides the symbol file.
+   * @param artifactPath is a path to the symbol file in build artifacts.
+   * @return the direct URL of the symbol file or null if it could not be resolved or the file is stored on the server.
+   */
+  @Nullable
+  public String getDirectUrl(@NotNull final SBuild build, @Nullable final String artifactPath) {
+    final String template = TeamCityProperties.getPropertyOrNull(SymbolsConstants.SYMBOLS_SERVER_DIRECT_URL_TEMPLATE);
+    if (StringUtil.isEmpty(template) || StringUtil.isEmpty(artifactPath)) {
+      return null;
+    }
+    if (artifactPath.contains(ARCHIVE_PATH_SEPARATOR)) {
+      LOG.debug(String.format("Symbol file %s is located inside of archive and could not be downloaded directly", artifactPath));
+      return null;
+    }
+    if (new File(build.getArtifactsDirectory(), artifactPath).isFile()) {
+      LOG.debug(String.format("Symbol file %s is stored on the server and will not be downloaded directly", artifactPath));
+      return null;
+    }
+
+    try {
+      return getDirectUrl(template, build.getProjectExternalId(), build.getBuildTypeExternalId(), build.getBuildId(), artifactPath);
+    } catch (UnsupportedEncodingException e) {
+      LOG.warn("Failed to build direct URL for symbol file " + artifactPath, e);
+      return null;
+    }
+  }
+
+  @NotNull
+  static String getDirectUrl(@NotNull final String template,
+                             @NotNull final String projectId,
+                             @NotNull final String buildTypeId,
+                             final long buildId,
+                             @NotNull final String artifactPath) throws UnsupportedEncodingException {
+    return template
+      .replace("{projectId}", encode(projectId))
+      .replace("{buildTypeId}", encode(buildTypeId))
+      .replace("{buildId}", String.valueOf(buildId))
+      .replace("{artifactPath}", encodePath(artifactPath));
+  }
+
+  @NotNull
+  private static String encodePath(@NotNull final String path) throws UnsupportedEncodingException {
+    final StringBuilder result = new StringBuilder();
+    for (String segment : path.split("/")) {
+      if (segment.isEmpty()) continue;
+      if (result.length() > 0) result.append('/');
+      result.append(encode(segment));
+    }
+    return result.toString();
+  }
+
+  @NotNull
+  private static String encode(@NotNull final String value) throws UnsupportedEncodingException {
+    return URLEncoder.encode(value, "UTF-8").replace("+", "%20");
+  }
+
+  @Nullable
+  private static String getMode() {
+    return TeamCityProperties.getPropertyOrNull(SymbolsConstants.SYMBOLS_SERVER_DIRECT_URL_MODE);
+  }
+}
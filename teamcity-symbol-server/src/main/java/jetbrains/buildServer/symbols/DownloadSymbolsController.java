@@ -2,10 +2,9 @@
 
 package jetbrains.buildServer.symbols;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.Semaphore;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeoutException;
 import jetbrains.buildServer.controllers.AuthorizationInterceptor;
 import jetbrains.buildServer.controllers.BaseController;
@@ -15,11 +14,9 @@ import jetbrains.buildServer.serverSide.SecurityContextEx;
 import jetbrains.buildServer.serverSide.TeamCityProperties;
 import jetbrains.buildServer.serverSide.artifacts.BuildArtifact;
 import jetbrains.buildServer.serverSide.artifacts.BuildArtifactsViewMode;
-import jetbrains.buildServer.serverSide.auth.Permission;
 import jetbrains.buildServer.serverSide.metadata.BuildMetadataEntry;
 import jetbrains.buildServer.serverSide.metadata.MetadataStorage;
 import jetbrains.buildServer.users.SUser;
-import jetbrains.buildServer.util.FileUtil;
 import jetbrains.buildServer.util.StringUtil;
 import jetbrains.buildServer.web.openapi.WebControllerManager;
 import jetbrains.buildServer.web.util.WebUtil;
@@ -28,15 +25,16 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.springframework.web.servlet.ModelAndView;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
-import java.util.Iterator;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * @author Evgeniy.Koshkin
@@ -46,15 +44,18 @@ public class DownloadSymbolsController extends BaseController {
   private static final Logger LOG = Logger.getLogger(DownloadSymbolsController.class);
   private static final String COMPRESSED_FILE_EXTENSION = "_";
   private static final String FILE_POINTER_FILE_EXTENSION = "ptr";
-  private static final Pattern DOWNLOAD_URL_PATTERN = Pattern.compile(
-          String.format(".*%s/([^/]+)/([^/]+)", SymbolsConstants.APP_SYMBOLS),
-          Pattern.CASE_INSENSITIVE
-  );
+  private static final String ARCHIVE_PATH_SEPARATOR = "!/";
+  private static final String DOWNLOAD_URL_PREFIX = SymbolsConstants.APP_SYMBOLS + "/";
 
   @NotNull private final SecurityContextEx mySecurityContext;
   @NotNull private final AuthHelper myAuthHelper;
   private final SymbolsCache mySymbolsCache;
-  private final MetadatSourceFactoryImpl myMetadataSourceFactory;
+  private final CompressedSymbolsCache myCompressedSymbolsCache;
+  private final ExtractedSymbolsCache myExtractedSymbolsCache;
+  private final DirectArtifactUrlProvider myDirectUrlProvider;
+  private final SymbolsMetadataExecutor myMetadataExecutor;
+  private final MetadataSource myMetadataSource;
+  private final SymbolsLocationCache myLocationCache;
 
   public DownloadSymbolsController(@NotNull SBuildServer server,
                                    @NotNull WebControllerManager controllerManager,
@@ -62,12 +63,22 @@ public class DownloadSymbolsController extends BaseController {
                                    @NotNull SecurityContextEx securityContext,
                                    @NotNull MetadataStorage buildMetadataStorage,
                                    @NotNull AuthHelper authHelper,
-                                   @NotNull SymbolsCache symbolsCache) {
+                                   @NotNull SymbolsCache symbolsCache,
+                                   @NotNull CompressedSymbolsCache compressedSymbolsCache,
+                                   @NotNull ExtractedSymbolsCache extractedSymbolsCache,
+                                   @NotNull DirectArtifactUrlProvider directUrlProvider,
+                                   @NotNull SymbolsMetadataExecutor metadataExecutor,
+                                   @NotNull SymbolsLocationCache locationCache) {
     super(server);
     mySecurityContext = securityContext;
     myAuthHelper = authHelper;
     mySymbolsCache = symbolsCache;
-    myMetadataSourceFactory = new MetadatSourceFactoryImpl(buildMetadataStorage);
+    myCompressedSymbolsCache = compressedSymbolsCache;
+    myExtractedSymbolsCache = extractedSymbolsCache;
+    myDirectUrlProvider = directUrlProvider;
+    myMetadataExecutor = metadataExecutor;
+    myLocationCache = locationCache;
+    myMetadataSource = new MetadataStorageSource(buildMetadataStorage);
     final String path = SymbolsConstants.APP_SYMBOLS + "/**";
     controllerManager.registerController(path, this);
     authInterceptor.addPathNotRequiringAuth(path);
@@ -82,84 +93,260 @@ public class DownloadSymbolsController extends BaseController {
       return simpleView("TeamCity symbol server is running");
     }
 
-    if (requestURI.endsWith(COMPRESSED_FILE_EXTENSION)) {
-      WebUtil.notFound(request, response, "File not found", null);
+    final boolean compressed = requestURI.endsWith(COMPRESSED_FILE_EXTENSION);
+    if (compressed && !TeamCityProperties.getBooleanOrTrue(SymbolsConstants.SYMBOLS_SERVER_COMPRESSED_FILES_ENABLED)) {
+      sendNotFound(response);
       return null;
     }
-    if (requestURI.endsWith(FILE_POINTER_FILE_EXTENSION)) {
-      WebUtil.notFound(request, response, "File not found", null);
+    final boolean filePointer = requestURI.endsWith(FILE_POINTER_FILE_EXTENSION);
+    if (filePointer && !myDirectUrlProvider.isPointerEnabled()) {
+      sendNotFound(response);
       return null;
     }
 
-    final Matcher urlMatcher = DOWNLOAD_URL_PATTERN.matcher(requestURI);
-    if (!urlMatcher.find()) {
-      WebUtil.notFound(request, response, "File not found", null);
-      if (!requestURI.endsWith("index2.txt")) {
-        LOG.warn("Invalid request to symbol server: " + requestURI);
+    final DownloadUrl url = DownloadUrl.parse(requestURI);
+    final String fileName = url == null ? null : url.getFileName();
+    if (fileName == null) {
+      sendNotFound(response);
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Invalid request to symbol server: " + requestURI);
       }
       return null;
     }
-
-    final String encodedFileName = urlMatcher.group(1).replaceAll("\\+", "%2b");
-    final String fileName = URLDecoder.decode(encodedFileName, "UTF-8");
-    final String signature = urlMatcher.group(2).toLowerCase();
+    final String signature = url.getSignature().toLowerCase();
 
     String guid = PdbSignatureIndexUtil.extractGuid(signature, true);
-    LOG.debug(String.format("Symbol file requested. File name: %s. Guid: %s.", fileName, guid));
+    if (LOG.isDebugEnabled()) {
+      LOG.debug(String.format("Symbol file requested. File name: %s. Guid: %s.", fileName, guid));
+    }
 
-    try {
-      final BuildMetadataEntry metadataEntry = getMetadataEntry(guid, fileName);
-      if (metadataEntry == null) {
+    final String metadataKey = BuildSymbolsIndexProvider.getMetadataKey(guid, fileName);
+    if (mySymbolsCache.isKnownMissing(metadataKey)) {
+      // misses are answered by the request thread, only lookups which might succeed are queued
+      if (LOG.isDebugEnabled()) {
         LOG.debug(String.format("There is no information about symbol file %s with id %s in the index.", fileName, guid));
+      }
+      sendNotFound(response);
+      return null;
+    }
 
-        WebUtil.notFound(request, response, "File not found", null);
-        return null;
+    final CompletableFuture<BuildMetadataEntry> metadataEntryFuture;
+    try {
+      metadataEntryFuture = myMetadataExecutor.submit(() -> getMetadataEntry(metadataKey));
+    } catch (RejectedExecutionException e) {
+      LOG.debug(String.format("Symbol file request rejected, metadata loading queue is full. File name: %s. Guid: %s.", fileName, guid));
+      SymbolsMetadataExecutor.sendServiceUnavailable(response);
+      return null;
+    }
+
+    final AsyncContext asyncContext = SymbolsMetadataExecutor.startAsync(request);
+    if (asyncContext != null) {
+      metadataEntryFuture.whenComplete((metadataEntry, error) -> asyncContext.start(() -> {
+        try {
+          sendSymbolFile(request, response, metadataEntry, error, fileName, guid, compressed, filePointer);
+        } finally {
+          asyncContext.complete();
+        }
+      }));
+      return null;
+    }
+
+    BuildMetadataEntry metadataEntry = null;
+    Throwable error = null;
+    try {
+      metadataEntry = metadataEntryFuture.get();
+    } catch (ExecutionException e) {
+      error = e.getCause();
+    }
+    sendSymbolFile(request, response, metadataEntry, error, fileName, guid, compressed, filePointer);
+    return null;
+  }
+
+  private void sendSymbolFile(@NotNull HttpServletRequest request,
+                              @NotNull HttpServletResponse response,
+                              @Nullable BuildMetadataEntry metadataEntry,
+                              @Nullable Throwable metadataError,
+                              @NotNull String fileName,
+                              @NotNull String guid,
+                              boolean compressed,
+                              boolean filePointer) {
+    try {
+      if (metadataError != null) {
+        if (metadataError instanceof TimeoutException || metadataError instanceof RejectedExecutionException) {
+          SymbolsMetadataExecutor.sendServiceUnavailable(response);
+          return;
+        }
+        throw metadataError;
+      }
+      if (metadataEntry == null) {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug(String.format("There is no information about symbol file %s with id %s in the index.", fileName, guid));
+        }
+        sendNotFound(response);
+        return;
       }
-      final String projectId = findRelatedProjectId(metadataEntry);
+      final SymbolsLocationCache.Location location = myLocationCache.getLocation(metadataEntry);
+      final String projectId = location != null ? location.getProjectId() : findRelatedProjectId(metadataEntry);
       if (projectId == null) {
-        WebUtil.notFound(request, response, "File not found", null);
-        return null;
+        sendNotFound(response);
+        return;
       }
 
-      final SUser user = myAuthHelper.getAuthenticatedUser(request, response, authority -> authority.isPermissionGrantedForProject(projectId, Permission.VIEW_BUILD_RUNTIME_DATA));
-      if (user == null) return null;
+      final SUser user = myAuthHelper.getAuthenticatedUser(request, response, projectId);
+      if (user == null) return;
 
       mySecurityContext.runAs(user, () -> {
-        final BuildArtifact buildArtifact = findArtifact(metadataEntry);
+        // files resolved to the server artifacts directory are not redirected
+        final boolean directUrlRequested = filePointer || !compressed && myDirectUrlProvider.isRedirectEnabled() && (location == null || location.getFile() == null);
+        if (location != null && !directUrlRequested) {
+          if (location.isValid()) {
+            LOG.debug(String.format("Sending symbols file from resolved location %s. File name: %s. Guid: %s.", location.getArtifactPath(), fileName, guid));
+            sendLocation(request, response, location, fileName, compressed);
+            return;
+          }
+          myLocationCache.removeLocation(metadataEntry);
+        }
+
+        final SBuild build = myServer.findBuildInstanceById(metadataEntry.getBuildId());
+        if (build != null && directUrlRequested) {
+          final String artifactPath = metadataEntry.getMetadata().get(BuildSymbolsIndexProvider.ARTIFACT_PATH_KEY);
+          final String directUrl = myDirectUrlProvider.getDirectUrl(build, artifactPath);
+          if (filePointer) {
+            if (directUrl == null) {
+              WebUtil.notFound(request, response, "File not found", null);
+            } else {
+              LOG.debug(String.format("Sending file pointer %s. File name: %s. Guid: %s.", directUrl, fileName, guid));
+              sendFilePointer(response, directUrl);
+            }
+            return;
+          }
+          if (directUrl != null) {
+            LOG.debug(String.format("Redirecting to %s. File name: %s. Guid: %s.", directUrl, fileName, guid));
+            response.sendRedirect(directUrl);
+            return;
+          }
+        }
+
+        final BuildArtifact buildArtifact = build == null ? null : findArtifact(build, metadataEntry);
         if (buildArtifact == null) {
           WebUtil.notFound(request, response, "Symbol file not found", null);
           LOG.debug(String.format("Symbol file not found. File name: %s. Guid: %s.", fileName, guid));
           return;
         }
 
+        final SymbolsLocationCache.Location resolvedLocation = SymbolsLocationCache.createLocation(build, buildArtifact);
+        if (resolvedLocation != null) {
+          myLocationCache.putLocation(metadataEntry, resolvedLocation);
+        }
+
+        if (compressed) {
+          LOG.debug(String.format("Start sending compressed symbols file. File name: %s. Guid: %s.", fileName, guid));
+          sendCompressedFile(request, response, build, buildArtifact, fileName);
+          LOG.debug(String.format("Compressed symbols file successfully transferred. File name: %s. Guid: %s.", fileName, guid));
+          return;
+        }
+
         LOG.debug(String.format("Start sending symbols file. File name: %s. Guid: %s.", fileName, guid));
-        BufferedOutputStream output = new BufferedOutputStream(response.getOutputStream());
-        try {
-          LOG.debug(String.format("Getting artifact stream for symbols file. File name: %s. Guid: %s.", fileName, guid));
-          InputStream input = buildArtifact.getInputStream();
-          try {
-            LOG.debug(String.format("Sending symbols file. File name: %s. Guid: %s.", fileName, guid));
-            FileUtil.copyStreams(input, output);
-          } finally {
-            FileUtil.close(input);
-          }
-        } finally {
-          FileUtil.close(output);
+        if (buildArtifact.getRelativePath().contains(ARCHIVE_PATH_SEPARATOR)) {
+          sendExtractedFile(request, response, build.getBuildId(), buildArtifact.getRelativePath(), buildArtifact.getSize(), buildArtifact.getTimestamp(),
+                            buildArtifact::getInputStream);
+          LOG.debug(String.format("Extracted symbols file successfully transferred. File name: %s. Guid: %s.", fileName, guid));
+          return;
         }
+        final String entityTag = ArtifactResponseWriter.getEntityTag(build.getBuildId(), buildArtifact.getSize(), buildArtifact.getTimestamp());
+        ArtifactResponseWriter.write(request, response, new BuildArtifactContent(build, buildArtifact), entityTag);
         LOG.debug(String.format("Symbols file successfully transferred. File name: %s. Guid: %s.", fileName, guid));
       });
     } catch (Throwable throwable) {
       LOG.debug(String.format("Failed to send symbols for file %s: %s", fileName, throwable.getMessage()), throwable);
       if (!response.isCommitted()) {
-        response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, throwable.getMessage());
+        try {
+          response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, throwable.getMessage());
+        } catch (IOException e) {
+          LOG.debug("Failed to send error response: " + e.getMessage(), e);
+        }
       }
     }
+  }
 
-    return null;
+  private void sendLocation(@NotNull HttpServletRequest request,
+                            @NotNull HttpServletResponse response,
+                            @NotNull SymbolsLocationCache.Location location,
+                            @NotNull String fileName,
+                            boolean compressed) throws IOException, InterruptedException {
+    final long timestamp = location.getTimestamp();
+    if (compressed) {
+      if (!canCompress(response, fileName, location.getSize())) return;
+      try (SymbolsFileCache.CachedFile compressedFile = myCompressedSymbolsCache.getCompressedFile(
+        location.getBuildId(), location.getArtifactPath(), fileName, location.getSize(), timestamp, location::getInputStream)) {
+        final String entityTag = ArtifactResponseWriter.getEntityTag(location.getBuildId(), compressedFile.getFile().length(), timestamp);
+        ArtifactResponseWriter.write(request, response, new ArtifactResponseWriter.FileContent(compressedFile.getFile(), timestamp), entityTag);
+      }
+      return;
+    }
+    if (location.getFile() == null) {
+      sendExtractedFile(request, response, location.getBuildId(), location.getArtifactPath(), location.getSize(), timestamp, location::getInputStream);
+      return;
+    }
+    final String entityTag = ArtifactResponseWriter.getEntityTag(location.getBuildId(), location.getSize(), timestamp);
+    ArtifactResponseWriter.write(request, response, location, entityTag);
+  }
+
+  private void sendExtractedFile(@NotNull HttpServletRequest request,
+                                 @NotNull HttpServletResponse response,
+                                 long buildId,
+                                 @NotNull String artifactPath,
+                                 long size,
+                                 long timestamp,
+                                 @NotNull SymbolsFileCache.ContentProvider contentProvider) throws IOException, InterruptedException {
+    try (SymbolsFileCache.CachedFile extractedFile = myExtractedSymbolsCache.getExtractedFile(buildId, artifactPath, size, timestamp, contentProvider)) {
+      final String entityTag = ArtifactResponseWriter.getEntityTag(buildId, size, timestamp);
+      ArtifactResponseWriter.write(request, response, new ArtifactResponseWriter.FileContent(extractedFile.getFile(), timestamp), entityTag);
+    }
+  }
+
+  /**
+   * Responds to a missing symbol file without error page, so clients could keep the connection alive.
+   */
+  private static void sendNotFound(@NotNull HttpServletResponse response) {
+    response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+    response.setContentLength(0);
+  }
+
+  /**
+   * Responds to a symbol file which does not fit into a cabinet as to a missing one, so clients request the uncompressed file.
+   */
+  private static boolean canCompress(@NotNull HttpServletResponse response, @NotNull String fileName, long size) {
+    if (CabFileWriter.canCompress(size)) return true;
+    LOG.debug(String.format("Symbols file %s is too large to be compressed: %d bytes.", fileName, size));
+    sendNotFound(response);
+    return false;
+  }
+
+  private static void sendFilePointer(@NotNull HttpServletResponse response, @NotNull String directUrl) throws IOException {
+    final byte[] content = ("PATH:" + directUrl).getBytes(StandardCharsets.UTF_8);
+    response.setContentType("text/plain");
+    response.setCharacterEncoding("UTF-8");
+    response.setContentLength(content.length);
+    response.getOutputStream().write(content);
+  }
+
+  private void sendCompressedFile(@NotNull HttpServletRequest request,
+                                  @NotNull HttpServletResponse response,
+                                  @NotNull SBuild build,
+                                  @NotNull BuildArtifact buildArtifact,
+                                  @NotNull String fileName) throws IOException, InterruptedException {
+    if (!canCompress(response, fileName, buildArtifact.getSize())) return;
+    final long timestamp = buildArtifact.getTimestamp();
+    try (SymbolsFileCache.CachedFile compressedFile = myCompressedSymbolsCache.getCompressedFile(
+      build.getBuildId(), buildArtifact.getRelativePath(), fileName, buildArtifact.getSize(), timestamp, buildArtifact::getInputStream)) {
+      final String entityTag = ArtifactResponseWriter.getEntityTag(build.getBuildId(), compressedFile.getFile().length(), timestamp);
+      ArtifactResponseWriter.write(request, response, new ArtifactResponseWriter.FileContent(compressedFile.getFile(), timestamp), entityTag);
+    }
   }
 
   @Nullable
-  private BuildArtifact findArtifact(@NotNull BuildMetadataEntry entry) {
+  static BuildArtifact findArtifact(@NotNull SBuild build, @NotNull BuildMetadataEntry entry) {
     final Map<String,String> metadata = entry.getMetadata();
     final String storedArtifactPath = metadata.get(BuildSymbolsIndexProvider.ARTIFACT_PATH_KEY);
     if(storedArtifactPath == null){
@@ -167,12 +354,7 @@ public class DownloadSymbolsController extends BaseController {
       return null;
     }
 
-    final long buildId = entry.getBuildId();
-    final SBuild build = myServer.findBuildInstanceById(buildId);
-    if(build == null){
-      LOG.debug(String.format("Build not found by id %d.", buildId));
-      return null;
-    }
+    final long buildId = build.getBuildId();
     final BuildArtifact buildArtifact = build.getArtifacts(BuildArtifactsViewMode.VIEW_ALL_WITH_ARCHIVES_CONTENT).getArtifact(storedArtifactPath);
     if(buildArtifact == null){
       LOG.debug(String.format("Artifact not found by path %s for build with id %d.", storedArtifactPath, buildId));
@@ -194,91 +376,113 @@ public class DownloadSymbolsController extends BaseController {
   }
 
   @Nullable
-  private BuildMetadataEntry getMetadataEntry(@NotNull String signature, @NotNull String fileName) throws Throwable {
-    return mySecurityContext.runAsSystem(() -> {
-      final String metadataKey = BuildSymbolsIndexProvider.getMetadataKey(signature, fileName);
-      final MetadatSourceFactoryImpl.MetadataSourceImpl metadataSource = myMetadataSourceFactory.create();
-      try {
-        return mySymbolsCache.getEntry(metadataKey, metadataSource);
-      }
-      finally {
-        metadataSource.release();
-      }
-    });
+  private BuildMetadataEntry getMetadataEntry(@NotNull String metadataKey) throws Throwable {
+    return mySecurityContext.runAsSystem(() -> findEntry(mySymbolsCache, myServer, metadataKey, myMetadataSource));
   }
 
+  /**
+   * Looks up the metadata entry and checks its build only once the entry is found,
+   * an entry of the removed build is dropped and the key is resolved again.
+   */
+  @Nullable
+  static BuildMetadataEntry findEntry(@NotNull SymbolsCache symbolsCache,
+                                      @NotNull SBuildServer server,
+                                      @NotNull String metadataKey,
+                                      @NotNull MetadataSource metadataSource) {
+    final BuildMetadataEntry entry = symbolsCache.getEntry(metadataKey, metadataSource);
+    if (entry == null || server.findBuildInstanceById(entry.getBuildId()) != null) return entry;
+    LOG.debug(String.format("Build with id %d was removed, resolving symbol file with id %s again.", entry.getBuildId(), metadataKey));
+    symbolsCache.invalidateEntry(entry);
+    return symbolsCache.getEntry(metadataKey, metadataSource);
+  }
 
-  private class MetadatSourceFactoryImpl {
-    private final MetadataStorage myBuildMetadataStorage;
-    private final Semaphore myConcurrentDataRequestSemaphore = new Semaphore(TeamCityProperties.getInteger(SymbolsConstants.SYMBOLS_SERVER_CACHE_MAXREADREQUESTS, 10), false);
 
-    private MetadatSourceFactoryImpl(@NotNull final MetadataStorage buildMetadataStorage) {
-      myBuildMetadataStorage = buildMetadataStorage;
-    }
+  private static class BuildArtifactContent implements ArtifactResponseWriter.Content {
+    private final SBuild myBuild;
+    private final BuildArtifact myArtifact;
 
-    public MetadataSourceImpl create() {
-      return new MetadataSourceImpl();
+    private BuildArtifactContent(@NotNull SBuild build, @NotNull BuildArtifact artifact) {
+      myBuild = build;
+      myArtifact = artifact;
     }
 
-    public class MetadataSourceImpl implements MetadataSource {
-      private boolean lockRequested = false;
-
-      @Override
-      public List<BuildMetadataEntry> getEntriesByBuildId(final Long buildId) throws InterruptedException, TimeoutException {
-        acquireLockIfNeed();
+    @Override
+    public long getSize() {
+      return myArtifact.getSize();
+    }
 
-        final Iterator<BuildMetadataEntry> entriesIterator =
-          myBuildMetadataStorage.getBuildEntry(buildId, BuildSymbolsIndexProvider.PROVIDER_ID);
+    @Override
+    public long getTimestamp() {
+      return myArtifact.getTimestamp();
+    }
 
-        final ArrayList<BuildMetadataEntry> result = new ArrayList<BuildMetadataEntry>();
-        while(entriesIterator.hasNext()) {
-          final BuildMetadataEntry entry = entriesIterator.next();
-          result.add(entry);
-        }
-        return result;
-      }
+    @Nullable
+    @Override
+    public File getFile() {
+      final String relativePath = myArtifact.getRelativePath();
+      if (relativePath.contains(ARCHIVE_PATH_SEPARATOR)) return null;
+      final File file = new File(myBuild.getArtifactsDirectory(), relativePath);
+      return file.isFile() && file.length() == myArtifact.getSize() ? file : null;
+    }
 
-      @Override
-      public Long getBuildIdByEntryKey(final String key) throws InterruptedException, TimeoutException {
-        acquireLockIfNeed();
+    @NotNull
+    @Override
+    public InputStream getInputStream() throws IOException {
+      return myArtifact.getInputStream();
+    }
+  }
 
-        final Iterator<BuildMetadataEntry> entryIterator =
-          myBuildMetadataStorage.getEntriesByKey(BuildSymbolsIndexProvider.PROVIDER_ID, key);
+  /**
+   * Symbol file download url: {@code .../app/symbols/<file name>/<signature>/...}.
+   */
+  static final class DownloadUrl {
+    private final String myEncodedFileName;
+    private final String mySignature;
 
-        if (entryIterator.hasNext()) {
-          final BuildMetadataEntry entry = entryIterator.next();
-          if (entry != null) {
-            return entry.getBuildId();
-          }
-        }
-        return null;
-      }
+    private DownloadUrl(@NotNull String encodedFileName, @NotNull String signature) {
+      myEncodedFileName = encodedFileName;
+      mySignature = signature;
+    }
 
-      public void release() {
-        releaseLockIfNeed();
+    /**
+     * @param requestURI is a request URI.
+     * @return parsed url or null if the URI does not point to a symbol file.
+     */
+    @Nullable
+    static DownloadUrl parse(@NotNull String requestURI) {
+      // the last occurrence of the prefix followed by two non empty path segments wins
+      int index = requestURI.length();
+      while ((index = requestURI.lastIndexOf('/', index - 1)) >= 0) {
+        if (!requestURI.regionMatches(true, index, DOWNLOAD_URL_PREFIX, 0, DOWNLOAD_URL_PREFIX.length())) continue;
+        final int fileNameStart = index + DOWNLOAD_URL_PREFIX.length();
+        final int fileNameEnd = requestURI.indexOf('/', fileNameStart);
+        if (fileNameEnd <= fileNameStart) continue;
+        final int signatureStart = fileNameEnd + 1;
+        int signatureEnd = requestURI.indexOf('/', signatureStart);
+        if (signatureEnd < 0) signatureEnd = requestURI.length();
+        if (signatureEnd == signatureStart) continue;
+        return new DownloadUrl(requestURI.substring(fileNameStart, fileNameEnd), requestURI.substring(signatureStart, signatureEnd));
       }
+      return null;
+    }
 
-      private void acquireLockIfNeed() throws InterruptedException, TimeoutException {
-        if (lockRequested) {
-          return;
-        }
-
-        final int timeout = TeamCityProperties.getInteger(SymbolsConstants.SYMBOLS_SERVER_CACHE_ACQUIRE_LOCK_TIMEOUT, 150);
-        if (myConcurrentDataRequestSemaphore.tryAcquire(timeout, TimeUnit.SECONDS)) {
-          lockRequested = true;
-        } else {
-          LOG.warn("Could not acquire read metadata lock during " + timeout + " sec");
-          throw new TimeoutException("Could not acquire read metadata lock during " + timeout + " sec");
-        }
+    /**
+     * @return decoded file name or null if it is not properly encoded.
+     */
+    @Nullable
+    String getFileName() {
+      if (myEncodedFileName.indexOf('%') < 0) return myEncodedFileName;
+      try {
+        // "+" is a valid file name character rather than an encoded space
+        return URLDecoder.decode(myEncodedFileName.replace("+", "%2b"), "UTF-8");
+      } catch (IllegalArgumentException | UnsupportedEncodingException e) {
+        return null;
       }
+    }
 
-      private void releaseLockIfNeed() {
-        if (!lockRequested) {
-          return;
-        }
-        myConcurrentDataRequestSemaphore.release();
-        lockRequested = false;
-      }
+    @NotNull
+    String getSignature() {
+      return mySignature;
     }
   }
 }
@@ -0,0 +1,55 @@
+
+
+package jetbrains.buildServer.symbols;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import jetbrains.buildServer.serverSide.ServerPaths;
+import jetbrains.buildServer.util.FileUtil;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Disk cache of symbol files extracted from archive artifacts, e.g. {@code .zip} or {@code .nupkg} files.
+ *
+ * An archive entry is inflated once on the first request, later requests are served from the extracted file
+ * with zero-copy transfer. The cache size is bounded by {@link SymbolsConstants#SYMBOLS_SERVER_EXTRACTED_CACHE_SIZE_MB},
+ * least recently used files are evicted first.
+ */
+public class ExtractedSymbolsCache extends SymbolsFileCache {
+
+  public ExtractedSymbolsCache(@NotNull final ServerPaths serverPaths) {
+    super(new File(serverPaths.getPluginDataDirectory(), "symbol-server/extracted"), ".bin",
+          SymbolsConstants.SYMBOLS_SERVER_EXTRACTED_CACHE_SIZE_MB, 1024);
+  }
+
+  /**
+   * Returns the extracted symbol file, extracts it if needed.
+   *
+   * @param buildId is an id of the build which provides the symbol file.
+   * @param artifactPath is a path to the symbol file inside of archive in build artifacts.
+   * @param size is a size of the symbol file.
+   * @param timestamp is a modification time of the symbol file.
+   * @param contentProvider provides the symbol file content.
+   * @return the extracted file, should be closed once it is sent.
+   * @throws IOException if extraction failed.
+   */
+  @NotNull
+  public CachedFile getExtractedFile(final long buildId,
+                               @NotNull final String artifactPath,
+                               final long size,
+                               final long timestamp,
+                               @NotNull final ContentProvider contentProvider) throws IOException, InterruptedException {
+    return getFile(buildId, artifactPath, size, timestamp, "extracted symbol file " + artifactPath, file -> {
+      try (InputStream input = contentProvider.getInputStream();
+           OutputStream output = new FileOutputStream(file)) {
+        FileUtil.copyStreams(input, output);
+      }
+      if (file.length() != size) {
+        throw new IOException(String.format("Extracted symbol file %s size %d differs from expected %d", artifactPath, file.length(), size));
+      }
+    });
+  }
+}
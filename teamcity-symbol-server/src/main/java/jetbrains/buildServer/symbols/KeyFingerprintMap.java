@@ -0,0 +1,103 @@
+
+
+package jetbrains.buildServer.symbols;
+
+/**
+ * Open-addressing map from metadata key fingerprints to build ids.
+ *
+ * Keeps two primitive arrays instead of boxed entries, so memory usage is 32 bytes per key at most.
+ * A fingerprint collision can only point to a wrong build, which does not contain the key,
+ * so callers should verify the found build.
+ */
+class KeyFingerprintMap {
+
+  static final long NOT_FOUND = -1;
+
+  private static final int MIN_CAPACITY = 1 << 10;
+  private static final long EMPTY = 0;
+  private static final long ZERO_FINGERPRINT = 0x9e3779b97f4a7c15L;
+
+  private long[] myKeys = new long[MIN_CAPACITY];
+  private long[] myValues = new long[MIN_CAPACITY];
+  private int mySize;
+
+  synchronized long get(final long fingerprint) {
+    final long key = normalize(fingerprint);
+    final int slot = findSlot(myKeys, key);
+    return myKeys[slot] == EMPTY ? NOT_FOUND : myValues[slot];
+  }
+
+  synchronized void put(final long fingerprint, final long buildId) {
+    final long key = normalize(fingerprint);
+    int slot = findSlot(myKeys, key);
+    if (myKeys[slot] == EMPTY) {
+      if ((mySize + 1) * 2 > myKeys.length) {
+        resize(myKeys.length * 2);
+        slot = findSlot(myKeys, key);
+      }
+      myKeys[slot] = key;
+      mySize++;
+    }
+    myValues[slot] = buildId;
+  }
+
+  /**
+   * Removes the fingerprint if it is mapped to the specified build.
+   */
+  synchronized void remove(final long fingerprint, final long buildId) {
+    final long key = normalize(fingerprint);
+    int slot = findSlot(myKeys, key);
+    if (myKeys[slot] == EMPTY || myValues[slot] != buildId) return;
+
+    // backward shift deletion keeps probe sequences without tombstones
+    final int mask = myKeys.length - 1;
+    int next = slot;
+    while (true) {
+      next = (next + 1) & mask;
+      if (myKeys[next] == EMPTY) break;
+      final int home = getHomeSlot(myKeys[next], mask);
+      final boolean stays = slot <= next ? slot < home && home <= next : slot < home || home <= next;
+      if (stays) continue;
+      myKeys[slot] = myKeys[next];
+      myValues[slot] = myValues[next];
+      slot = next;
+    }
+    myKeys[slot] = EMPTY;
+    myValues[slot] = 0;
+    mySize--;
+  }
+
+  synchronized int size() {
+    return mySize;
+  }
+
+  private void resize(final int capacity) {
+    final long[] keys = new long[capacity];
+    final long[] values = new long[capacity];
+    for (int i = 0; i < myKeys.length; i++) {
+      if (myKeys[i] == EMPTY) continue;
+      final int slot = findSlot(keys, myKeys[i]);
+      keys[slot] = myKeys[i];
+      values[slot] = myValues[i];
+    }
+    myKeys = keys;
+    myValues = values;
+  }
+
+  private static int findSlot(final long[] keys, final long key) {
+    final int mask = keys.length - 1;
+    int slot = getHomeSlot(key, mask);
+    while (keys[slot] != EMPTY && keys[slot] != key) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private static int getHomeSlot(final long key, final int mask) {
+    return (int) (key ^ (key >>> 32)) & mask;
+  }
+
+  private static long normalize(final long fingerprint) {
+    return fingerprint == EMPTY ? ZERO_FINGERPRINT : fingerprint;
+  }
+}
@@ -0,0 +1,48 @@
+
+
+package jetbrains.buildServer.symbols;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import jetbrains.buildServer.serverSide.metadata.BuildMetadataEntry;
+import jetbrains.buildServer.serverSide.metadata.MetadataStorage;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Reads symbols metadata from the {@link MetadataStorage}.
+ */
+class MetadataStorageSource implements MetadataSource {
+  private final MetadataStorage myBuildMetadataStorage;
+
+  MetadataStorageSource(@NotNull final MetadataStorage buildMetadataStorage) {
+    myBuildMetadataStorage = buildMetadataStorage;
+  }
+
+  @Override
+  public List<BuildMetadataEntry> getEntriesByBuildId(final Long buildId) {
+    final Iterator<BuildMetadataEntry> entriesIterator =
+      myBuildMetadataStorage.getBuildEntry(buildId, BuildSymbolsIndexProvider.PROVIDER_ID);
+
+    final ArrayList<BuildMetadataEntry> result = new ArrayList<BuildMetadataEntry>();
+    while(entriesIterator.hasNext()) {
+      final BuildMetadataEntry entry = entriesIterator.next();
+      result.add(entry);
+    }
+    return result;
+  }
+
+  @Override
+  public Long getBuildIdByEntryKey(final String key) {
+    final Iterator<BuildMetadataEntry> entryIterator =
+      myBuildMetadataStorage.getEntriesByKey(BuildSymbolsIndexProvider.PROVIDER_ID, key);
+
+    if (entryIterator.hasNext()) {
+      final BuildMetadataEntry entry = entryIterator.next();
+      if (entry != null) {
+        return entry.getBuildId();
+      }
+    }
+    return null;
+  }
+}
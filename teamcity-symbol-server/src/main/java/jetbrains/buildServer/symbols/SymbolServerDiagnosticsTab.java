@@ -0,0 +1,77 @@
+
+
+package jetbrains.buildServer.symbols;
+
+import com.google.common.cache.CacheStats;
+import jetbrains.buildServer.serverSide.auth.AuthUtil;
+import jetbrains.buildServer.serverSide.auth.Permission;
+import jetbrains.buildServer.serverSide.auth.SecurityContext;
+import jetbrains.buildServer.web.openapi.PagePlaces;
+import jetbrains.buildServer.web.openapi.PlaceId;
+import jetbrains.buildServer.web.openapi.PluginDescriptor;
+import jetbrains.buildServer.web.openapi.SimpleCustomTab;
+import org.jetbrains.annotations.NotNull;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shows symbols cache statistics on the server diagnostics page.
+ */
+public class SymbolServerDiagnosticsTab extends SimpleCustomTab {
+
+  private static final String TAB_ID = "symbolServerDiagnosticsTab";
+
+  @NotNull private final SecurityContext mySecurityContext;
+  @NotNull private final SymbolsCache mySymbolsCache;
+
+  public SymbolServerDiagnosticsTab(@NotNull final PagePlaces pagePlaces,
+                                    @NotNull final SecurityContext context,
+                                    @NotNull final PluginDescriptor descriptor,
+                                    @NotNull final SymbolsCache symbolsCache) {
+    super(pagePlaces,
+            PlaceId.ADMIN_SERVER_DIAGNOSTIC_TAB,
+            TAB_ID,
+            descriptor.getPluginResourcesPath("symbolServerDiagnostics.jsp"),
+            "Symbol Server");
+    mySecurityContext = context;
+    mySymbolsCache = symbolsCache;
+    register();
+  }
+
+  @Override
+  public boolean isVisible() {
+    return super.isVisible() && hasAccess();
+  }
+
+  @Override
+  public boolean isAvailable(@NotNull HttpServletRequest request) {
+    return super.isAvailable(request) && hasAccess();
+  }
+
+  @Override
+  public void fillModel(@NotNull Map<String, Object> model, @NotNull HttpServletRequest request) {
+    super.fillModel(model, request);
+    final CacheStats stats = mySymbolsCache.getCachedBuildsStats();
+    model.put("cachedBuildsCount", mySymbolsCache.getCachedBuildsCount());
+    model.put("cachedBuildsSizeMb", toMegabytes(mySymbolsCache.getCachedBuildsWeight()));
+    model.put("cachedBuildsMaxSizeMb", toMegabytes(mySymbolsCache.getCachedBuildsMaxWeight()));
+    model.put("hitCount", stats.hitCount());
+    model.put("missCount", stats.missCount());
+    model.put("hitRatePercent", Math.round(stats.hitRate() * 100));
+    model.put("evictionCount", stats.evictionCount());
+    model.put("loadCount", stats.loadCount());
+    model.put("loadExceptionCount", stats.loadExceptionCount());
+    model.put("averageLoadTimeMs", TimeUnit.NANOSECONDS.toMillis((long) stats.averageLoadPenalty()));
+    model.put("totalLoadTimeMs", TimeUnit.NANOSECONDS.toMillis(stats.totalLoadTime()));
+  }
+
+  private static long toMegabytes(final long bytes) {
+    return bytes < 0 ? bytes : (bytes + 1024 * 1024 - 1) / (1024 * 1024);
+  }
+
+  private boolean hasAccess() {
+    return AuthUtil.hasGlobalPermission(mySecurityContext.getAuthorityHolder(), Permission.CHANGE_SERVER_SETTINGS);
+  }
+}
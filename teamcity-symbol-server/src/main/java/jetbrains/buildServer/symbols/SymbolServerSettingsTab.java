@@ -23,16 +23,22 @@ public class SymbolServerSettingsTab extends SimpleCustomTab {
   private static final String TAB_ID = "sourceServerSettingsTab";
 
   @NotNull private final SecurityContext mySecurityContext;
+  @NotNull private final SymbolsCache mySymbolsCache;
+  @NotNull private final SymbolsCacheWarmer myCacheWarmer;
 
   public SymbolServerSettingsTab(@NotNull final PagePlaces pagePlaces,
                                  @NotNull final SecurityContext context,
-                                 @NotNull final PluginDescriptor descriptor) {
+                                 @NotNull final PluginDescriptor descriptor,
+                                 @NotNull final SymbolsCache symbolsCache,
+                                 @NotNull final SymbolsCacheWarmer cacheWarmer) {
     super(pagePlaces,
             PlaceId.ADMIN_SERVER_CONFIGURATION_TAB,
             TAB_ID,
             descriptor.getPluginResourcesPath("symbolServerSettings.jsp"),
             "Symbol Server");
     mySecurityContext = context;
+    mySymbolsCache = symbolsCache;
+    myCacheWarmer = cacheWarmer;
     register();
   }
 
@@ -51,6 +57,12 @@ public class SymbolServerSettingsTab extends SimpleCustomTab {
     super.fillModel(model, request);
     model.put("actualServerUrl", WebUtil.getRootUrl(request));
     model.put("appUrl", SymbolsConstants.APP_SYMBOLS);
+    model.put("keyLookupsCount", mySymbolsCache.getKeyLookupsCount());
+    model.put("coalescedKeyLookupsCount", mySymbolsCache.getCoalescedKeyLookupsCount());
+    model.put("warmUpStatus", myCacheWarmer.getStatus().name());
+    model.put("warmUpLoadedBuildsCount", myCacheWarmer.getLoadedBuildsCount());
+    model.put("warmUpBuildsCount", myCacheWarmer.getBuildsCount());
+    model.put("warmUpElapsedTimeSec", myCacheWarmer.getElapsedTime() / 1000);
   }
 
   private boolean hasAccess() {
@@ -4,21 +4,22 @@ package jetbrains.buildServer.symbols;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import com.google.common.cache.RemovalNotification;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import jetbrains.buildServer.serverSide.BuildServerAdapter;
 import jetbrains.buildServer.serverSide.BuildServerListener;
 import jetbrains.buildServer.serverSide.SBuild;
+import jetbrains.buildServer.serverSide.SFinishedBuild;
 import jetbrains.buildServer.serverSide.TeamCityProperties;
 import jetbrains.buildServer.serverSide.metadata.BuildMetadataEntry;
 import jetbrains.buildServer.util.EventDispatcher;
 import org.apache.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 public class SymbolsCache {
 
@@ -28,14 +29,47 @@ public class SymbolsCache {
    * Contains the map of cached requests to symbol server metadata storage.
    *
    * The key is a buildId.
-   * The value is a build metadata entry map or empty value if build was not found.
+   * The value is compact build metadata entries or empty value if build was not found.
    */
-  private final Cache<Long, Optional<Map<String, BuildMetadataEntry>>> myCachedBuilds;
+  private final Cache<Long, Optional<CompactBuildEntries>> myCachedBuilds;
 
-  private final ConcurrentMap<String, Long> myKeyToBuildIdMap = new ConcurrentHashMap<>();
+  /**
+   * Estimated heap size of the cache key with the empty value.
+   */
+  private static final int EMPTY_BUILD_WEIGHT = 64;
+
+  /**
+   * Estimated heap size of a fingerprint slot in the key to build id map per metadata key.
+   */
+  private static final int KEY_FINGERPRINT_WEIGHT = 32;
+
+  /**
+   * Maps fingerprints of metadata keys of the cached builds to the build ids.
+   */
+  private final KeyFingerprintMap myKeyToBuildIdMap = new KeyFingerprintMap();
   private final Cache<String, Boolean> myMissedSymbols;
 
-  public SymbolsCache(@NotNull final EventDispatcher<BuildServerListener> events) {
+  /**
+   * Contains in-flight requests for buildId by metadata key.
+   *
+   * Concurrent misses of the same key wait for a single metadata storage request.
+   */
+  private final ConcurrentMap<String, CompletableFuture<Long>> myPendingKeyLookups = new ConcurrentHashMap<>();
+  private final AtomicLong myKeyLookupsCount = new AtomicLong();
+  private final AtomicLong myCoalescedKeyLookupsCount = new AtomicLong();
+
+  private final AtomicLong myCachedBuildsWeight = new AtomicLong();
+  private final long myCachedBuildsMaxWeight;
+
+  private final SymbolsKeyIndex myKeyIndex;
+  private final SymbolsKeyFilter myKeyFilter;
+
+  public SymbolsCache(@NotNull final EventDispatcher<BuildServerListener> events,
+                      @NotNull final SymbolsKeyIndex keyIndex,
+                      @NotNull final SymbolsKeyFilter keyFilter) {
+    myKeyIndex = keyIndex;
+    myKeyFilter = keyFilter;
+
     final int missedSymbolsCacheSize = TeamCityProperties.getInteger(SymbolsConstants.SYMBOLS_SERVER_MISS_CACHE_ENTRIES_SIZE, 2048);
     final int missedSymbolsExpirationTimeSec = TeamCityProperties.getInteger(SymbolsConstants.SYMBOLS_SERVER_MISS_CACHE_EXPIRATION_TIME_SEC, 60 * 60 * 3);
 
@@ -45,103 +79,273 @@ public class SymbolsCache {
       .expireAfterAccess(missedSymbolsExpirationTimeSec, TimeUnit.SECONDS)
       .build();
 
-    final int cacheSize = TeamCityProperties.getInteger(SymbolsConstants.SYMBOLS_SERVER_CACHE_ENTRIES_SIZE, 32);
     final int expirationTimeSec = TeamCityProperties.getInteger(SymbolsConstants.SYMBOLS_SERVER_CACHE_EXPIRATION_TIME_SEC, 60 * 60);
 
-    myCachedBuilds = CacheBuilder
+    final CacheBuilder<Long, Optional<CompactBuildEntries>> cachedBuildsBuilder = CacheBuilder
       .newBuilder()
-      .maximumSize(cacheSize)
+      .recordStats()
       .expireAfterAccess(expirationTimeSec, TimeUnit.SECONDS)
-      .removalListener((RemovalNotification<Long, Optional<Map<String, BuildMetadataEntry>>> notification) -> {
-        LOG.debug("Removing cache entry. BuildId: " + notification.getValue());
+      .removalListener((RemovalNotification<Long, Optional<CompactBuildEntries>> notification) -> {
+        LOG.debug("Removing cache entry. BuildId: " + notification.getKey());
 
-        Optional<Map<String, BuildMetadataEntry>> notificationValue = notification.getValue();
-        if (notificationValue == null || !notificationValue.isPresent()) {
+        Optional<CompactBuildEntries> notificationValue = notification.getValue();
+        Long buildId = notification.getKey();
+        if (notificationValue != null) {
+          myCachedBuildsWeight.addAndGet(-getWeight(notificationValue));
+        }
+        if (buildId == null || notificationValue == null || !notificationValue.isPresent()) {
           return;
         }
 
-        for (String entryKey: notificationValue.get().keySet()) {
-          LOG.debug("Removing entryKey: " + entryKey);
-          myKeyToBuildIdMap.remove(entryKey);
+        for (long fingerprint: notificationValue.get().getFingerprints()) {
+          myKeyToBuildIdMap.remove(fingerprint, buildId);
         }
 
-        LOG.debug("All build-related entries was removed from cache. BuildId: " + notification.getValue());
-      })
-      .build();
+        LOG.debug("All build-related entries was removed from cache. BuildId: " + buildId);
+      });
+
+    final String cacheEntriesSize = TeamCityProperties.getPropertyOrNull(SymbolsConstants.SYMBOLS_SERVER_CACHE_ENTRIES_SIZE);
+    if (cacheEntriesSize != null && TeamCityProperties.getPropertyOrNull(SymbolsConstants.SYMBOLS_SERVER_CACHE_SIZE_MB) == null) {
+      // explicitly configured number of builds is kept for compatibility
+      myCachedBuildsMaxWeight = -1;
+      cachedBuildsBuilder.maximumSize(TeamCityProperties.getInteger(SymbolsConstants.SYMBOLS_SERVER_CACHE_ENTRIES_SIZE, 256));
+    } else {
+      myCachedBuildsMaxWeight = TeamCityProperties.getLong(SymbolsConstants.SYMBOLS_SERVER_CACHE_SIZE_MB, 128) * 1024 * 1024;
+      // single segment, otherwise the budget is split between segments and large builds are evicted right after loading
+      cachedBuildsBuilder
+        .concurrencyLevel(1)
+        .maximumWeight(myCachedBuildsMaxWeight)
+        .weigher((Long buildId, Optional<CompactBuildEntries> entries) -> (int) Math.min(Integer.MAX_VALUE, getWeight(entries)));
+    }
+    myCachedBuilds = cachedBuildsBuilder.build();
 
     events.addListener(new BuildServerAdapter() {
       @Override
       public void buildArtifactsChanged(@NotNull SBuild build) {
         myCachedBuilds.invalidate(build.getBuildId());
       }
+
+      @Override
+      public void entryDeleted(@NotNull SFinishedBuild build) {
+        myCachedBuilds.invalidate(build.getBuildId());
+      }
     });
   }
 
+  /**
+   * Looks up the metadata entry by its key.
+   *
+   * The entry is resolved through the cached builds, the key index and finally the metadata storage.
+   * Indexed entries are returned as is without loading the build, callers which find that the build
+   * was removed should call {@link #invalidateEntry(BuildMetadataEntry)} and look the key up again.
+   * Concurrent storage lookups of the same key are coalesced, the found build is loaded into the cached builds.
+   *
+   * @param key is a metadata key.
+   * @param metadataSource is a source of metadata.
+   * @return the entry or null if the symbol file is not hosted.
+   */
+  @Nullable
   public BuildMetadataEntry getEntry(@NotNull final String key,
                                      @NotNull final MetadataSource metadataSource) {
-    Boolean missedSymbol = myMissedSymbols.getIfPresent(key);
-    if (missedSymbol != null && missedSymbol) {
-      LOG.debug("Symbol server does not host the symbol. Missed symbols cache contains key: " + key);
+    if (isRejectedByFilter(key)) {
+      LOG.debug("Symbol server does not host the symbol. Key filter rejected key: " + key);
       return null;
     }
 
     try {
-      Long buildId = myKeyToBuildIdMap.get(key);
-      if (buildId == null) {
-        LOG.debug("Searching buildId by key. Key: " + key);
-        buildId = metadataSource.getBuildIdByEntryKey(key);
-        if (buildId == null) {
-          LOG.debug("Could not found buildId by key. Key: " + key);
-          myMissedSymbols.put(key, true);
-          return null;
-        } else {
-          myKeyToBuildIdMap.put(key, buildId);
+      final long fingerprint = CompactBuildEntries.fingerprint(key);
+      final long cachedBuildId = myKeyToBuildIdMap.get(fingerprint);
+      if (cachedBuildId != KeyFingerprintMap.NOT_FOUND) {
+        final BuildMetadataEntry metadata = findBuildEntry(key, cachedBuildId, metadataSource);
+        if (metadata != null) {
+          return metadata;
         }
+        // fingerprint of another key or the build was removed
+        LOG.debug("Key was found in keyToBuildIdMap but the build does not contain it. Key: " + key + ", BuildId: " + cachedBuildId);
+        myKeyToBuildIdMap.remove(fingerprint, cachedBuildId);
       }
 
-      LOG.debug("Key was found in keyToBuildMap. Key: " + key + ", BuildId: " + buildId);
-
-      final AtomicBoolean shouldUpdateMap = new AtomicBoolean(false);
-      final Long lambdaBuildId = buildId;
-      final Optional<Map<String, BuildMetadataEntry>> buildEntries = myCachedBuilds.get(buildId, () -> {
-        final List<BuildMetadataEntry> entries = metadataSource.getEntriesByBuildId(lambdaBuildId);
-        if (entries.isEmpty()) {
-          return Optional.empty();
+      if (myKeyIndex.isReady()) {
+        final BuildMetadataEntry indexedEntry = myKeyIndex.findEntry(key);
+        if (indexedEntry != null) {
+          LOG.debug("Key was found in key index. Key: " + key + ", BuildId: " + indexedEntry.getBuildId());
+          return indexedEntry;
         }
-        shouldUpdateMap.set(true);
-        final HashMap<String, BuildMetadataEntry> result = new HashMap<String, BuildMetadataEntry>();
-        for (BuildMetadataEntry entry: entries) {
-          result.put(entry.getKey(), entry);
-        }
-        return Optional.of(result);
-      });
+      }
 
-      if (buildEntries.isPresent()) {
-        LOG.debug("Build entries was found in cache. BuildId: " + buildId);
-        final Map<String, BuildMetadataEntry> buildEntriesMap = buildEntries.get();
-        if (shouldUpdateMap.get()) {
-          for (String entryKey: buildEntriesMap.keySet()) {
-            myKeyToBuildIdMap.put(entryKey, lambdaBuildId);
-            myMissedSymbols.invalidate(entryKey);
-          }
-        }
-        final BuildMetadataEntry metadata = buildEntriesMap.get(key);
-        if (metadata != null) {
-          if (LOG.isDebugEnabled()) {
-            LOG.debug("Key was found in cache. Key: " + key + ", Value: " + metadata);
-          }
-          return metadata;
-        }
+      Boolean missedSymbol = myMissedSymbols.getIfPresent(key);
+      if (missedSymbol != null && missedSymbol) {
+        LOG.debug("Symbol server does not host the symbol. Missed symbols cache contains key: " + key);
+        return null;
+      }
+
+      LOG.debug("Searching buildId by key. Key: " + key);
+      final Long buildId = findBuildIdByKey(key, metadataSource);
+      BuildMetadataEntry metadata = buildId == null ? null : findBuildEntry(key, buildId, metadataSource);
+      if (metadata == null && buildId != null) {
+        // entries of the build might have been cached before its metadata was committed to the storage
+        myCachedBuilds.invalidate(buildId);
+        metadata = findBuildEntry(key, buildId, metadataSource);
+      }
+      if (metadata == null) {
+        LOG.debug("Could not found buildId by key. Key: " + key);
+        myMissedSymbols.put(key, true);
+        return null;
       }
 
-      LOG.debug("Key was found in keyToBuildIdMap but there was no such build in cache. Removing key from keyToBuildIdMap. Key: " + key + ", BuildId: " + buildId);
-      myKeyToBuildIdMap.remove(key);
+      // keys of builds indexed by other nodes or removed from the index
+      myKeyIndex.put(key, buildId, metadata.getMetadata().get(BuildSymbolsIndexProvider.ARTIFACT_PATH_KEY));
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Key was found in metadata storage. Key: " + key + ", Value: " + metadata);
+      }
+      return metadata;
     } catch (ExecutionException | InterruptedException | TimeoutException e) {
       LOG.error("Exception occured during metadata loading", e);
     }
     return null;
   }
 
+  /**
+   * Drops the entry which refers to a removed build, so the next lookup resolves the key through the metadata storage.
+   *
+   * @param entry is an entry returned by {@link #getEntry(String, MetadataSource)}.
+   */
+  public void invalidateEntry(@NotNull final BuildMetadataEntry entry) {
+    myKeyIndex.remove(entry.getKey(), entry.getBuildId());
+    myKeyToBuildIdMap.remove(CompactBuildEntries.fingerprint(entry.getKey()), entry.getBuildId());
+    myCachedBuilds.invalidate(entry.getBuildId());
+  }
+
+  /**
+   * Checks whether the symbol file is known to be not hosted without loading any metadata,
+   * so the request thread could answer such requests itself.
+   *
+   * @param key is a metadata key.
+   * @return true if the key is rejected by the key filter or was recently missed and is neither cached nor indexed,
+   * false if {@link #getEntry(String, MetadataSource)} should be called.
+   */
+  public boolean isKnownMissing(@NotNull final String key) {
+    if (isRejectedByFilter(key)) return true;
+    if (myMissedSymbols.getIfPresent(key) == null) return false;
+    if (myKeyToBuildIdMap.get(CompactBuildEntries.fingerprint(key)) != KeyFingerprintMap.NOT_FOUND) return false;
+    return !myKeyIndex.isReady() || myKeyIndex.findEntry(key) == null;
+  }
+
+  private boolean isRejectedByFilter(@NotNull final String key) {
+    return myKeyFilter.isReady() && !myKeyFilter.mightContain(key);
+  }
+
+  @Nullable
+  private BuildMetadataEntry findBuildEntry(@NotNull final String key,
+                                            final long buildId,
+                                            @NotNull final MetadataSource metadataSource) throws ExecutionException {
+    final Optional<CompactBuildEntries> buildEntries = myCachedBuilds.get(buildId, () -> loadBuildEntries(buildId, metadataSource));
+    return buildEntries.isPresent() ? buildEntries.get().find(key) : null;
+  }
+
+  /**
+   * Loads metadata entries of the build into the cache unless they are already cached.
+   *
+   * @param buildId is a build id.
+   * @param metadataSource is a source of metadata.
+   * @return true if the build provides symbols.
+   */
+  boolean preloadBuild(final long buildId, @NotNull final MetadataSource metadataSource) throws ExecutionException {
+    return myCachedBuilds.get(buildId, () -> loadBuildEntries(buildId, metadataSource)).isPresent();
+  }
+
+  /**
+   * @return the number of buildId lookups by key which were requested since server start.
+   */
+  public long getKeyLookupsCount() {
+    return myKeyLookupsCount.get();
+  }
+
+  /**
+   * @return the number of buildId lookups by key which were served by another concurrent request.
+   */
+  public long getCoalescedKeyLookupsCount() {
+    return myCoalescedKeyLookupsCount.get();
+  }
+
+  /**
+   * @return statistics of the cached builds.
+   */
+  @NotNull
+  public CacheStats getCachedBuildsStats() {
+    return myCachedBuilds.stats();
+  }
+
+  public long getCachedBuildsCount() {
+    return myCachedBuilds.size();
+  }
+
+  /**
+   * @return estimated heap size of the cached builds in bytes.
+   */
+  public long getCachedBuildsWeight() {
+    return myCachedBuildsWeight.get();
+  }
+
+  /**
+   * @return memory budget of the cached builds in bytes or -1 if cache is limited by the number of builds.
+   */
+  public long getCachedBuildsMaxWeight() {
+    return myCachedBuildsMaxWeight;
+  }
+
+  @NotNull
+  private Optional<CompactBuildEntries> loadBuildEntries(final long buildId,
+                                                         @NotNull final MetadataSource metadataSource) throws InterruptedException, TimeoutException {
+    final List<BuildMetadataEntry> entries = metadataSource.getEntriesByBuildId(buildId);
+    if (entries.isEmpty()) {
+      myCachedBuildsWeight.addAndGet(EMPTY_BUILD_WEIGHT);
+      return Optional.empty();
+    }
+    for (BuildMetadataEntry entry: entries) {
+      myMissedSymbols.invalidate(entry.getKey());
+    }
+    final CompactBuildEntries result = new CompactBuildEntries(buildId, entries);
+    for (long entryFingerprint: result.getFingerprints()) {
+      myKeyToBuildIdMap.put(entryFingerprint, buildId);
+    }
+    myCachedBuildsWeight.addAndGet(getWeight(Optional.of(result)));
+    return Optional.of(result);
+  }
+
+  private static long getWeight(@NotNull final Optional<CompactBuildEntries> entries) {
+    if (!entries.isPresent()) {
+      return EMPTY_BUILD_WEIGHT;
+    }
+    return EMPTY_BUILD_WEIGHT + entries.get().getEstimatedSize() + (long) KEY_FINGERPRINT_WEIGHT * entries.get().size();
+  }
+
+  @Nullable
+  private Long findBuildIdByKey(@NotNull final String key,
+                                @NotNull final MetadataSource metadataSource) throws InterruptedException, TimeoutException, ExecutionException {
+    myKeyLookupsCount.incrementAndGet();
+    final CompletableFuture<Long> lookup = new CompletableFuture<>();
+    final CompletableFuture<Long> pendingLookup = myPendingKeyLookups.putIfAbsent(key, lookup);
+    if (pendingLookup != null) {
+      myCoalescedKeyLookupsCount.incrementAndGet();
+      LOG.debug("Waiting for concurrent search of buildId by key. Key: " + key);
+      // waiters give up as the search itself would, so they are not blocked by a stuck search
+      return pendingLookup.get(TeamCityProperties.getInteger(SymbolsConstants.SYMBOLS_SERVER_CACHE_ACQUIRE_LOCK_TIMEOUT, 150), TimeUnit.SECONDS);
+    }
+
+    try {
+      final Long buildId = metadataSource.getBuildIdByEntryKey(key);
+      lookup.complete(buildId);
+      return buildId;
+    } catch (Throwable e) {
+      // waiters are released on any failure including errors
+      lookup.completeExceptionally(e);
+      throw e;
+    } finally {
+      myPendingKeyLookups.remove(key, lookup);
+    }
+  }
+
   public void invalidate(long buildId) {
     LOG.debug("Removing symbols cache for build with BuildId: " + buildId);
     myCachedBuilds.invalidate(buildId);
@@ -0,0 +1,143 @@
+
+
+package jetbrains.buildServer.symbols;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import jetbrains.buildServer.serverSide.BuildServerAdapter;
+import jetbrains.buildServer.serverSide.BuildServerListener;
+import jetbrains.buildServer.serverSide.SBuildServer;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.serverSide.metadata.MetadataStorage;
+import jetbrains.buildServer.util.EventDispatcher;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Preloads symbols of the most recent builds into {@link SymbolsCache} at server startup,
+ * so the first debugger sessions after restart do not stampede the metadata storage.
+ *
+ * The number of builds is configured by {@link SymbolsConstants#SYMBOLS_SERVER_CACHE_WARMUP_BUILDS},
+ * warm-up stops earlier when the cache budget is mostly used. Warm-up runs whether or not the {@link SymbolsKeyIndex}
+ * is ready: cached builds serve keys which are not indexed yet or were resolved again through the metadata storage.
+ */
+public class SymbolsCacheWarmer {
+
+  private static final Logger LOG = Logger.getLogger(SymbolsCacheWarmer.class);
+  private static final int MAX_SCANNED_BUILDS = 10000;
+  private static final double MAX_BUDGET_USAGE = 0.8;
+
+  public enum Status {
+    NOT_STARTED, DISABLED, RUNNING, FINISHED, FAILED
+  }
+
+  private final SBuildServer myServer;
+  private final SymbolsCache mySymbolsCache;
+  private final MetadataSource myMetadataSource;
+  private final ExecutorService myExecutor = Executors.newSingleThreadExecutor(r -> {
+    final Thread thread = new Thread(r, "Symbol server cache warm-up");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private volatile Status myStatus = Status.NOT_STARTED;
+  private volatile int myBuildsCount;
+  private volatile int myLoadedBuildsCount;
+  private volatile long myStartTime;
+  private volatile long myFinishTime;
+
+  public SymbolsCacheWarmer(@NotNull final SBuildServer server,
+                            @NotNull final MetadataStorage metadataStorage,
+                            @NotNull final SymbolsCache symbolsCache,
+                            @NotNull final EventDispatcher<BuildServerListener> events) {
+    myServer = server;
+    mySymbolsCache = symbolsCache;
+    myMetadataSource = new MetadataStorageSource(metadataStorage);
+
+    events.addListener(new BuildServerAdapter() {
+      @Override
+      public void serverStartup() {
+        final int buildsCount = TeamCityProperties.getInteger(SymbolsConstants.SYMBOLS_SERVER_CACHE_WARMUP_BUILDS, 20);
+        if (buildsCount <= 0) {
+          myStatus = Status.DISABLED;
+          return;
+        }
+        myExecutor.submit(() -> warmUp(buildsCount));
+      }
+
+      @Override
+      public void serverShutdown() {
+        myExecutor.shutdownNow();
+      }
+    });
+  }
+
+  void warmUp(final int maxBuildsCount) {
+    myStartTime = System.currentTimeMillis();
+    myStatus = Status.RUNNING;
+    try {
+      final List<Long> buildIds = findRecentBuilds(maxBuildsCount);
+      myBuildsCount = buildIds.size();
+      LOG.info(String.format("Symbols cache warm-up started for %d recent builds", buildIds.size()));
+
+      for (Long buildId : buildIds) {
+        if (Thread.currentThread().isInterrupted()) break;
+        if (isBudgetUsed()) {
+          LOG.info("Symbols cache warm-up stopped: cache memory budget is used");
+          break;
+        }
+        mySymbolsCache.preloadBuild(buildId, myMetadataSource);
+        myLoadedBuildsCount++;
+      }
+
+      myStatus = Status.FINISHED;
+      myFinishTime = System.currentTimeMillis();
+      LOG.info(String.format("Symbols cache warm-up finished in %d ms, %d builds loaded", myFinishTime - myStartTime, myLoadedBuildsCount));
+    } catch (Exception e) {
+      myStatus = Status.FAILED;
+      myFinishTime = System.currentTimeMillis();
+      LOG.warn("Symbols cache warm-up failed: " + e.getMessage(), e);
+    }
+  }
+
+  @NotNull
+  public Status getStatus() {
+    return myStatus;
+  }
+
+  public int getBuildsCount() {
+    return myBuildsCount;
+  }
+
+  public int getLoadedBuildsCount() {
+    return myLoadedBuildsCount;
+  }
+
+  /**
+   * @return warm-up duration in milliseconds, or time elapsed since start while it is running.
+   */
+  public long getElapsedTime() {
+    if (myStartTime == 0) return 0;
+    return (myStatus == Status.RUNNING ? System.currentTimeMillis() : myFinishTime) - myStartTime;
+  }
+
+  @NotNull
+  private List<Long> findRecentBuilds(final int maxBuildsCount) {
+    final List<Long> buildIds = new ArrayList<>();
+    final int[] scannedBuilds = {0};
+    myServer.getHistory().processEntries(build -> {
+      if (!build.getBuildFeaturesOfType(SymbolsConstants.BUILD_FEATURE_TYPE).isEmpty()) {
+        buildIds.add(build.getBuildId());
+      }
+      return buildIds.size() < maxBuildsCount && ++scannedBuilds[0] < MAX_SCANNED_BUILDS && !Thread.currentThread().isInterrupted();
+    });
+    return buildIds;
+  }
+
+  private boolean isBudgetUsed() {
+    final long maxWeight = mySymbolsCache.getCachedBuildsMaxWeight();
+    return maxWeight > 0 && mySymbolsCache.getCachedBuildsWeight() >= maxWeight * MAX_BUDGET_USAGE;
+  }
+}
@@ -0,0 +1,236 @@
+
+
+package jetbrains.buildServer.symbols;
+
+import com.google.common.hash.Hashing;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.util.FileUtil;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Disk cache of files derived from symbol file artifacts.
+ *
+ * Files are produced lazily on the first request, concurrent requests of the same file wait for a single producer.
+ * The cache size is bounded by the configured property, least recently used files are evicted first.
+ * Files are not evicted while they are in use, see {@link CachedFile}.
+ */
+public abstract class SymbolsFileCache {
+
+  private static final Logger LOG = Logger.getLogger(SymbolsFileCache.class);
+
+  private final File myDirectory;
+  private final String myFileExtension;
+  private final String myMaxSizeProperty;
+  private final long myDefaultMaxSizeMb;
+  private final Map<String, File> myFiles = new LinkedHashMap<>(16, 0.75f, true);
+  private final Map<String, Integer> myUsages = new HashMap<>();
+  private final ConcurrentMap<String, CompletableFuture<File>> myPendingFiles = new ConcurrentHashMap<>();
+  private long myTotalSize;
+
+  public interface ContentProvider {
+    @NotNull
+    InputStream getInputStream() throws IOException;
+  }
+
+  protected interface FileProducer {
+    void produce(@NotNull File file) throws IOException;
+  }
+
+  /**
+   * Cached file which is kept on disk until it is closed.
+   */
+  public final class CachedFile implements Closeable {
+    private final String myKey;
+    private final File myFile;
+    private boolean myClosed;
+
+    private CachedFile(@NotNull final String key, @NotNull final File file) {
+      myKey = key;
+      myFile = file;
+    }
+
+    @NotNull
+    public File getFile() {
+      return myFile;
+    }
+
+    @Override
+    public void close() {
+      synchronized (myFiles) {
+        if (myClosed) return;
+        myClosed = true;
+        final int usages = myUsages.remove(myKey) - 1;
+        if (usages > 0) {
+          myUsages.put(myKey, usages);
+        } else {
+          evictFiles();
+        }
+      }
+    }
+  }
+
+  protected SymbolsFileCache(@NotNull final File directory,
+                             @NotNull final String fileExtension,
+                             @NotNull final String maxSizeProperty,
+                             final long defaultMaxSizeMb) {
+    myDirectory = directory;
+    myFileExtension = fileExtension;
+    myMaxSizeProperty = maxSizeProperty;
+    myDefaultMaxSizeMb = defaultMaxSizeMb;
+    loadExistingFiles();
+  }
+
+  /**
+   * Returns the cached file derived from the symbol file, produces it if needed.
+   * The file is not evicted until the returned {@link CachedFile} is closed.
+   *
+   * @param buildId is an id of the build which provides the symbol file.
+   * @param artifactPath is a path to the symbol file in build artifacts.
+   * @param size is a size of the symbol file.
+   * @param timestamp is a modification time of the symbol file.
+   * @param description describes the file in logs.
+   * @param producer writes the file content.
+   * @return the cached file.
+   * @throws IOException if the file could not be produced.
+   */
+  @NotNull
+  protected CachedFile getFile(final long buildId,
+                         @NotNull final String artifactPath,
+                         final long size,
+                         final long timestamp,
+                         @NotNull final String description,
+                         @NotNull final FileProducer producer) throws IOException, InterruptedException {
+    final String key = getKey(buildId, artifactPath, size, timestamp);
+    while (true) {
+      synchronized (myFiles) {
+        final File file = myFiles.get(key);
+        if (file != null && file.isFile()) {
+          return use(key, file);
+        }
+      }
+
+      final CompletableFuture<File> production = new CompletableFuture<>();
+      final CompletableFuture<File> pendingProduction = myPendingFiles.putIfAbsent(key, production);
+      if (pendingProduction != null) {
+        try {
+          // produced file is taken from the cache, it is produced again if it was evicted meanwhile
+          pendingProduction.get();
+          continue;
+        } catch (ExecutionException e) {
+          throw new IOException("Failed to produce " + description, e.getCause());
+        }
+      }
+
+      try {
+        final CachedFile cachedFile = produce(key, description, producer);
+        production.complete(cachedFile.getFile());
+        return cachedFile;
+      } catch (IOException | RuntimeException e) {
+        production.completeExceptionally(e);
+        throw e;
+      } finally {
+        myPendingFiles.remove(key, production);
+      }
+    }
+  }
+
+  @NotNull
+  private CachedFile produce(@NotNull final String key, @NotNull final String description, @NotNull final FileProducer producer) throws IOException {
+    if (!myDirectory.isDirectory() && !myDirectory.mkdirs()) {
+      throw new IOException("Failed to create directory " + myDirectory);
+    }
+
+    final long startTime = System.currentTimeMillis();
+    final File file = new File(myDirectory, key + myFileExtension);
+    final File tempFile = FileUtil.createTempFile(myDirectory, key, ".tmp", false);
+    try {
+      producer.produce(tempFile);
+      synchronized (myFiles) {
+        if (myFiles.remove(key) != null) {
+          myTotalSize -= file.length();
+        }
+        FileUtil.delete(file);
+      }
+      if (!tempFile.renameTo(file)) {
+        throw new IOException("Failed to rename " + tempFile + " to " + file);
+      }
+    } finally {
+      FileUtil.delete(tempFile);
+    }
+
+    LOG.debug(String.format("Produced %s in %d ms: %d bytes", description, System.currentTimeMillis() - startTime, file.length()));
+    synchronized (myFiles) {
+      addFile(key, file);
+      final CachedFile cachedFile = use(key, file);
+      evictFiles();
+      return cachedFile;
+    }
+  }
+
+  private void loadExistingFiles() {
+    final File[] files = myDirectory.listFiles();
+    if (files == null) return;
+
+    Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+    synchronized (myFiles) {
+      for (File file : files) {
+        final String name = file.getName();
+        if (!name.endsWith(myFileExtension)) {
+          FileUtil.delete(file);
+          continue;
+        }
+        addFile(name.substring(0, name.length() - myFileExtension.length()), file);
+      }
+      evictFiles();
+    }
+  }
+
+  @NotNull
+  private CachedFile use(@NotNull final String key, @NotNull final File file) {
+    myUsages.merge(key, 1, Integer::sum);
+    return new CachedFile(key, file);
+  }
+
+  private void addFile(@NotNull final String key, @NotNull final File file) {
+    myFiles.put(key, file);
+    myTotalSize += file.length();
+  }
+
+  private void evictFiles() {
+    final long maxSize = TeamCityProperties.getLong(myMaxSizeProperty, myDefaultMaxSizeMb) * 1024 * 1024;
+    final Iterator<Map.Entry<String, File>> iterator = myFiles.entrySet().iterator();
+    while (myTotalSize > maxSize && myFiles.size() > 1 && iterator.hasNext()) {
+      final Map.Entry<String, File> entry = iterator.next();
+      if (myUsages.containsKey(entry.getKey())) continue;
+      final File file = entry.getValue();
+      final long length = file.length();
+      if (FileUtil.delete(file)) {
+        myTotalSize -= length;
+        iterator.remove();
+        LOG.debug("Evicted cached symbol file " + file);
+      }
+    }
+  }
+
+  @NotNull
+  private static String getKey(final long buildId, @NotNull final String artifactPath, final long size, final long timestamp) {
+    final String pathDigest = Hashing.sha256().hashString(artifactPath, StandardCharsets.UTF_8).toString();
+    return String.format("%d-%s-%x-%x", buildId, pathDigest, size, timestamp);
+  }
+}
@@ -0,0 +1,195 @@
+
+
+package jetbrains.buildServer.symbols;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import jetbrains.buildServer.serverSide.BuildServerAdapter;
+import jetbrains.buildServer.serverSide.BuildServerListener;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.serverSide.metadata.BuildMetadataEntry;
+import jetbrains.buildServer.serverSide.metadata.MetadataStorage;
+import jetbrains.buildServer.util.EventDispatcher;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Bloom filter over all indexed symbol metadata keys.
+ *
+ * Allows to reject requests for symbols which were never indexed (e.g. system libraries)
+ * without touching caches or the metadata storage. The filter is rebuilt periodically from
+ * the {@link MetadataStorage} and is updated incrementally by {@link BuildSymbolsIndexProvider}.
+ *
+ * Keys written by other server nodes are not passed to the filter, so the number of stored entries is checked
+ * periodically. When it differs from the number of keys known to the filter, the filter is not used to reject
+ * keys until it is rebuilt.
+ */
+public class SymbolsKeyFilter {
+
+  private static final Logger LOG = Logger.getLogger(SymbolsKeyFilter.class);
+  private static final int MIN_EXPECTED_INSERTIONS = 1 << 16;
+
+  private final MetadataStorage myMetadataStorage;
+  private final ScheduledExecutorService myExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+    final Thread thread = new Thread(r, "Symbol server key filter");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private final AtomicBoolean myRebuildScheduled = new AtomicBoolean(false);
+  private final Object myLock = new Object();
+
+  private volatile BloomFilter<CharSequence> myFilter;
+  private volatile boolean myStale;
+  private BloomFilter<CharSequence> myPendingFilter;
+  private long myExpectedInsertions;
+  private long myKeysCount;
+
+  public SymbolsKeyFilter(@NotNull final MetadataStorage metadataStorage,
+                          @NotNull final EventDispatcher<BuildServerListener> events) {
+    myMetadataStorage = metadataStorage;
+
+    events.addListener(new BuildServerAdapter() {
+      @Override
+      public void serverStartup() {
+        final long period = TeamCityProperties.getInteger(SymbolsConstants.SYMBOLS_SERVER_KEY_FILTER_REBUILD_PERIOD_MIN, 60 * 24);
+        myExecutor.scheduleWithFixedDelay(SymbolsKeyFilter.this::rebuild, 0, period, TimeUnit.MINUTES);
+        final long checkPeriod = TeamCityProperties.getInteger(SymbolsConstants.SYMBOLS_SERVER_KEY_FILTER_CHECK_PERIOD_SEC, 60);
+        myExecutor.scheduleWithFixedDelay(SymbolsKeyFilter.this::checkEntriesCount, checkPeriod, checkPeriod, TimeUnit.SECONDS);
+      }
+
+      @Override
+      public void serverShutdown() {
+        myExecutor.shutdownNow();
+      }
+    });
+  }
+
+  /**
+   * @return true if the filter was built, contains all stored keys and can be used to reject unknown keys.
+   */
+  public boolean isReady() {
+    return myFilter != null && !myStale && TeamCityProperties.getBooleanOrTrue(SymbolsConstants.SYMBOLS_SERVER_KEY_FILTER_ENABLED);
+  }
+
+  /**
+   * @param key is a metadata key.
+   * @return false if the key is definitely not indexed, true if it might be indexed.
+   */
+  public boolean mightContain(@NotNull final String key) {
+    final BloomFilter<CharSequence> filter = myFilter;
+    return filter == null || filter.mightContain(key);
+  }
+
+  /**
+   * Adds a newly indexed key to the filter.
+   *
+   * @param key is a metadata key.
+   */
+  public void put(@NotNull final String key) {
+    putAll(Collections.singletonList(key));
+  }
+
+  /**
+   * Adds newly indexed keys of a build to the filter.
+   *
+   * @param keys are metadata keys.
+   */
+  public void putAll(@NotNull final Collection<String> keys) {
+    final boolean shouldRebuild;
+    synchronized (myLock) {
+      final BloomFilter<CharSequence> filter = myFilter;
+      for (String key : keys) {
+        if (filter != null) {
+          filter.put(key);
+          myKeysCount++;
+        }
+        if (myPendingFilter != null) {
+          myPendingFilter.put(key);
+        }
+      }
+      shouldRebuild = filter != null && filter.approximateElementCount() > myExpectedInsertions;
+    }
+
+    if (shouldRebuild && myRebuildScheduled.compareAndSet(false, true)) {
+      LOG.debug("Symbols key filter exceeds expected number of insertions and will be rebuilt");
+      myExecutor.submit(this::rebuild);
+    }
+  }
+
+  /**
+   * Compares the number of stored entries with the number of keys known to the filter,
+   * the filter is rebuilt if the metadata storage was changed by another server node.
+   */
+  void checkEntriesCount() {
+    if (myFilter == null || myRebuildScheduled.get()) return;
+    final long entriesCount;
+    try {
+      entriesCount = myMetadataStorage.getNumberOfEntries(BuildSymbolsIndexProvider.PROVIDER_ID);
+    } catch (Exception e) {
+      LOG.warn("Failed to check symbols key filter: " + e.getMessage(), e);
+      return;
+    }
+
+    final long keysCount;
+    synchronized (myLock) {
+      keysCount = myKeysCount;
+    }
+    if (entriesCount == keysCount || !myRebuildScheduled.compareAndSet(false, true)) return;
+
+    LOG.info(String.format("Symbols key filter contains %d keys while metadata storage contains %d entries, the filter will be rebuilt", keysCount, entriesCount));
+    myStale = true;
+    rebuild();
+  }
+
+  /**
+   * Builds the filter from scratch using the metadata storage content.
+   */
+  void rebuild() {
+    final long startTime = System.currentTimeMillis();
+    try {
+      final long entriesCount = myMetadataStorage.getNumberOfEntries(BuildSymbolsIndexProvider.PROVIDER_ID);
+      final long expectedInsertions = 2L * Math.max(MIN_EXPECTED_INSERTIONS, Math.max(entriesCount, myKeysCount));
+      final BloomFilter<CharSequence> filter = createFilter(expectedInsertions);
+      synchronized (myLock) {
+        myPendingFilter = filter;
+      }
+
+      int count = 0;
+      final Iterator<BuildMetadataEntry> entries = myMetadataStorage.getAllEntries(BuildSymbolsIndexProvider.PROVIDER_ID);
+      while (entries.hasNext()) {
+        if (Thread.currentThread().isInterrupted()) return;
+        filter.put(entries.next().getKey());
+        count++;
+      }
+
+      synchronized (myLock) {
+        myFilter = filter;
+        myStale = false;
+        myExpectedInsertions = expectedInsertions;
+        myKeysCount = count;
+      }
+      LOG.info(String.format("Symbols key filter was rebuilt in %d ms, %d keys processed", System.currentTimeMillis() - startTime, count));
+    } catch (Exception e) {
+      LOG.warn("Failed to rebuild symbols key filter: " + e.getMessage(), e);
+    } finally {
+      synchronized (myLock) {
+        myPendingFilter = null;
+      }
+      myRebuildScheduled.set(false);
+    }
+  }
+
+  @NotNull
+  private static BloomFilter<CharSequence> createFilter(final long expectedInsertions) {
+    final double fpp = TeamCityProperties.getFloat(SymbolsConstants.SYMBOLS_SERVER_KEY_FILTER_FPP, 0.01f);
+    return BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), expectedInsertions, fpp);
+  }
+}
@@ -0,0 +1,658 @@
+
+
+package jetbrains.buildServer.symbols;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import jetbrains.buildServer.serverSide.BuildServerAdapter;
+import jetbrains.buildServer.serverSide.BuildServerListener;
+import jetbrains.buildServer.serverSide.SFinishedBuild;
+import jetbrains.buildServer.serverSide.ServerPaths;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.serverSide.metadata.BuildMetadataEntry;
+import jetbrains.buildServer.serverSide.metadata.MetadataStorage;
+import jetbrains.buildServer.util.EventDispatcher;
+import jetbrains.buildServer.util.FileUtil;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Persistent index of symbol metadata keys.
+ *
+ * Maps metadata key (see {@link BuildSymbolsIndexProvider#getMetadataKey(String, String)}) to the build id
+ * and artifact path, so a symbol lookup is a single hash probe without a database round-trip.
+ *
+ * The index is kept in two kinds of memory-mapped files under the plugin data directory:
+ * an open-addressing slot table ({@code keys-<capacity>.slots}) and fixed-size append-only
+ * record segments ({@code keys-<n>.data}). Mapped files are never resized, so the index works on Windows too.
+ *
+ * The index is filled by {@link BuildSymbolsIndexProvider} as builds finish and by lookups which were
+ * resolved through the {@link MetadataStorage}, e.g. keys written by other server nodes. Records of removed
+ * builds are marked as deleted, the index is rebuilt from the metadata storage at server startup if it was not
+ * closed cleanly and when deleted or superseded records prevail. Since another node may add keys at any time,
+ * a missing key does not mean the symbol is not hosted.
+ */
+public class SymbolsKeyIndex {
+
+  private static final Logger LOG = Logger.getLogger(SymbolsKeyIndex.class);
+
+  private static final int MAGIC = 0x53594d4b;
+  private static final int VERSION = 2;
+
+  private static final int HEADER_SIZE = 64;
+  private static final int HEADER_MAGIC = 0;
+  private static final int HEADER_VERSION = 4;
+  private static final int HEADER_CAPACITY = 8;
+  private static final int HEADER_SIZE_OFFSET = 12;
+  private static final int HEADER_CLEAN = 16;
+  private static final int HEADER_DATA_END = 24;
+  private static final int HEADER_DEAD_RECORDS = 32;
+
+  private static final int SLOT_SIZE = 16;
+  private static final int MIN_CAPACITY = 1 << 16;
+  private static final int MAX_CAPACITY = 1 << 26;
+  private static final int SEGMENT_SIZE = 1 << 26;
+
+  private static final String SLOTS_FILE_PREFIX = "keys-";
+  private static final String SLOTS_FILE_SUFFIX = ".slots";
+  private static final String DATA_FILE_SUFFIX = ".data";
+  private static final long DELETED_BUILD_ID = -1;
+  private static final int REBUILD_BATCH_SIZE = 1024;
+
+  private final File myDirectory;
+  private final MetadataStorage myMetadataStorage;
+  private final ReadWriteLock myLock = new ReentrantReadWriteLock();
+  private final ExecutorService myExecutor = Executors.newSingleThreadExecutor(r -> {
+    final Thread thread = new Thread(r, "Symbol server key index");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private MappedByteBuffer mySlots;
+  private int myCapacity;
+  private int mySize;
+  private final List<MappedByteBuffer> mySegments = new ArrayList<>();
+  private long myDataEnd;
+  private int myDeadRecords;
+
+  private final Set<Long> myRemovedBuilds = ConcurrentHashMap.newKeySet();
+  private final AtomicBoolean myRemovalScheduled = new AtomicBoolean();
+  private final AtomicBoolean myRebuildScheduled = new AtomicBoolean();
+
+  private volatile boolean myReady;
+  private volatile boolean myFailed;
+
+  public SymbolsKeyIndex(@NotNull final ServerPaths serverPaths,
+                         @NotNull final MetadataStorage metadataStorage,
+                         @NotNull final EventDispatcher<BuildServerListener> events) {
+    myDirectory = new File(serverPaths.getPluginDataDirectory(), "symbol-server/keys-index");
+    myMetadataStorage = metadataStorage;
+
+    try {
+      open();
+    } catch (IOException e) {
+      fail("Failed to open symbols key index in " + myDirectory, e);
+    }
+
+    events.addListener(new BuildServerAdapter() {
+      @Override
+      public void serverStartup() {
+        if (!myReady && !myFailed) {
+          myExecutor.submit(SymbolsKeyIndex.this::rebuild);
+        }
+      }
+
+      @Override
+      public void entryDeleted(@NotNull SFinishedBuild build) {
+        removeBuild(build.getBuildId());
+      }
+
+      @Override
+      public void serverShutdown() {
+        myExecutor.shutdownNow();
+        close();
+      }
+    });
+  }
+
+  /**
+   * @return true if the index is fully populated and can be used instead of the metadata storage.
+   */
+  public boolean isReady() {
+    return myReady && !myFailed && TeamCityProperties.getBooleanOrTrue(SymbolsConstants.SYMBOLS_SERVER_KEY_INDEX_ENABLED);
+  }
+
+  /**
+   * Looks up the metadata entry by its key.
+   *
+   * @param key is a metadata key.
+   * @return the indexed entry or null if the key is not indexed.
+   */
+  @Nullable
+  public BuildMetadataEntry findEntry(@NotNull final String key) {
+    final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+    myLock.readLock().lock();
+    try {
+      if (myFailed) return null;
+      final long offset = findRecordOffset(keyBytes);
+      if (offset < 0 || isDeleted(readBuildId(offset, keyBytes.length))) return null;
+      return readEntry(key, offset, keyBytes.length);
+    } finally {
+      myLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Adds the key to the index. If the key is already indexed for a newer build, the call is ignored.
+   *
+   * @param key is a metadata key.
+   * @param buildId is an id of the build which provides the symbol file.
+   * @param artifactPath is a path to the symbol file in build artifacts.
+   */
+  public void put(@NotNull final String key, final long buildId, @Nullable final String artifactPath) {
+    putAll(Collections.singletonMap(key, artifactPath), buildId);
+  }
+
+  /**
+   * Adds keys of a build to the index under a single lock acquisition.
+   *
+   * @param artifactPaths maps metadata keys to paths of symbol files in build artifacts, paths may be null.
+   * @param buildId is an id of the build which provides the symbol files.
+   */
+  public void putAll(@NotNull final Map<String, String> artifactPaths, final long buildId) {
+    final List<byte[]> keys = new ArrayList<>(artifactPaths.size());
+    final List<byte[]> paths = new ArrayList<>(artifactPaths.size());
+    for (Map.Entry<String, String> entry : artifactPaths.entrySet()) {
+      keys.add(entry.getKey().getBytes(StandardCharsets.UTF_8));
+      paths.add(entry.getValue() == null ? null : entry.getValue().getBytes(StandardCharsets.UTF_8));
+    }
+    myLock.writeLock().lock();
+    try {
+      if (myFailed) return;
+      for (int i = 0; i < keys.size(); i++) {
+        putInternal(keys.get(i), buildId, paths.get(i));
+      }
+      writeHeader(false);
+    } catch (IOException e) {
+      fail("Failed to update symbols key index", e);
+    } finally {
+      myLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Marks the key as deleted if it is indexed for the build, e.g. when the build no longer provides the symbol file.
+   *
+   * @param key is a metadata key.
+   * @param buildId is an id of the build.
+   */
+  public void remove(@NotNull final String key, final long buildId) {
+    final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+    myLock.writeLock().lock();
+    try {
+      if (myFailed) return;
+      final long offset = findRecordOffset(keyBytes);
+      if (offset < 0 || readBuildId(offset, keyBytes.length) != buildId) return;
+      writeBuildId(offset, keyBytes.length, DELETED_BUILD_ID);
+      myDeadRecords++;
+      writeHeader(false);
+    } finally {
+      myLock.writeLock().unlock();
+    }
+    scheduleRebuildIfNeeded();
+  }
+
+  /**
+   * Schedules removal of all keys of the build.
+   *
+   * @param buildId is an id of the removed build.
+   */
+  void removeBuild(final long buildId) {
+    myRemovedBuilds.add(buildId);
+    // builds are removed by cleanup in batches, all of them are processed by a single pass over the index
+    if (myRemovalScheduled.compareAndSet(false, true)) {
+      myExecutor.submit(this::removeBuilds);
+    }
+  }
+
+  void removeBuilds() {
+    myRemovalScheduled.set(false);
+    final Set<Long> buildIds = new HashSet<>(myRemovedBuilds);
+    if (buildIds.isEmpty()) return;
+
+    int count = 0;
+    myLock.writeLock().lock();
+    try {
+      // pending builds are hidden by lookups until their records are marked as deleted
+      myRemovedBuilds.removeAll(buildIds);
+      if (myFailed || mySlots == null) return;
+      for (int slot = 0; slot < myCapacity; slot++) {
+        final long storedOffset = mySlots.getLong(HEADER_SIZE + slot * SLOT_SIZE + 8);
+        if (storedOffset == 0) continue;
+        final long recordOffset = storedOffset - 1;
+        final int keyLength = readKeyLength(recordOffset);
+        if (buildIds.contains(readBuildId(recordOffset, keyLength))) {
+          writeBuildId(recordOffset, keyLength, DELETED_BUILD_ID);
+          count++;
+        }
+      }
+      myDeadRecords += count;
+      writeHeader(false);
+    } finally {
+      myLock.writeLock().unlock();
+    }
+    LOG.debug(String.format("Removed %d keys of %d builds from symbols key index", count, buildIds.size()));
+    scheduleRebuildIfNeeded();
+  }
+
+  private void scheduleRebuildIfNeeded() {
+    final boolean shouldRebuild;
+    myLock.readLock().lock();
+    try {
+      shouldRebuild = myDeadRecords > Math.max(mySize, MIN_CAPACITY);
+    } finally {
+      myLock.readLock().unlock();
+    }
+    if (shouldRebuild && myRebuildScheduled.compareAndSet(false, true)) {
+      LOG.info("Symbols key index contains mostly deleted records and will be rebuilt");
+      myExecutor.submit(() -> {
+        try {
+          rebuild();
+        } finally {
+          myRebuildScheduled.set(false);
+        }
+      });
+    }
+  }
+
+  /**
+   * Drops the index content and populates it from the metadata storage.
+   */
+  void rebuild() {
+    final long startTime = System.currentTimeMillis();
+    LOG.info("Rebuilding symbols key index from the metadata storage");
+    myReady = false;
+    try {
+      myLock.writeLock().lock();
+      try {
+        reset();
+      } finally {
+        myLock.writeLock().unlock();
+      }
+
+      int count = 0;
+      final List<BuildMetadataEntry> batch = new ArrayList<>(REBUILD_BATCH_SIZE);
+      final Iterator<BuildMetadataEntry> entries = myMetadataStorage.getAllEntries(BuildSymbolsIndexProvider.PROVIDER_ID);
+      while (entries.hasNext()) {
+        if (Thread.currentThread().isInterrupted() || myFailed) return;
+        batch.add(entries.next());
+        count++;
+        if (batch.size() == REBUILD_BATCH_SIZE) {
+          putBatch(batch);
+          batch.clear();
+        }
+      }
+      putBatch(batch);
+
+      if (!myFailed) {
+        myReady = true;
+        LOG.info(String.format("Symbols key index was rebuilt in %d ms, %d entries processed", System.currentTimeMillis() - startTime, count));
+      }
+    } catch (IOException e) {
+      fail("Failed to rebuild symbols key index", e);
+    } catch (Exception e) {
+      LOG.warn("Failed to rebuild symbols key index: " + e.getMessage(), e);
+    }
+  }
+
+  void close() {
+    myLock.writeLock().lock();
+    try {
+      if (mySlots == null || myFailed) return;
+      writeHeader(myReady);
+      for (MappedByteBuffer segment : mySegments) {
+        segment.force();
+      }
+      mySlots.force();
+    } finally {
+      myLock.writeLock().unlock();
+    }
+  }
+
+  private void open() throws IOException {
+    if (!myDirectory.isDirectory() && !myDirectory.mkdirs()) {
+      throw new IOException("Failed to create directory " + myDirectory);
+    }
+
+    final File slotsFile = findSlotsFile();
+    if (slotsFile != null && loadExisting(slotsFile)) {
+      LOG.info(String.format("Symbols key index loaded from %s, %d entries", myDirectory, mySize));
+      myReady = true;
+      writeHeader(false);
+      return;
+    }
+
+    reset();
+  }
+
+  private boolean loadExisting(@NotNull final File slotsFile) throws IOException {
+    if (slotsFile.length() < HEADER_SIZE) return false;
+    final MappedByteBuffer slots = map(slotsFile, slotsFile.length());
+    if (slots.getInt(HEADER_MAGIC) != MAGIC ||
+        slots.getInt(HEADER_VERSION) != VERSION ||
+        slots.getInt(HEADER_CLEAN) != 1) {
+      LOG.info("Symbols key index in " + myDirectory + " is outdated or was not closed properly");
+      return false;
+    }
+
+    final int capacity = slots.getInt(HEADER_CAPACITY);
+    if (slotsFile.length() != HEADER_SIZE + (long) capacity * SLOT_SIZE) {
+      return false;
+    }
+
+    final long dataEnd = slots.getLong(HEADER_DATA_END);
+    final int segmentsCount = (int) (dataEnd / SEGMENT_SIZE) + 1;
+    final List<MappedByteBuffer> segments = new ArrayList<>();
+    for (int i = 0; i < segmentsCount; i++) {
+      final File segmentFile = getSegmentFile(i);
+      if (segmentFile.length() != SEGMENT_SIZE) {
+        return false;
+      }
+      segments.add(map(segmentFile, SEGMENT_SIZE));
+    }
+
+    mySlots = slots;
+    myCapacity = capacity;
+    mySize = slots.getInt(HEADER_SIZE_OFFSET);
+    myDeadRecords = slots.getInt(HEADER_DEAD_RECORDS);
+    myDataEnd = dataEnd;
+    mySegments.clear();
+    mySegments.addAll(segments);
+    return true;
+  }
+
+  private void reset() throws IOException {
+    mySlots = null;
+    mySegments.clear();
+    final File[] files = myDirectory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        FileUtil.delete(file);
+      }
+    }
+
+    myCapacity = MIN_CAPACITY;
+    mySize = 0;
+    myDeadRecords = 0;
+    myDataEnd = 0;
+    mySlots = createSlots(myCapacity);
+    mySegments.add(map(getSegmentFile(0), SEGMENT_SIZE));
+    writeHeader(false);
+  }
+
+  private void putInternal(@NotNull final byte[] keyBytes, final long buildId, @Nullable final byte[] pathBytes) throws IOException {
+    final long existingOffset = findRecordOffset(keyBytes);
+    if (existingOffset >= 0) {
+      final long existingBuildId = readBuildId(existingOffset, keyBytes.length);
+      if (existingBuildId > buildId && !myRemovedBuilds.contains(existingBuildId)) return;
+      // the replaced record stays in the data segment until the index is rebuilt
+      if (existingBuildId != DELETED_BUILD_ID) myDeadRecords++;
+    } else if ((long) (mySize + 1) * 2 > myCapacity) {
+      grow();
+    }
+
+    final long recordOffset = appendRecord(keyBytes, buildId, pathBytes);
+    final long hash = hash(keyBytes);
+    int slot = (int) (hash & (myCapacity - 1));
+    while (true) {
+      final int position = HEADER_SIZE + slot * SLOT_SIZE;
+      final long storedOffset = mySlots.getLong(position + 8);
+      if (storedOffset == 0) {
+        mySlots.putLong(position, hash);
+        mySlots.putLong(position + 8, recordOffset + 1);
+        mySize++;
+        break;
+      }
+      if (storedOffset - 1 == existingOffset) {
+        mySlots.putLong(position + 8, recordOffset + 1);
+        break;
+      }
+      slot = (slot + 1) & (myCapacity - 1);
+    }
+  }
+
+  /**
+   * Adds entries of different builds under a single lock acquisition, the header is written once per batch.
+   */
+  private void putBatch(@NotNull final List<BuildMetadataEntry> entries) {
+    if (entries.isEmpty()) return;
+    myLock.writeLock().lock();
+    try {
+      if (myFailed) return;
+      for (BuildMetadataEntry entry : entries) {
+        final String artifactPath = entry.getMetadata().get(BuildSymbolsIndexProvider.ARTIFACT_PATH_KEY);
+        putInternal(entry.getKey().getBytes(StandardCharsets.UTF_8), entry.getBuildId(),
+                    artifactPath == null ? null : artifactPath.getBytes(StandardCharsets.UTF_8));
+      }
+      writeHeader(false);
+    } catch (IOException e) {
+      fail("Failed to update symbols key index", e);
+    } finally {
+      myLock.writeLock().unlock();
+    }
+  }
+
+  private boolean isDeleted(final long buildId) {
+    return buildId == DELETED_BUILD_ID || myRemovedBuilds.contains(buildId);
+  }
+
+  private long findRecordOffset(@NotNull final byte[] keyBytes) {
+    if (mySlots == null) return -1;
+    final long hash = hash(keyBytes);
+    int slot = (int) (hash & (myCapacity - 1));
+    while (true) {
+      final int position = HEADER_SIZE + slot * SLOT_SIZE;
+      final long storedOffset = mySlots.getLong(position + 8);
+      if (storedOffset == 0) return -1;
+      if (mySlots.getLong(position) == hash && keyEquals(storedOffset - 1, keyBytes)) {
+        return storedOffset - 1;
+      }
+      slot = (slot + 1) & (myCapacity - 1);
+    }
+  }
+
+  private void grow() throws IOException {
+    if (myCapacity >= MAX_CAPACITY) {
+      throw new IOException("Symbols key index capacity limit reached: " + myCapacity);
+    }
+
+    final int newCapacity = myCapacity * 2;
+    LOG.debug("Growing symbols key index to " + newCapacity + " slots");
+    final MappedByteBuffer newSlots = createSlots(newCapacity);
+    for (int slot = 0; slot < myCapacity; slot++) {
+      final int position = HEADER_SIZE + slot * SLOT_SIZE;
+      final long storedOffset = mySlots.getLong(position + 8);
+      if (storedOffset == 0) continue;
+      final long hash = mySlots.getLong(position);
+      int newSlot = (int) (hash & (newCapacity - 1));
+      while (newSlots.getLong(HEADER_SIZE + newSlot * SLOT_SIZE + 8) != 0) {
+        newSlot = (newSlot + 1) & (newCapacity - 1);
+      }
+      newSlots.putLong(HEADER_SIZE + newSlot * SLOT_SIZE, hash);
+      newSlots.putLong(HEADER_SIZE + newSlot * SLOT_SIZE + 8, storedOffset);
+    }
+
+    final File oldSlotsFile = getSlotsFile(myCapacity);
+    mySlots = newSlots;
+    myCapacity = newCapacity;
+    writeHeader(false);
+    if (!FileUtil.delete(oldSlotsFile)) {
+      LOG.debug("Failed to delete outdated symbols key index file " + oldSlotsFile + ", it will be removed on next reset");
+    }
+  }
+
+  private long appendRecord(@NotNull final byte[] keyBytes, final long buildId, @Nullable final byte[] pathBytes) throws IOException {
+    final int recordSize = 4 + keyBytes.length + 8 + 4 + (pathBytes == null ? 0 : pathBytes.length);
+    if (recordSize > SEGMENT_SIZE) {
+      throw new IOException("Symbols key index record is too large: " + recordSize);
+    }
+
+    int segmentIndex = (int) (myDataEnd / SEGMENT_SIZE);
+    int position = (int) (myDataEnd % SEGMENT_SIZE);
+    if (position + recordSize > SEGMENT_SIZE) {
+      segmentIndex++;
+      position = 0;
+    }
+    while (mySegments.size() <= segmentIndex) {
+      mySegments.add(map(getSegmentFile(mySegments.size()), SEGMENT_SIZE));
+    }
+
+    final MappedByteBuffer segment = mySegments.get(segmentIndex);
+    segment.putInt(position, keyBytes.length);
+    putBytes(segment, position + 4, keyBytes);
+    segment.putLong(position + 4 + keyBytes.length, buildId);
+    segment.putInt(position + 12 + keyBytes.length, pathBytes == null ? -1 : pathBytes.length);
+    if (pathBytes != null) {
+      putBytes(segment, position + 16 + keyBytes.length, pathBytes);
+    }
+
+    final long recordOffset = (long) segmentIndex * SEGMENT_SIZE + position;
+    myDataEnd = recordOffset + recordSize;
+    return recordOffset;
+  }
+
+  private boolean keyEquals(final long recordOffset, @NotNull final byte[] keyBytes) {
+    final MappedByteBuffer segment = mySegments.get((int) (recordOffset / SEGMENT_SIZE));
+    final int position = (int) (recordOffset % SEGMENT_SIZE);
+    if (segment.getInt(position) != keyBytes.length) return false;
+    for (int i = 0; i < keyBytes.length; i++) {
+      if (segment.get(position + 4 + i) != keyBytes[i]) return false;
+    }
+    return true;
+  }
+
+  private int readKeyLength(final long recordOffset) {
+    final MappedByteBuffer segment = mySegments.get((int) (recordOffset / SEGMENT_SIZE));
+    return segment.getInt((int) (recordOffset % SEGMENT_SIZE));
+  }
+
+  private long readBuildId(final long recordOffset, final int keyLength) {
+    final MappedByteBuffer segment = mySegments.get((int) (recordOffset / SEGMENT_SIZE));
+    return segment.getLong((int) (recordOffset % SEGMENT_SIZE) + 4 + keyLength);
+  }
+
+  private void writeBuildId(final long recordOffset, final int keyLength, final long buildId) {
+    final MappedByteBuffer segment = mySegments.get((int) (recordOffset / SEGMENT_SIZE));
+    segment.putLong((int) (recordOffset % SEGMENT_SIZE) + 4 + keyLength, buildId);
+  }
+
+  @NotNull
+  private BuildMetadataEntry readEntry(@NotNull final String key, final long recordOffset, final int keyLength) {
+    final MappedByteBuffer segment = mySegments.get((int) (recordOffset / SEGMENT_SIZE));
+    final int position = (int) (recordOffset % SEGMENT_SIZE);
+    final long buildId = segment.getLong(position + 4 + keyLength);
+    final int pathLength = segment.getInt(position + 12 + keyLength);
+    String artifactPath = null;
+    if (pathLength >= 0) {
+      final byte[] pathBytes = new byte[pathLength];
+      for (int i = 0; i < pathLength; i++) {
+        pathBytes[i] = segment.get(position + 16 + keyLength + i);
+      }
+      artifactPath = new String(pathBytes, StandardCharsets.UTF_8);
+    }
+    return new SymbolsMetadataEntry(key, buildId, artifactPath);
+  }
+
+  private void writeHeader(final boolean clean) {
+    mySlots.putInt(HEADER_MAGIC, MAGIC);
+    mySlots.putInt(HEADER_VERSION, VERSION);
+    mySlots.putInt(HEADER_CAPACITY, myCapacity);
+    mySlots.putInt(HEADER_SIZE_OFFSET, mySize);
+    mySlots.putInt(HEADER_CLEAN, clean ? 1 : 0);
+    mySlots.putLong(HEADER_DATA_END, myDataEnd);
+    mySlots.putInt(HEADER_DEAD_RECORDS, myDeadRecords);
+  }
+
+  @NotNull
+  private MappedByteBuffer createSlots(final int capacity) throws IOException {
+    final File slotsFile = getSlotsFile(capacity);
+    final boolean reused = !FileUtil.delete(slotsFile) && slotsFile.exists();
+    final MappedByteBuffer slots = map(slotsFile, HEADER_SIZE + (long) capacity * SLOT_SIZE);
+    if (reused) {
+      // the file could not be deleted since it is still mapped, so clear it explicitly
+      for (int position = 0; position < slots.capacity(); position += 8) {
+        slots.putLong(position, 0);
+      }
+    }
+    return slots;
+  }
+
+  @Nullable
+  private File findSlotsFile() {
+    final File[] files = myDirectory.listFiles((dir, name) -> name.startsWith(SLOTS_FILE_PREFIX) && name.endsWith(SLOTS_FILE_SUFFIX));
+    if (files == null) return null;
+    File result = null;
+    for (File file : files) {
+      if (result == null || file.length() > result.length()) {
+        result = file;
+      }
+    }
+    return result;
+  }
+
+  @NotNull
+  private File getSlotsFile(final int capacity) {
+    return new File(myDirectory, SLOTS_FILE_PREFIX + capacity + SLOTS_FILE_SUFFIX);
+  }
+
+  @NotNull
+  private File getSegmentFile(final int index) {
+    return new File(myDirectory, SLOTS_FILE_PREFIX + index + DATA_FILE_SUFFIX);
+  }
+
+  private void fail(@NotNull final String message, @NotNull final Exception e) {
+    LOG.warn(message + ". Symbol lookups will use the metadata storage", e);
+    myFailed = true;
+    myReady = false;
+  }
+
+  @NotNull
+  private static MappedByteBuffer map(@NotNull final File file, final long size) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+  }
+
+  private static void putBytes(@NotNull final MappedByteBuffer buffer, final int position, @NotNull final byte[] bytes) {
+    for (int i = 0; i < bytes.length; i++) {
+      buffer.put(position + i, bytes[i]);
+    }
+  }
+
+  private static long hash(@NotNull final byte[] bytes) {
+    long hash = 0xcbf29ce484222325L;
+    for (byte b : bytes) {
+      hash ^= b & 0xff;
+      hash *= 0x100000001b3L;
+    }
+    return hash;
+  }
+}
@@ -0,0 +1,230 @@
+
+
+package jetbrains.buildServer.symbols;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import jetbrains.buildServer.serverSide.BuildServerAdapter;
+import jetbrains.buildServer.serverSide.BuildServerListener;
+import jetbrains.buildServer.serverSide.SBuild;
+import jetbrains.buildServer.serverSide.SFinishedBuild;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.serverSide.artifacts.BuildArtifact;
+import jetbrains.buildServer.serverSide.metadata.BuildMetadataEntry;
+import jetbrains.buildServer.util.EventDispatcher;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Cache of resolved symbol file locations keyed by metadata key.
+ *
+ * A location keeps the project of the build and the symbol file in the build artifacts directory:
+ * either a plain file or an entry of a zip archive. Repeated downloads use it instead of loading
+ * the build and its artifacts tree. Locations of a build are dropped when its artifacts change
+ * or the build is removed, and expire after {@link SymbolsConstants#SYMBOLS_SERVER_LOCATION_CACHE_EXPIRATION_TIME_SEC},
+ * so builds moved to another project are not served with stale permissions for long.
+ */
+public class SymbolsLocationCache {
+
+  private static final Logger LOG = Logger.getLogger(SymbolsLocationCache.class);
+  private static final String ARCHIVE_PATH_SEPARATOR = "!/";
+  private static final List<String> ZIP_EXTENSIONS = Arrays.asList(".zip", ".nupkg", ".snupkg", ".jar");
+
+  private final Cache<String, Location> myLocations;
+
+  public SymbolsLocationCache(@NotNull final EventDispatcher<BuildServerListener> events) {
+    myLocations = CacheBuilder
+      .newBuilder()
+      .maximumSize(TeamCityProperties.getInteger(SymbolsConstants.SYMBOLS_SERVER_LOCATION_CACHE_SIZE, 10000))
+      .expireAfterWrite(TeamCityProperties.getInteger(SymbolsConstants.SYMBOLS_SERVER_LOCATION_CACHE_EXPIRATION_TIME_SEC, 600), TimeUnit.SECONDS)
+      .build();
+
+    events.addListener(new BuildServerAdapter() {
+      @Override
+      public void buildArtifactsChanged(@NotNull SBuild build) {
+        invalidate(build.getBuildId());
+      }
+
+      @Override
+      public void entryDeleted(@NotNull SFinishedBuild build) {
+        invalidate(build.getBuildId());
+      }
+    });
+  }
+
+  /**
+   * @param entry is a metadata entry of the requested symbol file.
+   * @return cached location of the symbol file or null if it was not resolved yet.
+   */
+  @Nullable
+  public Location getLocation(@NotNull final BuildMetadataEntry entry) {
+    final Location location = myLocations.getIfPresent(entry.getKey());
+    if (location == null) return null;
+    if (location.getBuildId() != entry.getBuildId()) {
+      // the symbol file was republished by another build
+      myLocations.invalidate(entry.getKey());
+      return null;
+    }
+    return location;
+  }
+
+  public void putLocation(@NotNull final BuildMetadataEntry entry, @NotNull final Location location) {
+    myLocations.put(entry.getKey(), location);
+  }
+
+  public void removeLocation(@NotNull final BuildMetadataEntry entry) {
+    myLocations.invalidate(entry.getKey());
+  }
+
+  void invalidate(final long buildId) {
+    if (myLocations.asMap().values().removeIf(location -> location.getBuildId() == buildId)) {
+      LOG.debug("Removed cached symbol file locations of build with id " + buildId);
+    }
+  }
+
+  /**
+   * Creates location of the build artifact.
+   *
+   * @param build is a build which provides the symbol file.
+   * @param artifact is the symbol file artifact.
+   * @return location or null if the artifact content could not be accessed directly.
+   */
+  @Nullable
+  public static Location createLocation(@NotNull final SBuild build, @NotNull final BuildArtifact artifact) {
+    final String relativePath = artifact.getRelativePath();
+    final File artifactsDirectory = build.getArtifactsDirectory();
+    final int separator = relativePath.indexOf(ARCHIVE_PATH_SEPARATOR);
+    if (separator < 0) {
+      final File file = new File(artifactsDirectory, relativePath);
+      if (!file.isFile() || file.length() != artifact.getSize()) return null;
+      return new Location(build.getProjectId(), build.getBuildId(), relativePath, artifact.getSize(), artifact.getTimestamp(), file, null, 0);
+    }
+
+    final String archivePath = relativePath.substring(0, separator);
+    final String entryPath = relativePath.substring(separator + ARCHIVE_PATH_SEPARATOR.length());
+    if (entryPath.contains(ARCHIVE_PATH_SEPARATOR) || !isZipArchive(archivePath)) return null;
+    final File archive = new File(artifactsDirectory, archivePath);
+    if (!archive.isFile()) return null;
+    return new Location(build.getProjectId(), build.getBuildId(), relativePath, artifact.getSize(), artifact.getTimestamp(), archive, entryPath, archive.lastModified());
+  }
+
+  private static boolean isZipArchive(@NotNull final String path) {
+    final String lowerCasePath = path.toLowerCase(Locale.ENGLISH);
+    for (String extension : ZIP_EXTENSIONS) {
+      if (lowerCasePath.endsWith(extension)) return true;
+    }
+    return false;
+  }
+
+  /**
+   * Resolved location of a symbol file.
+   */
+  public static class Location implements ArtifactResponseWriter.Content {
+    private final String myProjectId;
+    private final long myBuildId;
+    private final String myArtifactPath;
+    private final long mySize;
+    private final long myTimestamp;
+    private final File myFile;
+    private final String myEntryPath;
+    private final long myArchiveTimestamp;
+
+    private Location(@NotNull final String projectId,
+                     final long buildId,
+                     @NotNull final String artifactPath,
+                     final long size,
+                     final long timestamp,
+                     @NotNull final File file,
+                     @Nullable final String entryPath,
+                     final long archiveTimestamp) {
+      myProjectId = projectId;
+      myBuildId = buildId;
+      myArtifactPath = artifactPath;
+      mySize = size;
+      myTimestamp = timestamp;
+      myFile = file;
+      myEntryPath = entryPath;
+      myArchiveTimestamp = archiveTimestamp;
+    }
+
+    @NotNull
+    public String getProjectId() {
+      return myProjectId;
+    }
+
+    public long getBuildId() {
+      return myBuildId;
+    }
+
+    @NotNull
+    public String getArtifactPath() {
+      return myArtifactPath;
+    }
+
+    /**
+     * @return true if the symbol file was not changed since the location was resolved.
+     */
+    public boolean isValid() {
+      if (!myFile.isFile()) return false;
+      return myEntryPath == null ? myFile.length() == mySize : myFile.lastModified() == myArchiveTimestamp;
+    }
+
+    @Override
+    public long getSize() {
+      return mySize;
+    }
+
+    @Override
+    public long getTimestamp() {
+      return myTimestamp;
+    }
+
+    @Nullable
+    @Override
+    public File getFile() {
+      return myEntryPath == null ? myFile : null;
+    }
+
+    @NotNull
+    @Override
+    public InputStream getInputStream() throws IOException {
+      if (myEntryPath == null) {
+        return new FileInputStream(myFile);
+      }
+
+      final ZipFile zipFile = new ZipFile(myFile);
+      try {
+        final ZipEntry entry = zipFile.getEntry(myEntryPath);
+        if (entry == null) {
+          throw new FileNotFoundException(String.format("Entry %s not found in archive %s", myEntryPath, myFile));
+        }
+        return new FilterInputStream(zipFile.getInputStream(entry)) {
+          @Override
+          public void close() throws IOException {
+            try {
+              super.close();
+            } finally {
+              zipFile.close();
+            }
+          }
+        };
+      } catch (IOException | RuntimeException e) {
+        zipFile.close();
+        throw e;
+      }
+    }
+  }
+}
@@ -0,0 +1,346 @@
+
+
+package jetbrains.buildServer.symbols;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import jetbrains.buildServer.controllers.AuthorizationInterceptor;
+import jetbrains.buildServer.controllers.BaseController;
+import jetbrains.buildServer.serverSide.SBuild;
+import jetbrains.buildServer.serverSide.SBuildServer;
+import jetbrains.buildServer.serverSide.SecurityContextEx;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.serverSide.artifacts.BuildArtifact;
+import jetbrains.buildServer.serverSide.auth.Permission;
+import jetbrains.buildServer.serverSide.metadata.BuildMetadataEntry;
+import jetbrains.buildServer.serverSide.metadata.MetadataStorage;
+import jetbrains.buildServer.users.SUser;
+import jetbrains.buildServer.util.Predicate;
+import jetbrains.buildServer.web.openapi.WebControllerManager;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.web.servlet.ModelAndView;
+
+/**
+ * Resolves a batch of symbol files in a single request.
+ *
+ * Request is a POST with UTF-8 text body, one symbol file per line: file name and signature separated by a tab.
+ * The number of symbol files and the length of the lines are limited, symbols are resolved for authenticated users only.
+ * Response lists the symbol files available to the user in the same format followed by the file size
+ * and the download path on the server: {@code <file name>\t<signature>\t<size>\t<path>}. Missing files and files
+ * of projects the user has no access to are omitted.
+ */
+public class SymbolsLookupController extends BaseController {
+
+  private static final Logger LOG = Logger.getLogger(SymbolsLookupController.class);
+  private static final char SEPARATOR = '\t';
+  private static final int MAX_LINE_LENGTH = 512;
+
+  @NotNull private final SecurityContextEx mySecurityContext;
+  @NotNull private final AuthHelper myAuthHelper;
+  private final SymbolsCache mySymbolsCache;
+  private final SymbolsMetadataExecutor myMetadataExecutor;
+  private final SymbolsLocationCache myLocationCache;
+  private final MetadataSource myMetadataSource;
+
+  public SymbolsLookupController(@NotNull SBuildServer server,
+                                 @NotNull WebControllerManager controllerManager,
+                                 @NotNull AuthorizationInterceptor authInterceptor,
+                                 @NotNull SecurityContextEx securityContext,
+                                 @NotNull MetadataStorage buildMetadataStorage,
+                                 @NotNull AuthHelper authHelper,
+                                 @NotNull SymbolsCache symbolsCache,
+                                 @NotNull SymbolsMetadataExecutor metadataExecutor,
+                                 @NotNull SymbolsLocationCache locationCache) {
+    super(server);
+    mySecurityContext = securityContext;
+    myAuthHelper = authHelper;
+    mySymbolsCache = symbolsCache;
+    myMetadataExecutor = metadataExecutor;
+    myLocationCache = locationCache;
+    myMetadataSource = new MetadataStorageSource(buildMetadataStorage);
+    controllerManager.registerController(SymbolsConstants.APP_SYMBOLS_LOOKUP, this);
+    authInterceptor.addPathNotRequiringAuth(SymbolsConstants.APP_SYMBOLS_LOOKUP);
+  }
+
+  @Nullable
+  @Override
+  protected ModelAndView doHandle(@NotNull HttpServletRequest request, @NotNull HttpServletResponse response) throws Exception {
+    if (!isPost(request)) {
+      response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED, "Symbols lookup requires POST request");
+      return null;
+    }
+
+    final int maxCount = TeamCityProperties.getInteger(SymbolsConstants.SYMBOLS_SERVER_LOOKUP_MAX_ENTRIES, 10000);
+    if (request.getContentLength() > getMaxRequestLength(maxCount)) {
+      response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "Symbols lookup request is too large");
+      return null;
+    }
+
+    final List<SymbolFile> symbols;
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(request.getInputStream(), StandardCharsets.UTF_8))) {
+      symbols = readSymbols(reader, maxCount);
+    } catch (IllegalArgumentException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+      return null;
+    }
+
+    // symbols are resolved for authenticated users only, permissions in the projects are checked for each match
+    final SUser user = myAuthHelper.getAuthenticatedUser(request, response, new Predicate<SUser>() {
+      public boolean apply(SUser candidate) {
+        return candidate.isPermissionGrantedForAnyProject(Permission.VIEW_BUILD_RUNTIME_DATA);
+      }
+    });
+    if (user == null) return null;
+
+    final CompletableFuture<List<SymbolMatch>> matchesFuture;
+    try {
+      matchesFuture = myMetadataExecutor.submit(() -> findMatches(symbols));
+    } catch (RejectedExecutionException e) {
+      LOG.debug("Symbols lookup request rejected, metadata loading queue is full.");
+      SymbolsMetadataExecutor.sendServiceUnavailable(response);
+      return null;
+    }
+
+    final AsyncContext asyncContext = SymbolsMetadataExecutor.startAsync(request);
+    if (asyncContext != null) {
+      matchesFuture.whenComplete((matches, error) -> asyncContext.start(() -> {
+        try {
+          sendMatches(request, response, user, symbols, matches, error);
+        } finally {
+          asyncContext.complete();
+        }
+      }));
+      return null;
+    }
+
+    List<SymbolMatch> matches = null;
+    Throwable error = null;
+    try {
+      matches = matchesFuture.get();
+    } catch (ExecutionException e) {
+      error = e.getCause();
+    }
+    sendMatches(request, response, user, symbols, matches, error);
+    return null;
+  }
+
+  /**
+   * Lists the matches of the projects the user has access to, other matches are omitted.
+   */
+  private void sendMatches(@NotNull HttpServletRequest request,
+                           @NotNull HttpServletResponse response,
+                           @NotNull SUser user,
+                           @NotNull List<SymbolFile> symbols,
+                           @Nullable List<SymbolMatch> matches,
+                           @Nullable Throwable matchesError) {
+    try {
+      if (matchesError != null) {
+        if (matchesError instanceof TimeoutException || matchesError instanceof RejectedExecutionException) {
+          SymbolsMetadataExecutor.sendServiceUnavailable(response);
+          return;
+        }
+        throw matchesError;
+      }
+
+      final List<String> lines = new ArrayList<>();
+      if (matches != null && !matches.isEmpty()) {
+        mySecurityContext.runAs(user, () -> {
+          final Map<String, Boolean> permissions = new HashMap<>();
+          for (SymbolMatch match : matches) {
+            if (!permissions.computeIfAbsent(match.myProjectId, id -> user.isPermissionGrantedForProject(id, Permission.VIEW_BUILD_RUNTIME_DATA))) continue;
+            final SymbolFile symbol = match.mySymbol;
+            lines.add(symbol.getFileName() + SEPARATOR + symbol.getSignature() + SEPARATOR + match.mySize + SEPARATOR +
+                      request.getContextPath() + getDownloadPath(symbol.getFileName(), symbol.getSignature()));
+          }
+        });
+      }
+
+      LOG.debug(String.format("Symbols lookup resolved %d of %d requested files.", lines.size(), symbols.size()));
+      final byte[] content = String.join("\n", lines).getBytes(StandardCharsets.UTF_8);
+      response.setContentType("text/plain");
+      response.setCharacterEncoding("UTF-8");
+      response.setContentLength(content.length);
+      response.getOutputStream().write(content);
+    } catch (Throwable throwable) {
+      LOG.debug("Failed to lookup symbol files: " + throwable.getMessage(), throwable);
+      try {
+        if (!response.isCommitted()) {
+          response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, throwable.getMessage());
+        }
+      } catch (IOException e) {
+        LOG.debug("Failed to send symbols lookup error: " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Finds symbol files with their sizes, so builds and artifacts are resolved once by the metadata loading thread.
+   */
+  @NotNull
+  private List<SymbolMatch> findMatches(@NotNull List<SymbolFile> symbols) throws Throwable {
+    return mySecurityContext.runAsSystem(() -> {
+      final List<SymbolMatch> matches = new ArrayList<>();
+      final Map<Long, SBuild> builds = new HashMap<>();
+      for (SymbolFile symbol : symbols) {
+        final String metadataKey = BuildSymbolsIndexProvider.getMetadataKey(symbol.getGuid(), symbol.getFileName());
+        final BuildMetadataEntry entry = DownloadSymbolsController.findEntry(mySymbolsCache, myServer, metadataKey, myMetadataSource);
+        if (entry == null) continue;
+
+        final SymbolsLocationCache.Location cachedLocation = myLocationCache.getLocation(entry);
+        if (cachedLocation != null && cachedLocation.isValid()) {
+          matches.add(new SymbolMatch(symbol, cachedLocation.getProjectId(), cachedLocation.getSize()));
+          continue;
+        }
+
+        final SBuild build;
+        if (builds.containsKey(entry.getBuildId())) {
+          build = builds.get(entry.getBuildId());
+        } else {
+          build = myServer.findBuildInstanceById(entry.getBuildId());
+          builds.put(entry.getBuildId(), build);
+        }
+        final BuildArtifact artifact = build == null ? null : DownloadSymbolsController.findArtifact(build, entry);
+        if (artifact == null) continue;
+
+        final SymbolsLocationCache.Location location = SymbolsLocationCache.createLocation(build, artifact);
+        if (location != null) {
+          myLocationCache.putLocation(entry, location);
+        } else if (cachedLocation != null) {
+          myLocationCache.removeLocation(entry);
+        }
+        matches.add(new SymbolMatch(symbol, build.getProjectId(), artifact.getSize()));
+      }
+      return matches;
+    });
+  }
+
+  /**
+   * Reads requested symbol files.
+   *
+   * @param reader is a request body reader.
+   * @param maxCount is a maximum number of symbol files.
+   * @return symbol files.
+   * @throws IllegalArgumentException if the request is malformed or too large.
+   */
+  @NotNull
+  static List<SymbolFile> readSymbols(@NotNull BufferedReader reader, int maxCount) throws IOException {
+    final List<SymbolFile> symbols = new ArrayList<>();
+    final StringBuilder line = new StringBuilder();
+    final long maxLength = getMaxRequestLength(maxCount);
+    long length = 0;
+    int lineNumber = 0;
+    int c;
+    do {
+      c = reader.read();
+      if (c >= 0 && c != '\n') {
+        if (line.length() == MAX_LINE_LENGTH) {
+          throw new IllegalArgumentException("Symbol file at line " + (lineNumber + 1) + " is too long");
+        }
+        line.append((char) c);
+        continue;
+      }
+      if (c < 0 && line.length() == 0) break;
+
+      lineNumber++;
+      length += line.length() + 1;
+      if (length > maxLength) {
+        throw new IllegalArgumentException("Symbols lookup request is too large");
+      }
+      final String text = line.toString();
+      line.setLength(0);
+      if (text.trim().isEmpty()) continue;
+
+      final int separator = text.indexOf(SEPARATOR);
+      final String fileName = separator < 0 ? "" : text.substring(0, separator).trim();
+      final String signature = separator < 0 ? "" : text.substring(separator + 1).trim();
+      if (fileName.isEmpty() || signature.isEmpty() || fileName.indexOf('/') >= 0 || signature.indexOf('/') >= 0 || signature.indexOf(SEPARATOR) >= 0) {
+        throw new IllegalArgumentException("Invalid symbol file at line " + lineNumber);
+      }
+      if (symbols.size() == maxCount) {
+        throw new IllegalArgumentException("Too many symbol files requested, at most " + maxCount + " are allowed");
+      }
+      symbols.add(new SymbolFile(fileName, signature));
+    } while (c >= 0);
+    return symbols;
+  }
+
+  /**
+   * @return maximum length of the request body, blank lines included.
+   */
+  private static long getMaxRequestLength(int maxCount) {
+    return 2L * maxCount * (MAX_LINE_LENGTH + 1);
+  }
+
+  /**
+   * @return path of the symbol file download relative to the server context path.
+   */
+  @NotNull
+  static String getDownloadPath(@NotNull String fileName, @NotNull String signature) {
+    final String encodedFileName = encode(fileName);
+    return SymbolsConstants.APP_SYMBOLS + "/" + encodedFileName + "/" + signature + "/" + encodedFileName;
+  }
+
+  @NotNull
+  private static String encode(@NotNull String value) {
+    try {
+      // download controller decodes "+" as is
+      return URLEncoder.encode(value, "UTF-8").replace("+", "%20");
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  static class SymbolFile {
+    private final String myFileName;
+    private final String mySignature;
+
+    SymbolFile(@NotNull String fileName, @NotNull String signature) {
+      myFileName = fileName;
+      mySignature = signature;
+    }
+
+    @NotNull
+    String getFileName() {
+      return myFileName;
+    }
+
+    @NotNull
+    String getSignature() {
+      return mySignature;
+    }
+
+    @NotNull
+    String getGuid() {
+      return PdbSignatureIndexUtil.extractGuid(mySignature.toLowerCase(), true);
+    }
+  }
+
+  private static class SymbolMatch {
+    private final SymbolFile mySymbol;
+    private final String myProjectId;
+    private final long mySize;
+
+    private SymbolMatch(@NotNull SymbolFile symbol, @NotNull String projectId, long size) {
+      mySymbol = symbol;
+      myProjectId = projectId;
+      mySize = size;
+    }
+  }
+}
@@ -0,0 +1,70 @@
+
+
+package jetbrains.buildServer.symbols;
+
+import java.util.HashMap;
+import java.util.Map;
+import jetbrains.buildServer.serverSide.metadata.BuildMetadataEntry;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Symbol metadata entry restored from the compact representation.
+ *
+ * Signature and file name are parts of the metadata key, so only the artifact path is stored.
+ */
+class SymbolsMetadataEntry implements BuildMetadataEntry {
+  private final String myKey;
+  private final long myBuildId;
+  private final String myArtifactPath;
+
+  SymbolsMetadataEntry(@NotNull final String key, final long buildId, @Nullable final String artifactPath) {
+    myKey = key;
+    myBuildId = buildId;
+    myArtifactPath = artifactPath;
+  }
+
+  public long getBuildId() {
+    return myBuildId;
+  }
+
+  @NotNull
+  public String getKey() {
+    return myKey;
+  }
+
+  @NotNull
+  public Map<String, String> getMetadata() {
+    final Map<String, String> metadata = new HashMap<>();
+    final int separator = myKey.indexOf(':');
+    if (separator > 0) {
+      metadata.put(BuildSymbolsIndexProvider.SIGNATURE_KEY, myKey.substring(0, separator));
+      metadata.put(BuildSymbolsIndexProvider.FILE_NAME_KEY, myKey.substring(separator + 1));
+    }
+    metadata.put(BuildSymbolsIndexProvider.ARTIFACT_PATH_KEY, myArtifactPath);
+    return metadata;
+  }
+
+  @Override
+  public boolean equals(final Object o) {
+    if (this == o) return true;
+    if (!(o instanceof SymbolsMetadataEntry)) return false;
+    final SymbolsMetadataEntry that = (SymbolsMetadataEntry) o;
+    return myBuildId == that.myBuildId &&
+           myKey.equals(that.myKey) &&
+           (myArtifactPath == null ? that.myArtifactPath == null : myArtifactPath.equals(that.myArtifactPath));
+  }
+
+  @Override
+  public int hashCode() {
+    int result = myKey.hashCode();
+    result = 31 * result + (int) (myBuildId ^ (myBuildId >>> 32));
+    result = 31 * result + (myArtifactPath != null ? myArtifactPath.hashCode() : 0);
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    return "SymbolsMetadataEntry{key=" + myKey + ", buildId=" + myBuildId + ", artifactPath=" + myArtifactPath + "}";
+  }
+}
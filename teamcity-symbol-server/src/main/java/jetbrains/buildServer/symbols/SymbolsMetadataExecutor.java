@@ -0,0 +1,142 @@
+
+
+package jetbrains.buildServer.symbols;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import jetbrains.buildServer.serverSide.BuildServerAdapter;
+import jetbrains.buildServer.serverSide.BuildServerListener;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.util.EventDispatcher;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Bounded executor for symbol metadata loading.
+ *
+ * The number of loading threads is limited by {@link SymbolsConstants#SYMBOLS_SERVER_CACHE_MAXREADREQUESTS},
+ * pending tasks are kept in a queue limited by {@link SymbolsConstants#SYMBOLS_SERVER_REQUESTS_QUEUE_SIZE}.
+ * When the queue is full new tasks are rejected, so requests could be answered with 503 immediately
+ * instead of holding servlet threads. Tasks which waited in the queue longer than
+ * {@link SymbolsConstants#SYMBOLS_SERVER_CACHE_ACQUIRE_LOCK_TIMEOUT} fail with {@link TimeoutException},
+ * tasks which are still queued at server shutdown fail with {@link RejectedExecutionException}.
+ */
+public class SymbolsMetadataExecutor {
+
+  private static final Logger LOG = Logger.getLogger(SymbolsMetadataExecutor.class);
+
+  private final ThreadPoolExecutor myExecutor;
+
+  public interface Loader<T> {
+    T load() throws Throwable;
+  }
+
+  public SymbolsMetadataExecutor(@NotNull final EventDispatcher<BuildServerListener> events) {
+    final int threadsCount = Math.max(1, TeamCityProperties.getInteger(SymbolsConstants.SYMBOLS_SERVER_CACHE_MAXREADREQUESTS, 10));
+    final int queueSize = Math.max(1, TeamCityProperties.getInteger(SymbolsConstants.SYMBOLS_SERVER_REQUESTS_QUEUE_SIZE, 100));
+    final AtomicInteger threadNumber = new AtomicInteger();
+    myExecutor = new ThreadPoolExecutor(threadsCount, threadsCount, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize), r -> {
+      final Thread thread = new Thread(r, "Symbol server metadata loader " + threadNumber.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    myExecutor.allowCoreThreadTimeOut(true);
+
+    events.addListener(new BuildServerAdapter() {
+      @Override
+      public void serverShutdown() {
+        shutdown();
+      }
+    });
+  }
+
+  void shutdown() {
+    final List<Runnable> queuedTasks = myExecutor.shutdownNow();
+    for (Runnable task : queuedTasks) {
+      // requests waiting for queued tasks are answered instead of waiting forever
+      ((LoadingTask<?>) task).myResult.completeExceptionally(new RejectedExecutionException("Symbol server is shutting down"));
+    }
+    if (!queuedTasks.isEmpty()) {
+      LOG.debug(String.format("%d queued metadata loading requests were discarded at shutdown", queuedTasks.size()));
+    }
+  }
+
+  /**
+   * Schedules metadata loading.
+   *
+   * @param loader loads metadata.
+   * @return the future of loading result.
+   * @throws RejectedExecutionException if the queue is full.
+   */
+  @NotNull
+  public <T> CompletableFuture<T> submit(@NotNull final Loader<T> loader) throws RejectedExecutionException {
+    final LoadingTask<T> task = new LoadingTask<>(loader);
+    myExecutor.execute(task);
+    return task.myResult;
+  }
+
+  /**
+   * Switches the request to asynchronous processing, so waiting for metadata does not hold a container thread.
+   *
+   * @return the started context without timeout or null if the request should be processed synchronously.
+   */
+  @Nullable
+  public static AsyncContext startAsync(@NotNull final HttpServletRequest request) {
+    if (!request.isAsyncSupported()) return null;
+    try {
+      final AsyncContext asyncContext = request.startAsync();
+      asyncContext.setTimeout(0);
+      return asyncContext;
+    } catch (IllegalStateException | UnsupportedOperationException e) {
+      LOG.debug("Failed to start asynchronous request processing: " + e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Responds that the server is overloaded and the request should be retried later.
+   */
+  public static void sendServiceUnavailable(@NotNull final HttpServletResponse response) throws IOException {
+    if (response.isCommitted()) return;
+    response.setHeader("Retry-After", String.valueOf(TeamCityProperties.getInteger(SymbolsConstants.SYMBOLS_SERVER_REQUESTS_RETRY_AFTER_SEC, 5)));
+    response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Symbol server is overloaded, please retry later");
+  }
+
+  private static class LoadingTask<T> implements Runnable {
+    private final Loader<T> myLoader;
+    private final CompletableFuture<T> myResult = new CompletableFuture<>();
+    private final long mySubmitTime = System.currentTimeMillis();
+
+    private LoadingTask(@NotNull final Loader<T> loader) {
+      myLoader = loader;
+    }
+
+    @Override
+    public void run() {
+      final long waitTime = System.currentTimeMillis() - mySubmitTime;
+      final long timeout = TeamCityProperties.getInteger(SymbolsConstants.SYMBOLS_SERVER_CACHE_ACQUIRE_LOCK_TIMEOUT, 150) * 1000L;
+      if (waitTime > timeout) {
+        LOG.warn("Metadata loading request waited in the queue for " + waitTime + " ms and was discarded");
+        myResult.completeExceptionally(new TimeoutException("Metadata loading request waited in the queue for " + waitTime + " ms"));
+        return;
+      }
+      try {
+        myResult.complete(myLoader.load());
+      } catch (Throwable e) {
+        myResult.completeExceptionally(e);
+      }
+    }
+  }
+}
@@ -0,0 +1,44 @@
+<%@ include file="/include-internal.jsp"%>
+
+
+
+<jsp:useBean id="cachedBuildsCount" scope="request" type="java.lang.Long" />
+<jsp:useBean id="cachedBuildsSizeMb" scope="request" type="java.lang.Long" />
+<jsp:useBean id="cachedBuildsMaxSizeMb" scope="request" type="java.lang.Long" />
+<jsp:useBean id="hitCount" scope="request" type="java.lang.Long" />
+<jsp:useBean id="missCount" scope="request" type="java.lang.Long" />
+<jsp:useBean id="hitRatePercent" scope="request" type="java.lang.Long" />
+<jsp:useBean id="evictionCount" scope="request" type="java.lang.Long" />
+<jsp:useBean id="loadCount" scope="request" type="java.lang.Long" />
+<jsp:useBean id="loadExceptionCount" scope="request" type="java.lang.Long" />
+<jsp:useBean id="averageLoadTimeMs" scope="request" type="java.lang.Long" />
+<jsp:useBean id="totalLoadTimeMs" scope="request" type="java.lang.Long" />
+
+<table class="runnerFormTable">
+  <tr>
+    <th>Cached builds:</th>
+    <td>
+      <c:choose>
+        <c:when test="${cachedBuildsMaxSizeMb >= 0}">
+          <div>${cachedBuildsCount} builds, ~${cachedBuildsSizeMb} MB of ${cachedBuildsMaxSizeMb} MB</div>
+        </c:when>
+        <c:otherwise>
+          <div>${cachedBuildsCount} builds, ~${cachedBuildsSizeMb} MB</div>
+        </c:otherwise>
+      </c:choose>
+      <span class="smallNote">Memory budget is configured by the teamcity.symbolServer.cache.size.mb internal property.</span>
+    </td>
+  </tr>
+  <tr>
+    <th>Requests:</th>
+    <td>${hitCount} hits, ${missCount} misses, ${hitRatePercent}% hit rate</td>
+  </tr>
+  <tr>
+    <th>Evictions:</th>
+    <td>${evictionCount}</td>
+  </tr>
+  <tr>
+    <th>Loads:</th>
+    <td>${loadCount} loads, ${loadExceptionCount} failed, ${averageLoadTimeMs} ms on average, ${totalLoadTimeMs} ms total</td>
+  </tr>
+</table>
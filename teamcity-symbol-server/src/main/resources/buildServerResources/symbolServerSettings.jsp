@@ -5,6 +5,12 @@
 <jsp:useBean id="pageUrl" type="java.lang.String" scope="request"/>
 <jsp:useBean id="appUrl" scope="request" type="java.lang.String" />
 <jsp:useBean id="actualServerUrl" scope="request" type="java.lang.String" />
+<jsp:useBean id="keyLookupsCount" scope="request" type="java.lang.Long" />
+<jsp:useBean id="coalescedKeyLookupsCount" scope="request" type="java.lang.Long" />
+<jsp:useBean id="warmUpStatus" scope="request" type="java.lang.String" />
+<jsp:useBean id="warmUpLoadedBuildsCount" scope="request" type="java.lang.Integer" />
+<jsp:useBean id="warmUpBuildsCount" scope="request" type="java.lang.Integer" />
+<jsp:useBean id="warmUpElapsedTimeSec" scope="request" type="java.lang.Long" />
 
 <table class="runnerFormTable">
   <tr>
@@ -15,4 +21,34 @@
       <span class="smallNote">Use this URL in Visual Studio and WinDbg settings.</span>
     </td>
   </tr>
+  <tr>
+    <th>Symbol lookups:</th>
+    <td>
+      <div>${keyLookupsCount} metadata storage lookups requested, ${coalescedKeyLookupsCount} served by concurrent requests</div>
+      <span class="smallNote">Concurrent requests for the same symbol share a single metadata storage query.</span>
+    </td>
+  </tr>
+  <tr>
+    <th>Cache warm-up:</th>
+    <td>
+      <c:choose>
+        <c:when test="${warmUpStatus == 'DISABLED'}">
+          <div>Disabled</div>
+        </c:when>
+        <c:when test="${warmUpStatus == 'NOT_STARTED'}">
+          <div>Not started</div>
+        </c:when>
+        <c:when test="${warmUpStatus == 'RUNNING'}">
+          <div>In progress: ${warmUpLoadedBuildsCount} of ${warmUpBuildsCount} builds loaded, ${warmUpElapsedTimeSec} s elapsed</div>
+        </c:when>
+        <c:when test="${warmUpStatus == 'FAILED'}">
+          <div>Failed after ${warmUpElapsedTimeSec} s, ${warmUpLoadedBuildsCount} of ${warmUpBuildsCount} builds loaded</div>
+        </c:when>
+        <c:otherwise>
+          <div>Finished in ${warmUpElapsedTimeSec} s, ${warmUpLoadedBuildsCount} of ${warmUpBuildsCount} builds loaded</div>
+        </c:otherwise>
+      </c:choose>
+      <span class="smallNote">Symbols of the recent builds are loaded into the cache at server startup.</span>
+    </td>
+  </tr>
 </table>
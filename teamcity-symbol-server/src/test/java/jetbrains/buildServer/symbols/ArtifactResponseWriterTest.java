@@ -0,0 +1,52 @@
+
+
+package jetbrains.buildServer.symbols;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class ArtifactResponseWriterTest {
+
+  @Test(dataProvider = "satisfiableRanges")
+  public void testParseRange(String header, long expectedStart, long expectedEnd) {
+    ArtifactResponseWriter.Range range = ArtifactResponseWriter.Range.parse(header, 1000);
+    Assert.assertNotNull(range);
+    Assert.assertNotSame(range, ArtifactResponseWriter.Range.UNSATISFIABLE);
+    Assert.assertEquals(range.getStart(), expectedStart);
+    Assert.assertEquals(range.getEnd(), expectedEnd);
+  }
+
+  @DataProvider
+  public Object[][] satisfiableRanges() {
+    return new Object[][]{
+      {"bytes=0-99", 0, 99},
+      {"bytes=100-", 100, 999},
+      {"bytes=-200", 800, 999},
+      {"bytes=900-5000", 900, 999},
+      {"bytes=-5000", 0, 999}
+    };
+  }
+
+  @Test(dataProvider = "ignoredRanges")
+  public void testIgnoredRange(String header) {
+    Assert.assertNull(ArtifactResponseWriter.Range.parse(header, 1000));
+  }
+
+  @DataProvider
+  public Object[][] ignoredRanges() {
+    return new Object[][]{
+      {null},
+      {"items=0-10"},
+      {"bytes=0-10,20-30"},
+      {"bytes=abc-"},
+      {"bytes=20-10"}
+    };
+  }
+
+  @Test
+  public void testUnsatisfiableRange() {
+    Assert.assertSame(ArtifactResponseWriter.Range.parse("bytes=1000-", 1000), ArtifactResponseWriter.Range.UNSATISFIABLE);
+    Assert.assertSame(ArtifactResponseWriter.Range.parse("bytes=-0", 1000), ArtifactResponseWriter.Range.UNSATISFIABLE);
+  }
+}
@@ -0,0 +1,91 @@
+package jetbrains.buildServer.symbols;
+
+import jetbrains.buildServer.serverSide.impl.BaseServerTestCase;
+import org.jetbrains.annotations.NotNull;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+
+public class BuildSymbolsIndexProviderTest extends BaseServerTestCase {
+
+  @Test
+  public void shouldIndexAllSourcesAndLocateMissingPathsOnce() throws Exception {
+    final BuildSymbolsIndexProvider provider = createProvider();
+    final List<BuildSymbolsIndexProvider.SignatureIndexSource> sources = Arrays.asList(
+      createSource(new PdbSignatureIndexEntry("guid1", "file1.pdb", "bin/file1.pdb"),
+                   new PdbSignatureIndexEntry("guid2", "file2.pdb", null),
+                   new PdbSignatureIndexEntry("guid3", "file3.pdb", null)),
+      createSource(new PdbSignatureIndexEntry("guid1", "file1.pdb", "other/file1.pdb"),
+                   new PdbSignatureIndexEntry("guid4", "file4.dll", "bin/file4.dll")));
+    final List<Set<String>> locatorRequests = new ArrayList<>();
+    final Map<String, Map<String, String>> metadata = new LinkedHashMap<>();
+
+    final int count = provider.generateMetadata(1, "build", sources, fileNames -> {
+      locatorRequests.add(fileNames);
+      return Collections.singletonMap("file2.pdb", "lib/file2.pdb");
+    }, metadata::put);
+
+    Assert.assertEquals(count, 4);
+    Assert.assertEquals(locatorRequests, Collections.singletonList(new HashSet<>(Arrays.asList("file2.pdb", "file3.pdb"))));
+    Assert.assertEquals(metadata.keySet(), new LinkedHashSet<>(Arrays.asList("guid1:file1.pdb", "guid2:file2.pdb", "guid3:file3.pdb", "guid4:file4.dll")));
+    Assert.assertEquals(metadata.get("guid1:file1.pdb").get(BuildSymbolsIndexProvider.ARTIFACT_PATH_KEY), "bin/file1.pdb");
+    Assert.assertEquals(metadata.get("guid2:file2.pdb").get(BuildSymbolsIndexProvider.ARTIFACT_PATH_KEY), "lib/file2.pdb");
+    Assert.assertNull(metadata.get("guid3:file3.pdb").get(BuildSymbolsIndexProvider.ARTIFACT_PATH_KEY));
+    Assert.assertEquals(metadata.get("guid4:file4.dll").get(BuildSymbolsIndexProvider.FILE_NAME_KEY), "file4.dll");
+  }
+
+  @Test
+  public void shouldSkipUnreadableSource() throws Exception {
+    final BuildSymbolsIndexProvider provider = createProvider();
+    final BuildSymbolsIndexProvider.SignatureIndexSource brokenSource = new BuildSymbolsIndexProvider.SignatureIndexSource() {
+      @NotNull
+      public String getPath() {
+        return "broken.xml";
+      }
+
+      @NotNull
+      public InputStream getInputStream() throws IOException {
+        throw new IOException("broken");
+      }
+    };
+    final List<String> keys = new ArrayList<>();
+
+    final int count = provider.generateMetadata(1, "build", Arrays.asList(brokenSource, createSource(new PdbSignatureIndexEntry("guid", "file.pdb", "file.pdb"))),
+                                                fileNames -> Collections.emptyMap(), (key, data) -> keys.add(key));
+
+    Assert.assertEquals(count, 1);
+    Assert.assertEquals(keys, Collections.singletonList("guid:file.pdb"));
+  }
+
+  @NotNull
+  private BuildSymbolsIndexProvider createProvider() {
+    final MetadataStorageMock storage = new MetadataStorageMock();
+    final SymbolsKeyIndex keyIndex = new SymbolsKeyIndex(myFixture.getServerPaths(), storage, myFixture.getEventDispatcher());
+    final SymbolsKeyFilter keyFilter = new SymbolsKeyFilter(storage, myFixture.getEventDispatcher());
+    final SymbolsCache symbolsCache = new SymbolsCache(myFixture.getEventDispatcher(), keyIndex, keyFilter);
+    return new BuildSymbolsIndexProvider(symbolsCache, keyIndex, keyFilter);
+  }
+
+  @NotNull
+  private static BuildSymbolsIndexProvider.SignatureIndexSource createSource(@NotNull final PdbSignatureIndexEntry... entries) throws IOException {
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    PdbSignatureIndexUtil.write(output, Arrays.asList(entries));
+    final byte[] content = output.toByteArray();
+    return new BuildSymbolsIndexProvider.SignatureIndexSource() {
+      @NotNull
+      public String getPath() {
+        return "index.xml";
+      }
+
+      @NotNull
+      public InputStream getInputStream() {
+        return new ByteArrayInputStream(content);
+      }
+    };
+  }
+}
@@ -0,0 +1,104 @@
+
+
+package jetbrains.buildServer.symbols;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Inflater;
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.util.FileUtil;
+import org.testng.annotations.Test;
+
+public class CabFileWriterTest extends BaseTestCase {
+
+  @Test
+  public void shouldWriteMsZipCabinet() throws Exception {
+    // Given
+    final byte[] content = new byte[100000];
+    final Random random = new Random(42);
+    for (int i = 0; i < content.length; i++) {
+      content[i] = (byte) (i % 17 == 0 ? random.nextInt() : 'a');
+    }
+    final File target = createTempFile();
+
+    // When
+    CabFileWriter.write(new ByteArrayInputStream(content), content.length, System.currentTimeMillis(), "file.pdb", target);
+
+    // Then
+    final ByteBuffer cab = ByteBuffer.wrap(FileUtil.loadFileBytes(target)).order(ByteOrder.LITTLE_ENDIAN);
+    assertEquals("MSCF", new String(cab.array(), 0, 4, StandardCharsets.US_ASCII));
+    assertEquals(target.length(), cab.getInt(8));
+    assertEquals(1, cab.getShort(26));
+    assertEquals(1, cab.getShort(28));
+
+    final int dataOffset = cab.getInt(36);
+    final int blocksCount = cab.getShort(40);
+    assertEquals(1, cab.getShort(42));
+    assertEquals(content.length, cab.getInt(44));
+    assertEquals(0x20, cab.getShort(58));
+    assertEquals("file.pdb", new String(cab.array(), 60, 8, StandardCharsets.UTF_8));
+    assertEquals(4, blocksCount);
+
+    final ByteArrayOutputStream uncompressed = new ByteArrayOutputStream();
+    int position = dataOffset;
+    for (int block = 0; block < blocksCount; block++) {
+      final int compressedLength = cab.getShort(position + 4) & 0xFFFF;
+      final int uncompressedLength = cab.getShort(position + 6) & 0xFFFF;
+      assertEquals('C', cab.get(position + 8));
+      assertEquals('K', cab.get(position + 9));
+
+      final Inflater inflater = new Inflater(true);
+      inflater.setInput(cab.array(), position + 10, compressedLength - 2);
+      final byte[] buffer = new byte[uncompressedLength];
+      assertEquals(uncompressedLength, inflater.inflate(buffer));
+      inflater.end();
+      uncompressed.write(buffer);
+      position += 8 + compressedLength;
+    }
+    assertEquals(target.length(), position);
+    assertTrue(Arrays.equals(content, uncompressed.toByteArray()));
+  }
+
+  @Test
+  public void shouldMarkNonAsciiFileName() throws Exception {
+    // Given
+    final byte[] content = "text".getBytes(StandardCharsets.UTF_8);
+    final String fileName = "библиотека.pdb";
+    final byte[] nameBytes = fileName.getBytes(StandardCharsets.UTF_8);
+    final File target = createTempFile();
+
+    // When
+    CabFileWriter.write(new ByteArrayInputStream(content), content.length, System.currentTimeMillis(), fileName, target);
+
+    // Then
+    final ByteBuffer cab = ByteBuffer.wrap(FileUtil.loadFileBytes(target)).order(ByteOrder.LITTLE_ENDIAN);
+    assertEquals(0x20 | 0x80, cab.getShort(58));
+    assertEquals(fileName, new String(cab.array(), 60, nameBytes.length, StandardCharsets.UTF_8));
+    assertEquals(0, cab.get(60 + nameBytes.length));
+  }
+
+  @Test
+  public void shouldRejectTooLargeFile() throws Exception {
+    // Given
+    final long maxSize = 0xFFFFL * 32768;
+    final File target = createTempFile();
+    assertTrue(CabFileWriter.canCompress(maxSize));
+    assertFalse(CabFileWriter.canCompress(maxSize + 1));
+
+    // When
+    try {
+      CabFileWriter.write(new ByteArrayInputStream(new byte[0]), maxSize + 1, System.currentTimeMillis(), "file.pdb", target);
+      fail("Too large file should not be compressed");
+    } catch (IOException e) {
+      // Then
+      assertEquals(0, target.length());
+    }
+  }
+}
@@ -7,8 +7,10 @@ import jetbrains.buildServer.controllers.BaseController;
 import jetbrains.buildServer.controllers.BaseControllerTestCase;
 import jetbrains.buildServer.controllers.interceptors.auth.HttpAuthenticationManager;
 import jetbrains.buildServer.serverSide.RunningBuildEx;
+import jetbrains.buildServer.serverSide.SFinishedBuild;
 import jetbrains.buildServer.serverSide.auth.Permission;
 import jetbrains.buildServer.serverSide.auth.RoleScope;
+import jetbrains.buildServer.serverSide.metadata.BuildMetadataEntry;
 import jetbrains.buildServer.users.SUser;
 import jetbrains.buildServer.util.FileUtil;
 import org.apache.commons.httpclient.HttpStatus;
@@ -17,9 +19,14 @@ import org.testng.annotations.DataProvider;
 import org.testng.annotations.Parameters;
 import org.testng.annotations.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 /**
  * @author Evgeniy.Koshkin
@@ -27,6 +34,10 @@ import java.util.Arrays;
 public class DownloadSymbolsControllerTest extends BaseControllerTestCase {
 
   private MetadataStorageMock myBuildMetadataStorage;
+  private SymbolsLocationCache myLocationCache;
+  private SymbolsKeyIndex myKeyIndex;
+  private SymbolsKeyFilter myKeyFilter;
+  private SymbolsMetadataExecutor myMetadataExecutor;
 
   @Override
   @BeforeMethod
@@ -40,8 +51,15 @@ public class DownloadSymbolsControllerTest extends BaseControllerTestCase {
   protected BaseController createController() throws IOException {
     AuthorizationInterceptor authInterceptor = myFixture.getSingletonService(AuthorizationInterceptor.class);
     AuthHelper authHelper = new AuthHelper(myFixture.getLoginConfiguration(), myFixture.getUserModel(), myFixture.getSingletonService(HttpAuthenticationManager.class));
-    SymbolsCache symbolsCache = new SymbolsCache(myFixture.getEventDispatcher());
-    return new DownloadSymbolsController(myServer, myWebManager, authInterceptor,  myFixture.getSecurityContext(), myBuildMetadataStorage, authHelper, symbolsCache);
+    myKeyIndex = new SymbolsKeyIndex(myFixture.getServerPaths(), myBuildMetadataStorage, myFixture.getEventDispatcher());
+    myKeyFilter = new SymbolsKeyFilter(myBuildMetadataStorage, myFixture.getEventDispatcher());
+    SymbolsCache symbolsCache = new SymbolsCache(myFixture.getEventDispatcher(), myKeyIndex, myKeyFilter);
+    CompressedSymbolsCache compressedSymbolsCache = new CompressedSymbolsCache(myFixture.getServerPaths());
+    myLocationCache = new SymbolsLocationCache(myFixture.getEventDispatcher());
+    myMetadataExecutor = new SymbolsMetadataExecutor(myFixture.getEventDispatcher());
+    return new DownloadSymbolsController(myServer, myWebManager, authInterceptor,  myFixture.getSecurityContext(), myBuildMetadataStorage, authHelper, symbolsCache, compressedSymbolsCache,
+                                         new ExtractedSymbolsCache(myFixture.getServerPaths()),
+                                         new DirectArtifactUrlProvider(), myMetadataExecutor, myLocationCache);
   }
 
   @Test
@@ -81,6 +99,18 @@ public class DownloadSymbolsControllerTest extends BaseControllerTestCase {
     assertEquals(HttpStatus.SC_NOT_FOUND, myResponse.getStatus());
   }
 
+  @Test
+  public void request_not_existent_pdb_is_answered_without_metadata_loading() throws Exception {
+    myKeyFilter.rebuild();
+    // queued metadata requests would be answered with 503
+    myMetadataExecutor.shutdown();
+
+    myRequest.setRequestURI("mock", "/app/symbols/secur32.pdb/8EF4E863187C45E78F4632152CC82FEB1/secur32.pdb");
+    doGet();
+
+    assertEquals(HttpStatus.SC_NOT_FOUND, myResponse.getStatus());
+  }
+
   @Test
   public void request_pdb_unauthorized() throws Exception {
     myFixture.getLoginConfiguration().setGuestLoginAllowed(false);
@@ -123,6 +153,30 @@ public class DownloadSymbolsControllerTest extends BaseControllerTestCase {
     assertEquals(HttpStatus.SC_UNAUTHORIZED, myResponse.getStatus());
   }
 
+  @Test
+  public void parse_download_url() throws Exception {
+    DownloadSymbolsController.DownloadUrl url = DownloadSymbolsController.DownloadUrl.parse("/bs/APP/Symbols/my%20lib+1.pdb/8EF4E863187C45E78F4632152CC82FEB1/my%20lib+1.pdb");
+    assertNotNull(url);
+    assertEquals("my lib+1.pdb", url.getFileName());
+    assertEquals("8EF4E863187C45E78F4632152CC82FEB1", url.getSignature());
+
+    url = DownloadSymbolsController.DownloadUrl.parse("/app/symbols/secur32.pdb/8EF4E863187C45E78F4632152CC82FEB1");
+    assertNotNull(url);
+    assertEquals("secur32.pdb", url.getFileName());
+
+    assertNull(DownloadSymbolsController.DownloadUrl.parse("/app/symbols/foo"));
+    assertNull(DownloadSymbolsController.DownloadUrl.parse("/app/symbols//index2.txt"));
+    assertNull(DownloadSymbolsController.DownloadUrl.parse("/app/symbols/foo//bar"));
+    assertNull(DownloadSymbolsController.DownloadUrl.parse("/app/symbols/foo%zz/bar/foo%zz").getFileName());
+  }
+
+  @Test
+  public void request_pdb_malformed_file_name() throws Exception {
+    myRequest.setRequestURI("mock", "/app/symbols/secur32%zz.pdb/8EF4E863187C45E78F4632152CC82FEB1/secur32%zz.pdb");
+    doGet();
+    assertEquals(HttpStatus.SC_NOT_FOUND, myResponse.getStatus());
+  }
+
   @DataProvider(name = "Booleans")
   public static Object[][] two_bool_combinations() {
     return new Boolean[][]{{false}, {true}};
@@ -193,6 +247,247 @@ public class DownloadSymbolsControllerTest extends BaseControllerTestCase {
     assertEquals("text", myResponse.getReturnedContent());
   }
 
+  @Test
+  public void request_pdb_from_resolved_location() throws Exception {
+    myFixture.getServerSettings().setPerProjectPermissionsEnabled(true);
+    SUser user = myFixture.getUserModel().getGuestUser();
+    user.addRole(RoleScope.projectScope(myProject.getProjectId()), getProjectDevRole());
+
+    final String fileSignature = "8EF4E863187C45E78F4632152CC82FEB1";
+    final String guid = "8ef4e863187c45e78f4632152cc82feb";
+    final String fileName = "secur32.pdb";
+    final String filePath = "foo/secur32.pdb";
+
+    RunningBuildEx build = startBuild();
+    build.publishArtifact(filePath, "text".getBytes(StandardCharsets.UTF_8));
+    finishBuild(build, false);
+
+    myBuildMetadataStorage.addEntry(build.getBuildId(), guid, fileName, filePath);
+    final BuildMetadataEntry entry = myBuildMetadataStorage.getEntriesByKey(BuildSymbolsIndexProvider.PROVIDER_ID,
+                                                                             BuildSymbolsIndexProvider.getMetadataKey(guid, fileName)).next();
+    myRequest.setRequestURI("mock", String.format("/app/symbols/%s/%s/%s", fileName, fileSignature, fileName));
+
+    doGet();
+
+    assertEquals("text", myResponse.getReturnedContent());
+    final SymbolsLocationCache.Location location = myLocationCache.getLocation(entry);
+    assertNotNull(location);
+    assertEquals(myProject.getProjectId(), location.getProjectId());
+    assertEquals(filePath, location.getArtifactPath());
+
+    // changed file is resolved again
+    FileUtil.writeFile(new File(build.getArtifactsDirectory(), filePath), "new text", "UTF-8");
+    doGet();
+    assertEquals("new text", myResponse.getReturnedContent());
+
+    myFixture.getEventDispatcher().getMulticaster().buildArtifactsChanged(build);
+    assertNull(myLocationCache.getLocation(entry));
+  }
+
+  @Test
+  public void request_pdb_of_removed_build_with_key_index() throws Exception {
+    myFixture.getServerSettings().setPerProjectPermissionsEnabled(true);
+    SUser user = myFixture.getUserModel().getGuestUser();
+    user.addRole(RoleScope.projectScope(myProject.getProjectId()), getProjectDevRole());
+
+    final String fileSignature = "8EF4E863187C45E78F4632152CC82FEB1";
+    final String guid = "8ef4e863187c45e78f4632152cc82feb";
+    final String fileName = "secur32.pdb";
+    final String filePath = "foo/secur32.pdb";
+
+    RunningBuildEx runningBuild = startBuild();
+    runningBuild.publishArtifact(filePath, "text".getBytes(StandardCharsets.UTF_8));
+    SFinishedBuild build = finishBuild(runningBuild, false);
+
+    myBuildMetadataStorage.addEntry(build.getBuildId(), guid, fileName, filePath);
+    myKeyIndex.rebuild();
+    myKeyFilter.rebuild();
+    assertTrue(myKeyIndex.isReady());
+    assertTrue(myKeyFilter.isReady());
+    myRequest.setRequestURI("mock", String.format("/app/symbols/%s/%s/%s", fileName, fileSignature, fileName));
+
+    doGet();
+    assertEquals("text", myResponse.getReturnedContent());
+
+    // When
+    myBuildMetadataStorage.removeBuildEntries(build.getBuildId(), BuildSymbolsIndexProvider.PROVIDER_ID);
+    myFixture.getEventDispatcher().getMulticaster().entryDeleted(build);
+
+    // Then
+    doGet();
+    assertEquals(HttpStatus.SC_NOT_FOUND, myResponse.getStatus());
+  }
+
+  @Test
+  public void request_pdb_of_older_build_with_key_index() throws Exception {
+    myFixture.getServerSettings().setPerProjectPermissionsEnabled(true);
+    SUser user = myFixture.getUserModel().getGuestUser();
+    user.addRole(RoleScope.projectScope(myProject.getProjectId()), getProjectDevRole());
+
+    final String fileSignature = "8EF4E863187C45E78F4632152CC82FEB1";
+    final String guid = "8ef4e863187c45e78f4632152cc82feb";
+    final String fileName = "secur32.pdb";
+    final String filePath = "foo/secur32.pdb";
+
+    RunningBuildEx olderRunningBuild = startBuild();
+    olderRunningBuild.publishArtifact(filePath, "old text".getBytes(StandardCharsets.UTF_8));
+    SFinishedBuild olderBuild = finishBuild(olderRunningBuild, false);
+    RunningBuildEx runningBuild = startBuild();
+    runningBuild.publishArtifact(filePath, "new text".getBytes(StandardCharsets.UTF_8));
+    SFinishedBuild build = finishBuild(runningBuild, false);
+
+    myBuildMetadataStorage.addEntry(olderBuild.getBuildId(), guid, fileName, filePath);
+    myBuildMetadataStorage.addEntry(build.getBuildId(), guid, fileName, filePath);
+    myKeyIndex.rebuild();
+    myKeyFilter.rebuild();
+    myRequest.setRequestURI("mock", String.format("/app/symbols/%s/%s/%s", fileName, fileSignature, fileName));
+
+    doGet();
+    assertEquals("new text", myResponse.getReturnedContent());
+
+    // When
+    myBuildMetadataStorage.removeBuildEntries(build.getBuildId(), BuildSymbolsIndexProvider.PROVIDER_ID);
+    myFixture.getEventDispatcher().getMulticaster().entryDeleted(build);
+
+    // Then
+    doGet();
+    assertEquals("old text", myResponse.getReturnedContent());
+    final BuildMetadataEntry indexedEntry = myKeyIndex.findEntry(BuildSymbolsIndexProvider.getMetadataKey(guid, fileName));
+    assertNotNull(indexedEntry);
+    assertEquals(olderBuild.getBuildId(), indexedEntry.getBuildId());
+  }
+
+  @Test
+  public void request_pdb_after_guest_permissions_changed() throws Exception {
+    myFixture.getServerSettings().setPerProjectPermissionsEnabled(true);
+
+    final String fileSignature = "8EF4E863187C45E78F4632152CC82FEB1";
+    final String guid = "8ef4e863187c45e78f4632152cc82feb";
+    final String fileName = "secur32.pdb";
+    final String filePath = "foo/secur32.pdb";
+
+    RunningBuildEx build = startBuild();
+    build.publishArtifact(filePath, "text".getBytes(StandardCharsets.UTF_8));
+    finishBuild(build, false);
+
+    myBuildMetadataStorage.addEntry(build.getBuildId(), guid, fileName, filePath);
+    myRequest.setRequestURI("mock", String.format("/app/symbols/%s/%s/%s", fileName, fileSignature, fileName));
+
+    doGet();
+    assertEquals(HttpStatus.SC_UNAUTHORIZED, myResponse.getStatus());
+
+    // guest permissions are checked on every request
+    SUser user = myFixture.getUserModel().getGuestUser();
+    user.addRole(RoleScope.projectScope(myProject.getProjectId()), getProjectDevRole());
+    doGet();
+    assertEquals("text", myResponse.getReturnedContent());
+
+    user.removeRole(RoleScope.projectScope(myProject.getProjectId()), getProjectDevRole());
+    doGet();
+    assertEquals(HttpStatus.SC_UNAUTHORIZED, myResponse.getStatus());
+  }
+
+  @Test
+  public void request_pdb_from_archive() throws Exception {
+    myFixture.getServerSettings().setPerProjectPermissionsEnabled(true);
+    SUser user = myFixture.getUserModel().getGuestUser();
+    user.addRole(RoleScope.projectScope(myProject.getProjectId()), getProjectDevRole());
+
+    final String fileSignature = "8EF4E863187C45E78F4632152CC82FEB1";
+    final String guid = "8ef4e863187c45e78f4632152cc82feb";
+    final String fileName = "secur32.pdb";
+    final ByteArrayOutputStream archive = new ByteArrayOutputStream();
+    try (ZipOutputStream zip = new ZipOutputStream(archive)) {
+      zip.putNextEntry(new ZipEntry("lib/" + fileName));
+      zip.write("text".getBytes(StandardCharsets.UTF_8));
+      zip.closeEntry();
+    }
+
+    RunningBuildEx build = startBuild();
+    build.publishArtifact("symbols.nupkg", archive.toByteArray());
+    finishBuild(build, false);
+
+    myBuildMetadataStorage.addEntry(build.getBuildId(), guid, fileName, "symbols.nupkg!/lib/" + fileName);
+    myRequest.setRequestURI("mock", String.format("/app/symbols/%s/%s/%s", fileName, fileSignature, fileName));
+
+    doGet();
+    assertEquals("text", myResponse.getReturnedContent());
+
+    // served from the resolved location and the extracted file
+    doGet();
+    assertEquals("text", myResponse.getReturnedContent());
+  }
+
+  @Test
+  public void request_file_pointer_disabled() throws Exception {
+    myRequest.setRequestURI("mock", "/app/symbols/secur32.pdb/8EF4E863187C45E78F4632152CC82FEB1/file.ptr");
+    doGet();
+    assertEquals(HttpStatus.SC_NOT_FOUND, myResponse.getStatus());
+  }
+
+  @Test
+  public void request_file_pointer_to_external_storage() throws Exception {
+    myFixture.getServerSettings().setPerProjectPermissionsEnabled(true);
+    SUser user = myFixture.getUserModel().getGuestUser();
+    user.addRole(RoleScope.projectScope(myProject.getProjectId()), getProjectDevRole());
+
+    final String fileSignature = "8EF4E863187C45E78F4632152CC82FEB1";
+    final String guid = "8EF4E863187C45E78F4632152CC82FEB";
+    final String fileName = "secur32.pdb";
+    final String filePath = "foo/secur32.pdb";
+
+    RunningBuildEx build = startBuild();
+    finishBuild(build, false);
+
+    // artifacts are not stored on the server, local directory stands in for the external storage
+    final File storageDirectory = createTempDir();
+    final File storedFile = new File(storageDirectory, build.getBuildId() + "/" + filePath);
+    assertTrue(storedFile.getParentFile().mkdirs());
+    FileUtil.writeFile(storedFile, "text", "UTF-8");
+    setInternalProperty(SymbolsConstants.SYMBOLS_SERVER_DIRECT_URL_MODE, "pointer");
+    setInternalProperty(SymbolsConstants.SYMBOLS_SERVER_DIRECT_URL_TEMPLATE, storageDirectory.toURI() + "{buildId}/{artifactPath}");
+
+    myBuildMetadataStorage.addEntry(build.getBuildId(), guid.toLowerCase(), fileName, filePath);
+    myRequest.setRequestURI("mock", String.format("/app/symbols/%s/%s/file.ptr", fileName, fileSignature));
+
+    doGet();
+
+    assertEquals(-1, myResponse.getStatus());
+    final String content = myResponse.getReturnedContent();
+    assertTrue(content, content.startsWith("PATH:"));
+    assertEquals(storedFile.getCanonicalFile(), new File(URI.create(content.substring("PATH:".length()))).getCanonicalFile());
+  }
+
+  @Test
+  public void request_pdb_stored_on_server_is_not_redirected() throws Exception {
+    myFixture.getServerSettings().setPerProjectPermissionsEnabled(true);
+    SUser user = myFixture.getUserModel().getGuestUser();
+    user.addRole(RoleScope.projectScope(myProject.getProjectId()), getProjectDevRole());
+
+    final String fileSignature = "8EF4E863187C45E78F4632152CC82FEB1";
+    final String guid = "8ef4e863187c45e78f4632152cc82feb";
+    final String fileName = "secur32.pdb";
+    final String filePath = "foo/secur32.pdb";
+
+    RunningBuildEx build = startBuild();
+    build.publishArtifact(filePath, "text".getBytes(StandardCharsets.UTF_8));
+    finishBuild(build, false);
+
+    setInternalProperty(SymbolsConstants.SYMBOLS_SERVER_DIRECT_URL_MODE, "all");
+    setInternalProperty(SymbolsConstants.SYMBOLS_SERVER_DIRECT_URL_TEMPLATE, "https://artifacts.example.com/{buildId}/{artifactPath}");
+
+    myBuildMetadataStorage.addEntry(build.getBuildId(), guid, fileName, filePath);
+    myRequest.setRequestURI("mock", String.format("/app/symbols/%s/%s/%s", fileName, fileSignature, fileName));
+
+    doGet();
+    assertEquals(-1, myResponse.getStatus());
+    assertEquals("text", myResponse.getReturnedContent());
+
+    myRequest.setRequestURI("mock", String.format("/app/symbols/%s/%s/file.ptr", fileName, fileSignature));
+    doGet();
+    assertEquals(HttpStatus.SC_NOT_FOUND, myResponse.getStatus());
+  }
+
   private String getRegisterPdbUrl(String fileSignature, String fileName, String artifactPath) throws IOException {
     final File artDirectory = createTempDir();
     new File(artDirectory, "foo").createNewFile();
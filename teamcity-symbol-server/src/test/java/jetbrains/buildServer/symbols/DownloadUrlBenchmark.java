@@ -0,0 +1,96 @@
+package jetbrains.buildServer.symbols;
+
+import org.apache.log4j.Logger;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares request URL handling of symbol file misses: the regular expression, URL decoding and eagerly formatted
+ * debug messages used before with the hand written parser and guarded logging. Results are reported as requests
+ * per second which the URL handling alone could process on a single thread.
+ */
+@Test(groups = "benchmark")
+public class DownloadUrlBenchmark {
+
+  private static final Logger LOG = Logger.getLogger(DownloadUrlBenchmark.class);
+  private static final Pattern DOWNLOAD_URL_PATTERN = Pattern.compile(
+    String.format(".*%s/([^/]+)/([^/]+)", SymbolsConstants.APP_SYMBOLS),
+    Pattern.CASE_INSENSITIVE
+  );
+  private static final int URLS_COUNT = 10000;
+  private static final int ITERATIONS = 50;
+
+  public void compareMissUrlHandling() throws Exception {
+    final List<String> urls = createUrls();
+
+    long regexTime = Long.MAX_VALUE;
+    long parserTime = Long.MAX_VALUE;
+    for (int i = 0; i < ITERATIONS; i++) {
+      long startTime = System.nanoTime();
+      int regexCount = 0;
+      for (String url : urls) {
+        regexCount += handleWithRegex(url);
+      }
+      regexTime = Math.min(regexTime, System.nanoTime() - startTime);
+
+      startTime = System.nanoTime();
+      int parserCount = 0;
+      for (String url : urls) {
+        parserCount += handleWithParser(url);
+      }
+      parserTime = Math.min(parserTime, System.nanoTime() - startTime);
+
+      Assert.assertEquals(parserCount, regexCount);
+    }
+
+    System.out.println(String.format("Regex: %d requests/s", URLS_COUNT * 1000000000L / regexTime));
+    System.out.println(String.format("Parser: %d requests/s", URLS_COUNT * 1000000000L / parserTime));
+    Assert.assertTrue(parserTime < regexTime, "Parser should be faster than regular expression");
+  }
+
+  private static int handleWithRegex(String requestURI) throws Exception {
+    final Matcher urlMatcher = DOWNLOAD_URL_PATTERN.matcher(requestURI);
+    if (!urlMatcher.find()) return 0;
+    final String encodedFileName = urlMatcher.group(1).replaceAll("\\+", "%2b");
+    final String fileName = URLDecoder.decode(encodedFileName, "UTF-8");
+    final String signature = urlMatcher.group(2).toLowerCase();
+    final String guid = PdbSignatureIndexUtil.extractGuid(signature, true);
+    LOG.debug(String.format("Symbol file requested. File name: %s. Guid: %s.", fileName, guid));
+    LOG.debug(String.format("There is no information about symbol file %s with id %s in the index.", fileName, guid));
+    return fileName.length() + guid.length();
+  }
+
+  private static int handleWithParser(String requestURI) {
+    final DownloadSymbolsController.DownloadUrl url = DownloadSymbolsController.DownloadUrl.parse(requestURI);
+    final String fileName = url == null ? null : url.getFileName();
+    if (fileName == null) return 0;
+    final String signature = url.getSignature().toLowerCase();
+    final String guid = PdbSignatureIndexUtil.extractGuid(signature, true);
+    if (LOG.isDebugEnabled()) {
+      LOG.debug(String.format("Symbol file requested. File name: %s. Guid: %s.", fileName, guid));
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug(String.format("There is no information about symbol file %s with id %s in the index.", fileName, guid));
+    }
+    return fileName.length() + guid.length();
+  }
+
+  private static List<String> createUrls() {
+    final Random random = new Random(42);
+    final List<String> urls = new ArrayList<>();
+    for (int i = 0; i < URLS_COUNT; i++) {
+      final String fileName = "Assembly" + i + (i % 2 == 0 ? ".pdb" : ".dll");
+      final String signature = new UUID(random.nextLong(), random.nextLong()).toString().replace("-", "").toUpperCase() + "1";
+      urls.add(String.format("/bs%s/%s/%s/%s", SymbolsConstants.APP_SYMBOLS, fileName, signature, fileName));
+    }
+    return urls;
+  }
+}
@@ -0,0 +1,111 @@
+package jetbrains.buildServer.symbols;
+
+import jetbrains.buildServer.serverSide.impl.BaseServerTestCase;
+import jetbrains.buildServer.util.FileUtil;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ExtractedSymbolsCacheTest extends BaseServerTestCase {
+
+  @Test
+  public void shouldExtractFileOnceForConcurrentRequests() throws Exception {
+    final ExtractedSymbolsCache cache = new ExtractedSymbolsCache(myFixture.getServerPaths());
+    final byte[] content = "text".getBytes(StandardCharsets.UTF_8);
+    final AtomicInteger extractionsCount = new AtomicInteger();
+    final CountDownLatch extractionStarted = new CountDownLatch(1);
+    final CountDownLatch requestsStarted = new CountDownLatch(1);
+    final SymbolsFileCache.ContentProvider contentProvider = () -> {
+      extractionsCount.incrementAndGet();
+      extractionStarted.countDown();
+      try {
+        requestsStarted.await();
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+      return new ByteArrayInputStream(content);
+    };
+
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      final List<Future<SymbolsFileCache.CachedFile>> files = new ArrayList<>();
+      files.add(executor.submit(() -> cache.getExtractedFile(1, "symbols.zip!/file.pdb", content.length, 1000, contentProvider)));
+      extractionStarted.await();
+      for (int i = 0; i < 3; i++) {
+        files.add(executor.submit(() -> cache.getExtractedFile(1, "symbols.zip!/file.pdb", content.length, 1000, contentProvider)));
+      }
+      requestsStarted.countDown();
+
+      for (Future<SymbolsFileCache.CachedFile> file : files) {
+        try (SymbolsFileCache.CachedFile cachedFile = file.get(10, TimeUnit.SECONDS)) {
+          Assert.assertEquals(FileUtil.readText(cachedFile.getFile()), "text");
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    Assert.assertEquals(extractionsCount.get(), 1);
+
+    cache.getExtractedFile(1, "symbols.zip!/file.pdb", content.length, 1000, contentProvider).close();
+    Assert.assertEquals(extractionsCount.get(), 1);
+  }
+
+  @Test
+  public void shouldEvictLeastRecentlyUsedFiles() throws Exception {
+    setInternalProperty(SymbolsConstants.SYMBOLS_SERVER_EXTRACTED_CACHE_SIZE_MB, "1");
+    final ExtractedSymbolsCache cache = new ExtractedSymbolsCache(myFixture.getServerPaths());
+    final byte[] content = new byte[600 * 1024];
+
+    final SymbolsFileCache.CachedFile file1 = cache.getExtractedFile(1, "symbols.zip!/file1.pdb", content.length, 1000, () -> new ByteArrayInputStream(content));
+    file1.close();
+    final SymbolsFileCache.CachedFile file2 = cache.getExtractedFile(1, "symbols.zip!/file2.pdb", content.length, 1000, () -> new ByteArrayInputStream(content));
+    file2.close();
+
+    Assert.assertFalse(file1.getFile().exists());
+    Assert.assertTrue(file2.getFile().isFile());
+  }
+
+  @Test
+  public void shouldNotEvictFilesInUse() throws Exception {
+    setInternalProperty(SymbolsConstants.SYMBOLS_SERVER_EXTRACTED_CACHE_SIZE_MB, "1");
+    final ExtractedSymbolsCache cache = new ExtractedSymbolsCache(myFixture.getServerPaths());
+    final byte[] content = new byte[600 * 1024];
+
+    final SymbolsFileCache.CachedFile file1 = cache.getExtractedFile(1, "symbols.zip!/file1.pdb", content.length, 1000, () -> new ByteArrayInputStream(content));
+    final SymbolsFileCache.CachedFile file2 = cache.getExtractedFile(1, "symbols.zip!/file2.pdb", content.length, 1000, () -> new ByteArrayInputStream(content));
+    Assert.assertTrue(file1.getFile().isFile());
+    Assert.assertTrue(file2.getFile().isFile());
+
+    file2.close();
+    Assert.assertTrue(file1.getFile().isFile());
+    file1.close();
+  }
+
+  @Test
+  public void shouldNotShareFilesOfDifferentPaths() throws Exception {
+    final ExtractedSymbolsCache cache = new ExtractedSymbolsCache(myFixture.getServerPaths());
+    // both paths have the same String hash code
+    final String path1 = "symbols.zip!/Aa.pdb";
+    final String path2 = "symbols.zip!/BB.pdb";
+    Assert.assertEquals(path1.hashCode(), path2.hashCode());
+
+    try (SymbolsFileCache.CachedFile file1 = cache.getExtractedFile(1, path1, 1, 1000, () -> new ByteArrayInputStream("1".getBytes(StandardCharsets.UTF_8)));
+         SymbolsFileCache.CachedFile file2 = cache.getExtractedFile(1, path2, 1, 1000, () -> new ByteArrayInputStream("2".getBytes(StandardCharsets.UTF_8)))) {
+      Assert.assertNotEquals(file1.getFile(), file2.getFile());
+      Assert.assertEquals(FileUtil.readText(file2.getFile()), "2");
+    }
+  }
+
+  @Test(expectedExceptions = IOException.class)
+  public void shouldFailOnTruncatedContent() throws Exception {
+    final ExtractedSymbolsCache cache = new ExtractedSymbolsCache(myFixture.getServerPaths());
+    cache.getExtractedFile(1, "symbols.zip!/file.pdb", 10, 1000, () -> new ByteArrayInputStream(new byte[5])).close();
+  }
+}
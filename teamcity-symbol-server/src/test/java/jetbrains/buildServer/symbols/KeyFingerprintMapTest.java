@@ -0,0 +1,55 @@
+package jetbrains.buildServer.symbols;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class KeyFingerprintMapTest {
+
+  @Test
+  public void shouldBehaveLikeHashMap() {
+    // Given
+    KeyFingerprintMap map = new KeyFingerprintMap();
+    Map<Long, Long> expected = new HashMap<>();
+    Random random = new Random(42);
+
+    // When
+    for (int i = 0; i < 100000; i++) {
+      // small key range causes a lot of collisions and removals
+      long fingerprint = random.nextInt(5000) * 0x100000000L + random.nextInt(3);
+      long buildId = random.nextInt(10);
+      if (random.nextBoolean()) {
+        map.put(fingerprint, buildId);
+        expected.put(fingerprint, buildId);
+      } else {
+        map.remove(fingerprint, buildId);
+        expected.remove(fingerprint, buildId);
+      }
+    }
+
+    // Then
+    Assert.assertEquals(map.size(), expected.size());
+    for (long fingerprint = 0; fingerprint < 5000; fingerprint++) {
+      for (int low = 0; low < 3; low++) {
+        long key = fingerprint * 0x100000000L + low;
+        Long buildId = expected.get(key);
+        Assert.assertEquals(map.get(key), buildId == null ? KeyFingerprintMap.NOT_FOUND : buildId.longValue());
+      }
+    }
+  }
+
+  @Test
+  public void shouldNotRemoveKeyOfAnotherBuild() {
+    // Given
+    KeyFingerprintMap map = new KeyFingerprintMap();
+    map.put(1, 10);
+
+    // When
+    map.remove(1, 20);
+
+    // Then
+    Assert.assertEquals(map.get(1), 10);
+  }
+}
@@ -0,0 +1,135 @@
+package jetbrains.buildServer.symbols;
+
+import jetbrains.buildServer.serverSide.impl.BaseServerTestCase;
+import jetbrains.buildServer.serverSide.metadata.MetadataStorageWriter;
+import org.jetbrains.annotations.NotNull;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.*;
+
+/**
+ * Compares metadata generation for a synthetic build with 100k symbol files: the per entry processing used before,
+ * which walks build artifacts and invalidates the cache for every entry, and the batched one.
+ */
+@Test(groups = "benchmark")
+public class MetadataGenerationBenchmark extends BaseServerTestCase {
+
+  private static final int ENTRIES_COUNT = 100000;
+  private static final int UNRESOLVED_ENTRIES_COUNT = 1000;
+  private static final long BUILD_ID = 1;
+
+  private List<String> myArtifactPaths;
+  private List<BuildSymbolsIndexProvider.SignatureIndexSource> mySources;
+
+  @Override
+  @BeforeMethod
+  public void setUp() throws Exception {
+    super.setUp();
+    setInternalProperty(SymbolsConstants.SYMBOLS_SERVER_KEY_INDEX_ENABLED, "false");
+
+    final Random random = new Random(42);
+    myArtifactPaths = new ArrayList<>();
+    final List<PdbSignatureIndexEntry> symbolEntries = new ArrayList<>();
+    final List<PdbSignatureIndexEntry> binaryEntries = new ArrayList<>();
+    for (int i = 0; i < ENTRIES_COUNT; i++) {
+      final String fileName = "Assembly" + i + (i % 2 == 0 ? ".pdb" : ".dll");
+      final String artifactPath = "bin/Release/" + fileName;
+      final String guid = new UUID(random.nextLong(), random.nextLong()).toString().replace("-", "");
+      final List<PdbSignatureIndexEntry> entries = i % 2 == 0 ? symbolEntries : binaryEntries;
+      // the last files are published without paths and should be located in artifacts
+      entries.add(new PdbSignatureIndexEntry(guid, fileName, i < ENTRIES_COUNT - UNRESOLVED_ENTRIES_COUNT ? artifactPath : null));
+      myArtifactPaths.add(artifactPath);
+    }
+    mySources = Arrays.asList(createSource("symbols.bin", symbolEntries), createSource("binaries.bin", binaryEntries));
+  }
+
+  public void compareMetadataGeneration() throws Exception {
+    final SymbolsKeyIndex keyIndex = new SymbolsKeyIndex(myFixture.getServerPaths(), new MetadataStorageMock(), myFixture.getEventDispatcher());
+    final SymbolsKeyFilter keyFilter = new SymbolsKeyFilter(new MetadataStorageMock(), myFixture.getEventDispatcher());
+    final SymbolsCache symbolsCache = new SymbolsCache(myFixture.getEventDispatcher(), keyIndex, keyFilter);
+    final BuildSymbolsIndexProvider provider = new BuildSymbolsIndexProvider(symbolsCache, keyIndex, keyFilter);
+
+    final int[] perEntryCount = new int[1];
+    long startTime = System.nanoTime();
+    generatePerEntry(symbolsCache, keyIndex, keyFilter, (key, data) -> perEntryCount[0]++);
+    final long perEntryTime = System.nanoTime() - startTime;
+
+    final int[] batchedCount = new int[1];
+    final int[] artifactWalks = new int[1];
+    startTime = System.nanoTime();
+    final int count = provider.generateMetadata(BUILD_ID, "build", mySources, fileNames -> {
+      artifactWalks[0]++;
+      final Map<String, String> result = new HashMap<>();
+      for (String artifactPath : myArtifactPaths) {
+        final String name = artifactPath.substring(artifactPath.lastIndexOf('/') + 1);
+        if (fileNames.contains(name)) result.putIfAbsent(name, artifactPath);
+      }
+      return result;
+    }, (key, data) -> batchedCount[0]++);
+    final long batchedTime = System.nanoTime() - startTime;
+
+    System.out.println(String.format("Per entry: %d ms for %d entries", perEntryTime / 1000000, perEntryCount[0]));
+    System.out.println(String.format("Batched: %d ms for %d entries", batchedTime / 1000000, batchedCount[0]));
+    Assert.assertEquals(count, ENTRIES_COUNT);
+    Assert.assertEquals(batchedCount[0], perEntryCount[0]);
+    Assert.assertEquals(artifactWalks[0], 1);
+    Assert.assertTrue(batchedTime < perEntryTime, "Batched metadata generation should be faster");
+  }
+
+  private void generatePerEntry(@NotNull final SymbolsCache symbolsCache,
+                                @NotNull final SymbolsKeyIndex keyIndex,
+                                @NotNull final SymbolsKeyFilter keyFilter,
+                                @NotNull final MetadataStorageWriter writer) throws Exception {
+    final Set<String> processedSymbols = new HashSet<>();
+    for (BuildSymbolsIndexProvider.SignatureIndexSource source : mySources) {
+      try (InputStream input = source.getInputStream()) {
+        PdbSignatureIndexUtil.read(input, false, indexEntry -> {
+          final String metadataKey = BuildSymbolsIndexProvider.getMetadataKey(indexEntry.getGuid(), indexEntry.getFileName());
+          if (!processedSymbols.add(metadataKey)) return;
+
+          String artifactPath = indexEntry.getArtifactPath();
+          if (artifactPath == null) {
+            for (String path : myArtifactPaths) {
+              if (path.endsWith("/" + indexEntry.getFileName())) {
+                artifactPath = path;
+                break;
+              }
+            }
+          }
+          final HashMap<String, String> data = new HashMap<>();
+          data.put(BuildSymbolsIndexProvider.SIGNATURE_KEY, indexEntry.getGuid());
+          data.put(BuildSymbolsIndexProvider.FILE_NAME_KEY, indexEntry.getFileName());
+          data.put(BuildSymbolsIndexProvider.ARTIFACT_PATH_KEY, artifactPath);
+          writer.addParameters(metadataKey, data);
+          keyIndex.put(metadataKey, BUILD_ID, artifactPath);
+          keyFilter.put(metadataKey);
+          symbolsCache.invalidate(BUILD_ID);
+        });
+      }
+    }
+  }
+
+  @NotNull
+  private static BuildSymbolsIndexProvider.SignatureIndexSource createSource(@NotNull final String path,
+                                                                            @NotNull final List<PdbSignatureIndexEntry> entries) throws Exception {
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    PdbSignatureIndexUtil.writeBinary(output, entries);
+    final byte[] content = output.toByteArray();
+    return new BuildSymbolsIndexProvider.SignatureIndexSource() {
+      @NotNull
+      public String getPath() {
+        return path;
+      }
+
+      @NotNull
+      public InputStream getInputStream() {
+        return new ByteArrayInputStream(content);
+      }
+    };
+  }
+}
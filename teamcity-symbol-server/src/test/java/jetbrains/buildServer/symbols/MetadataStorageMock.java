@@ -43,7 +43,7 @@ class MetadataStorageMock implements MetadataStorage {
   }
 
   public int getNumberOfEntries(@NotNull String s) {
-    return 0;
+    return myEntries.size();
   }
 
   @NotNull
@@ -53,7 +53,7 @@ class MetadataStorageMock implements MetadataStorage {
 
   @NotNull
   public Iterator<BuildMetadataEntry> getBuildEntry(long l, @NotNull String s) {
-    return myEntries.iterator();
+    return myEntries.stream().filter(buildMetadataEntry -> buildMetadataEntry.getBuildId() == l).iterator();
   }
 
   public boolean updateCache(long l, boolean b, @NotNull String s, @NotNull Action<MetadataStorageWriter> action) {
@@ -0,0 +1,169 @@
+package jetbrains.buildServer.symbols;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+public class PdbSignatureIndexUtilTest {
+
+  private static final String JDOM_INDEX = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                                           "<file-signs>\n" +
+                                           "  <file-sign-entry sign=\"B6F8E6822C014FD08C7581AEF2EEF97C1\" file=\"JetBrains.CommandLine.Symbols.pdb\" file-path=\"bin/JetBrains.CommandLine.Symbols.pdb\" />\n" +
+                                           "  <file-sign-entry sign=\"35B9C5035CE54DCF977E0B12B0A96DAAffffffff\" file=\"WindowsAzure.StorageExtensions.pdb\" />\n" +
+                                           "</file-signs>\n";
+
+  @Test
+  public void shouldReadIndexWrittenByJdom() throws Exception {
+    final Set<PdbSignatureIndexEntry> entries = PdbSignatureIndexUtil.read(toStream(JDOM_INDEX), true);
+
+    final Map<String, PdbSignatureIndexEntry> entriesByGuid = new HashMap<>();
+    for (PdbSignatureIndexEntry entry : entries) {
+      entriesByGuid.put(entry.getGuid(), entry);
+    }
+    Assert.assertEquals(entriesByGuid.size(), 2);
+    final PdbSignatureIndexEntry windowsEntry = entriesByGuid.get("b6f8e6822c014fd08c7581aef2eef97c");
+    Assert.assertEquals(windowsEntry.getFileName(), "JetBrains.CommandLine.Symbols.pdb");
+    Assert.assertEquals(windowsEntry.getArtifactPath(), "bin/JetBrains.CommandLine.Symbols.pdb");
+    final PdbSignatureIndexEntry portableEntry = entriesByGuid.get("35b9c5035ce54dcf977e0b12b0a96daa");
+    Assert.assertEquals(portableEntry.getFileName(), "WindowsAzure.StorageExtensions.pdb");
+    Assert.assertNull(portableEntry.getArtifactPath());
+  }
+
+  @Test
+  public void shouldVisitEntriesInFileOrder() throws Exception {
+    final List<String> guids = new ArrayList<>();
+
+    final int count = PdbSignatureIndexUtil.read(toStream(JDOM_INDEX), false, entry -> guids.add(entry.getGuid()));
+
+    Assert.assertEquals(count, 2);
+    Assert.assertEquals(guids, Arrays.asList("b6f8e6822c014fd08c7581aef2eef97c1", "35b9c5035ce54dcf977e0b12b0a96daaffffffff"));
+  }
+
+  @Test
+  public void shouldReadWrittenIndex() throws Exception {
+    final List<PdbSignatureIndexEntry> entries = Arrays.asList(
+      new PdbSignatureIndexEntry("guid1", "file1.pdb", "bin/<1>/\u041a\u043b\u0430\u0441\u0441.pdb"),
+      new PdbSignatureIndexEntry("guid2", "file \"2\".pdb", null));
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    PdbSignatureIndexUtil.write(output, entries);
+
+    final List<PdbSignatureIndexEntry> result = new ArrayList<>();
+    PdbSignatureIndexUtil.read(new ByteArrayInputStream(output.toByteArray()), false, result::add);
+    Assert.assertEquals(result.size(), 2);
+    Assert.assertEquals(result.get(0).getGuid(), "guid1");
+    Assert.assertEquals(result.get(0).getFileName(), "file1.pdb");
+    Assert.assertEquals(result.get(0).getArtifactPath(), "bin/<1>/\u041a\u043b\u0430\u0441\u0441.pdb");
+    Assert.assertEquals(result.get(1).getGuid(), "guid2");
+    Assert.assertEquals(result.get(1).getFileName(), "file \"2\".pdb");
+    Assert.assertNull(result.get(1).getArtifactPath());
+  }
+
+  @Test(expectedExceptions = IOException.class)
+  public void shouldFailOnEntryWithoutSignature() throws Exception {
+    PdbSignatureIndexUtil.read(toStream("<file-signs><file-sign-entry file=\"file.pdb\"/></file-signs>"), true);
+  }
+
+  @Test(expectedExceptions = IOException.class)
+  public void shouldNotResolveExternalEntities() throws Exception {
+    PdbSignatureIndexUtil.read(toStream("<?xml version=\"1.0\"?>\n" +
+                                        "<!DOCTYPE file-signs [<!ENTITY file SYSTEM \"file:///etc/passwd\">]>\n" +
+                                        "<file-signs><file-sign-entry sign=\"guid\" file=\"&file;\"/></file-signs>"), true);
+  }
+
+  @Test
+  public void shouldReadWrittenBinaryIndex() throws Exception {
+    final List<PdbSignatureIndexEntry> entries = Arrays.asList(
+      new PdbSignatureIndexEntry("b6f8e6822c014fd08c7581aef2eef97c", "Symbols.pdb", "bin/Release/Symbols.pdb"),
+      new PdbSignatureIndexEntry("b6f8e6822c014fd08c7581aef2eef97c", "Symbols.pdb", "Symbols.pdb"),
+      new PdbSignatureIndexEntry("5473258d8000", "\u041a\u043b\u0430\u0441\u0441.dll", "bin/Release/other.dll"),
+      new PdbSignatureIndexEntry("B6F8E6822C014FD08C7581AEF2EEF97C", "Upper.pdb", null));
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    PdbSignatureIndexUtil.writeBinary(output, entries);
+
+    final List<PdbSignatureIndexEntry> result = new ArrayList<>();
+    final int count = PdbSignatureIndexUtil.read(new ByteArrayInputStream(output.toByteArray()), false, result::add);
+    Assert.assertEquals(count, entries.size());
+    for (int i = 0; i < entries.size(); i++) {
+      Assert.assertEquals(result.get(i).getGuid(), entries.get(i).getGuid().toLowerCase());
+      Assert.assertEquals(result.get(i).getFileName(), entries.get(i).getFileName());
+      Assert.assertEquals(result.get(i).getArtifactPath(), entries.get(i).getArtifactPath());
+    }
+  }
+
+  @Test
+  public void shouldFailOnCorruptedBinaryIndex() throws Exception {
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    PdbSignatureIndexUtil.writeBinary(output, Collections.singletonList(
+      new PdbSignatureIndexEntry("b6f8e6822c014fd08c7581aef2eef97c", "Symbols.pdb", "bin/Symbols.pdb")));
+    final byte[] content = output.toByteArray();
+    content[content.length - 10] ^= 1;
+
+    try {
+      PdbSignatureIndexUtil.read(new ByteArrayInputStream(content), false, entry -> {});
+      Assert.fail("Corrupted index should not be read");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void shouldVerifyChecksumAfterLastEntry() throws Exception {
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    PdbSignatureIndexUtil.writeBinary(output, Collections.singletonList(
+      new PdbSignatureIndexEntry("b6f8e6822c014fd08c7581aef2eef97c", "Symbols.pdb", "bin/Symbols.pdb")));
+    final byte[] content = output.toByteArray();
+    content[content.length - 1] ^= 1;
+
+    final List<PdbSignatureIndexEntry> result = new ArrayList<>();
+    try {
+      PdbSignatureIndexUtil.read(new ByteArrayInputStream(content), false, result::add);
+      Assert.fail("Corrupted index should not be read");
+    } catch (IOException e) {
+      Assert.assertEquals(e.getMessage(), "Signature index checksum mismatch");
+    }
+    Assert.assertEquals(result.size(), 1);
+  }
+
+  @Test(expectedExceptions = IOException.class)
+  public void shouldFailOnTruncatedBinaryIndex() throws Exception {
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    PdbSignatureIndexUtil.writeBinary(output, Collections.singletonList(
+      new PdbSignatureIndexEntry("b6f8e6822c014fd08c7581aef2eef97c", "Symbols.pdb", "bin/Symbols.pdb")));
+
+    PdbSignatureIndexUtil.read(new ByteArrayInputStream(Arrays.copyOf(output.toByteArray(), output.size() - 2)), false, entry -> {});
+  }
+
+  @Test
+  public void shouldStreamLargeBinaryIndex() throws Exception {
+    final List<PdbSignatureIndexEntry> entries = new ArrayList<>();
+    for (int i = 0; i < 50000; i++) {
+      entries.add(new PdbSignatureIndexEntry(String.format("%032x", i * 7919L), "Symbols" + i + ".pdb", "bin/" + i + "/Symbols" + i + ".pdb"));
+    }
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    PdbSignatureIndexUtil.writeBinary(output, entries);
+
+    // the input returns small chunks, so the checksum trailer is read in pieces
+    final InputStream input = new FilterInputStream(new ByteArrayInputStream(output.toByteArray())) {
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        return super.read(b, off, Math.min(len, 3));
+      }
+    };
+    final List<PdbSignatureIndexEntry> result = new ArrayList<>();
+    Assert.assertEquals(PdbSignatureIndexUtil.read(input, false, result::add), entries.size());
+    Assert.assertEquals(result.get(49999).getArtifactPath(), "bin/49999/Symbols49999.pdb");
+  }
+
+  private static ByteArrayInputStream toStream(String content) {
+    return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,126 @@
+package jetbrains.buildServer.symbols;
+
+import jetbrains.buildServer.util.XmlUtil;
+import org.jdom.Document;
+import org.jdom.Element;
+import org.jdom.input.SAXBuilder;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Compares reading and writing of large signature index files with JDOM document trees, as it was done before,
+ * with StAX streams and in the compact binary format.
+ */
+@Test(groups = "benchmark")
+public class SignatureIndexBenchmark {
+
+  private static final int ENTRIES_COUNT = 100000;
+  private static final int ITERATIONS = 5;
+
+  public void compareReadAndWrite() throws Exception {
+    final List<PdbSignatureIndexEntry> entries = createEntries();
+
+    long jdomWriteTime = Long.MAX_VALUE;
+    long jdomReadTime = Long.MAX_VALUE;
+    long streamWriteTime = Long.MAX_VALUE;
+    long streamReadTime = Long.MAX_VALUE;
+    for (int i = 0; i < ITERATIONS; i++) {
+      long startTime = System.nanoTime();
+      final byte[] jdomIndex = writeWithJdom(entries);
+      jdomWriteTime = Math.min(jdomWriteTime, System.nanoTime() - startTime);
+
+      startTime = System.nanoTime();
+      final int jdomCount = readWithJdom(jdomIndex);
+      jdomReadTime = Math.min(jdomReadTime, System.nanoTime() - startTime);
+
+      startTime = System.nanoTime();
+      final ByteArrayOutputStream output = new ByteArrayOutputStream();
+      PdbSignatureIndexUtil.write(output, entries);
+      streamWriteTime = Math.min(streamWriteTime, System.nanoTime() - startTime);
+
+      startTime = System.nanoTime();
+      final int[] streamCount = new int[1];
+      PdbSignatureIndexUtil.read(new ByteArrayInputStream(jdomIndex), false, entry -> streamCount[0]++);
+      streamReadTime = Math.min(streamReadTime, System.nanoTime() - startTime);
+
+      Assert.assertEquals(jdomCount, ENTRIES_COUNT);
+      Assert.assertEquals(streamCount[0], ENTRIES_COUNT);
+    }
+
+    System.out.println(String.format("JDOM: write %d ms, read %d ms for %d entries", jdomWriteTime / 1000000, jdomReadTime / 1000000, ENTRIES_COUNT));
+    System.out.println(String.format("StAX: write %d ms, read %d ms for %d entries", streamWriteTime / 1000000, streamReadTime / 1000000, ENTRIES_COUNT));
+    Assert.assertTrue(streamReadTime < jdomReadTime, "Streaming reader should be faster than building JDOM document");
+  }
+
+  public void compareBinaryFormat() throws Exception {
+    final List<PdbSignatureIndexEntry> entries = createEntries();
+    final ByteArrayOutputStream xmlOutput = new ByteArrayOutputStream();
+    PdbSignatureIndexUtil.write(xmlOutput, entries);
+    final byte[] xmlIndex = xmlOutput.toByteArray();
+    final ByteArrayOutputStream binaryOutput = new ByteArrayOutputStream();
+    PdbSignatureIndexUtil.writeBinary(binaryOutput, entries);
+    final byte[] binaryIndex = binaryOutput.toByteArray();
+
+    long xmlReadTime = Long.MAX_VALUE;
+    long binaryReadTime = Long.MAX_VALUE;
+    for (int i = 0; i < ITERATIONS; i++) {
+      long startTime = System.nanoTime();
+      final int xmlCount = PdbSignatureIndexUtil.read(new ByteArrayInputStream(xmlIndex), false, entry -> { });
+      xmlReadTime = Math.min(xmlReadTime, System.nanoTime() - startTime);
+
+      startTime = System.nanoTime();
+      final int binaryCount = PdbSignatureIndexUtil.read(new ByteArrayInputStream(binaryIndex), false, entry -> { });
+      binaryReadTime = Math.min(binaryReadTime, System.nanoTime() - startTime);
+
+      Assert.assertEquals(xmlCount, ENTRIES_COUNT);
+      Assert.assertEquals(binaryCount, ENTRIES_COUNT);
+    }
+
+    System.out.println(String.format("XML: %d bytes, read %d ms for %d entries", xmlIndex.length, xmlReadTime / 1000000, ENTRIES_COUNT));
+    System.out.println(String.format("Binary: %d bytes, read %d ms for %d entries", binaryIndex.length, binaryReadTime / 1000000, ENTRIES_COUNT));
+    Assert.assertTrue(binaryIndex.length * 3 < xmlIndex.length, "Binary index should be much smaller than XML one");
+    Assert.assertTrue(binaryReadTime < xmlReadTime, "Binary index should be read faster than XML one");
+  }
+
+  private static List<PdbSignatureIndexEntry> createEntries() {
+    final Random random = new Random(42);
+    final List<PdbSignatureIndexEntry> entries = new ArrayList<>();
+    for (int i = 0; i < ENTRIES_COUNT; i++) {
+      final String fileName = "Assembly" + i + ".pdb";
+      final String guid = new UUID(random.nextLong(), random.nextLong()).toString().replace("-", "");
+      entries.add(new PdbSignatureIndexEntry(guid, fileName, "bin/Release/" + fileName));
+    }
+    return entries;
+  }
+
+  private static byte[] writeWithJdom(final List<PdbSignatureIndexEntry> entries) throws Exception {
+    final Element root = new Element("file-signs");
+    for (PdbSignatureIndexEntry indexEntry : entries) {
+      final Element entry = new Element("file-sign-entry");
+      entry.setAttribute("sign", indexEntry.getGuid());
+      entry.setAttribute("file", indexEntry.getFileName());
+      entry.setAttribute("file-path", indexEntry.getArtifactPath());
+      root.addContent(entry);
+    }
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    XmlUtil.saveDocument(new Document(root), output);
+    return output.toByteArray();
+  }
+
+  private static int readWithJdom(final byte[] index) throws Exception {
+    final Document document = new SAXBuilder().build(new ByteArrayInputStream(index));
+    final List<PdbSignatureIndexEntry> result = new ArrayList<>();
+    for (Object child : document.getRootElement().getChildren()) {
+      final Element element = (Element) child;
+      result.add(new PdbSignatureIndexEntry(element.getAttributeValue("sign"), element.getAttributeValue("file"), element.getAttributeValue("file-path")));
+    }
+    return result.size();
+  }
+}
@@ -0,0 +1,122 @@
+package jetbrains.buildServer.symbols;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import jetbrains.buildServer.serverSide.metadata.BuildMetadataEntry;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Compares heap footprint of cached build entries: the map of storage entries with
+ * the separate key to build id map used before, and the compact representation.
+ */
+@Test(groups = "benchmark")
+public class SymbolsCacheFootprintBenchmark {
+
+  private static final int BUILDS_COUNT = 20;
+  private static final int ENTRIES_PER_BUILD = 10000;
+
+  public void compareFootprint() {
+    final List<List<BuildMetadataEntry>> builds = createBuilds();
+
+    final long mapFootprint = measure(() -> {
+      final List<Map<String, BuildMetadataEntry>> cachedBuilds = new ArrayList<>();
+      final Map<String, Long> keyToBuildId = new ConcurrentHashMap<>();
+      for (List<BuildMetadataEntry> entries : builds) {
+        final Map<String, BuildMetadataEntry> buildEntries = new HashMap<>();
+        for (BuildMetadataEntry entry : entries) {
+          // the storage returns entries with own metadata maps and strings
+          final BuildMetadataEntry copy = copyEntry(entry);
+          buildEntries.put(copy.getKey(), copy);
+          keyToBuildId.put(copy.getKey(), copy.getBuildId());
+        }
+        cachedBuilds.add(buildEntries);
+      }
+      return new Object[]{cachedBuilds, keyToBuildId};
+    });
+
+    final long compactFootprint = measure(() -> {
+      final List<CompactBuildEntries> cachedBuilds = new ArrayList<>();
+      final KeyFingerprintMap keyToBuildId = new KeyFingerprintMap();
+      for (List<BuildMetadataEntry> entries : builds) {
+        final List<BuildMetadataEntry> copies = new ArrayList<>();
+        for (BuildMetadataEntry entry : entries) {
+          copies.add(copyEntry(entry));
+        }
+        final CompactBuildEntries buildEntries = new CompactBuildEntries(entries.get(0).getBuildId(), copies);
+        for (long fingerprint : buildEntries.getFingerprints()) {
+          keyToBuildId.put(fingerprint, entries.get(0).getBuildId());
+        }
+        cachedBuilds.add(buildEntries);
+      }
+      return new Object[]{cachedBuilds, keyToBuildId};
+    });
+
+    final int entriesCount = BUILDS_COUNT * ENTRIES_PER_BUILD;
+    System.out.println(String.format("Map of entries: %d bytes, %d bytes per entry", mapFootprint, mapFootprint / entriesCount));
+    System.out.println(String.format("Compact entries: %d bytes, %d bytes per entry", compactFootprint, compactFootprint / entriesCount));
+    Assert.assertTrue(compactFootprint * 2 < mapFootprint, "Compact representation should take less than a half of memory");
+  }
+
+  private static List<List<BuildMetadataEntry>> createBuilds() {
+    final Random random = new Random(42);
+    final List<List<BuildMetadataEntry>> builds = new ArrayList<>();
+    for (int build = 0; build < BUILDS_COUNT; build++) {
+      final List<BuildMetadataEntry> entries = new ArrayList<>();
+      for (int i = 0; i < ENTRIES_PER_BUILD; i++) {
+        // same files are produced by every build with new signatures
+        final String guid = String.format("%016x%016x", random.nextLong(), random.nextLong());
+        final String fileName = "Assembly" + i + ".pdb";
+        entries.add(new SymbolsMetadataEntry(BuildSymbolsIndexProvider.getMetadataKey(guid, fileName), build + 1, "bin/Release/" + fileName));
+      }
+      builds.add(entries);
+    }
+    return builds;
+  }
+
+  private static BuildMetadataEntry copyEntry(final BuildMetadataEntry entry) {
+    final Map<String, String> metadata = new HashMap<>();
+    for (Map.Entry<String, String> item : entry.getMetadata().entrySet()) {
+      metadata.put(new String(item.getKey()), new String(item.getValue()));
+    }
+    final String key = new String(entry.getKey());
+    final long buildId = entry.getBuildId();
+    return new BuildMetadataEntry() {
+      public long getBuildId() {
+        return buildId;
+      }
+
+      public String getKey() {
+        return key;
+      }
+
+      public Map<String, String> getMetadata() {
+        return metadata;
+      }
+    };
+  }
+
+  private static long measure(final Allocation allocation) {
+    final long before = getUsedMemory();
+    final Object result = allocation.allocate();
+    final long after = getUsedMemory();
+    Assert.assertNotNull(result);
+    return after - before;
+  }
+
+  private static long getUsedMemory() {
+    final Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 5; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  private interface Allocation {
+    Object allocate();
+  }
+}
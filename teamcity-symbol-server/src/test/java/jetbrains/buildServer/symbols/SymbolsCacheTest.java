@@ -5,34 +5,35 @@ package jetbrains.buildServer.symbols;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import jetbrains.buildServer.serverSide.impl.BaseServerTestCase;
 import jetbrains.buildServer.serverSide.metadata.BuildMetadataEntry;
 import org.jmock.Expectations;
 import org.jmock.Mockery;
+import org.jmock.Sequence;
 import org.testng.Assert;
+import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
 public class SymbolsCacheTest extends BaseServerTestCase {
+
   @Test
   public void shouldNotReadCachedEntryAgainFromSource() throws TimeoutException, InterruptedException {
     //Given
-    SymbolsCache symbolsCache = new SymbolsCache(myFixture.getEventDispatcher());
+    SymbolsCache symbolsCache = createSymbolsCache();
     Mockery m = new Mockery();
 
-    BuildMetadataEntry entry = m.mock(BuildMetadataEntry.class);
-    List<BuildMetadataEntry> entryList = Collections.singletonList(entry);
     MetadataSource metadataSource = m.mock(MetadataSource.class);
     String key = "key";
     Long buildId = 123L;
+    BuildMetadataEntry entry = new SymbolsMetadataEntry(key, buildId, "file.pdb");
+    List<BuildMetadataEntry> entryList = Collections.singletonList(entry);
 
     m.checking(new Expectations(){{
-      oneOf(entry).getBuildId();
-      will(returnValue(buildId));
-
-      one(entry).getKey();
-      will(returnValue(key));
-
       one(metadataSource).getBuildIdByEntryKey(key);
       will(returnValue(buildId));
 
@@ -53,7 +54,7 @@ public class SymbolsCacheTest extends BaseServerTestCase {
   @Test
   public void shouldSearchOnceForNonExistentKeys() throws TimeoutException, InterruptedException {
     // Given
-    SymbolsCache symbolsCache = new SymbolsCache(myFixture.getEventDispatcher());
+    SymbolsCache symbolsCache = createSymbolsCache();
     Mockery m = new Mockery();
 
     MetadataSource metadataSource = m.mock(MetadataSource.class);
@@ -77,22 +78,16 @@ public class SymbolsCacheTest extends BaseServerTestCase {
   @Test
   public void shouldReadEntriesAfterInvalidate() throws TimeoutException, InterruptedException {
     // Given
-    SymbolsCache symbolsCache = new SymbolsCache(myFixture.getEventDispatcher());
+    SymbolsCache symbolsCache = createSymbolsCache();
     Mockery m = new Mockery();
 
-    BuildMetadataEntry entry = m.mock(BuildMetadataEntry.class);
-    List<BuildMetadataEntry> entryList = Collections.singletonList(entry);
     MetadataSource metadataSource = m.mock(MetadataSource.class);
     String key = "key";
     Long buildId = 123L;
+    BuildMetadataEntry entry = new SymbolsMetadataEntry(key, buildId, "file.pdb");
+    List<BuildMetadataEntry> entryList = Collections.singletonList(entry);
 
     m.checking(new Expectations(){{
-      exactly(2).of(entry).getBuildId();
-      will(returnValue(buildId));
-
-      exactly(2).of(entry).getKey();
-      will(returnValue(key));
-
       exactly(2).of(metadataSource).getBuildIdByEntryKey(key);
       will(returnValue(buildId));
 
@@ -116,32 +111,214 @@ public class SymbolsCacheTest extends BaseServerTestCase {
   @Test
   public void shouldReadWholeBuild() throws TimeoutException, InterruptedException {
     // Given
-    SymbolsCache symbolsCache = new SymbolsCache(myFixture.getEventDispatcher());
+    SymbolsCache symbolsCache = createSymbolsCache();
     Mockery m = new Mockery();
 
+    Long buildId = 123L;
     String key = "key";
-    BuildMetadataEntry entry = m.mock(BuildMetadataEntry.class, key);
+    BuildMetadataEntry entry = new SymbolsMetadataEntry(key, buildId, "file.pdb");
 
     String key2 = "key2";
-    BuildMetadataEntry entry2 = m.mock(BuildMetadataEntry.class, key2);
+    BuildMetadataEntry entry2 = new SymbolsMetadataEntry(key2, buildId, "file2.pdb");
     List<BuildMetadataEntry> entryList = Arrays.asList(entry, entry2);
 
     MetadataSource metadataSource = m.mock(MetadataSource.class);
-    Long buildId = 123L;
 
     m.checking(new Expectations(){{
-      one(entry).getBuildId();
+      one(metadataSource).getBuildIdByEntryKey(key);
       will(returnValue(buildId));
 
-      one(entry).getKey();
-      will(returnValue(key));
+      one(metadataSource).getEntriesByBuildId(buildId);
+      will(returnValue(entryList));
+    }});
+
+    symbolsCache.getEntry(key, metadataSource);
+
+    // When
+    BuildMetadataEntry cacheEntry2 = symbolsCache.getEntry(key2, metadataSource);
+
+    // Then
+    Assert.assertEquals(cacheEntry2, entry2);
+  }
+
+  @DataProvider(name = "keyIndexReady")
+  public static Object[][] keyIndexReady() {
+    return new Object[][]{{false}, {true}};
+  }
+
+  @Test(dataProvider = "keyIndexReady")
+  public void shouldCoalesceConcurrentSearchesForSameKey(boolean keyIndexReady) throws Exception {
+    // Given
+    SymbolsKeyIndex keyIndex = createKeyIndex();
+    if (keyIndexReady) keyIndex.rebuild();
+    SymbolsCache symbolsCache = createSymbolsCache(keyIndex);
+    String key = "key";
+    AtomicInteger searchCount = new AtomicInteger();
+    CountDownLatch searchStarted = new CountDownLatch(1);
+    CountDownLatch searchReleased = new CountDownLatch(1);
+
+    MetadataSource metadataSource = new MetadataSource() {
+      @Override
+      public List<BuildMetadataEntry> getEntriesByBuildId(Long buildId) {
+        return Collections.emptyList();
+      }
+
+      @Override
+      public Long getBuildIdByEntryKey(String key) throws InterruptedException {
+        searchCount.incrementAndGet();
+        searchStarted.countDown();
+        searchReleased.await();
+        return null;
+      }
+    };
+
+    // When
+    Thread first = new Thread(() -> symbolsCache.getEntry(key, metadataSource));
+    first.start();
+    Assert.assertTrue(searchStarted.await(10, TimeUnit.SECONDS));
+
+    Thread second = new Thread(() -> symbolsCache.getEntry(key, metadataSource));
+    second.start();
+    long deadline = System.currentTimeMillis() + 10000;
+    while (symbolsCache.getCoalescedKeyLookupsCount() == 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+
+    searchReleased.countDown();
+    first.join(10000);
+    second.join(10000);
+
+    // Then
+    Assert.assertEquals(searchCount.get(), 1);
+    Assert.assertEquals(symbolsCache.getKeyLookupsCount(), 2);
+    Assert.assertEquals(symbolsCache.getCoalescedKeyLookupsCount(), 1);
+  }
+
+  @Test
+  public void shouldReleaseWaitersIfConcurrentSearchFailsWithError() throws Exception {
+    // Given
+    SymbolsCache symbolsCache = createSymbolsCache();
+    String key = "key";
+    CountDownLatch searchStarted = new CountDownLatch(1);
+    CountDownLatch searchReleased = new CountDownLatch(1);
+
+    MetadataSource metadataSource = new MetadataSource() {
+      @Override
+      public List<BuildMetadataEntry> getEntriesByBuildId(Long buildId) {
+        return Collections.emptyList();
+      }
+
+      @Override
+      public Long getBuildIdByEntryKey(String key) throws InterruptedException {
+        searchStarted.countDown();
+        searchReleased.await();
+        throw new Error("Metadata storage failure");
+      }
+    };
+
+    // When
+    Thread first = new Thread(() -> {
+      try {
+        symbolsCache.getEntry(key, metadataSource);
+      } catch (Error ignored) {
+      }
+    });
+    first.start();
+    Assert.assertTrue(searchStarted.await(10, TimeUnit.SECONDS));
+
+    AtomicReference<BuildMetadataEntry> secondResult = new AtomicReference<>(new SymbolsMetadataEntry(key, 1, null));
+    Thread second = new Thread(() -> secondResult.set(symbolsCache.getEntry(key, metadataSource)));
+    second.start();
+    long deadline = System.currentTimeMillis() + 10000;
+    while (symbolsCache.getCoalescedKeyLookupsCount() == 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+
+    searchReleased.countDown();
+    first.join(10000);
+    second.join(10000);
+
+    // Then
+    Assert.assertEquals(symbolsCache.getCoalescedKeyLookupsCount(), 1);
+    Assert.assertFalse(second.isAlive());
+    Assert.assertNull(secondResult.get());
+  }
+
+  @Test
+  public void shouldFindEntriesWithGuidKeys() throws TimeoutException, InterruptedException {
+    // Given
+    SymbolsCache symbolsCache = createSymbolsCache();
+    Mockery m = new Mockery();
 
-      one(entry2).getKey();
-      will(returnValue(key2));
+    Long buildId = 123L;
+    String key = BuildSymbolsIndexProvider.getMetadataKey("8ef4e863187c45e78f4632152cc82feb", "secur32.pdb");
+    BuildMetadataEntry entry = new SymbolsMetadataEntry(key, buildId, "bin/secur32.pdb");
+    String key2 = BuildSymbolsIndexProvider.getMetadataKey("00000000187c45e78f4632152cc82fe0", "secur32.pdb");
+    BuildMetadataEntry entry2 = new SymbolsMetadataEntry(key2, buildId, "obj/secur32.pdb");
+    List<BuildMetadataEntry> entryList = Arrays.asList(entry, entry2);
+
+    MetadataSource metadataSource = m.mock(MetadataSource.class);
 
-      one(entry2).getBuildId();
+    m.checking(new Expectations(){{
+      one(metadataSource).getBuildIdByEntryKey(key);
       will(returnValue(buildId));
 
+      one(metadataSource).getEntriesByBuildId(buildId);
+      will(returnValue(entryList));
+    }});
+
+    // When
+    BuildMetadataEntry cacheEntry = symbolsCache.getEntry(key, metadataSource);
+    BuildMetadataEntry cacheEntry2 = symbolsCache.getEntry(key2, metadataSource);
+
+    // Then
+    Assert.assertEquals(cacheEntry, entry);
+    Assert.assertEquals(cacheEntry2, entry2);
+    Assert.assertEquals(cacheEntry2.getMetadata().get(BuildSymbolsIndexProvider.ARTIFACT_PATH_KEY), "obj/secur32.pdb");
+    Assert.assertEquals(cacheEntry2.getMetadata().get(BuildSymbolsIndexProvider.FILE_NAME_KEY), "secur32.pdb");
+  }
+
+  @Test
+  public void shouldResolveIndexedKeysWithoutLoadingBuild() throws TimeoutException, InterruptedException {
+    // Given
+    SymbolsKeyIndex keyIndex = createKeyIndex();
+    keyIndex.rebuild();
+    SymbolsCache symbolsCache = createSymbolsCache(keyIndex);
+    Mockery m = new Mockery();
+
+    Long buildId = 123L;
+    String key = "key";
+    String key2 = "key2";
+    keyIndex.put(key, buildId, "file.pdb");
+    keyIndex.put(key2, buildId, "file2.pdb");
+    MetadataSource metadataSource = m.mock(MetadataSource.class);
+
+    // When
+    BuildMetadataEntry cacheEntry = symbolsCache.getEntry(key, metadataSource);
+    BuildMetadataEntry cacheEntry2 = symbolsCache.getEntry(key2, metadataSource);
+
+    // Then
+    Assert.assertEquals(cacheEntry, new SymbolsMetadataEntry(key, buildId, "file.pdb"));
+    Assert.assertEquals(cacheEntry2, new SymbolsMetadataEntry(key2, buildId, "file2.pdb"));
+    Assert.assertEquals(symbolsCache.getCachedBuildsCount(), 0);
+    Assert.assertEquals(symbolsCache.getKeyLookupsCount(), 0);
+    m.assertIsSatisfied();
+  }
+
+  @Test
+  public void shouldRecordCachedBuildsStats() throws TimeoutException, InterruptedException {
+    // Given
+    SymbolsCache symbolsCache = createSymbolsCache();
+    Mockery m = new Mockery();
+
+    Long buildId = 123L;
+    String key = "key";
+    String key2 = "key2";
+    List<BuildMetadataEntry> entryList = Arrays.asList(new SymbolsMetadataEntry(key, buildId, "file.pdb"),
+                                                       new SymbolsMetadataEntry(key2, buildId, "file2.pdb"));
+    MetadataSource metadataSource = m.mock(MetadataSource.class);
+
+    m.checking(new Expectations(){{
       one(metadataSource).getBuildIdByEntryKey(key);
       will(returnValue(buildId));
 
@@ -149,12 +326,164 @@ public class SymbolsCacheTest extends BaseServerTestCase {
       will(returnValue(entryList));
     }});
 
+    // When
     symbolsCache.getEntry(key, metadataSource);
+    symbolsCache.getEntry(key2, metadataSource);
+
+    // Then
+    Assert.assertEquals(symbolsCache.getCachedBuildsCount(), 1);
+    Assert.assertEquals(symbolsCache.getCachedBuildsStats().loadCount(), 1);
+    Assert.assertEquals(symbolsCache.getCachedBuildsStats().hitCount(), 1);
+    Assert.assertTrue(symbolsCache.getCachedBuildsWeight() > 0);
+
+    symbolsCache.invalidate(buildId);
+    Assert.assertEquals(symbolsCache.getCachedBuildsWeight(), 0);
+  }
+
+  @Test
+  public void shouldFallBackToMetadataStorageIfIndexedBuildWasRemoved() throws TimeoutException, InterruptedException {
+    // Given
+    SymbolsKeyIndex keyIndex = createKeyIndex();
+    keyIndex.rebuild();
+    SymbolsCache symbolsCache = createSymbolsCache(keyIndex);
+    Mockery m = new Mockery();
+
+    Long removedBuildId = 124L;
+    Long buildId = 123L;
+    String key = "key";
+    BuildMetadataEntry entry = new SymbolsMetadataEntry(key, buildId, "file.pdb");
+    keyIndex.put(key, removedBuildId, "file.pdb");
+    MetadataSource metadataSource = m.mock(MetadataSource.class);
+
+    m.checking(new Expectations(){{
+      one(metadataSource).getBuildIdByEntryKey(key);
+      will(returnValue(buildId));
+
+      one(metadataSource).getEntriesByBuildId(buildId);
+      will(returnValue(Collections.singletonList(entry)));
+    }});
 
     // When
-    BuildMetadataEntry cacheEntry2 = symbolsCache.getEntry(key2, metadataSource);
+    BuildMetadataEntry removedEntry = symbolsCache.getEntry(key, metadataSource);
+    Assert.assertNotNull(removedEntry);
+    Assert.assertEquals(removedEntry.getBuildId(), removedBuildId.longValue());
+    symbolsCache.invalidateEntry(removedEntry);
+    BuildMetadataEntry cacheEntry = symbolsCache.getEntry(key, metadataSource);
 
     // Then
-    Assert.assertEquals(cacheEntry2, entry2);
+    Assert.assertEquals(cacheEntry, entry);
+    BuildMetadataEntry indexedEntry = keyIndex.findEntry(key);
+    Assert.assertNotNull(indexedEntry);
+    Assert.assertEquals(indexedEntry.getBuildId(), buildId.longValue());
+    m.assertIsSatisfied();
+  }
+
+  @Test
+  public void shouldReloadBuildCachedBeforeItsMetadataWasStored() throws Exception {
+    // Given
+    SymbolsCache symbolsCache = createSymbolsCache();
+    Mockery m = new Mockery();
+    Sequence sequence = m.sequence("metadata");
+
+    Long buildId = 123L;
+    String key = "key";
+    BuildMetadataEntry entry = new SymbolsMetadataEntry(key, buildId, "file.pdb");
+    MetadataSource metadataSource = m.mock(MetadataSource.class);
+
+    m.checking(new Expectations(){{
+      one(metadataSource).getEntriesByBuildId(buildId);
+      will(returnValue(Collections.emptyList()));
+      inSequence(sequence);
+
+      one(metadataSource).getBuildIdByEntryKey(key);
+      will(returnValue(buildId));
+      inSequence(sequence);
+
+      one(metadataSource).getEntriesByBuildId(buildId);
+      will(returnValue(Collections.singletonList(entry)));
+      inSequence(sequence);
+    }});
+    // the build is loaded by a concurrent request before its metadata is committed
+    Assert.assertFalse(symbolsCache.preloadBuild(buildId, metadataSource));
+
+    // When
+    BuildMetadataEntry cacheEntry = symbolsCache.getEntry(key, metadataSource);
+
+    // Then
+    Assert.assertEquals(cacheEntry, entry);
+    Assert.assertFalse(symbolsCache.isKnownMissing(key));
+    m.assertIsSatisfied();
+  }
+
+  @Test
+  public void shouldIndexKeysFoundInMetadataStorage() throws TimeoutException, InterruptedException {
+    // Given
+    SymbolsKeyIndex keyIndex = createKeyIndex();
+    keyIndex.rebuild();
+    SymbolsCache symbolsCache = createSymbolsCache(keyIndex);
+    Mockery m = new Mockery();
+
+    Long buildId = 123L;
+    String key = "key";
+    BuildMetadataEntry entry = new SymbolsMetadataEntry(key, buildId, "file.pdb");
+    MetadataSource metadataSource = m.mock(MetadataSource.class);
+
+    m.checking(new Expectations(){{
+      one(metadataSource).getBuildIdByEntryKey(key);
+      will(returnValue(buildId));
+
+      one(metadataSource).getEntriesByBuildId(buildId);
+      will(returnValue(Collections.singletonList(entry)));
+    }});
+
+    // When
+    BuildMetadataEntry cacheEntry = symbolsCache.getEntry(key, metadataSource);
+
+    // Then
+    Assert.assertEquals(cacheEntry, entry);
+    BuildMetadataEntry indexedEntry = keyIndex.findEntry(key);
+    Assert.assertNotNull(indexedEntry);
+    Assert.assertEquals(indexedEntry.getBuildId(), buildId.longValue());
+    Assert.assertEquals(indexedEntry.getMetadata().get(BuildSymbolsIndexProvider.ARTIFACT_PATH_KEY), "file.pdb");
+  }
+
+  @Test
+  public void shouldReportMissedKeysUntilTheyAreIndexed() throws TimeoutException, InterruptedException {
+    // Given
+    SymbolsKeyIndex keyIndex = createKeyIndex();
+    keyIndex.rebuild();
+    SymbolsCache symbolsCache = createSymbolsCache(keyIndex);
+    Mockery m = new Mockery();
+
+    String key = "key";
+    MetadataSource metadataSource = m.mock(MetadataSource.class);
+
+    m.checking(new Expectations(){{
+      one(metadataSource).getBuildIdByEntryKey(key);
+      will(returnValue(null));
+    }});
+    Assert.assertFalse(symbolsCache.isKnownMissing(key));
+
+    // When
+    Assert.assertNull(symbolsCache.getEntry(key, metadataSource));
+
+    // Then
+    Assert.assertTrue(symbolsCache.isKnownMissing(key));
+    keyIndex.put(key, 123L, "file.pdb");
+    Assert.assertFalse(symbolsCache.isKnownMissing(key));
+    m.assertIsSatisfied();
+  }
+
+  private SymbolsCache createSymbolsCache() {
+    return createSymbolsCache(createKeyIndex());
+  }
+
+  private SymbolsCache createSymbolsCache(SymbolsKeyIndex keyIndex) {
+    final SymbolsKeyFilter keyFilter = new SymbolsKeyFilter(new MetadataStorageMock(), myFixture.getEventDispatcher());
+    return new SymbolsCache(myFixture.getEventDispatcher(), keyIndex, keyFilter);
+  }
+
+  private SymbolsKeyIndex createKeyIndex() {
+    return new SymbolsKeyIndex(myFixture.getServerPaths(), new MetadataStorageMock(), myFixture.getEventDispatcher());
   }
 }
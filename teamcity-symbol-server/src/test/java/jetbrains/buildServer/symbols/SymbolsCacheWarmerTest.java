@@ -0,0 +1,62 @@
+package jetbrains.buildServer.symbols;
+
+import java.util.Collections;
+import jetbrains.buildServer.serverSide.RunningBuildEx;
+import jetbrains.buildServer.serverSide.impl.BaseServerTestCase;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class SymbolsCacheWarmerTest extends BaseServerTestCase {
+
+  @Test
+  public void shouldPreloadRecentBuildsWithSymbols() {
+    // Given
+    MetadataStorageMock storage = new MetadataStorageMock();
+    SymbolsKeyIndex keyIndex = new SymbolsKeyIndex(myFixture.getServerPaths(), storage, myFixture.getEventDispatcher());
+    SymbolsKeyFilter keyFilter = new SymbolsKeyFilter(storage, myFixture.getEventDispatcher());
+    SymbolsCache symbolsCache = new SymbolsCache(myFixture.getEventDispatcher(), keyIndex, keyFilter);
+    SymbolsCacheWarmer warmer = new SymbolsCacheWarmer(myServer, storage, symbolsCache, myFixture.getEventDispatcher());
+
+    RunningBuildEx buildWithoutSymbols = startBuild();
+    finishBuild(buildWithoutSymbols, false);
+    myBuildType.addBuildFeature(SymbolsConstants.BUILD_FEATURE_TYPE, Collections.emptyMap());
+    RunningBuildEx build = startBuild();
+    finishBuild(build, false);
+    storage.addEntry(build.getBuildId(), "guid", "file.pdb", "file.pdb");
+
+    // When
+    warmer.warmUp(10);
+
+    // Then
+    Assert.assertEquals(warmer.getStatus(), SymbolsCacheWarmer.Status.FINISHED);
+    Assert.assertEquals(warmer.getBuildsCount(), 1);
+    Assert.assertEquals(warmer.getLoadedBuildsCount(), 1);
+    Assert.assertEquals(symbolsCache.getCachedBuildsCount(), 1);
+    Assert.assertEquals(symbolsCache.getCachedBuildsStats().loadCount(), 1);
+  }
+
+  @Test
+  public void shouldPreloadRecentBuildsWhenKeyIndexIsReady() {
+    // Given
+    MetadataStorageMock storage = new MetadataStorageMock();
+    SymbolsKeyIndex keyIndex = new SymbolsKeyIndex(myFixture.getServerPaths(), storage, myFixture.getEventDispatcher());
+    SymbolsKeyFilter keyFilter = new SymbolsKeyFilter(storage, myFixture.getEventDispatcher());
+    SymbolsCache symbolsCache = new SymbolsCache(myFixture.getEventDispatcher(), keyIndex, keyFilter);
+    SymbolsCacheWarmer warmer = new SymbolsCacheWarmer(myServer, storage, symbolsCache, myFixture.getEventDispatcher());
+
+    myBuildType.addBuildFeature(SymbolsConstants.BUILD_FEATURE_TYPE, Collections.emptyMap());
+    RunningBuildEx build = startBuild();
+    finishBuild(build, false);
+    storage.addEntry(build.getBuildId(), "guid", "file.pdb", "file.pdb");
+    keyIndex.rebuild();
+    Assert.assertTrue(keyIndex.isReady());
+
+    // When
+    warmer.warmUp(10);
+
+    // Then
+    Assert.assertEquals(warmer.getStatus(), SymbolsCacheWarmer.Status.FINISHED);
+    Assert.assertEquals(warmer.getLoadedBuildsCount(), 1);
+    Assert.assertEquals(symbolsCache.getCachedBuildsCount(), 1);
+  }
+}
@@ -0,0 +1,88 @@
+
+
+package jetbrains.buildServer.symbols;
+
+import java.util.Iterator;
+import jetbrains.buildServer.serverSide.impl.BaseServerTestCase;
+import jetbrains.buildServer.serverSide.metadata.BuildMetadataEntry;
+import org.jetbrains.annotations.NotNull;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class SymbolsKeyFilterTest extends BaseServerTestCase {
+
+  @Test
+  public void shouldRejectNotIndexedKeys() {
+    // Given
+    MetadataStorageMock storage = new MetadataStorageMock();
+    storage.addEntry(1L, "guid", "file.pdb", "file.pdb");
+    SymbolsKeyFilter filter = new SymbolsKeyFilter(storage, myFixture.getEventDispatcher());
+    Assert.assertFalse(filter.isReady());
+
+    // When
+    filter.rebuild();
+
+    // Then
+    Assert.assertTrue(filter.isReady());
+    Assert.assertTrue(filter.mightContain("guid:file.pdb"));
+    Assert.assertFalse(filter.mightContain("guid:secur32.pdb"));
+  }
+
+  @Test
+  public void shouldAcceptKeysAddedAfterRebuild() {
+    // Given
+    SymbolsKeyFilter filter = new SymbolsKeyFilter(new MetadataStorageMock(), myFixture.getEventDispatcher());
+    filter.rebuild();
+    Assert.assertFalse(filter.mightContain("guid:file.pdb"));
+
+    // When
+    filter.put("guid:file.pdb");
+
+    // Then
+    Assert.assertTrue(filter.mightContain("guid:file.pdb"));
+  }
+
+  @Test
+  public void shouldAcceptKeysWrittenByAnotherNode() {
+    // Given
+    MetadataStorageMock storage = new MetadataStorageMock();
+    storage.addEntry(1L, "guid", "file.pdb", "file.pdb");
+    SymbolsKeyFilter filter = new SymbolsKeyFilter(storage, myFixture.getEventDispatcher());
+    filter.rebuild();
+    filter.checkEntriesCount();
+    Assert.assertTrue(filter.isReady());
+
+    // When
+    storage.addEntry(2L, "guid", "other.pdb", "other.pdb");
+    filter.checkEntriesCount();
+
+    // Then
+    Assert.assertTrue(filter.isReady());
+    Assert.assertTrue(filter.mightContain("guid:other.pdb"));
+  }
+
+  @Test
+  public void shouldNotRejectKeysUntilRebuiltWhenStorageWasChanged() {
+    // Given
+    MetadataStorageMock storage = new MetadataStorageMock() {
+      private boolean myFailed;
+
+      @NotNull
+      @Override
+      public Iterator<BuildMetadataEntry> getAllEntries(@NotNull String s) {
+        if (myFailed) throw new IllegalStateException("Storage is not available");
+        myFailed = true;
+        return super.getAllEntries(s);
+      }
+    };
+    SymbolsKeyFilter filter = new SymbolsKeyFilter(storage, myFixture.getEventDispatcher());
+    filter.rebuild();
+
+    // When
+    storage.addEntry(2L, "guid", "other.pdb", "other.pdb");
+    filter.checkEntriesCount();
+
+    // Then
+    Assert.assertFalse(filter.isReady());
+  }
+}
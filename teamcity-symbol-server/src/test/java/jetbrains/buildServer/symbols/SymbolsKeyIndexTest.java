@@ -0,0 +1,141 @@
+
+
+package jetbrains.buildServer.symbols;
+
+import jetbrains.buildServer.serverSide.impl.BaseServerTestCase;
+import jetbrains.buildServer.serverSide.metadata.BuildMetadataEntry;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class SymbolsKeyIndexTest extends BaseServerTestCase {
+
+  @Test
+  public void shouldFindPutEntry() {
+    // Given
+    SymbolsKeyIndex index = createIndex(new MetadataStorageMock());
+
+    // When
+    index.put("guid:file.pdb", 123L, "path/file.pdb");
+
+    // Then
+    BuildMetadataEntry entry = index.findEntry("guid:file.pdb");
+    Assert.assertNotNull(entry);
+    Assert.assertEquals(entry.getBuildId(), 123L);
+    Assert.assertEquals(entry.getMetadata().get(BuildSymbolsIndexProvider.ARTIFACT_PATH_KEY), "path/file.pdb");
+    Assert.assertEquals(entry.getMetadata().get(BuildSymbolsIndexProvider.FILE_NAME_KEY), "file.pdb");
+    Assert.assertEquals(entry.getMetadata().get(BuildSymbolsIndexProvider.SIGNATURE_KEY), "guid");
+    Assert.assertNull(index.findEntry("guid:other.pdb"));
+  }
+
+  @Test
+  public void shouldKeepEntryOfNewerBuild() {
+    // Given
+    SymbolsKeyIndex index = createIndex(new MetadataStorageMock());
+
+    // When
+    index.put("guid:file.pdb", 2L, "new/file.pdb");
+    index.put("guid:file.pdb", 1L, "old/file.pdb");
+
+    // Then
+    BuildMetadataEntry entry = index.findEntry("guid:file.pdb");
+    Assert.assertNotNull(entry);
+    Assert.assertEquals(entry.getBuildId(), 2L);
+    Assert.assertEquals(entry.getMetadata().get(BuildSymbolsIndexProvider.ARTIFACT_PATH_KEY), "new/file.pdb");
+  }
+
+  @Test
+  public void shouldRemoveEntryOfBuild() {
+    // Given
+    SymbolsKeyIndex index = createIndex(new MetadataStorageMock());
+    index.put("guid:file.pdb", 2L, "new/file.pdb");
+
+    // When
+    index.remove("guid:file.pdb", 1L);
+    Assert.assertNotNull(index.findEntry("guid:file.pdb"));
+    index.remove("guid:file.pdb", 2L);
+
+    // Then
+    Assert.assertNull(index.findEntry("guid:file.pdb"));
+    index.put("guid:file.pdb", 1L, "old/file.pdb");
+    BuildMetadataEntry entry = index.findEntry("guid:file.pdb");
+    Assert.assertNotNull(entry);
+    Assert.assertEquals(entry.getBuildId(), 1L);
+  }
+
+  @Test
+  public void shouldRemoveKeysOfDeletedBuilds() {
+    // Given
+    SymbolsKeyIndex index = createIndex(new MetadataStorageMock());
+    index.put("guid1:file.pdb", 1L, "file.pdb");
+    index.put("guid2:file.pdb", 2L, "file.pdb");
+    index.put("guid3:file.pdb", 3L, "file.pdb");
+
+    // When
+    index.removeBuild(1L);
+    index.removeBuild(3L);
+    index.removeBuilds();
+
+    // Then
+    Assert.assertNull(index.findEntry("guid1:file.pdb"));
+    Assert.assertNotNull(index.findEntry("guid2:file.pdb"));
+    Assert.assertNull(index.findEntry("guid3:file.pdb"));
+  }
+
+  @Test
+  public void shouldRebuildFromMetadataStorage() {
+    // Given
+    MetadataStorageMock storage = new MetadataStorageMock();
+    storage.addEntry(10L, "guid", "file.pdb", "file.pdb");
+    SymbolsKeyIndex index = createIndex(storage);
+    Assert.assertFalse(index.isReady());
+
+    // When
+    index.rebuild();
+
+    // Then
+    Assert.assertTrue(index.isReady());
+    BuildMetadataEntry entry = index.findEntry("guid:file.pdb");
+    Assert.assertNotNull(entry);
+    Assert.assertEquals(entry.getBuildId(), 10L);
+  }
+
+  @Test
+  public void shouldLoadClosedIndex() {
+    // Given
+    SymbolsKeyIndex index = createIndex(new MetadataStorageMock());
+    index.rebuild();
+    index.put("guid:file.pdb", 123L, null);
+
+    // When
+    index.close();
+    SymbolsKeyIndex reopened = createIndex(new MetadataStorageMock());
+
+    // Then
+    Assert.assertTrue(reopened.isReady());
+    BuildMetadataEntry entry = reopened.findEntry("guid:file.pdb");
+    Assert.assertNotNull(entry);
+    Assert.assertNull(entry.getMetadata().get(BuildSymbolsIndexProvider.ARTIFACT_PATH_KEY));
+  }
+
+  @Test
+  public void shouldGrowTable() {
+    // Given
+    SymbolsKeyIndex index = createIndex(new MetadataStorageMock());
+
+    // When
+    for (int i = 0; i < 100000; i++) {
+      index.put("guid" + i + ":file.pdb", i, "path" + i);
+    }
+
+    // Then
+    for (int i = 0; i < 100000; i++) {
+      BuildMetadataEntry entry = index.findEntry("guid" + i + ":file.pdb");
+      Assert.assertNotNull(entry);
+      Assert.assertEquals(entry.getBuildId(), i);
+    }
+  }
+
+  private SymbolsKeyIndex createIndex(MetadataStorageMock storage) {
+    return new SymbolsKeyIndex(myFixture.getServerPaths(), storage, myFixture.getEventDispatcher());
+  }
+}
@@ -0,0 +1,70 @@
+package jetbrains.buildServer.symbols;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.List;
+
+public class SymbolsLookupControllerTest {
+
+  @Test
+  public void shouldReadSymbols() throws Exception {
+    final List<SymbolsLookupController.SymbolFile> symbols = read("secur32.pdb\t8EF4E863187C45E78F4632152CC82FEB1\n\n  \nmy lib.dll\t5F1A2B3C4000\n", 10);
+
+    Assert.assertEquals(symbols.size(), 2);
+    Assert.assertEquals(symbols.get(0).getFileName(), "secur32.pdb");
+    Assert.assertEquals(symbols.get(0).getSignature(), "8EF4E863187C45E78F4632152CC82FEB1");
+    Assert.assertEquals(symbols.get(0).getGuid(), "8ef4e863187c45e78f4632152cc82feb");
+    Assert.assertEquals(symbols.get(1).getFileName(), "my lib.dll");
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void shouldRejectLineWithoutSignature() throws Exception {
+    read("secur32.pdb\t8EF4E863187C45E78F4632152CC82FEB1\nsecur32.pdb\n", 10);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void shouldRejectFileNameWithSlash() throws Exception {
+    read("foo/secur32.pdb\t8EF4E863187C45E78F4632152CC82FEB1\n", 10);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void shouldRejectTooManySymbols() throws Exception {
+    read("a.pdb\t1\nb.pdb\t2\nc.pdb\t3\n", 2);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void shouldRejectTooLongLine() throws Exception {
+    read(String.join("", Collections.nCopies(1000, "a")) + ".pdb\t8EF4E863187C45E78F4632152CC82FEB1\n", 10);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void shouldRejectTooLargeRequest() throws Exception {
+    read(String.join("", Collections.nCopies(100000, "\n")) + "a.pdb\t1\n", 10);
+  }
+
+  @Test
+  public void shouldReadLastLineWithoutLineBreak() throws Exception {
+    final List<SymbolsLookupController.SymbolFile> symbols = read("a.pdb\t1\r\nb.pdb\t2", 10);
+
+    Assert.assertEquals(symbols.size(), 2);
+    Assert.assertEquals(symbols.get(0).getSignature(), "1");
+    Assert.assertEquals(symbols.get(1).getFileName(), "b.pdb");
+    Assert.assertEquals(symbols.get(1).getSignature(), "2");
+  }
+
+  @Test
+  public void shouldBuildDownloadPath() {
+    Assert.assertEquals(SymbolsLookupController.getDownloadPath("secur32.pdb", "8EF4E863187C45E78F4632152CC82FEB1"),
+                        "/app/symbols/secur32.pdb/8EF4E863187C45E78F4632152CC82FEB1/secur32.pdb");
+    Assert.assertEquals(SymbolsLookupController.getDownloadPath("my lib+1.dll", "5F1A2B3C4000"),
+                        "/app/symbols/my%20lib%2B1.dll/5F1A2B3C4000/my%20lib%2B1.dll");
+  }
+
+  private static List<SymbolsLookupController.SymbolFile> read(String content, int maxCount) throws Exception {
+    return SymbolsLookupController.readSymbols(new BufferedReader(new StringReader(content)), maxCount);
+  }
+}
@@ -0,0 +1,87 @@
+package jetbrains.buildServer.symbols;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import jetbrains.buildServer.serverSide.impl.BaseServerTestCase;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class SymbolsMetadataExecutorTest extends BaseServerTestCase {
+
+  @Test
+  public void shouldLoadMetadata() throws Exception {
+    // Given
+    SymbolsMetadataExecutor executor = new SymbolsMetadataExecutor(myFixture.getEventDispatcher());
+
+    // When
+    CompletableFuture<String> result = executor.submit(() -> "entry");
+
+    // Then
+    Assert.assertEquals(result.get(10, TimeUnit.SECONDS), "entry");
+  }
+
+  @Test
+  public void shouldRejectTasksWhenQueueIsFull() throws Exception {
+    // Given
+    setInternalProperty(SymbolsConstants.SYMBOLS_SERVER_CACHE_MAXREADREQUESTS, "1");
+    setInternalProperty(SymbolsConstants.SYMBOLS_SERVER_REQUESTS_QUEUE_SIZE, "1");
+    SymbolsMetadataExecutor executor = new SymbolsMetadataExecutor(myFixture.getEventDispatcher());
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    CompletableFuture<String> running = executor.submit(() -> {
+      started.countDown();
+      release.await();
+      return "running";
+    });
+    Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+    CompletableFuture<String> queued = executor.submit(() -> "queued");
+
+    // When
+    try {
+      executor.submit(() -> "rejected");
+      Assert.fail("Task should be rejected");
+    } catch (RejectedExecutionException e) {
+      // expected
+    }
+
+    // Then
+    release.countDown();
+    Assert.assertEquals(running.get(10, TimeUnit.SECONDS), "running");
+    Assert.assertEquals(queued.get(10, TimeUnit.SECONDS), "queued");
+  }
+
+  @Test
+  public void shouldFailQueuedTasksOnShutdown() throws Exception {
+    // Given
+    setInternalProperty(SymbolsConstants.SYMBOLS_SERVER_CACHE_MAXREADREQUESTS, "1");
+    SymbolsMetadataExecutor executor = new SymbolsMetadataExecutor(myFixture.getEventDispatcher());
+    CountDownLatch started = new CountDownLatch(1);
+    CompletableFuture<String> running = executor.submit(() -> {
+      started.countDown();
+      new CountDownLatch(1).await();
+      return "running";
+    });
+    Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+    CompletableFuture<String> queued = executor.submit(() -> "queued");
+
+    // When
+    executor.shutdown();
+
+    // Then
+    try {
+      queued.get(10, TimeUnit.SECONDS);
+      Assert.fail("Queued task should fail");
+    } catch (ExecutionException e) {
+      Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+    }
+    try {
+      running.get(10, TimeUnit.SECONDS);
+      Assert.fail("Running task should be interrupted");
+    } catch (ExecutionException e) {
+      Assert.assertTrue(e.getCause() instanceof InterruptedException);
+    }
+  }
+}